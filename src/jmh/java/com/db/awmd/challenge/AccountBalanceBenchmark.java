@@ -0,0 +1,76 @@
+package com.db.awmd.challenge;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.Balance;
+import com.db.awmd.challenge.domain.DecimalBalance;
+import com.db.awmd.challenge.domain.FixedScaleBalance;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput and allocation rate (reported by the gc profiler configured in build.gradle) of the
+ * BigDecimal balances against the fixed-scale balances.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AccountBalanceBenchmark {
+
+    @Param({"decimal", "fixed-scale"})
+    private String balanceMode;
+
+    private final BigDecimal amount = new BigDecimal("12.34");
+
+    private Account account;
+    private FixedScaleBalance fixedScaleBalance;
+    private long amountMinorUnits;
+
+    @Setup
+    public void setUp() {
+        BigDecimal initialBalance = new BigDecimal("1000000.00");
+        Balance balance;
+        if ("decimal".equals(balanceMode)) {
+            balance = new DecimalBalance(initialBalance);
+        } else {
+            fixedScaleBalance = new FixedScaleBalance(initialBalance, 2);
+            amountMinorUnits = fixedScaleBalance.toMinorUnits(amount);
+            balance = fixedScaleBalance;
+        }
+        account = new Account("Id-101", balance);
+    }
+
+    @Benchmark
+    public boolean withdrawAndDeposit() {
+        boolean enough = account.hasEnoughBalance(amount);
+        account.withdraw(amount);
+        account.deposit(amount);
+        return enough;
+    }
+
+    /**
+     * Path used once the amount has already been converted to minor units; it does not allocate.
+     */
+    @Benchmark
+    public boolean withdrawAndDepositMinorUnits() {
+        if (fixedScaleBalance == null) return withdrawAndDeposit();
+
+        boolean enough = fixedScaleBalance.tryWithdraw(amountMinorUnits);
+        fixedScaleBalance.deposit(amountMinorUnits);
+        return enough;
+    }
+}
@@ -0,0 +1,98 @@
+package com.db.awmd.challenge;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.service.AccountsService;
+import com.db.awmd.challenge.web.AccountsNdjsonWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Time to export all the accounts as NDJSON, as {@code GET /v1/accounts/export} does, into an output
+ * that discards the bytes. The size of an export is printed on setup, so the throughput of the export
+ * is that size over the time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AccountsExportBenchmark {
+
+    @Param({"1000000"})
+    private int accounts;
+
+    @Param({"-1", "2"})
+    private int balanceScale;
+
+    private ConfigurableApplicationContext context;
+    private AccountsService accountsService;
+    private AccountsNdjsonWriter accountsNdjsonWriter;
+
+    private final Output output = new Output();
+
+    /**
+     * Discards the bytes, counting them.
+     */
+    private static final class Output extends OutputStream {
+        private long bytes;
+
+        @Override
+        public void write(int b) {
+            bytes++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            bytes += len;
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        context = new SpringApplicationBuilder(DevChallengeApplication.class)
+                .web(false)
+                .run("--logging.level.com.db.awmd.challenge=WARN", "--accounts.balance-scale=" + balanceScale);
+        accountsService = context.getBean(AccountsService.class);
+        accountsNdjsonWriter = context.getBean(AccountsNdjsonWriter.class);
+        for (int i = 0; i < accounts; i++) {
+            accountsService.createAccount(new Account("Id-" + i, BigDecimal.valueOf(i, 2)));
+        }
+        try {
+            export();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        System.out.printf("%nExport size: %d bytes%n", output.bytes);
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public long export() throws IOException {
+        try (Stream<Account> all = accountsService.streamAccounts()) {
+            return accountsNdjsonWriter.write(all, output);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.db.awmd.challenge;
+
+import com.db.awmd.challenge.service.AccountsLockTable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Contention of the account lock table for different numbers of stripes. Every operation locks the
+ * stripes of two random accounts, as a transfer does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+public class AccountsLockTableBenchmark {
+
+    @Param({"1", "16", "256", "4096"})
+    private int stripes;
+
+    @Param({"10000"})
+    private int accounts;
+
+    private AccountsLockTable accountsLockTable;
+    private String[] accountIds;
+
+    @Setup
+    public void setUp() {
+        accountsLockTable = new AccountsLockTable(stripes);
+        accountIds = new String[accounts];
+        for (int i = 0; i < accounts; i++) {
+            accountIds[i] = "Id-" + i;
+        }
+    }
+
+    @Benchmark
+    public void lockPair(Blackhole blackhole) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int stripe1 = accountsLockTable.stripeOf(accountIds[random.nextInt(accounts)]);
+        int stripe2 = accountsLockTable.stripeOf(accountIds[random.nextInt(accounts)]);
+
+        accountsLockTable.lockPair(stripe1, stripe2);
+        try {
+            Blackhole.consumeCPU(50);
+        } finally {
+            accountsLockTable.unlockPair(stripe1, stripe2);
+        }
+        blackhole.consume(stripe1);
+    }
+}
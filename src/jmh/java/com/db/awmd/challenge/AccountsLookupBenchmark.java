@@ -0,0 +1,61 @@
+package com.db.awmd.challenge;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.repository.AccountsRepositoryInMemory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of {@link AccountsRepositoryInMemory#getAccount(String)} for existing and missing ids, as the
+ * map grows beyond the CPU caches.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx2g"})
+public class AccountsLookupBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    private int accounts;
+
+    private AccountsRepositoryInMemory repository;
+    private String[] existingIds;
+    private String[] missingIds;
+
+    @Setup
+    public void setUp() {
+        repository = new AccountsRepositoryInMemory();
+        existingIds = new String[accounts];
+        missingIds = new String[accounts];
+        for (int i = 0; i < accounts; i++) {
+            existingIds[i] = "Id-" + i;
+            missingIds[i] = "Missing-" + i;
+            repository.createAccount(new Account(existingIds[i], BigDecimal.TEN));
+        }
+    }
+
+    @Benchmark
+    public Account existingAccount() {
+        return repository.getAccount(existingIds[ThreadLocalRandom.current().nextInt(accounts)]);
+    }
+
+    @Benchmark
+    public Account missingAccount() {
+        return repository.getAccount(missingIds[ThreadLocalRandom.current().nextInt(accounts)]);
+    }
+}
@@ -0,0 +1,107 @@
+package com.db.awmd.challenge;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.repository.AccountsRepository;
+import com.db.awmd.challenge.repository.AccountsRepositoryInMemory;
+import com.db.awmd.challenge.repository.IndexedAccountsRepository;
+import com.db.awmd.challenge.repository.MappedAccountsRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Heap footprint and latency of {@link AccountsRepositoryInMemory} against {@link IndexedAccountsRepository}
+ * and {@link MappedAccountsRepository}. The heap retained by the populated store is printed by the setup
+ * of each fork; lookups and updates of random accounts are measured. Larger stores need a larger heap,
+ * e.g. {@code -p accounts=10000000 -jvmArgsAppend -Xmx4g}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+@Threads(4)
+public class AccountsRepositoryBenchmark {
+
+    @Param({"inMemory", "indexed", "mapped"})
+    private String store;
+
+    @Param({"1000000"})
+    private int accounts;
+
+    private final BigDecimal amount = new BigDecimal("0.01");
+
+    private String[] ids;
+    private Path directory;
+    private AccountsRepository repository;
+
+    @Setup
+    public void setUp() throws Exception {
+        ids = new String[accounts];
+        for (int i = 0; i < accounts; i++) {
+            ids[i] = "Id-" + i;
+        }
+
+        long heapBefore = usedHeap();
+        if ("mapped".equals(store)) {
+            directory = Files.createTempDirectory("mapped-benchmark");
+            repository = new MappedAccountsRepository(directory.resolve("accounts.dat").toString(),
+                    accounts + accounts / 2, 2, false);
+        } else if ("indexed".equals(store)) {
+            repository = new IndexedAccountsRepository(accounts, 2);
+        } else {
+            repository = new AccountsRepositoryInMemory();
+        }
+        for (int i = 0; i < accounts; i++) {
+            repository.createAccount(new Account("Id-" + i, BigDecimal.valueOf(1_000_000, 2)));
+        }
+        System.out.printf("%n%s store retains %d MB of heap for %d accounts%n", store,
+                (usedHeap() - heapBefore) >> 20, accounts);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        if (repository instanceof MappedAccountsRepository) {
+            ((MappedAccountsRepository) repository).close();
+            Files.walk(directory).sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public Account getAccount() {
+        return repository.getAccount(ids[ThreadLocalRandom.current().nextInt(accounts)]);
+    }
+
+    @Benchmark
+    public void withdrawAndDeposit() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        repository.getAccount(ids[random.nextInt(accounts)]).withdraw(amount);
+        repository.getAccount(ids[random.nextInt(accounts)]).deposit(amount);
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
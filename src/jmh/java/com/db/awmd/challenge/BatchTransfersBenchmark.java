@@ -0,0 +1,95 @@
+package com.db.awmd.challenge;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.Transfer;
+import com.db.awmd.challenge.domain.TransferResult;
+import com.db.awmd.challenge.repository.AccountsRepository;
+import com.db.awmd.challenge.service.TransfersService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost per transfer of a batch against the same transfers made one by one. Both results are normalized
+ * to a single transfer.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class BatchTransfersBenchmark {
+
+    private static final int BATCH_SIZE = 1000;
+    private static final int ACCOUNTS = 10_000;
+
+    private ConfigurableApplicationContext context;
+    private TransfersService transfersService;
+    private List<Transfer> batch;
+
+    @Setup
+    public void setUp() {
+        context = new SpringApplicationBuilder(DevChallengeApplication.class)
+                .web(false)
+                .run("--logging.level.com.db.awmd.challenge=WARN");
+        transfersService = context.getBean(TransfersService.class);
+
+        AccountsRepository accountsRepository = context.getBean(AccountsRepository.class);
+        for (int i = 0; i < ACCOUNTS; i++) {
+            accountsRepository.createAccount(new Account("Id-" + i, BigDecimal.valueOf(1_000_000_000)));
+        }
+
+        Random random = new Random(42);
+        batch = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            int from = random.nextInt(ACCOUNTS);
+            int to = (from + 1 + random.nextInt(ACCOUNTS - 1)) % ACCOUNTS;
+            batch.add(new Transfer("Id-" + from, "Id-" + to, BigDecimal.ONE));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void singleTransfers() {
+        for (Transfer transfer : batch) {
+            transfersService.makeTransfer(transfer);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public List<TransferResult> batch() {
+        return transfersService.makeTransfers(batch, false);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public List<TransferResult> atomicBatch() {
+        return transfersService.makeTransfers(batch, true);
+    }
+}
@@ -0,0 +1,69 @@
+package com.db.awmd.challenge;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Distribution of the accounts involved in the transfers of a benchmark:
+ * <ul>
+ * <li>{@code uniform}: any account with the same probability.</li>
+ * <li>{@code hot}: one side of 90% of the transfers is account 0, as a treasury or fee account.</li>
+ * <li>{@code zipfian}: the k-th most used account is chosen with a probability proportional to 1/k.</li>
+ * </ul>
+ */
+final class ContentionProfile {
+
+    private static final double HOT_RATIO = 0.9;
+
+    private final String name;
+    private final int accounts;
+    private final double[] cumulative;
+
+    ContentionProfile(String name, int accounts) {
+        this.name = name;
+        this.accounts = accounts;
+        if ("zipfian".equals(name)) {
+            cumulative = new double[accounts];
+            double sum = 0;
+            for (int k = 0; k < accounts; k++) {
+                sum += 1.0 / (k + 1);
+                cumulative[k] = sum;
+            }
+            for (int k = 0; k < accounts; k++) {
+                cumulative[k] /= sum;
+            }
+        } else if ("uniform".equals(name) || "hot".equals(name)) {
+            cumulative = null;
+        } else {
+            throw new IllegalArgumentException("Unknown contention profile " + name);
+        }
+    }
+
+    /**
+     * Fills the origin and the target accounts of the next transfer, which are always different.
+     */
+    void next(int[] pair) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int from = sample(random);
+        int to = sample(random);
+        while (to == from) {
+            to = random.nextInt(accounts);
+        }
+        if ("hot".equals(name) && random.nextDouble() < HOT_RATIO) {
+            if (random.nextBoolean()) {
+                from = 0;
+            } else {
+                to = 0;
+            }
+            if (from == to) to = 1 + random.nextInt(accounts - 1);
+        }
+        pair[0] = from;
+        pair[1] = to;
+    }
+
+    private int sample(ThreadLocalRandom random) {
+        if (cumulative == null) return random.nextInt(accounts);
+        int index = Arrays.binarySearch(cumulative, random.nextDouble());
+        return Math.min(index >= 0 ? index : -index - 1, accounts - 1);
+    }
+}
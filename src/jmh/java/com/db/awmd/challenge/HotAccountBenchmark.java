@@ -0,0 +1,103 @@
+package com.db.awmd.challenge;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.FixedScaleBalance;
+import com.db.awmd.challenge.domain.SplitBalance;
+import com.db.awmd.challenge.domain.Transfer;
+import com.db.awmd.challenge.exception.InsufficientBalanceException;
+import com.db.awmd.challenge.repository.AccountsRepositoryInMemory;
+import com.db.awmd.challenge.repository.AccountsSnapshotStore;
+import com.db.awmd.challenge.repository.TransfersJournal;
+import com.db.awmd.challenge.service.AccountsLockTable;
+import com.db.awmd.challenge.service.AccountsSnapshotter;
+import com.db.awmd.challenge.service.TransfersEngine;
+import com.db.awmd.challenge.service.TransfersMetrics;
+import com.db.awmd.challenge.service.TransfersValidations;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of {@link TransfersEngine} when one account is on one side of every transfer, with its
+ * balance kept whole or split in sub-balances. Most transfers credit the hot account (e.g. fees), the
+ * rest are paid out of it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+public class HotAccountBenchmark {
+
+    @Param({"whole", "split"})
+    private String hotBalance;
+
+    @Param({"90"})
+    private int depositPercentage;
+
+    @Param({"10000"})
+    private int accounts;
+
+    private final BigDecimal amount = new BigDecimal("0.01");
+
+    private TransfersEngine transfersEngine;
+    private Account hotAccount;
+    private Account[] otherAccounts;
+    private Transfer[] deposits;
+    private Transfer[] payments;
+
+    @Setup
+    public void setUp() {
+        AccountsRepositoryInMemory accountsRepository = new AccountsRepositoryInMemory();
+        AccountsLockTable accountsLockTable = new AccountsLockTable(1024);
+        TransfersJournal journal = new TransfersJournal(false, "journal", "never", 1024, 0);
+        AccountsSnapshotter accountsSnapshotter = new AccountsSnapshotter(accountsRepository, accountsLockTable,
+                journal, new AccountsSnapshotStore(false, "journal"), 0, "synchronous", "standalone");
+        transfersEngine = new TransfersEngine(new TransfersValidations(), journal, accountsLockTable, accountsSnapshotter,
+                new TransfersMetrics(new CompositeMeterRegistry(), accountsRepository), 256);
+
+        BigDecimal initialBalance = BigDecimal.valueOf(1_000_000_000);
+        hotAccount = new Account("Hot", "split".equals(hotBalance)
+                ? new SplitBalance(initialBalance, 2, Runtime.getRuntime().availableProcessors() * 2)
+                : new FixedScaleBalance(initialBalance, 2));
+        otherAccounts = new Account[accounts];
+        deposits = new Transfer[accounts];
+        payments = new Transfer[accounts];
+        for (int i = 0; i < accounts; i++) {
+            otherAccounts[i] = new Account("Id-" + i, new FixedScaleBalance(initialBalance, 2));
+            deposits[i] = new Transfer(otherAccounts[i].getAccountId(), hotAccount.getAccountId(), amount);
+            payments[i] = new Transfer(hotAccount.getAccountId(), otherAccounts[i].getAccountId(), amount);
+        }
+    }
+
+    @Benchmark
+    public CompletableFuture<Void> transfer() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int other = random.nextInt(accounts);
+        try {
+            if (random.nextInt(100) < depositPercentage) {
+                return transfersEngine.execute(otherAccounts[other], hotAccount, deposits[other]);
+            }
+            return transfersEngine.execute(hotAccount, otherAccounts[other], payments[other]);
+        } catch (InsufficientBalanceException ibe) {
+            return null;
+        }
+    }
+}
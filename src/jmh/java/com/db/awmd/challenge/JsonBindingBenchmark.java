@@ -0,0 +1,68 @@
+package com.db.awmd.challenge;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.Transfer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Jackson binding of the request and response bodies, with an {@link ObjectMapper} configured as the
+ * one of the HTTP message converters.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonBindingBenchmark {
+
+    private ObjectMapper objectMapper;
+    private Transfer transfer;
+    private Account account;
+    private byte[] transferJson;
+    private byte[] accountJson;
+
+    @Setup
+    public void setUp() throws IOException {
+        objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        transfer = new Transfer("Id-101", "Id-102", new BigDecimal("123.45"));
+        account = new Account("Id-101", new BigDecimal("1000000.50"));
+        transferJson = objectMapper.writeValueAsBytes(transfer);
+        accountJson = objectMapper.writeValueAsBytes(account);
+    }
+
+    @Benchmark
+    public Transfer readTransfer() throws IOException {
+        return objectMapper.readValue(transferJson, Transfer.class);
+    }
+
+    @Benchmark
+    public byte[] writeTransfer() throws IOException {
+        return objectMapper.writeValueAsBytes(transfer);
+    }
+
+    @Benchmark
+    public Account readAccount() throws IOException {
+        return objectMapper.readValue(accountJson, Account.class);
+    }
+
+    @Benchmark
+    public byte[] writeAccount() throws IOException {
+        return objectMapper.writeValueAsBytes(account);
+    }
+}
@@ -0,0 +1,81 @@
+package com.db.awmd.challenge;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.Transfer;
+import com.db.awmd.challenge.repository.AccountsRepository;
+import com.db.awmd.challenge.service.TransfersService;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.math.BigDecimal;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the metrics on the transfers: the same transfers with the Prometheus registry, and with no
+ * registry at all, where every meter is a no-op.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class MetricsOverheadBenchmark {
+
+    private static final int ACCOUNTS = 10_000;
+
+    @Param({"prometheus", "none"})
+    private String registry;
+
+    private ConfigurableApplicationContext context;
+    private TransfersService transfersService;
+    private String[] accountIds;
+
+    @Setup
+    public void setUp() {
+        String enabled = Boolean.toString("prometheus".equals(registry));
+        context = new SpringApplicationBuilder(DevChallengeApplication.class)
+                .web(false)
+                .run("--logging.level.com.db.awmd.challenge=WARN", "--notifications.overflow-policy=drop",
+                        "--management.metrics.export.prometheus.enabled=" + enabled,
+                        "--management.metrics.export.simple.enabled=false");
+        System.out.printf("%nMeter registry: %s%n", context.getBean(MeterRegistry.class));
+        transfersService = context.getBean(TransfersService.class);
+
+        AccountsRepository accountsRepository = context.getBean(AccountsRepository.class);
+        accountIds = new String[ACCOUNTS];
+        for (int i = 0; i < ACCOUNTS; i++) {
+            accountIds[i] = "Id-" + i;
+            accountsRepository.createAccount(new Account(accountIds[i], BigDecimal.valueOf(1_000_000_000)));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public void makeTransfer() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int from = random.nextInt(ACCOUNTS);
+        int to = (from + 1 + random.nextInt(ACCOUNTS - 1)) % ACCOUNTS;
+        transfersService.makeTransfer(new Transfer(accountIds[from], accountIds[to], BigDecimal.ONE));
+    }
+}
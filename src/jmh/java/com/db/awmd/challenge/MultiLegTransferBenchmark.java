@@ -0,0 +1,92 @@
+package com.db.awmd.challenge;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.MultiLegTransfer;
+import com.db.awmd.challenge.domain.Transfer;
+import com.db.awmd.challenge.domain.TransferLeg;
+import com.db.awmd.challenge.repository.AccountsRepository;
+import com.db.awmd.challenge.service.TransfersService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A settlement of a payer to a payee, a fee and a tax account, as one multi-leg transfer against the
+ * three transfers made one by one.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class MultiLegTransferBenchmark {
+
+    private static final String PAYER = "Id-payer";
+    private static final String PAYEE = "Id-payee";
+    private static final String FEE = "Id-fee";
+    private static final String TAX = "Id-tax";
+
+    private ConfigurableApplicationContext context;
+    private TransfersService transfersService;
+    private MultiLegTransfer settlement;
+    private List<Transfer> transfers;
+
+    @Setup
+    public void setUp() {
+        context = new SpringApplicationBuilder(DevChallengeApplication.class)
+                .web(false)
+                .run("--logging.level.com.db.awmd.challenge=WARN");
+        transfersService = context.getBean(TransfersService.class);
+
+        AccountsRepository accountsRepository = context.getBean(AccountsRepository.class);
+        accountsRepository.createAccount(new Account(PAYER, BigDecimal.valueOf(1_000_000_000_000L)));
+        accountsRepository.createAccount(new Account(PAYEE));
+        accountsRepository.createAccount(new Account(FEE));
+        accountsRepository.createAccount(new Account(TAX));
+
+        settlement = new MultiLegTransfer(Arrays.asList(
+                new TransferLeg(PAYER, TransferLeg.Side.DEBIT, BigDecimal.valueOf(100)),
+                new TransferLeg(PAYEE, TransferLeg.Side.CREDIT, BigDecimal.valueOf(97)),
+                new TransferLeg(FEE, TransferLeg.Side.CREDIT, BigDecimal.valueOf(2)),
+                new TransferLeg(TAX, TransferLeg.Side.CREDIT, BigDecimal.ONE)));
+        transfers = Arrays.asList(
+                new Transfer(PAYER, PAYEE, BigDecimal.valueOf(97)),
+                new Transfer(PAYER, FEE, BigDecimal.valueOf(2)),
+                new Transfer(PAYER, TAX, BigDecimal.ONE));
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public void multiLegTransfer() {
+        transfersService.makeMultiLegTransfer(settlement);
+    }
+
+    @Benchmark
+    public void singleTransfers() {
+        for (Transfer transfer : transfers) {
+            transfersService.makeTransfer(transfer);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.db.awmd.challenge;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.Transfer;
+import com.db.awmd.challenge.repository.AccountsRepository;
+import com.db.awmd.challenge.repository.AccountsRepositoryInMemory;
+import com.db.awmd.challenge.repository.AccountsSnapshotStore;
+import com.db.awmd.challenge.repository.TransfersJournal;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Startup time of the accounts store: loading a snapshot of every balance against replaying the whole
+ * journal of the same accounts, with a few transfers per account.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx12g", "-Xms12g"})
+public class RecoveryBenchmark {
+
+    @Param({"1000000", "10000000"})
+    private int accounts;
+
+    @Param({"2"})
+    private int transfersPerAccount;
+
+    private Path snapshotDirectory;
+    private Path journalDirectory;
+
+    @Setup
+    public void setUp() throws Exception {
+        snapshotDirectory = Files.createTempDirectory("snapshot-benchmark");
+        try (AccountsSnapshotStore.Writer writer = new AccountsSnapshotStore(true, snapshotDirectory.toString()).begin(1)) {
+            for (int i = 0; i < accounts; i++) {
+                writer.add("Id-" + i, BigDecimal.valueOf(100_000 + i, 2));
+            }
+            writer.commit();
+        }
+
+        journalDirectory = Files.createTempDirectory("journal-benchmark");
+        TransfersJournal journal = new TransfersJournal(true, journalDirectory.toString(), "never", 1024, 0);
+        journal.replay(null);
+        CompletableFuture<Void> last = null;
+        for (int i = 0; i < accounts; i++) {
+            last = journal.appendAccountCreated(new Account("Id-" + i, BigDecimal.valueOf(100_000, 2)));
+        }
+        for (int t = 0; t < transfersPerAccount; t++) {
+            for (int i = 0; i < accounts; i++) {
+                last = journal.appendTransfer(new Transfer("Id-" + i, "Id-" + ((i + 1) % accounts), BigDecimal.ONE), 0);
+            }
+        }
+        last.join();
+        journal.shutdown();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        for (Path directory : new Path[]{snapshotDirectory, journalDirectory}) {
+            Files.walk(directory).sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public AccountsRepository loadSnapshot() {
+        AccountsRepository repository = new AccountsRepositoryInMemory();
+        new AccountsSnapshotStore(true, snapshotDirectory.toString())
+                .loadLatest((accountId, balance) -> repository.createAccount(new Account(accountId, balance)));
+        return repository;
+    }
+
+    @Benchmark
+    public AccountsRepository replayJournal() throws Exception {
+        AccountsRepository repository = new AccountsRepositoryInMemory();
+        TransfersJournal journal = new TransfersJournal(true, journalDirectory.toString(), "never", 1024, 0);
+        journal.replay(new TransfersJournal.Listener() {
+            @Override
+            public void onAccountCreated(String accountId, BigDecimal balance) {
+                repository.createAccount(new Account(accountId, balance));
+            }
+
+            @Override
+            public void onTransfer(String accountFromId, String accountToId, BigDecimal amount) {
+                repository.getAccount(accountFromId).withdraw(amount);
+                repository.getAccount(accountToId).deposit(amount);
+            }
+        });
+        journal.shutdown();
+        return repository;
+    }
+}
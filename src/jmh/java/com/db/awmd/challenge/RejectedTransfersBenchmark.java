@@ -0,0 +1,103 @@
+package com.db.awmd.challenge;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.Transfer;
+import com.db.awmd.challenge.domain.TransferResult;
+import com.db.awmd.challenge.service.AccountsService;
+import com.db.awmd.challenge.service.TransfersService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.math.BigDecimal;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reject-heavy traffic: 9 out of 10 transfers are rejected, most of them because the origin account is
+ * empty, the rest because of an unknown account, a negative amount or too many decimals. Compares the
+ * transfers reporting the rejections with exceptions, {@link TransfersService#makeTransfer(Transfer)},
+ * with the ones reporting them with result codes, {@link TransfersService#makeTransferAsync(Transfer)}.
+ * Run with {@code -prof gc} to compare the allocations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class RejectedTransfersBenchmark {
+
+    private static final int ACCOUNTS = 10_000;
+    private static final BigDecimal TOO_MANY_DECIMALS = new BigDecimal("0.001");
+
+    private ConfigurableApplicationContext context;
+    private TransfersService transfersService;
+    private String[] accountIds;
+
+    @Setup
+    public void setUp() {
+        context = new SpringApplicationBuilder(DevChallengeApplication.class)
+                .web(false)
+                .run("--logging.level.com.db.awmd.challenge=WARN", "--notifications.overflow-policy=drop",
+                        "--accounts.balance-scale=2");
+        transfersService = context.getBean(TransfersService.class);
+
+        // One account in ten has funds
+        AccountsService accountsService = context.getBean(AccountsService.class);
+        accountIds = new String[ACCOUNTS];
+        for (int i = 0; i < ACCOUNTS; i++) {
+            accountIds[i] = "Id-" + i;
+            accountsService.createAccount(new Account(accountIds[i],
+                    i % 10 == 0 ? BigDecimal.valueOf(1_000_000_000) : BigDecimal.ZERO));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public boolean exceptions() {
+        try {
+            transfersService.makeTransfer(nextTransfer());
+            return true;
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+
+    @Benchmark
+    public TransferResult resultCodes() {
+        return transfersService.makeTransferAsync(nextTransfer()).join();
+    }
+
+    private Transfer nextTransfer() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int from = random.nextInt(ACCOUNTS);
+        int to = (from + 1 + random.nextInt(ACCOUNTS - 1)) % ACCOUNTS;
+        switch (random.nextInt(20)) {
+            case 0:
+                return new Transfer("Unknown-" + from, accountIds[to], BigDecimal.ONE);
+            case 1:
+                return new Transfer(accountIds[from], accountIds[to], BigDecimal.ONE.negate());
+            case 2:
+                return new Transfer(accountIds[from], accountIds[to], TOO_MANY_DECIMALS);
+            default:
+                return new Transfer(accountIds[from], accountIds[to], BigDecimal.ONE);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.db.awmd.challenge;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.Transfer;
+import com.db.awmd.challenge.service.ShardedTransfersPipeline;
+import com.db.awmd.challenge.service.TransfersValidations;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the sharded mode on uniform random transfers for different numbers of shards. The
+ * benchmark threads wait for every transfer, as the request threads do.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(16)
+public class ShardedTransfersPipelineBenchmark {
+
+    @Param({"1", "2", "4", "8"})
+    private int shards;
+
+    @Param({"100000"})
+    private int accounts;
+
+    private ShardedTransfersPipeline pipeline;
+    private Account[] accountsArray;
+
+    @Setup
+    public void setUp() {
+        pipeline = new ShardedTransfersPipeline(new TransfersValidations(), shards, 65536);
+        accountsArray = new Account[accounts];
+        for (int i = 0; i < accounts; i++) {
+            accountsArray[i] = new Account("Id-" + i, BigDecimal.valueOf(1_000_000));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        pipeline.shutdown();
+    }
+
+    @Benchmark
+    public Void uniformTransfer() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int from = random.nextInt(accounts);
+        int to = (from + 1 + random.nextInt(accounts - 1)) % accounts;
+        Account accountFrom = accountsArray[from];
+        Account accountTo = accountsArray[to];
+        return pipeline.submit(accountFrom, accountTo,
+                new Transfer(accountFrom.getAccountId(), accountTo.getAccountId(), BigDecimal.ONE)).join();
+    }
+}
@@ -0,0 +1,73 @@
+package com.db.awmd.challenge;
+
+import com.db.awmd.challenge.domain.AccountHistoryPage;
+import com.db.awmd.challenge.repository.TransfersHistory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of appending a transfer to the histories of its accounts, i.e. the work of the writer thread as
+ * the histories are not started here, and of reading a page of 100 entries at a random cursor of an
+ * account with millions of transfers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class TransfersHistoryBenchmark {
+
+    private static final int ACCOUNTS = 10_000;
+    private static final int BIG_ACCOUNT_TRANSFERS = 4_000_000;
+
+    private TransfersHistory history;
+    private TransfersHistory bigHistory;
+    private String[] accountIds;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        accountIds = new String[ACCOUNTS];
+        for (int i = 0; i < ACCOUNTS; i++) {
+            accountIds[i] = "Id-" + i;
+        }
+        bigHistory = new TransfersHistory(true, BIG_ACCOUNT_TRANSFERS, 1, null);
+        for (int i = 0; i < BIG_ACCOUNT_TRANSFERS; i++) {
+            bigHistory.recordTransfer("Big", accountIds[i % ACCOUNTS], BigDecimal.ONE);
+        }
+    }
+
+    /**
+     * Started again on every iteration, so the memory retained does not grow with the run.
+     */
+    @Setup(Level.Iteration)
+    public void resetHistory() {
+        history = new TransfersHistory(true);
+    }
+
+    @Benchmark
+    public void recordTransfer() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int from = random.nextInt(ACCOUNTS);
+        int to = (from + 1 + random.nextInt(ACCOUNTS - 1)) % ACCOUNTS;
+        history.recordTransfer(accountIds[from], accountIds[to], BigDecimal.ONE);
+    }
+
+    @Benchmark
+    public AccountHistoryPage readPage() {
+        return bigHistory.getTransfers("Big", ThreadLocalRandom.current().nextInt(BIG_ACCOUNT_TRANSFERS - 100), 100);
+    }
+}
@@ -0,0 +1,67 @@
+package com.db.awmd.challenge;
+
+import com.db.awmd.challenge.domain.Transfer;
+import com.db.awmd.challenge.repository.TransfersJournal;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of durable appends for each fsync policy, with many threads waiting for their own record
+ * as the request threads do.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(32)
+public class TransfersJournalBenchmark {
+
+    @Param({"always", "group", "never"})
+    private String fsync;
+
+    @Param({"2000"})
+    private long maxDelayMicros;
+
+    private final Transfer transfer = new Transfer("Id-101", "Id-102", new BigDecimal("12.34"));
+
+    private Path directory;
+    private TransfersJournal journal;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("journal-benchmark");
+        journal = new TransfersJournal(true, directory.toString(), fsync, 1024, maxDelayMicros);
+        journal.replay(null);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        journal.shutdown();
+        Files.walk(directory).sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+    }
+
+    @Benchmark
+    public Void durableAppend() {
+        return journal.appendTransfer(transfer, 0).join();
+    }
+}
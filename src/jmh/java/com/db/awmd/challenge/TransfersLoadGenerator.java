@@ -0,0 +1,174 @@
+package com.db.awmd.challenge;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.service.AccountsService;
+import org.HdrHistogram.Histogram;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.context.embedded.EmbeddedWebApplicationContext;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Closed-loop load generator of {@code POST /v1/transfers} over many keep-alive connections, driven by
+ * a single selector thread, so the number of connections is not bounded by client threads.
+ * <p>
+ * Starts the application on a random port with the given arguments, e.g.
+ * {@code --connections=1000 --seconds=20 --server.tomcat.max-threads=16 --journal.enabled=true}, and
+ * prints the throughput and latency percentiles of the transfers.
+ */
+public class TransfersLoadGenerator {
+
+    private static final int ACCOUNTS = 1000;
+    private static final int WARMUP_SECONDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        int connections = intArgument(args, "connections", 100);
+        int seconds = intArgument(args, "seconds", 20);
+
+        List<String> applicationArgs = new ArrayList<>(Arrays.asList(args));
+        applicationArgs.addAll(Arrays.asList("--server.port=0", "--logging.level.com.db.awmd.challenge=WARN",
+                "--notifications.overflow-policy=drop"));
+        EmbeddedWebApplicationContext context = (EmbeddedWebApplicationContext) new SpringApplicationBuilder(
+                DevChallengeApplication.class).run(applicationArgs.toArray(new String[0]));
+        try {
+            AccountsService accountsService = context.getBean(AccountsService.class);
+            for (int i = 0; i < ACCOUNTS; i++) {
+                accountsService.createAccount(new Account("Load-" + i, BigDecimal.valueOf(1_000_000_000)));
+            }
+            int port = context.getEmbeddedServletContainer().getPort();
+
+            run(port, connections, WARMUP_SECONDS);
+            Histogram latencies = run(port, connections, seconds);
+            System.out.printf("%d connections: %.0f transfers/s, latency p50 %.2f ms, p99 %.2f ms, p99.9 %.2f ms%n",
+                    connections, latencies.getTotalCount() / (double) seconds,
+                    latencies.getValueAtPercentile(50) / 1e6, latencies.getValueAtPercentile(99) / 1e6,
+                    latencies.getValueAtPercentile(99.9) / 1e6);
+        } finally {
+            context.close();
+        }
+    }
+
+    private static Histogram run(int port, int connections, int seconds) throws IOException {
+        Histogram latencies = new Histogram(TimeUnit.SECONDS.toNanos(60), 3);
+        try (Selector selector = Selector.open()) {
+            for (int i = 0; i < connections; i++) {
+                new Connection(selector, new InetSocketAddress("localhost", port)).send();
+            }
+
+            long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+            while (System.nanoTime() < end) {
+                selector.select(100);
+                for (SelectionKey key : selector.selectedKeys()) {
+                    Connection connection = (Connection) key.attachment();
+                    if (connection.receive()) {
+                        latencies.recordValue(Math.min(System.nanoTime() - connection.sentAt, latencies.getHighestTrackableValue()));
+                        connection.send();
+                    }
+                }
+                selector.selectedKeys().clear();
+            }
+            for (SelectionKey key : selector.keys()) {
+                key.channel().close();
+            }
+        }
+        return latencies;
+    }
+
+    private static int intArgument(String[] args, String name, int defaultValue) {
+        for (String arg : args) {
+            if (arg.startsWith("--" + name + "=")) return Integer.parseInt(arg.substring(name.length() + 3));
+        }
+        return defaultValue;
+    }
+
+    /**
+     * Reconnects when the server closes the connection, e.g. after the maximum number of keep-alive
+     * requests of Tomcat.
+     */
+    private static final class Connection {
+        private final Selector selector;
+        private final InetSocketAddress address;
+        private final ByteBuffer input = ByteBuffer.allocate(8192);
+        private SocketChannel channel;
+        private long sentAt;
+
+        Connection(Selector selector, InetSocketAddress address) throws IOException {
+            this.selector = selector;
+            this.address = address;
+            connect();
+        }
+
+        private void connect() throws IOException {
+            channel = SocketChannel.open(address);
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            channel.register(selector, SelectionKey.OP_READ, this);
+            input.clear();
+        }
+
+        void send() throws IOException {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            int from = random.nextInt(ACCOUNTS);
+            int to = (from + 1 + random.nextInt(ACCOUNTS - 1)) % ACCOUNTS;
+            byte[] body = ("{\"accountFromId\":\"Load-" + from + "\",\"accountToId\":\"Load-" + to
+                    + "\",\"amount\":0.01}").getBytes(StandardCharsets.UTF_8);
+            ByteBuffer request = ByteBuffer.wrap(("POST /v1/transfers HTTP/1.1\r\nHost: localhost\r\n"
+                    + "Content-Type: application/json\r\nContent-Length: " + body.length + "\r\n\r\n"
+                    + new String(body, StandardCharsets.UTF_8)).getBytes(StandardCharsets.UTF_8));
+            sentAt = System.nanoTime();
+            while (request.hasRemaining()) {
+                channel.write(request);
+            }
+        }
+
+        /**
+         * @return whether a whole response was read
+         */
+        boolean receive() throws IOException {
+            if (channel.read(input) < 0) throw new IOException("Connection closed by the server");
+            String received = new String(input.array(), 0, input.position(), StandardCharsets.US_ASCII);
+            int headersEnd = received.indexOf("\r\n\r\n");
+            if (headersEnd < 0) return false;
+
+            String headers = received.substring(0, headersEnd).toLowerCase();
+            int length;
+            if (headers.contains("transfer-encoding: chunked")) {
+                // The last chunk is empty, and may directly follow the headers
+                int last = received.indexOf("\r\n0\r\n\r\n", headersEnd + 2);
+                if (last < 0) return false;
+                length = last + 7;
+            } else {
+                length = headersEnd + 4 + contentLength(headers);
+                if (input.position() < length) return false;
+            }
+            input.flip();
+            input.position(length);
+            input.compact();
+            if (headers.contains("connection: close")) {
+                channel.close();
+                connect();
+            }
+            return true;
+        }
+
+        private static int contentLength(String headers) {
+            int start = headers.indexOf("content-length:");
+            if (start < 0) return 0;
+            int end = headers.indexOf("\r\n", start);
+            return Integer.parseInt(headers.substring(start + 15, end < 0 ? headers.length() : end).trim());
+        }
+    }
+}
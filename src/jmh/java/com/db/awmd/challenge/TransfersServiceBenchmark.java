@@ -0,0 +1,82 @@
+package com.db.awmd.challenge;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.Transfer;
+import com.db.awmd.challenge.repository.AccountsRepository;
+import com.db.awmd.challenge.service.TransfersService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of {@link TransfersService#makeTransfer(Transfer)} in the default configuration for each
+ * {@link ContentionProfile}. Notifications that do not fit in the queue are dropped, so the delivery of
+ * the notifications does not limit the transfers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+public class TransfersServiceBenchmark {
+
+    @Param({"uniform", "hot", "zipfian"})
+    private String profile;
+
+    @Param({"10000"})
+    private int accounts;
+
+    private ConfigurableApplicationContext context;
+    private TransfersService transfersService;
+    private ContentionProfile contentionProfile;
+    private String[] accountIds;
+
+    @State(Scope.Thread)
+    public static class Pair {
+        private final int[] accounts = new int[2];
+    }
+
+    @Setup
+    public void setUp() {
+        context = new SpringApplicationBuilder(DevChallengeApplication.class)
+                .web(false)
+                .run("--logging.level.com.db.awmd.challenge=WARN", "--notifications.overflow-policy=drop");
+        transfersService = context.getBean(TransfersService.class);
+        contentionProfile = new ContentionProfile(profile, accounts);
+
+        AccountsRepository accountsRepository = context.getBean(AccountsRepository.class);
+        accountIds = new String[accounts];
+        for (int i = 0; i < accounts; i++) {
+            accountIds[i] = "Id-" + i;
+            accountsRepository.createAccount(new Account(accountIds[i], BigDecimal.valueOf(1_000_000_000)));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public void makeTransfer(Pair pair) {
+        contentionProfile.next(pair.accounts);
+        transfersService.makeTransfer(new Transfer(accountIds[pair.accounts[0]], accountIds[pair.accounts[1]], BigDecimal.ONE));
+    }
+}
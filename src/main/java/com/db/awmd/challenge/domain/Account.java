@@ -6,7 +6,6 @@ import java.math.BigDecimal;
 import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
 import lombok.Data;
-import org.hibernate.validator.constraints.NotBlank;
 import org.hibernate.validator.constraints.NotEmpty;
 
 @Data
@@ -16,27 +15,70 @@ public class Account {
     @NotEmpty
     private final String accountId;
 
-    @NotNull
-    @Min(value = 0, message = "Initial balance must be positive.")
-    private BigDecimal balance;
+    private Balance balance;
 
     public Account(String accountId) {
         this.accountId = accountId;
-        this.balance = BigDecimal.ZERO;
+        this.balance = new DecimalBalance(BigDecimal.ZERO);
     }
 
     @JsonCreator
     public Account(@JsonProperty("accountId") String accountId,
                    @JsonProperty("balance") BigDecimal balance) {
         this.accountId = accountId;
+        this.balance = new DecimalBalance(balance);
+    }
+
+    public Account(String accountId, Balance balance) {
+        this.accountId = accountId;
+        this.balance = balance;
+    }
+
+    @NotNull
+    @Min(value = 0, message = "Initial balance must be positive.")
+    public BigDecimal getBalance() {
+        return this.balance.get();
+    }
+
+    public void setBalance(BigDecimal balance) {
+        this.balance.set(balance);
+    }
+
+    /**
+     * Replaces the storage of the balance, e.g. to move the account to the fixed-scale mode.
+     */
+    public void useBalance(Balance balance) {
         this.balance = balance;
     }
 
+    /**
+     * Reads the balance without holding the lock of the account. The balance is never seen in the
+     * middle of an update, see {@link SplitBalance}.
+     */
+    public AccountSnapshot snapshot() {
+        return new AccountSnapshot(this.accountId, this.balance.get());
+    }
+
+    public boolean hasEnoughBalance(BigDecimal amount) {
+        return this.balance.covers(amount);
+    }
+
+    public boolean supportsAmount(BigDecimal amount) {
+        return this.balance.supports(amount);
+    }
+
+    /**
+     * Whether the balance can be credited without holding the lock of the account, see {@link SplitBalance}.
+     */
+    public boolean hasLockFreeDeposits() {
+        return this.balance.isLockFreeDeposit();
+    }
+
     public void withdraw(BigDecimal amount) {
-        this.balance =  this.balance.subtract(amount);
+        this.balance.withdraw(amount);
     }
 
     public void deposit(BigDecimal amount) {
-        this.balance =  this.balance.add(amount);
+        this.balance.deposit(amount);
     }
 }
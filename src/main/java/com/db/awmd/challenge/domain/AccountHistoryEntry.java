@@ -0,0 +1,47 @@
+package com.db.awmd.challenge.domain;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Data;
+
+import java.math.BigDecimal;
+
+/**
+ * A transfer as seen by one of its accounts: the amount is negative for the origin account. The amount
+ * of the transfer is kept with a flag, and only negated when it is read.
+ */
+@Data
+public class AccountHistoryEntry {
+
+    /**
+     * Milliseconds since the epoch when the transfer was recorded.
+     */
+    private final long time;
+
+    private final String counterpartyId;
+
+    @JsonIgnore
+    private final BigDecimal transferAmount;
+
+    @JsonIgnore
+    private final boolean debit;
+
+    public AccountHistoryEntry(long time, String counterpartyId, BigDecimal transferAmount, boolean debit) {
+        this.time = time;
+        this.counterpartyId = counterpartyId;
+        this.transferAmount = transferAmount;
+        this.debit = debit;
+    }
+
+    @JsonCreator
+    public AccountHistoryEntry(@JsonProperty("time") long time,
+                               @JsonProperty("counterpartyId") String counterpartyId,
+                               @JsonProperty("amount") BigDecimal amount) {
+        this(time, counterpartyId, amount.abs(), amount.signum() < 0);
+    }
+
+    public BigDecimal getAmount() {
+        return debit ? transferAmount.negate() : transferAmount;
+    }
+}
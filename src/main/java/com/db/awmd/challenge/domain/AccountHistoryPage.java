@@ -0,0 +1,26 @@
+package com.db.awmd.challenge.domain;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * Consecutive entries of the history of an account, oldest first. {@code next} is the cursor of the
+ * entry that follows the last one, to read the next page with.
+ */
+@Data
+public class AccountHistoryPage {
+
+    private final List<AccountHistoryEntry> entries;
+
+    private final long next;
+
+    @JsonCreator
+    public AccountHistoryPage(@JsonProperty("entries") List<AccountHistoryEntry> entries,
+                              @JsonProperty("next") long next) {
+        this.entries = entries;
+        this.next = next;
+    }
+}
@@ -0,0 +1,34 @@
+package com.db.awmd.challenge.domain;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Data;
+
+/**
+ * An account of a bulk import that was not created. The index is the position of the account in the
+ * body, from 0, and the line the one where it starts.
+ */
+@Data
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class AccountImportError {
+
+    private final long index;
+
+    private final long line;
+
+    private final String accountId;
+
+    private final String message;
+
+    @JsonCreator
+    public AccountImportError(@JsonProperty("index") long index,
+                              @JsonProperty("line") long line,
+                              @JsonProperty("accountId") String accountId,
+                              @JsonProperty("message") String message) {
+        this.index = index;
+        this.line = line;
+        this.accountId = accountId;
+        this.message = message;
+    }
+}
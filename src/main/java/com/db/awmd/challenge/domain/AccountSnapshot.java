@@ -0,0 +1,26 @@
+package com.db.awmd.challenge.domain;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Data;
+
+import java.math.BigDecimal;
+
+/**
+ * Immutable copy of an {@link Account}, whose balance is read once, so it can be serialized while
+ * transfers keep updating the account. Serialized like the account.
+ */
+@Data
+public class AccountSnapshot {
+
+    private final String accountId;
+
+    private final BigDecimal balance;
+
+    @JsonCreator
+    public AccountSnapshot(@JsonProperty("accountId") String accountId,
+                           @JsonProperty("balance") BigDecimal balance) {
+        this.accountId = accountId;
+        this.balance = balance;
+    }
+}
@@ -0,0 +1,37 @@
+package com.db.awmd.challenge.domain;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * Outcome of a bulk import. Only the first errors are listed, {@code failed} counts all of them. The
+ * message is set when the body could not be read to the end, in which case the accounts read before are
+ * still created.
+ */
+@Data
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class AccountsImportResult {
+
+    private final long created;
+
+    private final long failed;
+
+    private final List<AccountImportError> errors;
+
+    private final String message;
+
+    @JsonCreator
+    public AccountsImportResult(@JsonProperty("created") long created,
+                                @JsonProperty("failed") long failed,
+                                @JsonProperty("errors") List<AccountImportError> errors,
+                                @JsonProperty("message") String message) {
+        this.created = created;
+        this.failed = failed;
+        this.errors = errors;
+        this.message = message;
+    }
+}
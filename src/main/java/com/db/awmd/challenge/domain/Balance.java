@@ -0,0 +1,31 @@
+package com.db.awmd.challenge.domain;
+
+import java.math.BigDecimal;
+
+/**
+ * Storage of the balance of an {@link Account}.
+ */
+public interface Balance {
+
+    BigDecimal get();
+
+    void set(BigDecimal value);
+
+    boolean covers(BigDecimal amount);
+
+    /**
+     * Whether the amount can be stored without losing precision.
+     */
+    boolean supports(BigDecimal amount);
+
+    void withdraw(BigDecimal amount);
+
+    void deposit(BigDecimal amount);
+
+    /**
+     * Whether deposits can run concurrently with the other updates, without holding the lock of the account.
+     */
+    default boolean isLockFreeDeposit() {
+        return false;
+    }
+}
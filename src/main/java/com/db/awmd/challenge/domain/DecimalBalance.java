@@ -0,0 +1,46 @@
+package com.db.awmd.challenge.domain;
+
+import java.math.BigDecimal;
+
+/**
+ * Balance kept as a {@link BigDecimal}. Every update allocates a new value, and updates must be done
+ * while holding the lock of the account.
+ */
+public class DecimalBalance implements Balance {
+
+    private volatile BigDecimal value;
+
+    public DecimalBalance(BigDecimal value) {
+        this.value = value;
+    }
+
+    @Override
+    public BigDecimal get() {
+        return value;
+    }
+
+    @Override
+    public void set(BigDecimal value) {
+        this.value = value;
+    }
+
+    @Override
+    public boolean covers(BigDecimal amount) {
+        return value.compareTo(amount) >= 0;
+    }
+
+    @Override
+    public boolean supports(BigDecimal amount) {
+        return true;
+    }
+
+    @Override
+    public void withdraw(BigDecimal amount) {
+        this.value = this.value.subtract(amount);
+    }
+
+    @Override
+    public void deposit(BigDecimal amount) {
+        this.value = this.value.add(amount);
+    }
+}
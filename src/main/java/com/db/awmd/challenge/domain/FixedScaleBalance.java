@@ -0,0 +1,110 @@
+package com.db.awmd.challenge.domain;
+
+import java.math.BigDecimal;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Balance kept as a number of minor units (e.g. cents) with a fixed number of decimals. Debits and
+ * credits are applied with CAS loops and do not allocate; a {@link BigDecimal} is only built when the
+ * balance is read, e.g. when the account is serialized to JSON.
+ * <p>
+ * Updates that would overflow a {@code long} fail with an {@link ArithmeticException} and leave the
+ * balance unchanged.
+ */
+public class FixedScaleBalance implements Balance {
+
+    /**
+     * Any number of minor units with at most this number of digits fits in a {@code long}.
+     */
+    static final int MAX_EXACT_DIGITS = 18;
+
+    private final int scale;
+    private final AtomicLong minorUnits;
+
+    public FixedScaleBalance(BigDecimal value, int scale) {
+        this.scale = scale;
+        this.minorUnits = new AtomicLong(value.movePointRight(scale).longValueExact());
+    }
+
+    public int getScale() {
+        return scale;
+    }
+
+    public long getMinorUnits() {
+        return minorUnits.get();
+    }
+
+    public long toMinorUnits(BigDecimal amount) {
+        return amount.movePointRight(scale).longValueExact();
+    }
+
+    @Override
+    public BigDecimal get() {
+        return BigDecimal.valueOf(minorUnits.get(), scale);
+    }
+
+    @Override
+    public void set(BigDecimal value) {
+        minorUnits.set(toMinorUnits(value));
+    }
+
+    @Override
+    public boolean covers(BigDecimal amount) {
+        return minorUnits.get() >= toMinorUnits(amount);
+    }
+
+    @Override
+    public boolean supports(BigDecimal amount) {
+        return fitsMinorUnits(amount, scale);
+    }
+
+    /**
+     * Whether the amount is a whole number of minor units of the scale that fits in a {@code long}, without
+     * converting it. Most amounts have at most the scale and few digits and are accepted at once; the rest
+     * drop their trailing zeros and only those that may overflow have their digits compared.
+     */
+    public static boolean fitsMinorUnits(BigDecimal amount, int scale) {
+        if (amount.scale() <= scale && amount.precision() - amount.scale() + scale <= MAX_EXACT_DIGITS) return true;
+        final BigDecimal stripped = amount.stripTrailingZeros();
+        if (stripped.scale() > scale) return false;
+        final int digits = stripped.precision() - stripped.scale() + scale;
+        if (digits <= MAX_EXACT_DIGITS) return true;
+        return digits == MAX_EXACT_DIGITS + 1 && stripped.movePointRight(scale).toBigInteger().bitLength() < Long.SIZE;
+    }
+
+    @Override
+    public void withdraw(BigDecimal amount) {
+        withdraw(toMinorUnits(amount));
+    }
+
+    @Override
+    public void deposit(BigDecimal amount) {
+        deposit(toMinorUnits(amount));
+    }
+
+    public void withdraw(long amount) {
+        long current;
+        do {
+            current = minorUnits.get();
+        } while (!minorUnits.compareAndSet(current, Math.subtractExact(current, amount)));
+    }
+
+    public void deposit(long amount) {
+        long current;
+        do {
+            current = minorUnits.get();
+        } while (!minorUnits.compareAndSet(current, Math.addExact(current, amount)));
+    }
+
+    /**
+     * Withdraws the amount only if the balance covers it, without the need of holding any lock.
+     */
+    public boolean tryWithdraw(long amount) {
+        long current;
+        do {
+            current = minorUnits.get();
+            if (current < amount) return false;
+        } while (!minorUnits.compareAndSet(current, current - amount));
+        return true;
+    }
+}
@@ -0,0 +1,29 @@
+package com.db.awmd.challenge.domain;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Data;
+
+import javax.validation.Valid;
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Size;
+import java.util.List;
+
+/**
+ * Transfer among several accounts applied as a whole, e.g. a payer debited once and the payee, the fee
+ * and the tax accounts credited. The debits must add up to the credits, and each account can only be in
+ * one leg.
+ */
+@Data
+public class MultiLegTransfer {
+
+    @NotNull
+    @Size(min = 2, message = "Multi-leg transfer must have at least two legs.")
+    @Valid
+    private List<TransferLeg> legs;
+
+    @JsonCreator
+    public MultiLegTransfer(@JsonProperty("legs") List<TransferLeg> legs) {
+        this.legs = legs;
+    }
+}
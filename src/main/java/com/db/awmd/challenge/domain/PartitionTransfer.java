@@ -0,0 +1,51 @@
+package com.db.awmd.challenge.domain;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Data;
+import org.hibernate.validator.constraints.NotEmpty;
+
+import javax.validation.constraints.DecimalMin;
+import javax.validation.constraints.NotNull;
+import java.math.BigDecimal;
+
+/**
+ * Deposit asked by the node of the origin account of a transfer to the node of its target account, once
+ * the amount is withdrawn. The same id is sent again until the node of the origin account gets an answer.
+ */
+@Data
+public class PartitionTransfer {
+
+    private final long id;
+
+    /**
+     * The node of the origin account.
+     */
+    private final int node;
+
+    /**
+     * Every transfer of the origin node with a lower id is resolved, so the target node can forget them.
+     */
+    private final long resolvedBelow;
+
+    @NotNull
+    @NotEmpty
+    private final String accountToId;
+
+    @NotNull
+    @DecimalMin(value = "0.01", message = "Transfer amount must be greater than zero.")
+    private final BigDecimal amount;
+
+    @JsonCreator
+    public PartitionTransfer(@JsonProperty("id") long id,
+                             @JsonProperty("node") int node,
+                             @JsonProperty("resolvedBelow") long resolvedBelow,
+                             @JsonProperty("accountToId") String accountToId,
+                             @JsonProperty("amount") BigDecimal amount) {
+        this.id = id;
+        this.node = node;
+        this.resolvedBelow = resolvedBelow;
+        this.accountToId = accountToId;
+        this.amount = amount;
+    }
+}
@@ -0,0 +1,57 @@
+package com.db.awmd.challenge.domain;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Data;
+import org.hibernate.validator.constraints.NotEmpty;
+
+import javax.validation.constraints.DecimalMin;
+import javax.validation.constraints.NotNull;
+import java.math.BigDecimal;
+
+/**
+ * Transfer to make at a given time. The id is assigned when it is scheduled, and can be used to cancel it
+ * until it is made.
+ */
+@Data
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ScheduledTransfer {
+
+    private Long id;
+
+    @NotNull
+    @NotEmpty
+    private String accountFromId;
+
+    @NotNull
+    @NotEmpty
+    private String accountToId;
+
+    @NotNull
+    @DecimalMin(value = "0.01", message = "Transfer amount must be greater than zero.")
+    private BigDecimal amount;
+
+    /**
+     * Milliseconds since the epoch. The transfer is made at the first tick of the scheduler from then.
+     */
+    @NotNull
+    private Long executeAt;
+
+    @JsonCreator
+    public ScheduledTransfer(@JsonProperty("id") Long id,
+                             @JsonProperty("accountFromId") String accountFromId,
+                             @JsonProperty("accountToId") String accountToId,
+                             @JsonProperty("amount") BigDecimal amount,
+                             @JsonProperty("executeAt") Long executeAt) {
+        this.id = id;
+        this.accountFromId = accountFromId;
+        this.accountToId = accountToId;
+        this.amount = amount;
+        this.executeAt = executeAt;
+    }
+
+    public Transfer toTransfer() {
+        return new Transfer(accountFromId, accountToId, amount);
+    }
+}
@@ -0,0 +1,180 @@
+package com.db.awmd.challenge.domain;
+
+import java.math.BigDecimal;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Balance of a hot account, split in a number of sub-balances of minor units with a fixed number of
+ * decimals. The balance is the sum of the sub-balances.
+ * <p>
+ * Each thread deposits into its own sub-balance with a CAS, so deposits can run concurrently without
+ * holding the lock of the account and without contending on the same cache line. Withdrawals draw the
+ * amount from the sub-balances in turn, starting with the one of the thread, and must be serialized by
+ * the lock of the account: as concurrent deposits can only add to the sub-balances, a balance checked
+ * with {@link #covers(BigDecimal)} under the lock is still there when it is withdrawn.
+ * <p>
+ * A withdrawal may change several sub-balances, so {@link #get()} reads them under a sequence lock: a
+ * withdrawal makes the version odd while it runs, and a read that saw the version change is retried,
+ * so it never sees a withdrawal half done. Reads do not write anything, so they do not slow down the
+ * updates nor each other. Each deposit changes a single sub-balance and does not take part in the
+ * sequence lock: like {@link java.util.concurrent.atomic.LongAdder#sum()}, a read concurrent with
+ * deposits may see some of them and not others.
+ */
+public class SplitBalance implements Balance {
+
+    /**
+     * Longs between two sub-balances, so that each one is in a different pair of cache lines.
+     */
+    private static final int STRIDE = 16;
+
+    private final int scale;
+    private final int mask;
+    private final AtomicLongArray cells;
+    /**
+     * Odd while a withdrawal is running, only written under the lock of the account.
+     */
+    private volatile long version;
+
+    public SplitBalance(BigDecimal value, int scale, int splits) {
+        if (splits <= 0 || splits > (1 << 16))
+            throw new IllegalArgumentException("Invalid number of sub-balances: " + splits);
+
+        int size = Integer.highestOneBit(splits);
+        if (size < splits) size <<= 1;
+
+        this.scale = scale;
+        this.mask = size - 1;
+        this.cells = new AtomicLongArray(size * STRIDE);
+        this.cells.set(0, value.movePointRight(scale).longValueExact());
+    }
+
+    public int getScale() {
+        return scale;
+    }
+
+    public int getSplits() {
+        return mask + 1;
+    }
+
+    public long getMinorUnits() {
+        long sum = 0;
+        for (int i = 0; i <= mask; i++) {
+            sum = Math.addExact(sum, cells.get(i * STRIDE));
+        }
+        return sum;
+    }
+
+    public long toMinorUnits(BigDecimal amount) {
+        return amount.movePointRight(scale).longValueExact();
+    }
+
+    @Override
+    public BigDecimal get() {
+        return BigDecimal.valueOf(getConsistentMinorUnits(), scale);
+    }
+
+    /**
+     * The sum of the sub-balances between withdrawals, see the sequence lock above.
+     */
+    public long getConsistentMinorUnits() {
+        while (true) {
+            final long before = version;
+            if ((before & 1) == 0) {
+                final long sum = getMinorUnits();
+                if (version == before) return sum;
+            }
+            Thread.yield();
+        }
+    }
+
+    /**
+     * Not atomic with concurrent deposits, which may be lost.
+     */
+    @Override
+    public void set(BigDecimal value) {
+        final long minorUnits = toMinorUnits(value);
+        final long current = version;
+        version = current + 1;
+        for (int i = 1; i <= mask; i++) {
+            cells.set(i * STRIDE, 0);
+        }
+        cells.set(0, minorUnits);
+        version = current + 2;
+    }
+
+    @Override
+    public boolean covers(BigDecimal amount) {
+        return getMinorUnits() >= toMinorUnits(amount);
+    }
+
+    @Override
+    public boolean supports(BigDecimal amount) {
+        return FixedScaleBalance.fitsMinorUnits(amount, scale);
+    }
+
+    @Override
+    public boolean isLockFreeDeposit() {
+        return true;
+    }
+
+    @Override
+    public void withdraw(BigDecimal amount) {
+        withdraw(toMinorUnits(amount));
+    }
+
+    @Override
+    public void deposit(BigDecimal amount) {
+        deposit(toMinorUnits(amount));
+    }
+
+    public void deposit(long amount) {
+        final int index = home() * STRIDE;
+        long current;
+        do {
+            current = cells.get(index);
+        } while (!cells.compareAndSet(index, current, Math.addExact(current, amount)));
+    }
+
+    /**
+     * Takes the amount from the sub-balances in turn. If they do not cover it, e.g. when a journal is
+     * replayed, the rest is taken from the sub-balance of the thread, which becomes negative, so the sum
+     * is always exact.
+     */
+    public void withdraw(long amount) {
+        final long current = version;
+        version = current + 1;
+        try {
+            drawFromSubBalances(amount);
+        } finally {
+            version = current + 2;
+        }
+    }
+
+    private void drawFromSubBalances(long amount) {
+        final int home = home();
+        long remaining = amount;
+        for (int i = 0; i <= mask && remaining > 0; i++) {
+            final int index = ((home + i) & mask) * STRIDE;
+            long current;
+            long taken;
+            do {
+                current = cells.get(index);
+                taken = Math.min(Math.max(current, 0), remaining);
+            } while (taken > 0 && !cells.compareAndSet(index, current, current - taken));
+            remaining -= taken;
+        }
+        if (remaining != 0) {
+            final int index = home * STRIDE;
+            long current;
+            do {
+                current = cells.get(index);
+            } while (!cells.compareAndSet(index, current, Math.subtractExact(current, remaining)));
+        }
+    }
+
+    private int home() {
+        final long id = Thread.currentThread().getId();
+        final int hash = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+}
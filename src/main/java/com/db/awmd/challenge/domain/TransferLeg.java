@@ -0,0 +1,47 @@
+package com.db.awmd.challenge.domain;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Data;
+import org.hibernate.validator.constraints.NotEmpty;
+
+import javax.validation.constraints.DecimalMin;
+import javax.validation.constraints.NotNull;
+import java.math.BigDecimal;
+
+/**
+ * One account of a {@link MultiLegTransfer}: the amount is withdrawn from a debited account and deposited
+ * into a credited one.
+ */
+@Data
+public class TransferLeg {
+
+    public enum Side {
+        DEBIT,
+        CREDIT
+    }
+
+    @NotNull
+    @NotEmpty
+    private String accountId;
+
+    @NotNull
+    private Side side;
+
+    @NotNull
+    @DecimalMin(value = "0.01", message = "Leg amount must be greater than zero.")
+    private BigDecimal amount;
+
+    @JsonCreator
+    public TransferLeg(@JsonProperty("accountId") String accountId,
+                       @JsonProperty("side") Side side,
+                       @JsonProperty("amount") BigDecimal amount) {
+        this.accountId = accountId;
+        this.side = side;
+        this.amount = amount;
+    }
+
+    public boolean isDebit() {
+        return side == Side.DEBIT;
+    }
+}
@@ -0,0 +1,56 @@
+package com.db.awmd.challenge.domain;
+
+import com.db.awmd.challenge.exception.AccountNotFoundException;
+import com.db.awmd.challenge.exception.InsufficientBalanceException;
+import com.db.awmd.challenge.exception.InvalidTransferException;
+
+/**
+ * Reason why a transfer is rejected. The validations return these constants instead of throwing, so a
+ * rejection does not allocate; the message and, for the callers that expect it, the exception are only
+ * built when the rejection is reported.
+ */
+public enum TransferRejection {
+
+    NEGATIVE_AMOUNT(InvalidTransferException.class),
+    ZERO_AMOUNT(InvalidTransferException.class),
+    SAME_ACCOUNT(InvalidTransferException.class),
+    ACCOUNT_FROM_NOT_FOUND(AccountNotFoundException.class),
+    ACCOUNT_TO_NOT_FOUND(AccountNotFoundException.class),
+    TOO_MANY_DECIMALS(InvalidTransferException.class),
+    INSUFFICIENT_BALANCE(InsufficientBalanceException.class);
+
+    private final Class<? extends RuntimeException> exceptionType;
+
+    TransferRejection(Class<? extends RuntimeException> exceptionType) {
+        this.exceptionType = exceptionType;
+    }
+
+    public Class<? extends RuntimeException> getExceptionType() {
+        return exceptionType;
+    }
+
+    public String message(Transfer transfer) {
+        switch (this) {
+            case NEGATIVE_AMOUNT:
+                return "Negative amount to transfer: " + transfer.getAmount();
+            case ZERO_AMOUNT:
+                return "Amount to transfer is zero";
+            case SAME_ACCOUNT:
+                return "Origin account is equals to target account";
+            case ACCOUNT_FROM_NOT_FOUND:
+                return "Account not found: " + transfer.getAccountFromId();
+            case ACCOUNT_TO_NOT_FOUND:
+                return "Account not found: " + transfer.getAccountToId();
+            case TOO_MANY_DECIMALS:
+                return "Amount to transfer has too many decimals: " + transfer.getAmount();
+            default:
+                return "Insufficient balance in account: " + transfer.getAccountFromId();
+        }
+    }
+
+    public RuntimeException toException(Transfer transfer) {
+        if (exceptionType == AccountNotFoundException.class) return new AccountNotFoundException(message(transfer));
+        if (exceptionType == InsufficientBalanceException.class) return new InsufficientBalanceException(message(transfer));
+        return new InvalidTransferException(message(transfer));
+    }
+}
@@ -0,0 +1,82 @@
+package com.db.awmd.challenge.domain;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
+
+/**
+ * The message of a result rejected with a {@link TransferRejection} is only built when it is read, e.g.
+ * when the result is serialized in the response.
+ */
+@Data
+@EqualsAndHashCode(exclude = {"rejection", "transfer"})
+@ToString(exclude = {"rejection", "transfer"})
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class TransferResult {
+
+    private static final TransferResult COMPLETED = new TransferResult(TransferStatus.COMPLETED, null);
+    private static final TransferResult ABORTED = new TransferResult(TransferStatus.ABORTED, null);
+
+    private final TransferStatus status;
+
+    private final String message;
+
+    /**
+     * Only set for the transfers to another node, whose outcome can be polled, see {@link TransferStatus#PENDING}.
+     */
+    private final Long transferId;
+
+    @JsonIgnore
+    private final TransferRejection rejection;
+
+    @JsonIgnore
+    private final Transfer transfer;
+
+    @JsonCreator
+    public TransferResult(@JsonProperty("status") TransferStatus status,
+                          @JsonProperty("message") String message,
+                          @JsonProperty("transferId") Long transferId) {
+        this(status, message, transferId, null, null);
+    }
+
+    public TransferResult(TransferStatus status, String message) {
+        this(status, message, null, null, null);
+    }
+
+    private TransferResult(TransferStatus status, String message, Long transferId, TransferRejection rejection,
+                           Transfer transfer) {
+        this.status = status;
+        this.message = message;
+        this.transferId = transferId;
+        this.rejection = rejection;
+        this.transfer = transfer;
+    }
+
+    public String getMessage() {
+        return rejection == null ? message : rejection.message(transfer);
+    }
+
+    public static TransferResult completed() {
+        return COMPLETED;
+    }
+
+    public static TransferResult aborted() {
+        return ABORTED;
+    }
+
+    public static TransferResult rejected(String message) {
+        return new TransferResult(TransferStatus.REJECTED, message);
+    }
+
+    public static TransferResult rejected(TransferRejection rejection, Transfer transfer) {
+        return new TransferResult(TransferStatus.REJECTED, null, null, rejection, transfer);
+    }
+
+    public static TransferResult pending(long transferId) {
+        return new TransferResult(TransferStatus.PENDING, null, transferId);
+    }
+}
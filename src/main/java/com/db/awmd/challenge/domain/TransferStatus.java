@@ -0,0 +1,15 @@
+package com.db.awmd.challenge.domain;
+
+public enum TransferStatus {
+    COMPLETED,
+    REJECTED,
+    /**
+     * Not applied because another transfer of the same atomic batch was rejected.
+     */
+    ABORTED,
+    /**
+     * Withdrawn from the origin account, but the node of the target account has not answered yet, so the
+     * deposit is asked again until it does: its outcome is polled with the id of the transfer.
+     */
+    PENDING
+}
@@ -0,0 +1,7 @@
+package com.db.awmd.challenge.exception;
+
+public class InvalidAccountIdException extends RuntimeException {
+    public InvalidAccountIdException(String message) {
+        super(message);
+    }
+}
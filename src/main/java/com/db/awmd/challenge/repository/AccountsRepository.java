@@ -2,6 +2,7 @@ package com.db.awmd.challenge.repository;
 
 import com.db.awmd.challenge.domain.Account;
 import com.db.awmd.challenge.exception.DuplicateAccountIdException;
+import java.util.stream.Stream;
 
 public interface AccountsRepository {
 
@@ -9,5 +10,13 @@ public interface AccountsRepository {
 
     Account getAccount(String accountId);
 
+    /**
+     * Weakly consistent stream of all the accounts: it never blocks other operations, and accounts
+     * created or removed while it is consumed may or may not be included.
+     */
+    Stream<Account> streamAccounts();
+
+    int countAccounts();
+
     void clearAccounts();
 }
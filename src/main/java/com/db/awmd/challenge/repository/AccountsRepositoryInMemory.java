@@ -4,9 +4,15 @@ import com.db.awmd.challenge.domain.Account;
 import com.db.awmd.challenge.exception.DuplicateAccountIdException;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+import org.springframework.context.annotation.Condition;
+import org.springframework.context.annotation.ConditionContext;
+import org.springframework.context.annotation.Conditional;
+import org.springframework.core.type.AnnotatedTypeMetadata;
 import org.springframework.stereotype.Repository;
 
 @Repository
+@Conditional(AccountsRepositoryInMemory.DefaultStoreCondition.class)
 public class AccountsRepositoryInMemory implements AccountsRepository {
 
     private final Map<String, Account> accounts = new ConcurrentHashMap<>();
@@ -25,9 +31,30 @@ public class AccountsRepositoryInMemory implements AccountsRepository {
         return accounts.get(accountId);
     }
 
+    @Override
+    public Stream<Account> streamAccounts() {
+        return accounts.values().stream();
+    }
+
+    @Override
+    public int countAccounts() {
+        return accounts.size();
+    }
+
     @Override
     public void clearAccounts() {
         accounts.clear();
     }
 
+    /**
+     * The default store, unless the profile of another one is active.
+     */
+    static class DefaultStoreCondition implements Condition {
+
+        @Override
+        public boolean matches(ConditionContext context, AnnotatedTypeMetadata metadata) {
+            return !context.getEnvironment().acceptsProfiles("mapped", "indexed");
+        }
+    }
+
 }
@@ -0,0 +1,258 @@
+package com.db.awmd.challenge.repository;
+
+import com.db.awmd.challenge.exception.JournalException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Point-in-time images of the balances of all the accounts, stored next to the journal.
+ * <p>
+ * A snapshot file is a header with the epoch it covers, followed by one record per account (its id and
+ * its balance as scale and unscaled bytes), an empty id marking the end, the number of accounts and a
+ * CRC32 of everything before it. Snapshots are written to a temporary file, forced to disk and renamed,
+ * so a crash while writing leaves the previous snapshot untouched.
+ */
+@Slf4j
+@Component
+public class AccountsSnapshotStore {
+
+    static final int MAGIC = 0x534E4150;
+    static final int VERSION = 1;
+
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".snap";
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final boolean enabled;
+    private final Path directory;
+
+    @Autowired
+    public AccountsSnapshotStore(@Value("${journal.enabled:false}") boolean enabled,
+                                 @Value("${journal.directory:journal}") String directory) {
+        this.enabled = enabled;
+        this.directory = Paths.get(directory);
+    }
+
+    /**
+     * Starts writing the snapshot of the given epoch. Nothing is visible until {@link Writer#commit()}.
+     */
+    public Writer begin(long epoch) {
+        try {
+            Files.createDirectories(directory);
+            return new Writer(snapshotPath(epoch));
+        } catch (IOException e) {
+            throw new JournalException("Error creating snapshot in " + directory, e);
+        }
+    }
+
+    /**
+     * Reads the most recent snapshot, if any, passing every account to the consumer.
+     *
+     * @return the epoch of the snapshot, or 0 when there is none
+     */
+    public long loadLatest(BiConsumer<String, BigDecimal> consumer) {
+        if (!enabled) return 0;
+
+        List<Path> snapshots = listSnapshots();
+        if (snapshots.isEmpty()) return 0;
+
+        Path snapshot = snapshots.get(snapshots.size() - 1);
+        CRC32 crc = new CRC32();
+        try (DataInputStream in = new DataInputStream(new CheckedInputStream(
+                new BufferedInputStream(Files.newInputStream(snapshot), BUFFER_SIZE), crc))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                throw new JournalException("Invalid snapshot " + snapshot, null);
+            long epoch = in.readLong();
+
+            long accounts = 0;
+            byte[] buffer = new byte[256];
+            int idLength;
+            while ((idLength = in.readUnsignedShort()) != 0) {
+                if (buffer.length < idLength) buffer = new byte[idLength];
+                in.readFully(buffer, 0, idLength);
+                String accountId = new String(buffer, 0, idLength, StandardCharsets.UTF_8);
+                consumer.accept(accountId, readDecimal(in));
+                accounts++;
+            }
+
+            long count = in.readLong();
+            long expectedCrc = crc.getValue();
+            if (count != accounts || (in.readInt() & 0xFFFFFFFFL) != expectedCrc)
+                throw new JournalException("Corrupted snapshot " + snapshot, null);
+
+            log.info("Loaded {} accounts from snapshot {}", accounts, snapshot);
+            return epoch;
+        } catch (IOException e) {
+            throw new JournalException("Error reading snapshot " + snapshot, e);
+        }
+    }
+
+    /**
+     * Deletes the snapshots older than the given epoch.
+     */
+    public void deleteBefore(long epoch) {
+        for (Path snapshot : listSnapshots()) {
+            if (snapshotEpoch(snapshot) < epoch) {
+                try {
+                    Files.delete(snapshot);
+                } catch (IOException e) {
+                    log.warn("Error deleting old snapshot {}", snapshot, e);
+                }
+            }
+        }
+    }
+
+    private Path snapshotPath(long epoch) {
+        return directory.resolve(String.format("%s%012d%s", SNAPSHOT_PREFIX, epoch, SNAPSHOT_SUFFIX));
+    }
+
+    private List<Path> listSnapshots() {
+        List<Path> snapshots = new ArrayList<>();
+        if (!Files.isDirectory(directory)) return snapshots;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SNAPSHOT_PREFIX + "*" + SNAPSHOT_SUFFIX)) {
+            for (Path snapshot : stream) {
+                snapshots.add(snapshot);
+            }
+        } catch (IOException e) {
+            throw new JournalException("Error listing snapshots in " + directory, e);
+        }
+        Collections.sort(snapshots);
+        return snapshots;
+    }
+
+    private static long snapshotEpoch(Path snapshot) {
+        String name = snapshot.getFileName().toString();
+        return Long.parseLong(name.substring(SNAPSHOT_PREFIX.length(), name.length() - SNAPSHOT_SUFFIX.length()));
+    }
+
+    private static BigDecimal readDecimal(DataInputStream in) throws IOException {
+        int scale = in.readInt();
+        int length = in.readUnsignedByte();
+        if (length <= 8) {
+            long unscaled = 0;
+            for (int i = 0; i < length; i++) {
+                unscaled = (unscaled << 8) | in.readUnsignedByte();
+            }
+            // Sign extension of the two's complement bytes
+            if (length > 0 && length < 8) unscaled = (unscaled << (64 - 8 * length)) >> (64 - 8 * length);
+            return BigDecimal.valueOf(unscaled, scale);
+        }
+        byte[] unscaled = new byte[length];
+        in.readFully(unscaled);
+        return new BigDecimal(new BigInteger(unscaled), scale);
+    }
+
+    /**
+     * Writes one snapshot. Closing it without committing discards the temporary file.
+     */
+    public static final class Writer implements Closeable {
+
+        private final Path target;
+        private final Path temporary;
+        private final FileChannel channel;
+        private final CRC32 crc = new CRC32();
+        private final DataOutputStream out;
+        private long accounts;
+        private boolean committed;
+
+        private Writer(Path target) throws IOException {
+            this.target = target;
+            this.temporary = target.resolveSibling(target.getFileName() + ".tmp");
+            this.channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            OutputStream file = Channels.newOutputStream(channel);
+            this.out = new DataOutputStream(new CheckedOutputStream(new BufferedOutputStream(file, BUFFER_SIZE), crc));
+            this.out.writeInt(MAGIC);
+            this.out.writeInt(VERSION);
+            this.out.writeLong(snapshotEpoch(target));
+        }
+
+        public void add(String accountId, BigDecimal balance) {
+            try {
+                byte[] id = accountId.getBytes(StandardCharsets.UTF_8);
+                byte[] unscaled = balance.unscaledValue().toByteArray();
+                if (unscaled.length > 255)
+                    throw new JournalException("Balance of " + accountId + " is too large for a snapshot", null);
+                out.writeShort(id.length);
+                out.write(id);
+                out.writeInt(balance.scale());
+                out.writeByte(unscaled.length);
+                out.write(unscaled);
+                accounts++;
+            } catch (IOException e) {
+                throw new JournalException("Error writing snapshot " + temporary, e);
+            }
+        }
+
+        public long getAccounts() {
+            return accounts;
+        }
+
+        public void commit() {
+            try {
+                out.writeShort(0);
+                out.writeLong(accounts);
+                out.writeInt((int) crc.getValue());
+                out.flush();
+                channel.force(true);
+                channel.close();
+                Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE);
+                forceDirectory(target.getParent());
+                committed = true;
+            } catch (IOException e) {
+                throw new JournalException("Error committing snapshot " + target, e);
+            }
+        }
+
+        @Override
+        public void close() {
+            if (committed) return;
+            try {
+                channel.close();
+                Files.deleteIfExists(temporary);
+            } catch (IOException e) {
+                log.warn("Error discarding snapshot {}", temporary, e);
+            }
+        }
+
+        /**
+         * Makes the rename durable. Not every platform allows opening a directory, in which case it is
+         * left to the operating system.
+         */
+        private static void forceDirectory(Path directory) {
+            try (FileChannel dir = FileChannel.open(directory, StandardOpenOption.READ)) {
+                dir.force(true);
+            } catch (IOException e) {
+                log.debug("Could not force directory {}", directory, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,293 @@
+package com.db.awmd.challenge.repository;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.exception.DuplicateAccountIdException;
+import com.db.awmd.challenge.exception.InvalidAccountIdException;
+import com.db.awmd.challenge.exception.InvalidBalanceException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Repository;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Accounts stored on the heap in arrays of longs, selected with the {@code indexed} profile.
+ * <p>
+ * Each account is a record of consecutive longs in an arena of {@value #ARENA_SIZE} longs: its handle
+ * and the length of its id, its balance as a long of minor units, and the chars of its id, four per
+ * long. So the store holds no object per account, and the balance of an account is in the same cache
+ * line as the start of its id. Ids are found by open addressing with linear probing in a table of longs,
+ * each holding the hash of an id next to the position of its record: a probe only compares the id when
+ * the hashes match, so a lookup usually touches one slot of the table and one record.
+ * <p>
+ * Each account also gets a dense int handle when it is created, its position in the order of creation,
+ * which can be kept instead of the id, see {@link #getHandle(String)} and {@link #getAccount(int)}.
+ * <p>
+ * {@link #getAccount(String)} returns a new {@link Account} whose balance is a view over its record, so
+ * updates go straight to the store, like {@link MappedAccountsRepository}. Lookups never lock: an account
+ * is published by writing its slot of the table last. Insertions are serialized, and the table doubles
+ * when it is three quarters full. Hot accounts do not keep a split balance in this store.
+ */
+@Slf4j
+@Repository
+@Profile("indexed")
+public class IndexedAccountsRepository implements AccountsRepository {
+
+    static final int ARENA_BITS = 17;
+    static final int ARENA_SIZE = 1 << ARENA_BITS;
+    static final int MAX_ID_LENGTH = (ARENA_SIZE - 2) * 4;
+
+    private static final int ARENA_MASK = ARENA_SIZE - 1;
+    /**
+     * So that the position of a record is a positive int.
+     */
+    private static final int MAX_ARENAS = 1 << (31 - ARENA_BITS);
+    private static final int HANDLES_BITS = 16;
+    private static final int HANDLES_MASK = (1 << HANDLES_BITS) - 1;
+    private static final int DEFAULT_SCALE = 2;
+    private static final int MIN_CAPACITY = 1024;
+    private static final int MAX_CAPACITY = 1 << 30;
+
+    private final int scale;
+    private final int initialCapacity;
+    private final ReentrantLock inserts = new ReentrantLock();
+    private volatile AtomicLongArray[] arenas;
+    private volatile int[][] records;
+    private volatile AtomicLongArray index;
+    private volatile int size;
+    private int arenaUsed;
+
+    @Autowired
+    public IndexedAccountsRepository(@Value("${accounts.indexed.expected-accounts:1024}") int expectedAccounts,
+                                     @Value("${accounts.balance-scale:-1}") int balanceScale) {
+        if (expectedAccounts < 0 || expectedAccounts > MAX_CAPACITY - (MAX_CAPACITY >>> 2))
+            throw new IllegalArgumentException("Invalid number of expected accounts: " + expectedAccounts);
+
+        this.scale = balanceScale >= 0 ? balanceScale : DEFAULT_SCALE;
+        this.initialCapacity = capacityFor(expectedAccounts);
+        reset();
+    }
+
+    public int getCapacity() {
+        return index.length();
+    }
+
+    @Override
+    public int countAccounts() {
+        return size;
+    }
+
+    @Override
+    public void createAccount(Account account) throws DuplicateAccountIdException {
+        final String accountId = account.getAccountId();
+        if (accountId.length() > MAX_ID_LENGTH)
+            throw new InvalidAccountIdException("Account id " + accountId.substring(0, 16) + "... is longer than "
+                    + MAX_ID_LENGTH + " chars");
+
+        final long minorUnits;
+        try {
+            minorUnits = account.getBalance().movePointRight(scale).longValueExact();
+        } catch (ArithmeticException ae) {
+            throw new InvalidBalanceException("Balance " + account.getBalance() + " does not fit in " + scale
+                    + " decimals");
+        }
+
+        final int hash = hash(accountId);
+        final int record;
+        inserts.lock();
+        try {
+            if (find(index, accountId, hash) >= 0) {
+                throw new DuplicateAccountIdException("Account id " + accountId + " already exists!");
+            }
+            final int handle = size;
+            if (handle >= MAX_CAPACITY - (MAX_CAPACITY >>> 2))
+                throw new IllegalStateException("The indexed accounts store is full (" + handle + " accounts)");
+            if (handle >= index.length() - (index.length() >>> 2)) {
+                index = grow(index);
+            }
+
+            record = writeRecord(handle, accountId, minorUnits);
+            recordsForInsert(handle)[handle & HANDLES_MASK] = record;
+            insert(index, hash, record);
+            size = handle + 1;
+        } finally {
+            inserts.unlock();
+        }
+        account.useBalance(balanceOf(record));
+    }
+
+    @Override
+    public Account getAccount(String accountId) {
+        final int record = find(index, accountId, hash(accountId));
+        return record < 0 ? null : new Account(accountId, balanceOf(record));
+    }
+
+    /**
+     * @return the handle of the account, or -1 if it does not exist
+     */
+    public int getHandle(String accountId) {
+        final int record = find(index, accountId, hash(accountId));
+        return record < 0 ? -1 : (int) (arenas[record >>> ARENA_BITS].get(record & ARENA_MASK) >>> 32);
+    }
+
+    public Account getAccount(int handle) {
+        final int record = records[handle >>> HANDLES_BITS][handle & HANDLES_MASK];
+        return new Account(idOf(record), balanceOf(record));
+    }
+
+    public long getMinorUnits(int handle) {
+        final int record = records[handle >>> HANDLES_BITS][handle & HANDLES_MASK];
+        return arenas[record >>> ARENA_BITS].get((record & ARENA_MASK) + 1);
+    }
+
+    @Override
+    public Stream<Account> streamAccounts() {
+        return IntStream.range(0, size).mapToObj(this::getAccount);
+    }
+
+    /**
+     * Not safe while other threads use the store, as the handles are reused.
+     */
+    @Override
+    public void clearAccounts() {
+        inserts.lock();
+        try {
+            reset();
+        } finally {
+            inserts.unlock();
+        }
+    }
+
+    private void reset() {
+        size = 0;
+        arenaUsed = 0;
+        arenas = new AtomicLongArray[0];
+        records = new int[0][];
+        index = new AtomicLongArray(initialCapacity);
+    }
+
+    /**
+     * @return the position of the record of the id, or -1 when it is not present
+     */
+    private int find(AtomicLongArray table, String accountId, int hash) {
+        final int mask = table.length() - 1;
+        int slot = hash & mask;
+        while (true) {
+            final long entry = table.get(slot);
+            if (entry == 0) return -1;
+            if ((int) (entry >>> 32) == hash) {
+                final int record = (int) entry - 1;
+                if (hasId(record, accountId)) return record;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private boolean hasId(int record, String id) {
+        final AtomicLongArray arena = arenas[record >>> ARENA_BITS];
+        final int start = record & ARENA_MASK;
+        if ((int) arena.get(start) != id.length()) return false;
+        long chars = 0;
+        for (int i = 0; i < id.length(); i++) {
+            if ((i & 3) == 0) chars = arena.get(start + 2 + (i >>> 2));
+            if ((char) (chars >>> ((i & 3) << 4)) != id.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private String idOf(int record) {
+        final AtomicLongArray arena = arenas[record >>> ARENA_BITS];
+        final int start = record & ARENA_MASK;
+        final char[] id = new char[(int) arena.get(start)];
+        for (int i = 0; i < id.length; i++) {
+            id[i] = (char) (arena.get(start + 2 + (i >>> 2)) >>> ((i & 3) << 4));
+        }
+        return new String(id);
+    }
+
+    private IndexedBalance balanceOf(int record) {
+        return new IndexedBalance(arenas[record >>> ARENA_BITS], (record & ARENA_MASK) + 1, scale);
+    }
+
+    /**
+     * Must be called holding the lock of the insertions. A record never spans two arenas.
+     *
+     * @return the position of the record: the number of its arena followed by its offset in it
+     */
+    private int writeRecord(int handle, String id, long minorUnits) {
+        final int length = 2 + (id.length() + 3) / 4;
+        AtomicLongArray[] current = arenas;
+        if (current.length == 0 || arenaUsed + length > ARENA_SIZE) {
+            if (current.length == MAX_ARENAS)
+                throw new IllegalStateException("The indexed accounts store is full (" + handle + " accounts)");
+            current = Arrays.copyOf(current, current.length + 1);
+            current[current.length - 1] = new AtomicLongArray(ARENA_SIZE);
+            arenas = current;
+            arenaUsed = 0;
+        }
+
+        final AtomicLongArray arena = current[current.length - 1];
+        final int start = arenaUsed;
+        arena.lazySet(start, (long) handle << 32 | id.length());
+        arena.lazySet(start + 1, minorUnits);
+        long chars = 0;
+        for (int i = 0; i < id.length(); i++) {
+            chars |= (long) id.charAt(i) << ((i & 3) << 4);
+            if ((i & 3) == 3 || i == id.length() - 1) {
+                arena.lazySet(start + 2 + (i >>> 2), chars);
+                chars = 0;
+            }
+        }
+        arenaUsed = start + length;
+        return (current.length - 1) << ARENA_BITS | start;
+    }
+
+    private int[] recordsForInsert(int handle) {
+        final int number = handle >>> HANDLES_BITS;
+        if (number == records.length) {
+            final int[][] grown = Arrays.copyOf(records, number + 1);
+            grown[number] = new int[1 << HANDLES_BITS];
+            records = grown;
+        }
+        return records[number];
+    }
+
+    private static void insert(AtomicLongArray table, int hash, int record) {
+        final int mask = table.length() - 1;
+        int slot = hash & mask;
+        while (table.get(slot) != 0) {
+            slot = (slot + 1) & mask;
+        }
+        table.lazySet(slot, (long) hash << 32 | (record + 1L));
+    }
+
+    /**
+     * Lookups still going through the previous table find the accounts it had.
+     */
+    private static AtomicLongArray grow(AtomicLongArray table) {
+        final AtomicLongArray grown = new AtomicLongArray(table.length() << 1);
+        for (int slot = 0; slot < table.length(); slot++) {
+            final long entry = table.get(slot);
+            if (entry != 0) insert(grown, (int) (entry >>> 32), (int) entry - 1);
+        }
+        log.info("Grew the index of the accounts to {} slots", grown.length());
+        return grown;
+    }
+
+    private static int capacityFor(int accounts) {
+        final int needed = (int) Math.min(MAX_CAPACITY, Math.max(MIN_CAPACITY, accounts + accounts / 3 + 1L));
+        final int capacity = Integer.highestOneBit(needed);
+        return capacity < needed ? capacity << 1 : capacity;
+    }
+
+    private static int hash(String accountId) {
+        final int hash = accountId.hashCode() * 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,67 @@
+package com.db.awmd.challenge.repository;
+
+import com.db.awmd.challenge.domain.Balance;
+import com.db.awmd.challenge.domain.FixedScaleBalance;
+
+import java.math.BigDecimal;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * View of a balance stored as a long of minor units in a segment of {@link IndexedAccountsRepository}.
+ * Like {@link FixedScaleBalance}, updates are CAS loops that fail with an
+ * {@link ArithmeticException} on overflow.
+ */
+final class IndexedBalance implements Balance {
+
+    private final AtomicLongArray balances;
+    private final int index;
+    private final int scale;
+
+    IndexedBalance(AtomicLongArray balances, int index, int scale) {
+        this.balances = balances;
+        this.index = index;
+        this.scale = scale;
+    }
+
+    private long toMinorUnits(BigDecimal amount) {
+        return amount.movePointRight(scale).longValueExact();
+    }
+
+    @Override
+    public BigDecimal get() {
+        return BigDecimal.valueOf(balances.get(index), scale);
+    }
+
+    @Override
+    public void set(BigDecimal value) {
+        balances.set(index, toMinorUnits(value));
+    }
+
+    @Override
+    public boolean covers(BigDecimal amount) {
+        return balances.get(index) >= toMinorUnits(amount);
+    }
+
+    @Override
+    public boolean supports(BigDecimal amount) {
+        return FixedScaleBalance.fitsMinorUnits(amount, scale);
+    }
+
+    @Override
+    public void withdraw(BigDecimal amount) {
+        final long minorUnits = toMinorUnits(amount);
+        long current;
+        do {
+            current = balances.get(index);
+        } while (!balances.compareAndSet(index, current, Math.subtractExact(current, minorUnits)));
+    }
+
+    @Override
+    public void deposit(BigDecimal amount) {
+        final long minorUnits = toMinorUnits(amount);
+        long current;
+        do {
+            current = balances.get(index);
+        } while (!balances.compareAndSet(index, current, Math.addExact(current, minorUnits)));
+    }
+}
@@ -0,0 +1,260 @@
+package com.db.awmd.challenge.repository;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.exception.DuplicateAccountIdException;
+import com.db.awmd.challenge.exception.InvalidAccountIdException;
+import com.db.awmd.challenge.exception.InvalidBalanceException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Repository;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static com.db.awmd.challenge.repository.UnsafeAccess.UNSAFE;
+
+/**
+ * Accounts stored off-heap in a memory-mapped file, selected with the {@code mapped} profile.
+ * <p>
+ * The file is a header followed by a fixed number of slots of 64 bytes: the balance as a long of minor
+ * units, a state byte, and the account id in UTF-8 (up to {@value #MAX_ID_LENGTH} bytes). Accounts are
+ * indexed by open addressing with linear probing on the hash of their id, so the heap used does not
+ * depend on the number of accounts, and reopening an existing file only maps it.
+ * <p>
+ * {@link #getAccount(String)} returns a new {@link Account} whose balance is a view over the slot, so
+ * updates go straight to the file. Lookups never lock: a slot is published by writing its state last.
+ * Insertions are serialized. The table never grows, and is full at three quarters of its capacity to
+ * keep the probe sequences short.
+ * <p>
+ * The balances survive a restart of the process, but a crash of the machine can lose the last updates,
+ * as the pages are only forced to disk on shutdown. The journal cannot be used with this store, as its
+ * replay would apply the transfers twice.
+ */
+@Slf4j
+@Repository
+@Profile("mapped")
+public class MappedAccountsRepository implements AccountsRepository {
+
+    static final int MAGIC = 0x41434354;
+    static final int VERSION = 1;
+    static final int SLOT_SIZE = 64;
+    static final int MAX_ID_LENGTH = SLOT_SIZE - 10;
+
+    private static final int DEFAULT_SCALE = 2;
+    private static final int HEADER_SIZE = SLOT_SIZE;
+    private static final int REGION_SHIFT = 30;
+    private static final long REGION_MASK = (1L << REGION_SHIFT) - 1;
+
+    private static final int SIZE_OFFSET = 16;
+    private static final int BALANCE_OFFSET = 0;
+    private static final int STATE_OFFSET = 8;
+    private static final int ID_LENGTH_OFFSET = 9;
+    private static final int ID_OFFSET = 10;
+    private static final byte USED = 1;
+    private static final long BYTE_ARRAY_OFFSET = UNSAFE.arrayBaseOffset(byte[].class);
+
+    private final int capacity;
+    private final int mask;
+    private final int scale;
+    private final FileChannel channel;
+    private final MappedByteBuffer[] regions;
+    private final long[] regionAddresses;
+    private final ReentrantLock inserts = new ReentrantLock();
+
+    @Autowired
+    public MappedAccountsRepository(@Value("${accounts.mapped.file:accounts.dat}") String file,
+                                    @Value("${accounts.mapped.capacity:1048576}") int capacity,
+                                    @Value("${accounts.balance-scale:-1}") int balanceScale,
+                                    @Value("${journal.enabled:false}") boolean journalEnabled) throws IOException {
+        if (journalEnabled)
+            throw new IllegalStateException("The mapped accounts store cannot be used with the journal enabled");
+        if (capacity <= 0 || capacity > (1 << 30))
+            throw new IllegalArgumentException("Invalid capacity of the mapped accounts store: " + capacity);
+
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) size <<= 1;
+        int requestedScale = balanceScale >= 0 ? balanceScale : DEFAULT_SCALE;
+
+        Path path = Paths.get(file);
+        boolean existing = Files.exists(path) && Files.size(path) > 0;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+
+        if (existing) {
+            ByteBuffer header = ByteBuffer.allocate(16);
+            channel.read(header, 0);
+            header.flip();
+            if (header.getInt() != MAGIC || header.getInt() != VERSION)
+                throw new IllegalStateException("Invalid mapped accounts file " + file);
+            size = header.getInt();
+            if (header.getInt() != requestedScale)
+                throw new IllegalStateException("Mapped accounts file " + file + " uses another balance scale");
+        } else {
+            channel.truncate(0);
+            ByteBuffer header = ByteBuffer.allocate(16)
+                    .putInt(MAGIC).putInt(VERSION).putInt(size).putInt(requestedScale);
+            header.flip();
+            channel.write(header, 0);
+        }
+
+        this.capacity = size;
+        this.mask = size - 1;
+        this.scale = requestedScale;
+
+        long length = HEADER_SIZE + (long) size * SLOT_SIZE;
+        int numberOfRegions = (int) ((length + REGION_MASK) >>> REGION_SHIFT);
+        this.regions = new MappedByteBuffer[numberOfRegions];
+        this.regionAddresses = new long[numberOfRegions];
+        for (int i = 0; i < numberOfRegions; i++) {
+            long position = (long) i << REGION_SHIFT;
+            regions[i] = channel.map(FileChannel.MapMode.READ_WRITE, position, Math.min(REGION_MASK + 1, length - position));
+            regionAddresses[i] = UnsafeAccess.addressOf(regions[i]);
+        }
+        log.info("Mapped {} accounts of {} slots from {}", getSize(), this.capacity, file);
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getSize() {
+        return UNSAFE.getIntVolatile(null, regionAddresses[0] + SIZE_OFFSET);
+    }
+
+    @Override
+    public int countAccounts() {
+        return getSize();
+    }
+
+    @Override
+    public void createAccount(Account account) throws DuplicateAccountIdException {
+        final byte[] id = account.getAccountId().getBytes(StandardCharsets.UTF_8);
+        if (id.length > MAX_ID_LENGTH)
+            throw new InvalidAccountIdException("Account id " + account.getAccountId() + " is longer than "
+                    + MAX_ID_LENGTH + " bytes");
+
+        final long minorUnits;
+        try {
+            minorUnits = account.getBalance().movePointRight(scale).longValueExact();
+        } catch (ArithmeticException ae) {
+            throw new InvalidBalanceException("Balance " + account.getBalance() + " does not fit in " + scale
+                    + " decimals");
+        }
+
+        final long address;
+        inserts.lock();
+        try {
+            int slot = find(id);
+            if (slot >= 0) {
+                throw new DuplicateAccountIdException("Account id " + account.getAccountId() + " already exists!");
+            }
+            int size = getSize();
+            if (size >= capacity - (capacity >>> 2))
+                throw new IllegalStateException("The mapped accounts store is full (" + size + " accounts)");
+
+            address = slotAddress(-slot - 1);
+            UNSAFE.putLong(null, address + BALANCE_OFFSET, minorUnits);
+            UNSAFE.putByte(null, address + ID_LENGTH_OFFSET, (byte) id.length);
+            UNSAFE.copyMemory(id, BYTE_ARRAY_OFFSET, null, address + ID_OFFSET, id.length);
+            UNSAFE.putByteVolatile(null, address + STATE_OFFSET, USED);
+            UNSAFE.putIntVolatile(null, regionAddresses[0] + SIZE_OFFSET, size + 1);
+        } finally {
+            inserts.unlock();
+        }
+        account.useBalance(new MappedBalance(address + BALANCE_OFFSET, scale));
+    }
+
+    @Override
+    public Account getAccount(String accountId) {
+        final int slot = find(accountId.getBytes(StandardCharsets.UTF_8));
+        if (slot < 0) return null;
+        return new Account(accountId, new MappedBalance(slotAddress(slot) + BALANCE_OFFSET, scale));
+    }
+
+    @Override
+    public Stream<Account> streamAccounts() {
+        return IntStream.range(0, capacity)
+                .filter(slot -> UNSAFE.getByteVolatile(null, slotAddress(slot) + STATE_OFFSET) == USED)
+                .mapToObj(slot -> {
+                    long address = slotAddress(slot);
+                    byte[] id = new byte[UNSAFE.getByte(null, address + ID_LENGTH_OFFSET)];
+                    UNSAFE.copyMemory(null, address + ID_OFFSET, id, BYTE_ARRAY_OFFSET, id.length);
+                    return new Account(new String(id, StandardCharsets.UTF_8),
+                            new MappedBalance(address + BALANCE_OFFSET, scale));
+                });
+    }
+
+    /**
+     * Not safe while other threads use the store, as the slots are reused.
+     */
+    @Override
+    public void clearAccounts() {
+        inserts.lock();
+        try {
+            for (int i = 0; i < regions.length; i++) {
+                long start = i == 0 ? HEADER_SIZE : 0;
+                UNSAFE.setMemory(regionAddresses[i] + start, regions[i].capacity() - start, (byte) 0);
+            }
+            UNSAFE.putIntVolatile(null, regionAddresses[0] + SIZE_OFFSET, 0);
+        } finally {
+            inserts.unlock();
+        }
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        for (MappedByteBuffer region : regions) {
+            region.force();
+        }
+        channel.close();
+    }
+
+    /**
+     * @return the slot of the id, or {@code -(free slot + 1)} when it is not present
+     */
+    private int find(byte[] id) {
+        int slot = hash(id) & mask;
+        for (int probes = 0; probes < capacity; probes++) {
+            long address = slotAddress(slot);
+            if (UNSAFE.getByteVolatile(null, address + STATE_OFFSET) != USED) return -slot - 1;
+            if (matches(address, id)) return slot;
+            slot = (slot + 1) & mask;
+        }
+        throw new IllegalStateException("The mapped accounts store is full");
+    }
+
+    private static boolean matches(long address, byte[] id) {
+        if (UNSAFE.getByte(null, address + ID_LENGTH_OFFSET) != id.length) return false;
+        for (int i = 0; i < id.length; i++) {
+            if (UNSAFE.getByte(null, address + ID_OFFSET + i) != id[i]) return false;
+        }
+        return true;
+    }
+
+    private static int hash(byte[] id) {
+        int hash = 0;
+        for (byte b : id) {
+            hash = 31 * hash + b;
+        }
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    private long slotAddress(int slot) {
+        long offset = HEADER_SIZE + (long) slot * SLOT_SIZE;
+        return regionAddresses[(int) (offset >>> REGION_SHIFT)] + (offset & REGION_MASK);
+    }
+}
@@ -0,0 +1,66 @@
+package com.db.awmd.challenge.repository;
+
+import com.db.awmd.challenge.domain.Balance;
+import com.db.awmd.challenge.domain.FixedScaleBalance;
+
+import java.math.BigDecimal;
+
+import static com.db.awmd.challenge.repository.UnsafeAccess.UNSAFE;
+
+/**
+ * View of a balance stored as a long of minor units in a slot of {@link MappedAccountsRepository}.
+ * Like {@link FixedScaleBalance}, updates are CAS loops that fail with an
+ * {@link ArithmeticException} on overflow.
+ */
+final class MappedBalance implements Balance {
+
+    private final long address;
+    private final int scale;
+
+    MappedBalance(long address, int scale) {
+        this.address = address;
+        this.scale = scale;
+    }
+
+    private long toMinorUnits(BigDecimal amount) {
+        return amount.movePointRight(scale).longValueExact();
+    }
+
+    @Override
+    public BigDecimal get() {
+        return BigDecimal.valueOf(UNSAFE.getLongVolatile(null, address), scale);
+    }
+
+    @Override
+    public void set(BigDecimal value) {
+        UNSAFE.putLongVolatile(null, address, toMinorUnits(value));
+    }
+
+    @Override
+    public boolean covers(BigDecimal amount) {
+        return UNSAFE.getLongVolatile(null, address) >= toMinorUnits(amount);
+    }
+
+    @Override
+    public boolean supports(BigDecimal amount) {
+        return FixedScaleBalance.fitsMinorUnits(amount, scale);
+    }
+
+    @Override
+    public void withdraw(BigDecimal amount) {
+        final long minorUnits = toMinorUnits(amount);
+        long current;
+        do {
+            current = UNSAFE.getLongVolatile(null, address);
+        } while (!UNSAFE.compareAndSwapLong(null, address, current, Math.subtractExact(current, minorUnits)));
+    }
+
+    @Override
+    public void deposit(BigDecimal amount) {
+        final long minorUnits = toMinorUnits(amount);
+        long current;
+        do {
+            current = UNSAFE.getLongVolatile(null, address);
+        } while (!UNSAFE.compareAndSwapLong(null, address, current, Math.addExact(current, minorUnits)));
+    }
+}
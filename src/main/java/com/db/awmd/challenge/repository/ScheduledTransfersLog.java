@@ -0,0 +1,243 @@
+package com.db.awmd.challenge.repository;
+
+import com.db.awmd.challenge.domain.ScheduledTransfer;
+import com.db.awmd.challenge.exception.JournalException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of the scheduled transfers, so the pending ones survive a restart: a record when a
+ * transfer is scheduled, and another one when it is cancelled or taken to be made. Every append is forced
+ * to disk before returning.
+ * <p>
+ * The records are framed like those of {@link TransfersJournal}, so a torn record at the end is ignored
+ * when replaying. The log is compacted by writing the pending transfers to a new file that replaces it,
+ * on startup and whenever most of its records are of transfers no longer pending.
+ * <p>
+ * The log is disabled by default; in that case the scheduled transfers are only kept in memory.
+ */
+@Slf4j
+@Component
+public class ScheduledTransfersLog {
+
+    /**
+     * Callback of {@link #replay(Listener)}.
+     */
+    public interface Listener {
+
+        void onScheduled(ScheduledTransfer transfer);
+
+        void onDone(long id);
+    }
+
+    static final int MAGIC = 0x5343484C;
+    static final int VERSION = 1;
+
+    private static final byte SCHEDULED = 1;
+    private static final byte DONE = 2;
+    private static final String FILE_NAME = "scheduled.log";
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private final boolean enabled;
+    private final Path file;
+    private final Path compacted;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final CRC32 crc = new CRC32();
+    private FileChannel channel;
+    private long records;
+
+    @Autowired
+    public ScheduledTransfersLog(@Value("${transfers.scheduled.persistent:false}") boolean enabled,
+                                 @Value("${transfers.scheduled.directory:scheduled}") String directory) {
+        this.enabled = enabled;
+        this.file = Paths.get(directory).resolve(FILE_NAME);
+        this.compacted = Paths.get(directory).resolve(FILE_NAME + ".compacted");
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Records in the current file, pending or not.
+     */
+    public synchronized long getRecords() {
+        return records;
+    }
+
+    /**
+     * Reads every record of the log in order. Must be followed by {@link #compact(Stream)}, which opens the
+     * log for the appends.
+     */
+    public synchronized void replay(Listener listener) {
+        if (!enabled || !Files.exists(file)) return;
+
+        long replayed = 0;
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer data = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+            if (data.remaining() < 8 || data.getInt() != MAGIC || data.getInt() != VERSION)
+                throw new JournalException("Invalid scheduled transfers log " + file, null);
+
+            while (data.remaining() >= 8) {
+                int length = data.getInt();
+                int checksum = data.getInt();
+                if (length <= 0 || length > data.remaining()) break;
+
+                byte[] body = new byte[length];
+                data.get(body);
+                crc.reset();
+                crc.update(body, 0, length);
+                if ((int) crc.getValue() != checksum) break;
+
+                decode(ByteBuffer.wrap(body), listener);
+                replayed++;
+            }
+            if (data.hasRemaining()) {
+                log.warn("Ignoring {} bytes of incomplete record at the end of {}", data.remaining(), file);
+            }
+        } catch (IOException e) {
+            throw new JournalException("Error replaying scheduled transfers log " + file, e);
+        }
+        log.info("Replayed {} scheduled transfers records", replayed);
+    }
+
+    /**
+     * Replaces the log by one holding only the given pending transfers, and keeps appending to it.
+     */
+    public synchronized void compact(Stream<ScheduledTransfer> pending) {
+        if (!enabled) return;
+        try {
+            Files.createDirectories(file.getParent());
+            if (channel != null) channel.close();
+            records = 0;
+            channel = FileChannel.open(compacted, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.WRITE);
+            buffer.clear();
+            buffer.putInt(MAGIC).putInt(VERSION);
+            for (Iterator<ScheduledTransfer> transfers = pending.iterator(); transfers.hasNext(); ) {
+                put(encodeScheduled(transfers.next()));
+            }
+            flushBuffer();
+            channel.force(true);
+            channel.close();
+
+            Files.move(compacted, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            throw new JournalException("Error compacting scheduled transfers log " + file, e);
+        }
+    }
+
+    public synchronized void appendScheduled(List<ScheduledTransfer> transfers) {
+        if (!enabled) return;
+        try {
+            for (ScheduledTransfer transfer : transfers) {
+                put(encodeScheduled(transfer));
+            }
+            flushAndForce();
+        } catch (IOException e) {
+            throw new JournalException("Error appending to scheduled transfers log " + file, e);
+        }
+    }
+
+    public synchronized void appendDone(long[] ids, int count) {
+        if (!enabled || count == 0) return;
+        try {
+            for (int i = 0; i < count; i++) {
+                put(ByteBuffer.allocate(9).put(DONE).putLong(ids[i]).array());
+            }
+            flushAndForce();
+        } catch (IOException e) {
+            throw new JournalException("Error appending to scheduled transfers log " + file, e);
+        }
+    }
+
+    @PreDestroy
+    public synchronized void shutdown() throws IOException {
+        if (channel != null) channel.close();
+    }
+
+    private void put(byte[] body) throws IOException {
+        if (channel == null) throw new JournalException("Scheduled transfers log is not open", null);
+        if (buffer.remaining() < body.length + 8) flushBuffer();
+        crc.reset();
+        crc.update(body, 0, body.length);
+        buffer.putInt(body.length).putInt((int) crc.getValue()).put(body);
+        records++;
+    }
+
+    private void flushAndForce() throws IOException {
+        flushBuffer();
+        channel.force(false);
+    }
+
+    private void flushBuffer() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private static byte[] encodeScheduled(ScheduledTransfer transfer) {
+        byte[] fromId = transfer.getAccountFromId().getBytes(StandardCharsets.UTF_8);
+        byte[] toId = transfer.getAccountToId().getBytes(StandardCharsets.UTF_8);
+        byte[] unscaled = transfer.getAmount().unscaledValue().toByteArray();
+
+        ByteBuffer body = ByteBuffer.allocate(1 + 8 + 8 + 2 + fromId.length + 2 + toId.length + 4 + 2 + unscaled.length);
+        body.put(SCHEDULED).putLong(transfer.getId()).putLong(transfer.getExecuteAt());
+        body.putShort((short) fromId.length).put(fromId);
+        body.putShort((short) toId.length).put(toId);
+        body.putInt(transfer.getAmount().scale());
+        body.putShort((short) unscaled.length).put(unscaled);
+        return body.array();
+    }
+
+    private static void decode(ByteBuffer body, Listener listener) {
+        byte type = body.get();
+        switch (type) {
+            case SCHEDULED:
+                long id = body.getLong();
+                long executeAt = body.getLong();
+                listener.onScheduled(new ScheduledTransfer(id, readString(body), readString(body), readDecimal(body), executeAt));
+                return;
+            case DONE:
+                listener.onDone(body.getLong());
+                return;
+            default:
+                throw new JournalException("Unknown scheduled transfers record type " + type, null);
+        }
+    }
+
+    private static String readString(ByteBuffer body) {
+        byte[] bytes = new byte[body.getShort() & 0xFFFF];
+        body.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static BigDecimal readDecimal(ByteBuffer body) {
+        int scale = body.getInt();
+        byte[] unscaled = new byte[body.getShort() & 0xFFFF];
+        body.get(unscaled);
+        return new BigDecimal(new BigInteger(unscaled), scale);
+    }
+}
@@ -0,0 +1,398 @@
+package com.db.awmd.challenge.repository;
+
+import com.db.awmd.challenge.domain.AccountHistoryEntry;
+import com.db.awmd.challenge.domain.AccountHistoryPage;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Repository;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * In-memory history of the last transfers of each account, in the order they were recorded.
+ * <p>
+ * The history of an account is an append-only log split in chunks of growing size, up to
+ * {@link #LAST_CHUNK_BITS}. An append reserves its position with a single atomic increment and writes
+ * the entry into its chunk, so appends to the same account do not lock each other, e.g. the deposits
+ * into a hot account. The position of an entry is its cursor: a page is read by going straight to the
+ * chunk of the cursor, so its cost does not depend on the length of the history.
+ * <p>
+ * Only the last {@code history.max-entries-per-account} entries of each account are kept, at least: a
+ * new chunk drops the chunks before them, and a page from an older cursor starts at the oldest entry
+ * kept.
+ * <p>
+ * An entry whose append is still in progress ends the page before it, and is read with the next page.
+ * The history is not journaled, it starts empty on every restart.
+ * <p>
+ * Once {@link #start() started}, a transfer is only queued by the thread that made it, and appended to
+ * the histories of its accounts by the {@code transfers-history} thread, so the cache misses of the
+ * appends are not paid on the path of the request. The queue is not signalled: the writer sleeps for
+ * {@link #IDLE_WAIT_MILLIS} when it finds the queue empty, so a transfer shows up in the history after
+ * at most that delay. When {@code history.queue-capacity} transfers are waiting, the next ones are
+ * dropped and counted by the {@code history.dropped} meter. Before it is started, e.g. outside of the
+ * application context, transfers are appended directly.
+ * <p>
+ * Disabled by default, as recording costs about as much as the transfer itself.
+ */
+@Slf4j
+@Repository
+public class TransfersHistory {
+
+    static final long IDLE_WAIT_MILLIS = 1;
+
+    static final int DEFAULT_MAX_ENTRIES_PER_ACCOUNT = 10_000;
+    static final int DEFAULT_QUEUE_CAPACITY = 100_000;
+
+    private static final int FIRST_CHUNK_BITS = 4;
+    private static final int LAST_CHUNK_BITS = 12;
+    private static final int GROWING_CHUNKS = LAST_CHUNK_BITS - FIRST_CHUNK_BITS + 1;
+    /**
+     * Position of the first entry of the chunks that no longer grow.
+     */
+    private static final long GROWING_END = (1L << (LAST_CHUNK_BITS + 1)) - (1 << FIRST_CHUNK_BITS);
+
+    private final boolean enabled;
+    private final int maxEntriesPerAccount;
+    private final int queueCapacity;
+    private final ConcurrentMap<String, AccountLog> logs = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<RecordedTransfer> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicLong queued = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile long appended;
+    private volatile boolean running;
+    private Thread writer;
+
+    public TransfersHistory(boolean enabled) {
+        this(enabled, DEFAULT_MAX_ENTRIES_PER_ACCOUNT, DEFAULT_QUEUE_CAPACITY, null);
+    }
+
+    /**
+     * @param meterRegistry where to publish the transfers dropped, or null
+     */
+    @Autowired
+    public TransfersHistory(@Value("${history.enabled:false}") boolean enabled,
+                            @Value("${history.max-entries-per-account:" + DEFAULT_MAX_ENTRIES_PER_ACCOUNT + "}") int maxEntriesPerAccount,
+                            @Value("${history.queue-capacity:" + DEFAULT_QUEUE_CAPACITY + "}") int queueCapacity,
+                            MeterRegistry meterRegistry) {
+        if (maxEntriesPerAccount <= 0 || queueCapacity <= 0)
+            throw new IllegalArgumentException("History entries per account and queue capacity must be positive");
+        this.enabled = enabled;
+        this.maxEntriesPerAccount = maxEntriesPerAccount;
+        this.queueCapacity = queueCapacity;
+        if (meterRegistry != null) {
+            FunctionCounter.builder("history.dropped", dropped, AtomicLong::get)
+                    .description("Transfers not recorded in the history because its queue was full")
+                    .register(meterRegistry);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled || running) return;
+        running = true;
+        writer = new Thread(this::writeLoop, "transfers-history");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        if (!running) return;
+        running = false;
+        writer.join(TimeUnit.SECONDS.toMillis(10));
+    }
+
+    public void recordTransfer(final String accountFromId, final String accountToId, final BigDecimal amount) {
+        if (!enabled) return;
+        final RecordedTransfer transfer = new RecordedTransfer(System.currentTimeMillis(), accountFromId, accountToId, amount);
+        if (running) {
+            if (queued.get() - appended >= queueCapacity) {
+                dropped.incrementAndGet();
+                return;
+            }
+            queued.incrementAndGet();
+            queue.add(transfer);
+        } else {
+            append(transfer);
+        }
+    }
+
+    /**
+     * Waits until the transfers recorded before the call are in the history.
+     */
+    public void awaitRecorded() throws InterruptedException {
+        final long target = queued.get();
+        while (running && appended < target) {
+            Thread.sleep(IDLE_WAIT_MILLIS);
+        }
+    }
+
+    /**
+     * @param from  cursor of the first entry, 0 for the oldest one
+     * @param limit maximum number of entries
+     */
+    public AccountHistoryPage getTransfers(final String accountId, final long from, final int limit) {
+        final AccountLog log = logs.get(accountId);
+        if (log == null) return new AccountHistoryPage(Collections.emptyList(), from);
+        return log.read(from, limit);
+    }
+
+    /**
+     * Including the entries no longer kept.
+     */
+    public long countTransfers(final String accountId) {
+        final AccountLog log = logs.get(accountId);
+        return log == null ? 0 : log.size();
+    }
+
+    public long countDropped() {
+        return dropped.get();
+    }
+
+    public void clear() {
+        logs.clear();
+    }
+
+    private void writeLoop() {
+        while (running || !queue.isEmpty()) {
+            RecordedTransfer transfer = queue.poll();
+            if (transfer == null) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(IDLE_WAIT_MILLIS));
+                continue;
+            }
+            long count = 0;
+            do {
+                try {
+                    append(transfer);
+                } catch (RuntimeException e) {
+                    log.error("Error recording transfer in the history", e);
+                }
+                count++;
+            } while ((transfer = queue.poll()) != null);
+            appended += count;
+        }
+    }
+
+    private void append(final RecordedTransfer transfer) {
+        logOf(transfer.accountFromId).append(transfer.time, transfer.accountToId, transfer.amount, true);
+        logOf(transfer.accountToId).append(transfer.time, transfer.accountFromId, transfer.amount, false);
+    }
+
+    private AccountLog logOf(final String accountId) {
+        final AccountLog log = logs.get(accountId);
+        return log != null ? log : logs.computeIfAbsent(accountId, id -> new AccountLog(maxEntriesPerAccount));
+    }
+
+    private static final class RecordedTransfer {
+        private final long time;
+        private final String accountFromId;
+        private final String accountToId;
+        private final BigDecimal amount;
+
+        RecordedTransfer(long time, String accountFromId, String accountToId, BigDecimal amount) {
+            this.time = time;
+            this.accountFromId = accountFromId;
+            this.accountToId = accountToId;
+            this.amount = amount;
+        }
+    }
+
+    /**
+     * Chunk k starts at position 2^(k + FIRST_CHUNK_BITS) - 2^FIRST_CHUNK_BITS and has 2^(k + FIRST_CHUNK_BITS)
+     * entries up to {@link #GROWING_END}, so the history of an account with a few transfers takes a small
+     * chunk. From there every chunk has 2^LAST_CHUNK_BITS entries and takes a slot of a ring just large
+     * enough for the entries kept, so a new chunk replaces one that is already dropped. Appends go to the
+     * last chunk, which is kept in a field so that an append does not go through the directory of chunks.
+     */
+    private static final class AccountLog {
+
+        private static final AtomicLongFieldUpdater<AccountLog> RESERVED =
+                AtomicLongFieldUpdater.newUpdater(AccountLog.class, "reserved");
+
+        private final int maxEntries;
+        private volatile long reserved;
+        /**
+         * Position of the oldest entry kept, only moved forward under the lock of the log.
+         */
+        private volatile long firstKept;
+        private volatile Chunk last;
+        private final AtomicReferenceArray<Chunk> growing = new AtomicReferenceArray<>(GROWING_CHUNKS);
+        /**
+         * Allocated with the first chunk that no longer grows.
+         */
+        private volatile AtomicReferenceArray<Chunk> ring;
+
+        AccountLog(int maxEntries) {
+            this.maxEntries = maxEntries;
+        }
+
+        long size() {
+            return reserved;
+        }
+
+        void append(final long time, final String counterpartyId, final BigDecimal amount, final boolean debit) {
+            final long position = RESERVED.getAndIncrement(this);
+            Chunk chunk = last;
+            if (chunk == null || position < chunk.start || position >= chunk.start + chunk.size) {
+                chunk = chunkOf(position, true);
+                // Reserved so long ago that it is no longer kept
+                if (chunk == null) return;
+            }
+            chunk.write((int) (position - chunk.start), time, counterpartyId, amount, debit);
+        }
+
+        AccountHistoryPage read(final long from, final int limit) {
+            long position = Math.max(from, firstKept);
+            final long end = Math.min(reserved, position + limit);
+            final List<AccountHistoryEntry> page = new ArrayList<>((int) Math.max(0, end - position));
+            Chunk chunk = null;
+            while (position < end) {
+                if (chunk == null || position >= chunk.start + chunk.size) {
+                    chunk = chunkOf(position, false);
+                    if (chunk == null) break;
+                }
+                final AccountHistoryEntry entry = chunk.read((int) (position - chunk.start));
+                if (entry == null) break;
+                page.add(entry);
+                position++;
+            }
+            return new AccountHistoryPage(page, position);
+        }
+
+        /**
+         * @return null when the chunk of the position is not created yet, or no longer kept
+         */
+        private Chunk chunkOf(final long position, final boolean create) {
+            final long start = startOf(position);
+            if (position < GROWING_END) {
+                final int bits = 63 - Long.numberOfLeadingZeros(position + (1 << FIRST_CHUNK_BITS));
+                return chunkAt(growing, bits - FIRST_CHUNK_BITS, start, 1 << bits, create);
+            }
+            AtomicReferenceArray<Chunk> chunks = ring;
+            if (chunks == null) {
+                if (!create) return null;
+                chunks = createRing();
+            }
+            final long number = (position - GROWING_END) >>> LAST_CHUNK_BITS;
+            return chunkAt(chunks, (int) (number % chunks.length()), start, 1 << LAST_CHUNK_BITS, create);
+        }
+
+        private Chunk chunkAt(final AtomicReferenceArray<Chunk> chunks, final int slot, final long start,
+                              final int size, final boolean create) {
+            Chunk chunk = chunks.get(slot);
+            while (create && start + size > firstKept && (chunk == null || chunk.start < start)) {
+                final Chunk created = new Chunk(start, size);
+                if (chunks.compareAndSet(slot, chunk, created)) {
+                    dropBefore(start - maxEntries);
+                    chunk = created;
+                } else {
+                    chunk = chunks.get(slot);
+                }
+            }
+            if (chunk == null || chunk.start != start) return null;
+            if (create && (last == null || last.start < chunk.start)) last = chunk;
+            return chunk;
+        }
+
+        /**
+         * The ring holds the chunks of the entries kept, the one being filled, and one being created.
+         */
+        private synchronized AtomicReferenceArray<Chunk> createRing() {
+            if (ring == null) ring = new AtomicReferenceArray<>((maxEntries + (1 << LAST_CHUNK_BITS) - 1) / (1 << LAST_CHUNK_BITS) + 2);
+            return ring;
+        }
+
+        /**
+         * Drops the chunks that end before the position. Those of the ring are replaced when their slot is
+         * taken again.
+         */
+        private synchronized void dropBefore(final long position) {
+            if (position <= 0) return;
+            for (int i = 0; i < growing.length(); i++) {
+                final Chunk chunk = growing.get(i);
+                if (chunk != null && chunk.start + chunk.size <= position) growing.compareAndSet(i, chunk, null);
+            }
+            firstKept = Math.max(firstKept, startOf(position));
+        }
+
+        private static long startOf(final long position) {
+            if (position >= GROWING_END)
+                return GROWING_END + ((position - GROWING_END) >>> LAST_CHUNK_BITS << LAST_CHUNK_BITS);
+            final int bits = 63 - Long.numberOfLeadingZeros(position + (1 << FIRST_CHUNK_BITS));
+            return (1L << bits) - (1 << FIRST_CHUNK_BITS);
+        }
+    }
+
+    /**
+     * Entries stored as rows of primitives, so recording a transfer does not keep any object alive: the
+     * garbage collector only has to move the chunks, not one object per entry, and writing an entry only
+     * touches its row and the reference to the counterparty. The amount is kept as its unscaled value and
+     * scale, unless it does not fit in a long.
+     * <p>
+     * The time, shifted left with the direction in the lowest bit, is written last and with a volatile
+     * write, which publishes the rest of the entry. A time of 0 means the entry is not written yet.
+     */
+    private static final class Chunk {
+
+        private static final int ROW = 3;
+
+        private final long start;
+        private final int size;
+        private final AtomicLongArray rows;
+        private final String[] counterpartyIds;
+        private final BigDecimal[] largeAmounts;
+
+        Chunk(long start, int size) {
+            this.start = start;
+            this.size = size;
+            this.rows = new AtomicLongArray(size * ROW);
+            this.counterpartyIds = new String[size];
+            this.largeAmounts = new BigDecimal[size];
+        }
+
+        void write(int index, long time, String counterpartyId, BigDecimal amount, boolean debit) {
+            final int row = index * ROW;
+            counterpartyIds[index] = counterpartyId;
+            final BigInteger unscaled = amount.unscaledValue();
+            if (unscaled.bitLength() < Long.SIZE) {
+                rows.lazySet(row + 1, unscaled.longValue());
+                rows.lazySet(row + 2, amount.scale());
+            } else {
+                largeAmounts[index] = amount;
+            }
+            rows.set(row, time << 1 | (debit ? 1 : 0));
+        }
+
+        AccountHistoryEntry read(int index) {
+            final int row = index * ROW;
+            final long timeAndDirection = rows.get(row);
+            if (timeAndDirection == 0) return null;
+            final BigDecimal amount = largeAmounts[index] != null
+                    ? largeAmounts[index] : BigDecimal.valueOf(rows.get(row + 1), (int) rows.get(row + 2));
+            return new AccountHistoryEntry(timeAndDirection >>> 1, counterpartyIds[index], amount,
+                    (timeAndDirection & 1) != 0);
+        }
+    }
+}
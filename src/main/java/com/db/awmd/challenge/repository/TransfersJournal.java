@@ -0,0 +1,672 @@
+package com.db.awmd.challenge.repository;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.Transfer;
+import com.db.awmd.challenge.exception.JournalException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only binary journal of the account creations and the applied transfers, used to rebuild the
+ * in-memory accounts after a restart.
+ * <p>
+ * The records are written by a single thread through a {@link FileChannel}. Callers get a future that
+ * completes once their record is durable according to the fsync policy:
+ * <ul>
+ * <li>{@code always}: all the records queued while the previous fsync was running are written and forced
+ * to disk with a single fsync.</li>
+ * <li>{@code group}: records are accumulated until there are {@code journal.group-commit.max-records} of
+ * them or the oldest one waited {@code journal.group-commit.max-delay-micros}, and then they share one
+ * fsync.</li>
+ * <li>{@code never}: records are only written, the operating system decides when they reach the disk.</li>
+ * </ul>
+ * Each record is framed by its length and a CRC32, so a torn record at the end of the journal is
+ * detected and ignored when replaying. The transfers of an atomic batch, or the ones a multi-leg
+ * transfer adds up to, are journaled as a single record, see {@link #appendTransfers(List, long)}, so
+ * they are all replayed or none of them.
+ * <p>
+ * Every transfer record carries the snapshot epoch in which it was applied. Once a snapshot of the
+ * accounts is written, the segments sealed by {@link #roll()} before it are deleted, and the records of
+ * the previous epochs that remain in the newer segments are skipped by {@link #replay(Listener, long)}.
+ * <p>
+ * Transfers between accounts of different nodes, see {@code PartitionTransfers}, are journaled as the
+ * withdrawal on the node of the origin account, its outcome (deposited, or aborted and refunded), and the
+ * deposit on the node of the target account, each with the id of the transfer.
+ * <p>
+ * After an error writing or forcing a segment the journal stops: the records still queued fail, and the
+ * following appends throw, so their writes are reverted, until a restart replays the segments. Nothing
+ * is ever written after a frame that may be torn, which would hide the records behind it from the replay.
+ * <p>
+ * The journal is disabled by default; in that case every append completes immediately, unless a
+ * {@link Replicator} is set.
+ */
+@Slf4j
+@Component
+public class TransfersJournal {
+
+    public enum FsyncPolicy {
+        ALWAYS, GROUP, NEVER
+    }
+
+    /**
+     * Callback of {@link #replay(Listener, long)}.
+     */
+    public interface Listener {
+
+        void onAccountCreated(String accountId, BigDecimal balance);
+
+        void onTransfer(String accountFromId, String accountToId, BigDecimal amount);
+
+        /**
+         * The withdrawal of a transfer to an account of another node. Unlike the other callbacks, it is
+         * also called for the records of the epochs before the snapshot, with {@code apply} false, as
+         * their transfer may still be in doubt.
+         */
+        default void onTransferOut(long transferId, int node, String accountFromId, String accountToId,
+                                   BigDecimal amount, boolean apply) {
+        }
+
+        default void onTransferOutCommitted(long transferId) {
+        }
+
+        /**
+         * The refund of a transfer out whose deposit was refused by the other node.
+         */
+        default void onTransferOutAborted(long transferId, String accountFromId, BigDecimal amount, boolean apply) {
+        }
+
+        /**
+         * The deposit of a transfer from an account of another node, also called for the records of the
+         * epochs before the snapshot, see {@link #onTransferOut}.
+         */
+        default void onTransferIn(long transferId, int node, String accountToId, BigDecimal amount, boolean apply) {
+        }
+    }
+
+    /**
+     * Receives every record appended, whether the journal is enabled or not, see
+     * {@link #setReplicator(Replicator)}.
+     */
+    public interface Replicator {
+
+        /**
+         * @return a future completing once the record is replicated
+         */
+        CompletableFuture<Void> onAccountCreated(Account account);
+
+        CompletableFuture<Void> onTransfer(Transfer transfer, long epoch);
+    }
+
+    static final int MAGIC = 0x4A524E4C;
+    static final int VERSION = 4;
+
+    private static final byte ACCOUNT_CREATED = 1;
+    private static final byte TRANSFER = 2;
+    private static final byte TRANSFER_OUT = 3;
+    private static final byte TRANSFER_OUT_COMMITTED = 4;
+    private static final byte TRANSFER_OUT_ABORTED = 5;
+    private static final byte TRANSFER_IN = 6;
+    private static final byte TRANSFERS = 7;
+    private static final byte ROLL = 0;
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private static final CompletableFuture<Void> DONE = CompletableFuture.completedFuture(null);
+
+    private final boolean enabled;
+    private final Path directory;
+    private final FsyncPolicy fsyncPolicy;
+    private final int maxRecords;
+    private final long maxDelayNanos;
+
+    private final BlockingQueue<PendingRecord> queue = new LinkedBlockingQueue<>();
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final CRC32 crc = new CRC32();
+    private Thread writer;
+    private FileChannel channel;
+    private long currentSegment;
+    private long lastEpoch;
+    private volatile boolean running;
+    private volatile Replicator replicator;
+
+    @Autowired
+    public TransfersJournal(@Value("${journal.enabled:false}") boolean enabled,
+                            @Value("${journal.directory:journal}") String directory,
+                            @Value("${journal.fsync:always}") String fsyncPolicy,
+                            @Value("${journal.group-commit.max-records:1024}") int maxRecords,
+                            @Value("${journal.group-commit.max-delay-micros:2000}") long maxDelayMicros) {
+        this.enabled = enabled;
+        this.directory = Paths.get(directory);
+        this.fsyncPolicy = FsyncPolicy.valueOf(fsyncPolicy.toUpperCase());
+        this.maxRecords = maxRecords;
+        this.maxDelayNanos = TimeUnit.MICROSECONDS.toNanos(maxDelayMicros);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Sets the replicator the appended records are passed to. The futures of the appends then complete
+     * once their record is both durable and replicated.
+     */
+    public void setReplicator(Replicator replicator) {
+        this.replicator = replicator;
+    }
+
+    public CompletableFuture<Void> appendAccountCreated(Account account) {
+        final CompletableFuture<Void> durable = !enabled ? DONE
+                : append(new PendingRecord(ACCOUNT_CREATED, account.getAccountId(), null, account.getBalance(), 0, 0, 0));
+        final Replicator current = replicator;
+        return current == null ? durable : both(durable, current.onAccountCreated(account));
+    }
+
+    public CompletableFuture<Void> appendTransfer(Transfer transfer, long epoch) {
+        final CompletableFuture<Void> durable = !enabled ? DONE
+                : append(new PendingRecord(TRANSFER, transfer.getAccountFromId(), transfer.getAccountToId(),
+                transfer.getAmount(), epoch, 0, 0));
+        final Replicator current = replicator;
+        return current == null ? durable : both(durable, current.onTransfer(transfer, epoch));
+    }
+
+    /**
+     * Journals transfers that must be replayed together, in order, as one record. The replicator still
+     * gets them one by one.
+     */
+    public CompletableFuture<Void> appendTransfers(List<Transfer> transfers, long epoch) {
+        if (transfers.size() == 1) return appendTransfer(transfers.get(0), epoch);
+        CompletableFuture<Void> durable = !enabled ? DONE : append(new PendingRecord(transfers, epoch));
+        final Replicator current = replicator;
+        if (current == null) return durable;
+        for (Transfer transfer : transfers) {
+            durable = both(durable, current.onTransfer(transfer, epoch));
+        }
+        return durable;
+    }
+
+    /**
+     * The partition records are not passed to the replicator, replication of partitioned nodes is not
+     * supported.
+     */
+    public CompletableFuture<Void> appendTransferOut(long transferId, int node, Transfer transfer, long epoch) {
+        if (!enabled) return DONE;
+        return append(new PendingRecord(TRANSFER_OUT, transfer.getAccountFromId(), transfer.getAccountToId(),
+                transfer.getAmount(), epoch, transferId, node));
+    }
+
+    public CompletableFuture<Void> appendTransferOutCommitted(long transferId) {
+        if (!enabled) return DONE;
+        return append(new PendingRecord(TRANSFER_OUT_COMMITTED, null, null, null, 0, transferId, 0));
+    }
+
+    public CompletableFuture<Void> appendTransferOutAborted(long transferId, String accountFromId, BigDecimal amount,
+                                                            long epoch) {
+        if (!enabled) return DONE;
+        return append(new PendingRecord(TRANSFER_OUT_ABORTED, accountFromId, null, amount, epoch, transferId, 0));
+    }
+
+    public CompletableFuture<Void> appendTransferIn(long transferId, int node, String accountToId, BigDecimal amount,
+                                                    long epoch) {
+        if (!enabled) return DONE;
+        return append(new PendingRecord(TRANSFER_IN, accountToId, null, amount, epoch, transferId, node));
+    }
+
+    private static CompletableFuture<Void> both(CompletableFuture<Void> durable, CompletableFuture<Void> replicated) {
+        if (replicated.isDone() && !replicated.isCompletedExceptionally()) return durable;
+        if (durable.isDone() && !durable.isCompletedExceptionally()) return replicated;
+        return CompletableFuture.allOf(durable, replicated);
+    }
+
+    /**
+     * Closes the current segment and starts a new one. The future completes with the number of the new
+     * segment once every record appended before the call is durable in the previous segments.
+     */
+    public CompletableFuture<Long> roll() {
+        if (!enabled) return CompletableFuture.completedFuture(0L);
+        PendingRecord marker = new PendingRecord(ROLL, null, null, null, 0, 0, 0);
+        return append(marker).thenApply(done -> marker.segment);
+    }
+
+    /**
+     * Deletes the segments older than the given one, whose records must already be part of a snapshot.
+     */
+    public void deleteSegmentsBefore(long segment) {
+        if (!enabled) return;
+        try {
+            for (Path path : listSegments()) {
+                if (segmentNumber(path) < segment) Files.delete(path);
+            }
+        } catch (IOException e) {
+            throw new JournalException("Error deleting journal segments in " + directory, e);
+        }
+    }
+
+    public void replay(Listener listener) {
+        replay(listener, 0);
+    }
+
+    /**
+     * Reads every segment of the journal in order and starts the writer on a new segment. Must be called
+     * once, before the first append. The transfers of epochs older than {@code fromEpoch} are skipped, as
+     * they are already part of the snapshot the accounts were loaded from, while the account creations
+     * are always replayed.
+     *
+     * @return the highest epoch found in the journal
+     */
+    public synchronized long replay(Listener listener, long fromEpoch) {
+        if (!enabled || running) return 0;
+
+        lastEpoch = 0;
+        try {
+            Files.createDirectories(directory);
+            List<Path> segments = listSegments();
+            long records = 0;
+            for (Path segment : segments) {
+                records += replaySegment(segment, listener, fromEpoch);
+            }
+            log.info("Replayed {} journal records from {} segments", records, segments.size());
+
+            long nextSegment = segments.isEmpty() ? 1 : segmentNumber(segments.get(segments.size() - 1)) + 1;
+            openSegment(nextSegment);
+        } catch (IOException e) {
+            throw new JournalException("Error replaying journal in " + directory, e);
+        }
+
+        running = true;
+        writer = new Thread(this::writeLoop, "transfers-journal");
+        writer.setDaemon(true);
+        writer.start();
+        return lastEpoch;
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException, IOException {
+        if (!running) return;
+        running = false;
+        writer.join(TimeUnit.SECONDS.toMillis(10));
+        channel.close();
+    }
+
+    private CompletableFuture<Void> append(PendingRecord record) {
+        if (!running) throw new JournalException("Journal is not open", null);
+        queue.add(record);
+        // The writer may have stopped and failed the queue before the record was added
+        if (!running && queue.remove(record)) throw new JournalException("Journal is not open", null);
+        return record.durable;
+    }
+
+    private void writeLoop() {
+        List<PendingRecord> pending = new ArrayList<>();
+        long oldestPending = 0;
+
+        while (running || !queue.isEmpty() || !pending.isEmpty()) {
+            try {
+                PendingRecord record;
+                if (pending.isEmpty() || fsyncPolicy != FsyncPolicy.GROUP) {
+                    record = queue.poll(100, TimeUnit.MILLISECONDS);
+                } else {
+                    long wait = oldestPending + maxDelayNanos - System.nanoTime();
+                    record = wait > 0 ? queue.poll(wait, TimeUnit.NANOSECONDS) : null;
+                }
+
+                if (record != null) {
+                    if (pending.isEmpty()) oldestPending = System.nanoTime();
+                    int first = pending.size();
+                    pending.add(record);
+                    queue.drainTo(pending, maxRecords - pending.size());
+                    write(pending, first);
+                }
+
+                if (!pending.isEmpty() && shouldSync(pending.size(), oldestPending)) {
+                    if (fsyncPolicy != FsyncPolicy.NEVER) channel.force(false);
+                    complete(pending, null);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (IOException | RuntimeException e) {
+                log.error("Error writing journal, no more records are accepted until a restart", e);
+                stop(pending, new JournalException("Error writing journal", e));
+                return;
+            }
+        }
+    }
+
+    /**
+     * Called by the writer after an error: the records written since the last fsync and the ones still
+     * queued fail, and the segment is closed as it may end with a torn frame.
+     */
+    private void stop(List<PendingRecord> pending, JournalException error) {
+        running = false;
+        buffer.clear();
+        queue.drainTo(pending);
+        complete(pending, error);
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.warn("Error closing journal segment {}", currentSegment, e);
+        }
+    }
+
+    private boolean shouldSync(int pendingRecords, long oldestPending) {
+        return fsyncPolicy != FsyncPolicy.GROUP
+                || pendingRecords >= maxRecords
+                || System.nanoTime() - oldestPending >= maxDelayNanos
+                || !running;
+    }
+
+    private void complete(List<PendingRecord> pending, RuntimeException error) {
+        for (PendingRecord record : pending) {
+            if (error == null) {
+                record.durable.complete(null);
+            } else {
+                record.durable.completeExceptionally(error);
+            }
+        }
+        pending.clear();
+    }
+
+    private void write(List<PendingRecord> records, int from) throws IOException {
+        for (int i = from; i < records.size(); i++) {
+            if (records.get(i).type == ROLL) {
+                rollSegment(records.get(i));
+                continue;
+            }
+            byte[] body = records.get(i).encode();
+            if (buffer.remaining() < body.length + 8) flushBuffer();
+            if (buffer.remaining() < body.length + 8) {
+                channel.write(frame(body));
+                continue;
+            }
+            crc.reset();
+            crc.update(body, 0, body.length);
+            buffer.putInt(body.length).putInt((int) crc.getValue()).put(body);
+        }
+        flushBuffer();
+    }
+
+    private ByteBuffer frame(byte[] body) {
+        crc.reset();
+        crc.update(body, 0, body.length);
+        ByteBuffer framed = ByteBuffer.allocate(body.length + 8);
+        framed.putInt(body.length).putInt((int) crc.getValue()).put(body);
+        framed.flip();
+        return framed;
+    }
+
+    private void flushBuffer() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * The previous segment is always forced, whatever the fsync policy, as it may be deleted as soon as
+     * a snapshot covers it.
+     */
+    private void rollSegment(PendingRecord marker) throws IOException {
+        flushBuffer();
+        channel.force(false);
+        channel.close();
+        openSegment(currentSegment + 1);
+        marker.segment = currentSegment;
+    }
+
+    private void openSegment(long number) throws IOException {
+        Path segment = directory.resolve(String.format("%s%012d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+        channel = openChannel(segment);
+        ByteBuffer header = ByteBuffer.allocate(8).putInt(MAGIC).putInt(VERSION);
+        header.flip();
+        channel.write(header);
+        channel.force(true);
+        currentSegment = number;
+    }
+
+    /**
+     * Opens a new segment for writing; the tests override it to fail the writes.
+     */
+    protected FileChannel openChannel(Path segment) throws IOException {
+        return FileChannel.open(segment, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+    }
+
+    private List<Path> listSegments() throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path segment : stream) {
+                segments.add(segment);
+            }
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    private static long segmentNumber(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    /**
+     * Segments of version 1 have no epochs, their transfers are read as epoch 0. The partition records
+     * only exist from version 3, and the records of several transfers from version 4.
+     */
+    private long replaySegment(Path segment, Listener listener, long fromEpoch) throws IOException {
+        long records = 0;
+        try (FileChannel in = FileChannel.open(segment, StandardOpenOption.READ)) {
+            ByteBuffer data = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+            if (data.remaining() < 8 || data.getInt() != MAGIC)
+                throw new JournalException("Invalid journal segment " + segment, null);
+            int version = data.getInt();
+            if (version < 1 || version > VERSION)
+                throw new JournalException("Unsupported version " + version + " of journal segment " + segment, null);
+
+            while (data.remaining() >= 8) {
+                int length = data.getInt();
+                int checksum = data.getInt();
+                if (length <= 0 || length > data.remaining()) break;
+
+                byte[] body = new byte[length];
+                data.get(body);
+                crc.reset();
+                crc.update(body, 0, length);
+                if ((int) crc.getValue() != checksum) break;
+
+                if (decode(ByteBuffer.wrap(body), version, listener, fromEpoch)) records++;
+            }
+            if (data.hasRemaining()) {
+                log.warn("Ignoring {} bytes of incomplete record at the end of {}", data.remaining(), segment);
+            }
+        }
+        return records;
+    }
+
+    private boolean decode(ByteBuffer body, int version, Listener listener, long fromEpoch) {
+        byte type = body.get();
+        switch (type) {
+            case ACCOUNT_CREATED:
+                listener.onAccountCreated(readString(body), readDecimal(body));
+                return true;
+            case TRANSFER:
+                long epoch = version >= 2 ? body.getLong() : 0;
+                lastEpoch = Math.max(lastEpoch, epoch);
+                if (epoch < fromEpoch) return false;
+                listener.onTransfer(readString(body), readString(body), readDecimal(body));
+                return true;
+            case TRANSFERS: {
+                final long transfersEpoch = readEpoch(body);
+                if (transfersEpoch < fromEpoch) return false;
+                final int count = body.getInt();
+                for (int i = 0; i < count; i++) {
+                    listener.onTransfer(readString(body), readString(body), readDecimal(body));
+                }
+                return true;
+            }
+            case TRANSFER_OUT: {
+                final long outEpoch = readEpoch(body);
+                final long transferId = body.getLong();
+                final int node = body.getInt();
+                listener.onTransferOut(transferId, node, readString(body), readString(body), readDecimal(body),
+                        outEpoch >= fromEpoch);
+                return true;
+            }
+            case TRANSFER_OUT_COMMITTED:
+                listener.onTransferOutCommitted(body.getLong());
+                return true;
+            case TRANSFER_OUT_ABORTED: {
+                final long abortEpoch = readEpoch(body);
+                final long transferId = body.getLong();
+                listener.onTransferOutAborted(transferId, readString(body), readDecimal(body), abortEpoch >= fromEpoch);
+                return true;
+            }
+            case TRANSFER_IN: {
+                final long inEpoch = readEpoch(body);
+                final long transferId = body.getLong();
+                final int node = body.getInt();
+                listener.onTransferIn(transferId, node, readString(body), readDecimal(body), inEpoch >= fromEpoch);
+                return true;
+            }
+            default:
+                throw new JournalException("Unknown journal record type " + type, null);
+        }
+    }
+
+    private long readEpoch(ByteBuffer body) {
+        final long epoch = body.getLong();
+        lastEpoch = Math.max(lastEpoch, epoch);
+        return epoch;
+    }
+
+    private static String readString(ByteBuffer body) {
+        byte[] bytes = new byte[body.getShort() & 0xFFFF];
+        body.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static BigDecimal readDecimal(ByteBuffer body) {
+        int scale = body.getInt();
+        byte[] unscaled = new byte[body.getShort() & 0xFFFF];
+        body.get(unscaled);
+        return new BigDecimal(new BigInteger(unscaled), scale);
+    }
+
+    private static final class PendingRecord {
+        private final byte type;
+        private final String accountId;
+        private final String otherAccountId;
+        private final BigDecimal amount;
+        private final long epoch;
+        private final long transferId;
+        private final int node;
+        /**
+         * Only set on the records of several transfers.
+         */
+        private final List<Transfer> transfers;
+        private final CompletableFuture<Void> durable = new CompletableFuture<>();
+        /**
+         * Set by the writer on roll markers, before completing them.
+         */
+        private long segment;
+
+        PendingRecord(byte type, String accountId, String otherAccountId, BigDecimal amount, long epoch,
+                      long transferId, int node) {
+            this.type = type;
+            this.accountId = accountId;
+            this.otherAccountId = otherAccountId;
+            this.amount = amount;
+            this.epoch = epoch;
+            this.transferId = transferId;
+            this.node = node;
+            this.transfers = null;
+        }
+
+        PendingRecord(List<Transfer> transfers, long epoch) {
+            this.type = TRANSFERS;
+            this.accountId = null;
+            this.otherAccountId = null;
+            this.amount = null;
+            this.epoch = epoch;
+            this.transferId = 0;
+            this.node = 0;
+            this.transfers = transfers;
+        }
+
+        /**
+         * The fields in the order of {@link #decode}: the epoch, the id of the transfer and the node when
+         * the type has them, then the account ids and the amount that are set.
+         */
+        byte[] encode() {
+            if (type == TRANSFERS) return encodeTransfers();
+            final boolean hasEpoch = type != ACCOUNT_CREATED && type != TRANSFER_OUT_COMMITTED;
+            final boolean hasTransferId = type >= TRANSFER_OUT;
+            final boolean hasNode = type == TRANSFER_OUT || type == TRANSFER_IN;
+            byte[] id = accountId == null ? null : accountId.getBytes(StandardCharsets.UTF_8);
+            byte[] otherId = otherAccountId == null ? null : otherAccountId.getBytes(StandardCharsets.UTF_8);
+            byte[] unscaled = amount == null ? null : amount.unscaledValue().toByteArray();
+
+            ByteBuffer body = ByteBuffer.allocate(1 + (hasEpoch ? 8 : 0) + (hasTransferId ? 8 : 0) + (hasNode ? 4 : 0)
+                    + (id == null ? 0 : 2 + id.length) + (otherId == null ? 0 : 2 + otherId.length)
+                    + (unscaled == null ? 0 : 4 + 2 + unscaled.length));
+            body.put(type);
+            if (hasEpoch) body.putLong(epoch);
+            if (hasTransferId) body.putLong(transferId);
+            if (hasNode) body.putInt(node);
+            if (id != null) body.putShort((short) id.length).put(id);
+            if (otherId != null) body.putShort((short) otherId.length).put(otherId);
+            if (unscaled != null) {
+                body.putInt(amount.scale());
+                body.putShort((short) unscaled.length).put(unscaled);
+            }
+            return body.array();
+        }
+
+        /**
+         * The epoch and the number of transfers, then the account ids and the amount of each one.
+         */
+        private byte[] encodeTransfers() {
+            final byte[][] fields = new byte[3 * transfers.size()][];
+            int size = 1 + 8 + 4;
+            for (int i = 0; i < transfers.size(); i++) {
+                final Transfer transfer = transfers.get(i);
+                fields[3 * i] = transfer.getAccountFromId().getBytes(StandardCharsets.UTF_8);
+                fields[3 * i + 1] = transfer.getAccountToId().getBytes(StandardCharsets.UTF_8);
+                fields[3 * i + 2] = transfer.getAmount().unscaledValue().toByteArray();
+                size += 2 + fields[3 * i].length + 2 + fields[3 * i + 1].length + 4 + 2 + fields[3 * i + 2].length;
+            }
+
+            final ByteBuffer body = ByteBuffer.allocate(size);
+            body.put(type).putLong(epoch).putInt(transfers.size());
+            for (int i = 0; i < transfers.size(); i++) {
+                body.putShort((short) fields[3 * i].length).put(fields[3 * i]);
+                body.putShort((short) fields[3 * i + 1].length).put(fields[3 * i + 1]);
+                body.putInt(transfers.get(i).getAmount().scale());
+                body.putShort((short) fields[3 * i + 2].length).put(fields[3 * i + 2]);
+            }
+            return body.array();
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.db.awmd.challenge.repository;
+
+import sun.misc.Unsafe;
+
+import java.lang.reflect.Field;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+
+/**
+ * Volatile and CAS access to off-heap memory, which {@link java.nio.ByteBuffer} does not offer.
+ */
+final class UnsafeAccess {
+
+    static final Unsafe UNSAFE;
+    private static final long ADDRESS_OFFSET;
+
+    static {
+        try {
+            Field field = Unsafe.class.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            UNSAFE = (Unsafe) field.get(null);
+            ADDRESS_OFFSET = UNSAFE.objectFieldOffset(Buffer.class.getDeclaredField("address"));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /**
+     * The off-heap address of a direct buffer, read from the field of {@link Buffer} as the JDK offers no
+     * public way to get it.
+     */
+    static long addressOf(ByteBuffer buffer) {
+        if (!buffer.isDirect()) throw new IllegalArgumentException("Not a direct buffer");
+        return UNSAFE.getLong(buffer, ADDRESS_OFFSET);
+    }
+
+    private UnsafeAccess() {
+    }
+}
@@ -0,0 +1,187 @@
+package com.db.awmd.challenge.service;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.AccountImportError;
+import com.db.awmd.challenge.domain.AccountsImportResult;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Creates the accounts of a bulk import in parallel, while the caller is still reading them.
+ * <p>
+ * The accounts are handed over in batches to a pool of threads that create each batch with
+ * {@link AccountsService#createAccounts(List, java.util.function.BiConsumer)}, so the creations of a
+ * batch are journaled together and share the fsyncs of the journal. At most two batches
+ * per thread are pending, the caller waits for one to finish before adding more, so the memory used
+ * does not depend on the size of the import. An account that cannot be created, e.g. a duplicate, is
+ * reported and the import goes on.
+ */
+@Slf4j
+@Component
+public class AccountsImporter {
+
+    private final AccountsService accountsService;
+    private final int threads;
+    private final int batchSize;
+    private final int maxReportedErrors;
+    private ExecutorService executor;
+
+    @Autowired
+    public AccountsImporter(AccountsService accountsService,
+                            @Value("${accounts.import.threads:0}") int threads,
+                            @Value("${accounts.import.batch-size:1000}") int batchSize,
+                            @Value("${accounts.import.max-reported-errors:1000}") int maxReportedErrors) {
+        this.accountsService = accountsService;
+        this.threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        this.batchSize = Math.max(1, batchSize);
+        this.maxReportedErrors = maxReportedErrors;
+    }
+
+    public Session start() {
+        return new Session();
+    }
+
+    @PostConstruct
+    public void startExecutor() {
+        final AtomicInteger count = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "accounts-import-" + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * One import. Not thread-safe: the accounts are added by the thread reading them.
+     */
+    public final class Session {
+
+        private final Semaphore pending = new Semaphore(2 * threads);
+        private final AtomicLong created = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final ConcurrentLinkedQueue<AccountImportError> errors = new ConcurrentLinkedQueue<>();
+        private List<Entry> batch = new ArrayList<>(batchSize);
+        private long index;
+
+        private Session() {
+        }
+
+        /**
+         * Validates the account as {@code POST /v1/accounts} does, and queues it to be created.
+         */
+        public void add(final long line, final String accountId, final BigDecimal balance) {
+            final long entry = index++;
+            if (accountId == null || accountId.isEmpty()) {
+                fail(entry, line, accountId, "Account must have an id");
+            } else if (balance == null) {
+                fail(entry, line, accountId, "Account must have a balance");
+            } else if (balance.signum() < 0) {
+                fail(entry, line, accountId, "Initial balance must be positive.");
+            } else {
+                batch.add(new Entry(entry, line, new Account(accountId, balance)));
+                if (batch.size() == batchSize) submit();
+            }
+        }
+
+        /**
+         * Reports an entry that could not be read, e.g. with a balance that is not a number.
+         */
+        public void reject(final long line, final String accountId, final String message) {
+            fail(index++, line, accountId, message);
+        }
+
+        /**
+         * Waits for the creation of all the accounts added.
+         *
+         * @param message why the body could not be read to the end, or null
+         */
+        public AccountsImportResult finish(final String message) {
+            if (!batch.isEmpty()) submit();
+            pending.acquireUninterruptibly(2 * threads);
+            pending.release(2 * threads);
+
+            final List<AccountImportError> reported = new ArrayList<>(errors);
+            reported.sort(Comparator.comparingLong(AccountImportError::getIndex));
+            log.info("Imported {} accounts, {} failed", created.get(), failed.get());
+            return new AccountsImportResult(created.get(), failed.get(), reported, message);
+        }
+
+        private void submit() {
+            final List<Entry> entries = batch;
+            batch = new ArrayList<>(batchSize);
+            pending.acquireUninterruptibly();
+            try {
+                executor.execute(() -> {
+                    try {
+                        create(entries);
+                    } finally {
+                        pending.release();
+                    }
+                });
+            } catch (RuntimeException e) {
+                pending.release();
+                throw e;
+            }
+        }
+
+        private void create(final List<Entry> entries) {
+            final List<Account> accounts = new ArrayList<>(entries.size());
+            final Map<Account, Entry> entryOf = new IdentityHashMap<>(entries.size());
+            for (Entry entry : entries) {
+                accounts.add(entry.account);
+                entryOf.put(entry.account, entry);
+            }
+            try {
+                created.addAndGet(accountsService.createAccounts(accounts, (account, e) -> {
+                    final Entry entry = entryOf.remove(account);
+                    fail(entry.index, entry.line, account.getAccountId(), e.getMessage());
+                }));
+            } catch (RuntimeException e) {
+                // The journal failed before any account of the batch was created
+                for (Entry entry : entryOf.values()) {
+                    fail(entry.index, entry.line, entry.account.getAccountId(), e.getMessage());
+                }
+            }
+        }
+
+        private void fail(final long index, final long line, final String accountId, final String message) {
+            if (failed.incrementAndGet() <= maxReportedErrors) {
+                errors.add(new AccountImportError(index, line, accountId, message));
+            }
+        }
+    }
+
+    private static final class Entry {
+        private final long index;
+        private final long line;
+        private final Account account;
+
+        Entry(long index, long line, Account account) {
+            this.index = index;
+            this.line = line;
+            this.account = account;
+        }
+    }
+}
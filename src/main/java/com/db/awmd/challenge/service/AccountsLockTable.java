@@ -0,0 +1,151 @@
+package com.db.awmd.challenge.service;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Fixed-size table of locks shared by all the accounts. Each account id is mapped to one stripe by its
+ * hash, so the memory used is bounded by the number of stripes and not by the number of accounts, and
+ * the domain objects are never used as monitors.
+ * <p>
+ * Several stripes must always be acquired in ascending stripe order to stay free of deadlocks.
+ * <p>
+ * Every stripe is first tried without waiting. Only when it is already held the contention is counted
+ * for the stripe and the wait is timed, so uncontended locking has no metrics overhead. The timed waits
+ * are also kept as a moving average, see {@link #getRecentWaitNanos()}.
+ */
+@Component
+public class AccountsLockTable {
+
+    private final ReentrantLock[] stripes;
+    private final int mask;
+    private final AtomicLongArray contentions;
+    private final Timer waitTimer;
+    /**
+     * Updated without synchronization by the contended acquisitions, so concurrent updates may be lost.
+     */
+    private volatile long averageWaitNanos;
+    private volatile long lastWaitEnd;
+
+    public AccountsLockTable(int numberOfStripes) {
+        this(numberOfStripes, new CompositeMeterRegistry());
+    }
+
+    @Autowired
+    public AccountsLockTable(@Value("${transfers.lock-stripes:1024}") int numberOfStripes, MeterRegistry meterRegistry) {
+        if (numberOfStripes <= 0 || numberOfStripes > (1 << 30))
+            throw new IllegalArgumentException("Invalid number of lock stripes: " + numberOfStripes);
+
+        int size = Integer.highestOneBit(numberOfStripes);
+        if (size < numberOfStripes) size <<= 1;
+
+        this.stripes = new ReentrantLock[size];
+        for (int i = 0; i < size; i++) {
+            this.stripes[i] = new ReentrantLock();
+        }
+        this.mask = size - 1;
+
+        this.contentions = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            final int stripe = i;
+            FunctionCounter.builder("accounts.lock.contentions", contentions, counts -> counts.get(stripe))
+                    .description("Acquisitions of the lock stripe that had to wait")
+                    .tag("stripe", Integer.toString(stripe))
+                    .register(meterRegistry);
+        }
+        this.waitTimer = Timer.builder("accounts.lock.wait")
+                .description("Time waiting for a lock stripe held by another transfer")
+                .publishPercentiles(0.5, 0.99, 0.999)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    public int getNumberOfStripes() {
+        return stripes.length;
+    }
+
+    public int stripeOf(final String accountId) {
+        int hash = accountId.hashCode();
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    public long getContentions(final int stripe) {
+        return contentions.get(stripe);
+    }
+
+    /**
+     * Moving average of the recent waits for a stripe, or 0 if no acquisition had to wait during the
+     * given period.
+     */
+    public long getRecentWaitNanos(final long periodNanos) {
+        final long average = averageWaitNanos;
+        return average > 0 && System.nanoTime() - lastWaitEnd <= periodNanos ? average : 0;
+    }
+
+    public void lock(final int stripe) {
+        final ReentrantLock lock = stripes[stripe];
+        if (!lock.tryLock()) lockContended(stripe, lock);
+    }
+
+    public void unlock(final int stripe) {
+        stripes[stripe].unlock();
+    }
+
+    /**
+     * Locks two stripes in ascending order. When both accounts share a stripe it is only locked once.
+     */
+    public void lockPair(final int stripe1, final int stripe2) {
+        if (stripe1 == stripe2) {
+            lock(stripe1);
+        } else if (stripe1 < stripe2) {
+            lock(stripe1);
+            lock(stripe2);
+        } else {
+            lock(stripe2);
+            lock(stripe1);
+        }
+    }
+
+    public void unlockPair(final int stripe1, final int stripe2) {
+        stripes[stripe1].unlock();
+        if (stripe1 != stripe2) {
+            stripes[stripe2].unlock();
+        }
+    }
+
+    /**
+     * Locks the given stripes, which must be sorted in ascending order and without duplicates.
+     */
+    public void lockAll(final int[] sortedStripes, final int count) {
+        for (int i = 0; i < count; i++) {
+            lock(sortedStripes[i]);
+        }
+    }
+
+    public void unlockAll(final int[] sortedStripes, final int count) {
+        for (int i = count - 1; i >= 0; i--) {
+            stripes[sortedStripes[i]].unlock();
+        }
+    }
+
+    private void lockContended(final int stripe, final ReentrantLock lock) {
+        contentions.incrementAndGet(stripe);
+        final long start = System.nanoTime();
+        lock.lock();
+        final long end = System.nanoTime();
+        final long wait = end - start;
+        waitTimer.record(wait, TimeUnit.NANOSECONDS);
+        final long average = averageWaitNanos;
+        averageWaitNanos = average + (wait - average) / 8;
+        lastWaitEnd = end;
+    }
+}
@@ -1,10 +1,33 @@
 package com.db.awmd.challenge.service;
 
 import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.AccountHistoryPage;
+import com.db.awmd.challenge.domain.AccountSnapshot;
+import com.db.awmd.challenge.domain.FixedScaleBalance;
+import com.db.awmd.challenge.domain.SplitBalance;
+import com.db.awmd.challenge.exception.DuplicateAccountIdException;
+import com.db.awmd.challenge.exception.InvalidAccountIdException;
+import com.db.awmd.challenge.exception.InvalidBalanceException;
 import com.db.awmd.challenge.repository.AccountsRepository;
+import com.db.awmd.challenge.repository.TransfersHistory;
+import com.db.awmd.challenge.repository.TransfersJournal;
 import lombok.Getter;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.function.BiConsumer;
+import java.util.stream.Stream;
 
 @Service
 public class AccountsService {
@@ -12,16 +35,220 @@ public class AccountsService {
     @Getter
     private final AccountsRepository accountsRepository;
 
+    /**
+     * Number of decimals of the fixed-scale balances, or a negative value to keep BigDecimal balances.
+     */
+    private final int balanceScale;
+
+    private final TransfersJournal transfersJournal;
+
+    private final AccountsSnapshotter accountsSnapshotter;
+
+    /**
+     * Ids of the accounts on one side of most transfers, whose balance is split in sub-balances.
+     */
+    private final Set<String> hotAccountIds;
+
+    private final int hotAccountSplits;
+
+    /**
+     * Ids of the accounts being created, claimed before the repository is checked so that a single
+     * creation of each id is journaled.
+     */
+    private final Set<String> creatingIds = ConcurrentHashMap.newKeySet();
+
+    @Autowired
+    private TransfersHistory transfersHistory;
+
+    /**
+     * Rejects the accounts of the other nodes, see {@link PartitionRing}. Without it, e.g. when built by
+     * hand, every account is local.
+     */
     @Autowired
-    public AccountsService(AccountsRepository accountsRepository) {
+    private PartitionRing partitionRing;
+
+    public AccountsService(AccountsRepository accountsRepository, int balanceScale,
+                           TransfersJournal transfersJournal, AccountsSnapshotter accountsSnapshotter) {
+        this(accountsRepository, balanceScale, transfersJournal, accountsSnapshotter, "", 0);
+    }
+
+    @Autowired
+    public AccountsService(AccountsRepository accountsRepository,
+                           @Value("${accounts.balance-scale:-1}") int balanceScale,
+                           TransfersJournal transfersJournal,
+                           AccountsSnapshotter accountsSnapshotter,
+                           @Value("${accounts.hot.ids:}") String hotAccountIds,
+                           @Value("${accounts.hot.splits:0}") int hotAccountSplits) {
         this.accountsRepository = accountsRepository;
+        this.balanceScale = balanceScale;
+        this.transfersJournal = transfersJournal;
+        this.accountsSnapshotter = accountsSnapshotter;
+        this.hotAccountIds = StringUtils.commaDelimitedListToSet(StringUtils.trimAllWhitespace(hotAccountIds));
+        this.hotAccountSplits = hotAccountSplits > 0 ? hotAccountSplits : Runtime.getRuntime().availableProcessors();
     }
 
-    public void createAccount(Account account) {
+    /**
+     * Ids that are paths under {@code /v1/accounts}, so an account with one of them could not be read.
+     */
+    private static final Set<String> RESERVED_IDS = Collections.singleton("export");
+
+    /**
+     * The creation is journaled before the account becomes visible, so no journaled transfer can precede
+     * the creation of its accounts. No snapshot can start while a creation is half done. The id is
+     * claimed first, so of concurrent creations of the same id only one is journaled, and replicated.
+     */
+    public void createAccount(Account account) throws DuplicateAccountIdException, InvalidBalanceException {
+        checkId(account);
+        checkLocal(account);
+        prepareBalance(account);
+        claimId(account);
+        Lock creationLock = this.accountsSnapshotter.creationLock();
+        creationLock.lock();
+        try {
+            awaitDurable(this.transfersJournal.appendAccountCreated(account));
+            this.accountsRepository.createAccount(account);
+        } finally {
+            creationLock.unlock();
+            this.creatingIds.remove(account.getAccountId());
+        }
+    }
+
+    /**
+     * Same as {@link #createAccount(Account)} for each account, but the creations are journaled together
+     * and waited for once, so they share the fsyncs of the journal. An account that cannot be created,
+     * e.g. a duplicate, is passed to {@code rejected} and does not stop the others.
+     *
+     * @return the number of accounts created
+     */
+    public int createAccounts(List<Account> accounts, BiConsumer<Account, RuntimeException> rejected) {
+        final List<Account> prepared = new ArrayList<>(accounts.size());
+        final Set<String> ids = new HashSet<>();
+        for (Account account : accounts) {
+            try {
+                if (!ids.add(account.getAccountId()))
+                    throw new DuplicateAccountIdException("Account id " + account.getAccountId() + " already exists!");
+                checkId(account);
+                checkLocal(account);
+                prepareBalance(account);
+                claimId(account);
+                prepared.add(account);
+            } catch (DuplicateAccountIdException | InvalidAccountIdException | InvalidBalanceException e) {
+                rejected.accept(account, e);
+            }
+        }
+
+        int created = 0;
+        Lock creationLock = this.accountsSnapshotter.creationLock();
+        creationLock.lock();
+        try {
+            final List<CompletableFuture<Void>> durable = new ArrayList<>(prepared.size());
+            for (Account account : prepared) {
+                durable.add(this.transfersJournal.appendAccountCreated(account));
+            }
+            awaitDurable(CompletableFuture.allOf(durable.toArray(new CompletableFuture[0])));
+            for (Account account : prepared) {
+                try {
+                    this.accountsRepository.createAccount(account);
+                    created++;
+                } catch (RuntimeException e) {
+                    rejected.accept(account, e);
+                }
+            }
+        } finally {
+            creationLock.unlock();
+            for (Account account : prepared) {
+                this.creatingIds.remove(account.getAccountId());
+            }
+        }
+        return created;
+    }
+
+    /**
+     * Creates an account read from the journal, without journaling it again.
+     */
+    public void restoreAccount(Account account) throws DuplicateAccountIdException {
+        prepareBalance(account);
         this.accountsRepository.createAccount(account);
     }
 
+    /**
+     * Until released, no other creation of the id gets past this check.
+     */
+    private void claimId(Account account) {
+        final String accountId = account.getAccountId();
+        if (this.creatingIds.add(accountId)) {
+            if (this.accountsRepository.getAccount(accountId) == null) return;
+            this.creatingIds.remove(accountId);
+        }
+        throw new DuplicateAccountIdException("Account id " + accountId + " already exists!");
+    }
+
+    private static void checkId(Account account) {
+        if (RESERVED_IDS.contains(account.getAccountId()))
+            throw new InvalidAccountIdException("Account id " + account.getAccountId() + " is reserved");
+    }
+
+    private void checkLocal(Account account) {
+        if (partitionRing != null && !partitionRing.isLocal(account.getAccountId()))
+            throw new InvalidAccountIdException("Account " + account.getAccountId() + " belongs to partition "
+                    + partitionRing.ownerOf(account.getAccountId()));
+    }
+
+    /**
+     * The balances of the hot accounts are split with the fixed scale, or with at least 2 decimals when
+     * the other balances are BigDecimal.
+     */
+    private void prepareBalance(Account account) {
+        if (hotAccountIds.contains(account.getAccountId())) {
+            final int scale = balanceScale >= 0 ? balanceScale : Math.max(2, account.getBalance().scale());
+            try {
+                account.useBalance(new SplitBalance(account.getBalance(), scale, hotAccountSplits));
+            } catch (ArithmeticException ae) {
+                throw new InvalidBalanceException("Balance " + account.getBalance() + " does not fit in "
+                        + scale + " decimals");
+            }
+        } else if (balanceScale >= 0) {
+            try {
+                account.useBalance(new FixedScaleBalance(account.getBalance(), balanceScale));
+            } catch (ArithmeticException ae) {
+                throw new InvalidBalanceException("Balance " + account.getBalance() + " does not fit in "
+                        + balanceScale + " decimals");
+            }
+        }
+    }
+
+    private static void awaitDurable(CompletableFuture<Void> durable) {
+        try {
+            durable.join();
+        } catch (CompletionException ce) {
+            throw (RuntimeException) ce.getCause();
+        }
+    }
+
     public Account getAccount(String accountId) {
         return this.accountsRepository.getAccount(accountId);
     }
+
+    /**
+     * The account with its current balance, or null if it does not exist, see {@link Account#snapshot()}.
+     */
+    public AccountSnapshot getAccountSnapshot(String accountId) {
+        final Account account = this.accountsRepository.getAccount(accountId);
+        return account == null ? null : account.snapshot();
+    }
+
+    /**
+     * All the accounts, see {@link AccountsRepository#streamAccounts()}. Their balances are read while
+     * the stream is consumed, without locking them, so concurrent transfers are not blocked.
+     */
+    public Stream<Account> streamAccounts() {
+        return this.accountsRepository.streamAccounts();
+    }
+
+    /**
+     * Transfers of the account, oldest first, from the cursor of a previous page or 0.
+     */
+    public AccountHistoryPage getTransfers(String accountId, long from, int limit) {
+        return this.transfersHistory.getTransfers(accountId, from, limit);
+    }
 }
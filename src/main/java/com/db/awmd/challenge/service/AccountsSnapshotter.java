@@ -0,0 +1,236 @@
+package com.db.awmd.challenge.service;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.repository.AccountsRepository;
+import com.db.awmd.challenge.repository.AccountsSnapshotStore;
+import com.db.awmd.challenge.repository.TransfersJournal;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Periodically writes a consistent snapshot of all the balances while the transfers keep running, and
+ * truncates the journal covered by it.
+ * <p>
+ * Every write to the balances belongs to an epoch, read by the writer while holding the stripes of its
+ * accounts. A snapshot closes the current epoch: it rolls the journal, increments the epoch and then
+ * reads every account under its stripe. Writes of the new epoch that reach an account before it is read
+ * keep a copy of its previous balance (copy-on-write), which is the one written to the snapshot. So the
+ * snapshot holds exactly the writes of the previous epochs, and only the accounts written during a
+ * snapshot are ever copied.
+ * <p>
+ * Account creations are not done under a stripe, so the epoch is only incremented when no creation is
+ * in progress, see {@link #creationLock()}.
+ * <p>
+ * The same capture also gives the followers of a replication primary the balances they start from, see
+ * {@link #captureBalances(BiConsumer)}. Snapshots need the journal, and neither are taken in sharded
+ * execution mode, as the shards do not use the stripes.
+ */
+@Slf4j
+@Component
+public class AccountsSnapshotter {
+
+    private final AccountsRepository accountsRepository;
+    private final AccountsLockTable accountsLockTable;
+    private final TransfersJournal transfersJournal;
+    private final AccountsSnapshotStore accountsSnapshotStore;
+    private final long intervalSeconds;
+    private final boolean enabled;
+
+    private final ReadWriteLock creations = new ReentrantReadWriteLock();
+    private volatile long epoch;
+    private volatile Capture capture;
+    private volatile Supplier<CompletableFuture<Void>> journalRetainer;
+    private ScheduledExecutorService scheduler;
+
+    @Autowired
+    public AccountsSnapshotter(AccountsRepository accountsRepository, AccountsLockTable accountsLockTable,
+                               TransfersJournal transfersJournal, AccountsSnapshotStore accountsSnapshotStore,
+                               @Value("${journal.snapshot.interval-seconds:300}") long intervalSeconds,
+                               @Value("${transfers.execution-mode:synchronous}") String executionMode,
+                               @Value("${replication.role:standalone}") String replicationRole) {
+        this.accountsRepository = accountsRepository;
+        this.accountsLockTable = accountsLockTable;
+        this.transfersJournal = transfersJournal;
+        this.accountsSnapshotStore = accountsSnapshotStore;
+        this.intervalSeconds = intervalSeconds;
+        this.enabled = (transfersJournal.isEnabled() || "primary".equalsIgnoreCase(replicationRole))
+                && !"sharded".equalsIgnoreCase(executionMode);
+    }
+
+    /**
+     * Whether the balances can be captured, which needs every write to lock its account.
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Must be called holding the stripes of the accounts about to be written. The same epoch must be
+     * passed to {@link #beforeWrite(long, Account)} and to the journal.
+     */
+    public long currentEpoch() {
+        return epoch;
+    }
+
+    /**
+     * Must be called holding the stripe of the account, before every write to its balance.
+     */
+    public void beforeWrite(final long writeEpoch, final Account account) {
+        final Capture current = capture;
+        if (current != null && current.epoch == writeEpoch) {
+            current.previousBalances.putIfAbsent(account.getAccountId(), account.getBalance());
+        }
+    }
+
+    /**
+     * Held (shared) by the account creations from journaling the account until it is in the repository.
+     */
+    public Lock creationLock() {
+        return creations.readLock();
+    }
+
+    /**
+     * Sets what appends again, after each roll of the journal, the records of the sealed segments that
+     * the snapshot does not replace, e.g. the transfers between nodes still in doubt. The future must
+     * complete once they are durable, as the sealed segments are deleted after the snapshot.
+     */
+    public void setJournalRetainer(Supplier<CompletableFuture<Void>> journalRetainer) {
+        this.journalRetainer = journalRetainer;
+    }
+
+    /**
+     * Sets the epoch recovered from the snapshot and the journal, and schedules the snapshots.
+     */
+    public synchronized void start(long recoveredEpoch) {
+        this.epoch = recoveredEpoch;
+        if (!enabled || !transfersJournal.isEnabled() || intervalSeconds <= 0 || scheduler != null) return;
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "accounts-snapshotter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                takeSnapshot();
+            } catch (RuntimeException e) {
+                log.error("Error taking snapshot of the accounts", e);
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Writes a snapshot of every balance and deletes the journal segments and snapshots it replaces.
+     *
+     * @return the epoch of the snapshot, or 0 when snapshots are disabled
+     */
+    public synchronized long takeSnapshot() {
+        if (!enabled || !transfersJournal.isEnabled()) return 0;
+
+        final long start = System.nanoTime();
+        // Every record of the sealed segments was applied before the epoch below is incremented
+        final long firstSegment = join(transfersJournal.roll());
+        final Supplier<CompletableFuture<Void>> retainer = journalRetainer;
+        if (retainer != null) join(retainer.get());
+
+        final long snapshotEpoch = epoch + 1;
+        final long accounts;
+        final int copied;
+        try (AccountsSnapshotStore.Writer writer = accountsSnapshotStore.begin(snapshotEpoch)) {
+            copied = capture(snapshotEpoch, writer::add);
+            writer.commit();
+            accounts = writer.getAccounts();
+        }
+
+        transfersJournal.deleteSegmentsBefore(firstSegment);
+        accountsSnapshotStore.deleteBefore(snapshotEpoch);
+        log.info("Snapshot {} of {} accounts taken in {} ms, {} accounts copied on write", snapshotEpoch, accounts,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), copied);
+        return snapshotEpoch;
+    }
+
+    /**
+     * Closes the current epoch and passes every account to the sink with its balance at the end of it,
+     * without writing a snapshot nor touching the journal.
+     *
+     * @return the new epoch: the balances hold exactly the writes of the epochs before it
+     */
+    public synchronized long captureBalances(BiConsumer<String, BigDecimal> sink) {
+        if (!enabled) throw new IllegalStateException("Balances cannot be captured in this execution mode");
+        final long captureEpoch = epoch + 1;
+        capture(captureEpoch, sink);
+        return captureEpoch;
+    }
+
+    /**
+     * @return the number of accounts copied on write
+     */
+    private int capture(final long captureEpoch, final BiConsumer<String, BigDecimal> sink) {
+        final Capture current = new Capture(captureEpoch);
+        creations.writeLock().lock();
+        try {
+            capture = current;
+            epoch = captureEpoch;
+        } finally {
+            creations.writeLock().unlock();
+        }
+
+        try {
+            accountsRepository.streamAccounts()
+                    .forEach(account -> sink.accept(account.getAccountId(), readBalance(account, current)));
+        } finally {
+            capture = null;
+        }
+        return current.previousBalances.size();
+    }
+
+    @PreDestroy
+    public synchronized void shutdown() {
+        if (scheduler != null) scheduler.shutdownNow();
+    }
+
+    private BigDecimal readBalance(final Account account, final Capture current) {
+        final int stripe = accountsLockTable.stripeOf(account.getAccountId());
+        accountsLockTable.lock(stripe);
+        try {
+            final BigDecimal previous = current.previousBalances.get(account.getAccountId());
+            return previous != null ? previous : account.getBalance();
+        } finally {
+            accountsLockTable.unlock(stripe);
+        }
+    }
+
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException ce) {
+            throw (RuntimeException) ce.getCause();
+        }
+    }
+
+    private static final class Capture {
+        private final long epoch;
+        private final Map<String, BigDecimal> previousBalances = new ConcurrentHashMap<>();
+
+        Capture(long epoch) {
+            this.epoch = epoch;
+        }
+    }
+}
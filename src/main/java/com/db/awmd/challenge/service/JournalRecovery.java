@@ -0,0 +1,119 @@
+package com.db.awmd.challenge.service;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.Transfer;
+import com.db.awmd.challenge.exception.DuplicateAccountIdException;
+import com.db.awmd.challenge.repository.AccountsRepository;
+import com.db.awmd.challenge.repository.AccountsSnapshotStore;
+import com.db.awmd.challenge.repository.TransfersJournal;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.math.BigDecimal;
+
+/**
+ * Rebuilds the accounts when the application starts, from the latest snapshot and the journal records
+ * that are not part of it. The transfers are applied again without validations nor notifications, as
+ * they were already accepted before the restart.
+ */
+@Slf4j
+@Component
+public class JournalRecovery implements TransfersJournal.Listener {
+
+    private final TransfersJournal transfersJournal;
+    private final AccountsService accountsService;
+    private final AccountsRepository accountsRepository;
+    private final AccountsSnapshotStore accountsSnapshotStore;
+    private final AccountsSnapshotter accountsSnapshotter;
+    /**
+     * Tracks the transfers between nodes replayed, so each is applied once and the ones in doubt are
+     * retried. Without it, e.g. when built by hand, they are all applied.
+     */
+    @Autowired
+    private PartitionTransfers partitionTransfers;
+
+    @Autowired
+    public JournalRecovery(TransfersJournal transfersJournal, AccountsService accountsService,
+                           AccountsRepository accountsRepository, AccountsSnapshotStore accountsSnapshotStore,
+                           AccountsSnapshotter accountsSnapshotter) {
+        this.transfersJournal = transfersJournal;
+        this.accountsService = accountsService;
+        this.accountsRepository = accountsRepository;
+        this.accountsSnapshotStore = accountsSnapshotStore;
+        this.accountsSnapshotter = accountsSnapshotter;
+    }
+
+    @PostConstruct
+    public void recover() {
+        long snapshotEpoch = accountsSnapshotStore.loadLatest(this::onAccountCreated);
+        long journalEpoch = transfersJournal.replay(this, snapshotEpoch);
+        accountsSnapshotter.start(Math.max(snapshotEpoch, journalEpoch));
+    }
+
+    @Override
+    public void onAccountCreated(String accountId, BigDecimal balance) {
+        try {
+            accountsService.restoreAccount(new Account(accountId, balance));
+        } catch (DuplicateAccountIdException daie) {
+            // The creation was journaled but the account already existed, the first record wins
+        }
+    }
+
+    @Override
+    public void onTransfer(String accountFromId, String accountToId, BigDecimal amount) {
+        Account accountFrom = accountsRepository.getAccount(accountFromId);
+        Account accountTo = accountsRepository.getAccount(accountToId);
+        if (accountFrom == null || accountTo == null) {
+            log.warn("Ignoring journaled transfer between unknown accounts {} and {}", accountFromId, accountToId);
+            return;
+        }
+        accountFrom.withdraw(amount);
+        accountTo.deposit(amount);
+    }
+
+    @Override
+    public void onTransferOut(long transferId, int node, String accountFromId, String accountToId,
+                              BigDecimal amount, boolean apply) {
+        final boolean first = partitionTransfers == null
+                || partitionTransfers.recoverTransferOut(transferId, node, new Transfer(accountFromId, accountToId, amount));
+        if (first && apply) withdraw(accountFromId, amount);
+    }
+
+    @Override
+    public void onTransferOutCommitted(long transferId) {
+        if (partitionTransfers != null) partitionTransfers.recoverResolved(transferId);
+    }
+
+    @Override
+    public void onTransferOutAborted(long transferId, String accountFromId, BigDecimal amount, boolean apply) {
+        if (partitionTransfers != null) partitionTransfers.recoverResolved(transferId);
+        if (apply) deposit(accountFromId, amount);
+    }
+
+    @Override
+    public void onTransferIn(long transferId, int node, String accountToId, BigDecimal amount, boolean apply) {
+        final boolean first = partitionTransfers == null
+                || partitionTransfers.recoverTransferIn(transferId, node, accountToId, amount);
+        if (first && apply) deposit(accountToId, amount);
+    }
+
+    private void withdraw(String accountId, BigDecimal amount) {
+        Account account = accountsRepository.getAccount(accountId);
+        if (account == null) {
+            log.warn("Ignoring journaled withdrawal from unknown account {}", accountId);
+            return;
+        }
+        account.withdraw(amount);
+    }
+
+    private void deposit(String accountId, BigDecimal amount) {
+        Account account = accountsRepository.getAccount(accountId);
+        if (account == null) {
+            log.warn("Ignoring journaled deposit into unknown account {}", accountId);
+            return;
+        }
+        account.deposit(amount);
+    }
+}
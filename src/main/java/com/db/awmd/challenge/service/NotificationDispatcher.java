@@ -0,0 +1,371 @@
+package com.db.awmd.challenge.service;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.AccountSnapshot;
+import com.db.awmd.challenge.repository.AccountsRepository;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Delivers the notifications of the transfers out of the transfer critical path. It wraps the
+ * {@link NotificationService} bean without changing it.
+ * <p>
+ * The notifications are queued and delivered by a pool of workers, each with its own bounded queue. The
+ * notifications of an account always go to the same worker, by the hash of its id, so they are delivered
+ * in the order they were queued. Each worker drains up to a batch of notifications at once and delivers
+ * them grouped by account. A notification carries a copy of the account taken when it is queued, so a
+ * late delivery still reports the balance right after the transfer.
+ * <p>
+ * When the queue of a worker is full the overflow policy decides whether the notification is dropped,
+ * the caller blocks until there is room, or the notification is spilled to a file that is delivered
+ * once a queue becomes empty.
+ * <p>
+ * With {@code notifications.async} set to false the notifications are delivered on the caller thread.
+ * <p>
+ * The queue depth, the lag and the counts of notifications are exposed both as JMX attributes and as
+ * meters.
+ */
+@Slf4j
+@Component
+@ManagedResource
+public class NotificationDispatcher {
+
+    public enum OverflowPolicy {
+        DROP, BLOCK, SPILL
+    }
+
+    private static final long POLL_TIMEOUT_MILLIS = 100;
+
+    private final NotificationService notificationService;
+    private final AccountsRepository accountsRepository;
+    private final boolean async;
+    private final int batchSize;
+    private final OverflowPolicy overflowPolicy;
+    private final Path spillFile;
+    private final BlockingQueue<Notification>[] queues;
+    private final List<Thread> workers = new ArrayList<>();
+
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong spilled = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong lagMillis = new AtomicLong();
+
+    private final Object spillLock = new Object();
+    private final AtomicBoolean replaying = new AtomicBoolean();
+    private BufferedWriter spillWriter;
+    private volatile boolean running = true;
+
+    @Autowired
+    public NotificationDispatcher(NotificationService notificationService,
+                                  AccountsRepository accountsRepository,
+                                  MeterRegistry meterRegistry,
+                                  @Value("${notifications.async:true}") boolean async,
+                                  @Value("${notifications.queue-capacity:10000}") int queueCapacity,
+                                  @Value("${notifications.workers:2}") int numberOfWorkers,
+                                  @Value("${notifications.batch-size:100}") int batchSize,
+                                  @Value("${notifications.overflow-policy:block}") String overflowPolicy,
+                                  @Value("${notifications.spill-file:notifications.spill}") String spillFile) {
+        this.notificationService = notificationService;
+        this.accountsRepository = accountsRepository;
+        this.async = async;
+        this.batchSize = batchSize;
+        this.overflowPolicy = OverflowPolicy.valueOf(overflowPolicy.toUpperCase());
+        this.spillFile = Paths.get(spillFile);
+        // The capacity is shared by the queues of the workers
+        final int numberOfQueues = async ? Math.max(1, numberOfWorkers) : 1;
+        @SuppressWarnings("unchecked")
+        final BlockingQueue<Notification>[] queues = new BlockingQueue[numberOfQueues];
+        for (int i = 0; i < numberOfQueues; i++) {
+            queues[i] = new ArrayBlockingQueue<>(Math.max(1, (queueCapacity + numberOfQueues - 1) / numberOfQueues));
+        }
+        this.queues = queues;
+        registerMeters(meterRegistry);
+
+        if (async) {
+            for (int i = 0; i < numberOfQueues; i++) {
+                final BlockingQueue<Notification> queue = queues[i];
+                Thread worker = new Thread(() -> deliverLoop(queue), "notifications-" + i);
+                worker.setDaemon(true);
+                worker.start();
+                workers.add(worker);
+            }
+        }
+    }
+
+    public void notifyAboutTransfer(Account account, String transferDescription) {
+        if (!async) {
+            deliver(account, transferDescription);
+            return;
+        }
+
+        final AccountSnapshot snapshot = account.snapshot();
+        final Notification notification = new Notification(snapshot.getAccountId(), snapshot.getBalance(),
+                transferDescription, System.currentTimeMillis());
+        final BlockingQueue<Notification> queue = queueOf(snapshot.getAccountId());
+        if (queue.offer(notification)) return;
+
+        switch (overflowPolicy) {
+            case BLOCK:
+                try {
+                    queue.put(notification);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    dropped.incrementAndGet();
+                }
+                break;
+            case SPILL:
+                spill(notification);
+                break;
+            default:
+                dropped.incrementAndGet();
+        }
+    }
+
+    private void registerMeters(MeterRegistry meterRegistry) {
+        Gauge.builder("notifications.queue.depth", this, NotificationDispatcher::getQueueDepth)
+                .description("Notifications waiting in the queues")
+                .register(meterRegistry);
+        Gauge.builder("notifications.lag", lagMillis, AtomicLong::get)
+                .description("Time in queue of the last delivered notification")
+                .baseUnit("milliseconds")
+                .register(meterRegistry);
+        FunctionCounter.builder("notifications.delivered", delivered, AtomicLong::get)
+                .description("Notifications delivered")
+                .register(meterRegistry);
+        FunctionCounter.builder("notifications.dropped", dropped, AtomicLong::get)
+                .description("Notifications dropped because the queue was full")
+                .register(meterRegistry);
+        FunctionCounter.builder("notifications.spilled", spilled, AtomicLong::get)
+                .description("Notifications spilled to the file because the queue was full")
+                .register(meterRegistry);
+        FunctionCounter.builder("notifications.failed", failed, AtomicLong::get)
+                .description("Notifications whose delivery failed")
+                .register(meterRegistry);
+    }
+
+    @ManagedAttribute(description = "Notifications waiting in the queues")
+    public int getQueueDepth() {
+        int depth = 0;
+        for (BlockingQueue<Notification> queue : queues) {
+            depth += queue.size();
+        }
+        return depth;
+    }
+
+    @ManagedAttribute(description = "Time in queue of the last delivered notification, in milliseconds")
+    public long getLagMillis() {
+        return lagMillis.get();
+    }
+
+    @ManagedAttribute
+    public long getDelivered() {
+        return delivered.get();
+    }
+
+    @ManagedAttribute
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    @ManagedAttribute
+    public long getSpilled() {
+        return spilled.get();
+    }
+
+    @ManagedAttribute
+    public long getFailed() {
+        return failed.get();
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        running = false;
+        for (Thread worker : workers) {
+            worker.join(TimeUnit.SECONDS.toMillis(5));
+        }
+        synchronized (spillLock) {
+            closeSpillWriter();
+        }
+    }
+
+    private BlockingQueue<Notification> queueOf(String accountId) {
+        final int hash = accountId.hashCode();
+        return queues[((hash ^ (hash >>> 16)) & Integer.MAX_VALUE) % queues.length];
+    }
+
+    private void deliverLoop(BlockingQueue<Notification> queue) {
+        List<Notification> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                Notification first = queue.poll(POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    if (overflowPolicy == OverflowPolicy.SPILL) replaySpilled();
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                deliverGroupedByAccount(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void deliverGroupedByAccount(List<Notification> batch) {
+        Map<String, List<Notification>> byAccount = new LinkedHashMap<>();
+        for (Notification notification : batch) {
+            byAccount.computeIfAbsent(notification.accountId, id -> new ArrayList<>()).add(notification);
+        }
+
+        long now = System.currentTimeMillis();
+        for (List<Notification> notifications : byAccount.values()) {
+            for (Notification notification : notifications) {
+                deliver(new Account(notification.accountId, notification.balance), notification.description);
+            }
+        }
+        lagMillis.set(now - batch.get(batch.size() - 1).enqueuedAt);
+    }
+
+    private void deliver(Account account, String transferDescription) {
+        try {
+            notificationService.notifyAboutTransfer(account, transferDescription);
+            delivered.incrementAndGet();
+        } catch (RuntimeException e) {
+            failed.incrementAndGet();
+            log.error("Error notifying owner of {}: {}", account.getAccountId(), transferDescription, e);
+        }
+    }
+
+    private void spill(Notification notification) {
+        synchronized (spillLock) {
+            try {
+                if (spillWriter == null) {
+                    spillWriter = Files.newBufferedWriter(spillFile, StandardCharsets.UTF_8,
+                            StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                }
+                spillWriter.write(notification.accountId);
+                spillWriter.write('\t');
+                spillWriter.write(notification.balance.toPlainString());
+                spillWriter.write('\t');
+                spillWriter.write(notification.description.replace('\n', ' '));
+                spillWriter.newLine();
+                spillWriter.flush();
+                spilled.incrementAndGet();
+            } catch (IOException e) {
+                dropped.incrementAndGet();
+                log.error("Error spilling notification for {}", notification.accountId, e);
+            }
+        }
+    }
+
+    /**
+     * Moves the spill file aside so that new overflows start a new one, and delivers its content. A
+     * replay file left by a previous run is delivered first.
+     */
+    private void replaySpilled() {
+        if (!replaying.compareAndSet(false, true)) return;
+
+        Path replayFile = spillFile.resolveSibling(spillFile.getFileName() + ".replay");
+        try {
+            if (!Files.exists(replayFile)) {
+                synchronized (spillLock) {
+                    if (!Files.exists(spillFile)) return;
+                    closeSpillWriter();
+                    Files.move(spillFile, replayFile, StandardCopyOption.ATOMIC_MOVE);
+                }
+            }
+
+            try (BufferedReader reader = Files.newBufferedReader(replayFile, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    replaySpilled(line);
+                }
+            }
+            Files.delete(replayFile);
+        } catch (IOException e) {
+            log.error("Error replaying spilled notifications from {}", replayFile, e);
+        } finally {
+            replaying.set(false);
+        }
+    }
+
+    /**
+     * A line is the id of the account, its balance when the notification was queued and the description,
+     * separated by tabs. Lines spilled before the balance was kept only have the id and the description,
+     * and are delivered with the current balance.
+     */
+    private void replaySpilled(String line) {
+        final int separator = line.indexOf('\t');
+        final String accountId = line.substring(0, separator);
+        final int next = line.indexOf('\t', separator + 1);
+        if (next > 0) {
+            try {
+                final BigDecimal balance = new BigDecimal(line.substring(separator + 1, next));
+                deliver(new Account(accountId, balance), line.substring(next + 1));
+                return;
+            } catch (NumberFormatException e) {
+                // The description of an older line holds a tab
+            }
+        }
+        final Account account = accountsRepository.getAccount(accountId);
+        if (account != null) {
+            deliver(account, line.substring(separator + 1));
+        }
+    }
+
+    private void closeSpillWriter() {
+        if (spillWriter == null) return;
+        try {
+            spillWriter.close();
+        } catch (IOException e) {
+            log.warn("Error closing spill file {}", spillFile, e);
+        }
+        spillWriter = null;
+    }
+
+    private static final class Notification {
+        private final String accountId;
+        private final BigDecimal balance;
+        private final String description;
+        private final long enqueuedAt;
+
+        Notification(String accountId, BigDecimal balance, String description, long enqueuedAt) {
+            this.accountId = accountId;
+            this.balance = balance;
+            this.description = description;
+            this.enqueuedAt = enqueuedAt;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.db.awmd.challenge.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.ResponseErrorHandler;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+/**
+ * Sends requests to the other nodes of {@link PartitionRing}. The responses with an error status are
+ * returned like the others, so the callers can forward or interpret them; only the requests that get no
+ * response within {@code partitioning.request-timeout-millis} throw.
+ * <p>
+ * Every request carries {@code partitioning.secret}, shared by all the nodes, so a node only accepts the
+ * deposits of the others, see {@link #isFromNode(String)}.
+ */
+@Component
+public class PartitionClient {
+
+    private static final ResponseErrorHandler NO_ERRORS = new ResponseErrorHandler() {
+        @Override
+        public boolean hasError(ClientHttpResponse response) {
+            return false;
+        }
+
+        @Override
+        public void handleError(ClientHttpResponse response) {
+        }
+    };
+
+    public static final String SECRET_HEADER = "X-Partition-Secret";
+
+    private final PartitionRing partitionRing;
+    private final RestTemplate restTemplate;
+    private final byte[] secret;
+
+    @Autowired
+    public PartitionClient(PartitionRing partitionRing,
+                           @Value("${partitioning.request-timeout-millis:2000}") int requestTimeoutMillis,
+                           @Value("${partitioning.secret:}") String secret) {
+        if (partitionRing.isEnabled() && secret.isEmpty())
+            throw new IllegalStateException("partitioning.secret must be set when partitioning is enabled");
+
+        this.partitionRing = partitionRing;
+        this.secret = secret.getBytes(StandardCharsets.UTF_8);
+        final SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
+        requestFactory.setConnectTimeout(requestTimeoutMillis);
+        requestFactory.setReadTimeout(requestTimeoutMillis);
+        this.restTemplate = new RestTemplate(requestFactory);
+        this.restTemplate.setErrorHandler(NO_ERRORS);
+    }
+
+    /**
+     * @param pathAndQuery already encoded, appended to the URL of the node
+     */
+    public <T> ResponseEntity<T> exchange(int node, HttpMethod method, String pathAndQuery, HttpEntity<?> request,
+                                          Class<T> responseType) throws RestClientException {
+        final HttpHeaders headers = new HttpHeaders();
+        headers.putAll(request.getHeaders());
+        headers.set(SECRET_HEADER, new String(secret, StandardCharsets.UTF_8));
+        return restTemplate.exchange(URI.create(partitionRing.getNodeUrl(node) + pathAndQuery), method,
+                new HttpEntity<>(request.getBody(), headers), responseType);
+    }
+
+    /**
+     * Whether the value of {@link #SECRET_HEADER} of a request is the secret of the nodes, compared in
+     * constant time. Always false when partitioning is disabled.
+     */
+    public boolean isFromNode(String secretHeader) {
+        return partitionRing.isEnabled() && secretHeader != null
+                && MessageDigest.isEqual(secret, secretHeader.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,108 @@
+package com.db.awmd.challenge.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Assigns every account to one of the nodes of {@code partitioning.nodes} by consistent hashing of its
+ * id. Each node owns {@code partitioning.virtual-nodes} points of a ring of longs, placed by the hash of
+ * its URL, and an account belongs to the node of the first point at or after the hash of its id. So
+ * adding a node only moves to it about 1/n of the accounts of each of the others, and every node computes
+ * the same owners from the same list, whatever its order.
+ * <p>
+ * Partitioning is disabled when no nodes are listed, every account is then local.
+ */
+@Component
+public class PartitionRing {
+
+    private final List<String> nodes;
+    private final int node;
+    private final long[] points;
+    private final int[] owners;
+
+    @Autowired
+    public PartitionRing(@Value("${partitioning.nodes:}") String nodes,
+                         @Value("${partitioning.node:0}") int node,
+                         @Value("${partitioning.virtual-nodes:128}") int virtualNodes) {
+        this.nodes = Collections.unmodifiableList(Arrays.asList(
+                StringUtils.commaDelimitedListToStringArray(StringUtils.trimAllWhitespace(nodes))));
+        if (!this.nodes.isEmpty() && (node < 0 || node >= this.nodes.size()))
+            throw new IllegalArgumentException("Partitioning node " + node + " is not one of the "
+                    + this.nodes.size() + " nodes");
+        if (virtualNodes <= 0 || virtualNodes > (1 << 16))
+            throw new IllegalArgumentException("Invalid number of virtual nodes: " + virtualNodes);
+
+        this.node = node;
+        final long[] keys = new long[this.nodes.size() * virtualNodes];
+        for (int n = 0; n < this.nodes.size(); n++) {
+            for (int v = 0; v < virtualNodes; v++) {
+                keys[n * virtualNodes + v] = hash(this.nodes.get(n) + "#" + v);
+            }
+        }
+        final Integer[] order = new Integer[keys.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        // The URL of the node breaks the (unlikely) ties between points
+        Arrays.sort(order, (a, b) -> keys[a] != keys[b] ? Long.compare(keys[a], keys[b])
+                : this.nodes.get(a / virtualNodes).compareTo(this.nodes.get(b / virtualNodes)));
+        this.points = new long[keys.length];
+        this.owners = new int[keys.length];
+        for (int i = 0; i < order.length; i++) {
+            this.points[i] = keys[order[i]];
+            this.owners[i] = order[i] / virtualNodes;
+        }
+    }
+
+    public boolean isEnabled() {
+        return !nodes.isEmpty();
+    }
+
+    /**
+     * The index of this node in {@code partitioning.nodes}.
+     */
+    public int getNode() {
+        return node;
+    }
+
+    public int countNodes() {
+        return nodes.size();
+    }
+
+    public String getNodeUrl(int node) {
+        return nodes.get(node);
+    }
+
+    public int ownerOf(String accountId) {
+        if (points.length == 0) return node;
+        int index = Arrays.binarySearch(points, hash(accountId));
+        if (index < 0) index = -index - 1;
+        return owners[index == points.length ? 0 : index];
+    }
+
+    public boolean isLocal(String accountId) {
+        return points.length == 0 || ownerOf(accountId) == node;
+    }
+
+    /**
+     * FNV-1a over the chars, then the finalizer of MurmurHash3 to spread the low bits, so the ring does
+     * not depend on {@link String#hashCode()} and is the same on every JVM.
+     */
+    static long hash(String value) {
+        long hash = 0xCBF29CE484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            hash = (hash ^ value.charAt(i)) * 0x100000001B3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB9FE1A85EC53L;
+        return hash ^ (hash >>> 33);
+    }
+}
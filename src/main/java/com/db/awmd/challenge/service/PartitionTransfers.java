@@ -0,0 +1,490 @@
+package com.db.awmd.challenge.service;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.PartitionTransfer;
+import com.db.awmd.challenge.domain.Transfer;
+import com.db.awmd.challenge.domain.TransferLeg;
+import com.db.awmd.challenge.domain.TransferRejection;
+import com.db.awmd.challenge.domain.TransferResult;
+import com.db.awmd.challenge.domain.TransferStatus;
+import com.db.awmd.challenge.exception.AccountNotFoundException;
+import com.db.awmd.challenge.exception.InvalidTransferException;
+import com.db.awmd.challenge.repository.AccountsRepository;
+import com.db.awmd.challenge.repository.TransfersJournal;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestClientException;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Transfers from a local account to an account of another node of {@link PartitionRing}, in two phases.
+ * <p>
+ * The node of the origin account withdraws the amount under the lock of the account and journals the
+ * withdrawal with a new transfer id: the transfer is prepared. It then asks the node of the target
+ * account to deposit it, see {@link #transferIn(PartitionTransfer)}, and journals the outcome: committed
+ * once deposited, or aborted, refunding the origin account, when the target node refuses it because the
+ * account does not exist or cannot take the amount. When the target node does not answer, the transfer
+ * stays in doubt and the deposit is asked again every {@code partitioning.retry-millis}, also after a
+ * restart, as the prepared transfers without outcome are rebuilt from the journal. The client is then
+ * answered with a {@link TransferStatus#PENDING} result and the id of the transfer, whose outcome is polled
+ * with {@link #getTransferOut(String, long)}: the last {@code partitioning.resolved-retained} outcomes
+ * are kept, in memory only.
+ * <p>
+ * The target node deposits each id once: it keeps the ids it applied, journaled with the deposits, until
+ * the origin node reports that every lower id is resolved. Ids grow with the clock of the origin node,
+ * so they are not reused after a restart even without the journal. As the snapshots hold neither the
+ * transfers in doubt nor the ids applied, their records are appended again after each roll of the
+ * journal, see {@link AccountsSnapshotter#setJournalRetainer}.
+ * <p>
+ * The transfers between nodes are not listed in the history of the accounts, and each node notifies its
+ * own account.
+ */
+@Slf4j
+@Component
+public class PartitionTransfers {
+
+    static final String DEPOSIT_PATH = "/v1/partitions/transfers";
+
+    /**
+     * Ids are the milliseconds of the clock followed by this many bits of sequence.
+     */
+    private static final int ID_SEQUENCE_BITS = 20;
+
+    private enum Outcome {
+        PENDING, APPLIED, NOT_FOUND, INVALID
+    }
+
+    private final PartitionRing partitionRing;
+    private final PartitionClient partitionClient;
+    private final AccountsRepository accountsRepository;
+    private final TransfersEngine transfersEngine;
+    private final TransfersJournal transfersJournal;
+    private final AccountsSnapshotter accountsSnapshotter;
+    private final NotificationDispatcher notificationDispatcher;
+    private final long retryMillis;
+    private final int resolvedRetained;
+
+    /**
+     * Transfers out not yet resolved, by id. Ids are allocated and added under its lock, so that no id
+     * lower than its first one can still be sent.
+     */
+    private final ConcurrentSkipListMap<Long, OutgoingTransfer> inDoubt = new ConcurrentSkipListMap<>();
+    private final Map<Integer, IncomingTransfers> incoming = new ConcurrentHashMap<>();
+    /**
+     * Transfers resolved after being reported in doubt, by id, the oldest first. Guarded by itself.
+     */
+    private final LinkedHashMap<Long, OutgoingTransfer> resolvedAfterDoubt = new LinkedHashMap<Long, OutgoingTransfer>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, OutgoingTransfer> eldest) {
+            return size() > resolvedRetained;
+        }
+    };
+    private long lastId;
+    private ScheduledExecutorService retries;
+
+    @Autowired
+    public PartitionTransfers(PartitionRing partitionRing, PartitionClient partitionClient,
+                              AccountsRepository accountsRepository, TransfersEngine transfersEngine,
+                              TransfersJournal transfersJournal, AccountsSnapshotter accountsSnapshotter,
+                              NotificationDispatcher notificationDispatcher,
+                              @Value("${partitioning.retry-millis:1000}") long retryMillis,
+                              @Value("${partitioning.resolved-retained:10000}") int resolvedRetained,
+                              @Value("${transfers.execution-mode:synchronous}") String executionMode) {
+        if (partitionRing.isEnabled() && "sharded".equalsIgnoreCase(executionMode))
+            throw new IllegalStateException("Partitioning is not supported in sharded execution mode");
+
+        this.partitionRing = partitionRing;
+        this.partitionClient = partitionClient;
+        this.accountsRepository = accountsRepository;
+        this.transfersEngine = transfersEngine;
+        this.transfersJournal = transfersJournal;
+        this.accountsSnapshotter = accountsSnapshotter;
+        this.notificationDispatcher = notificationDispatcher;
+        this.retryMillis = retryMillis;
+        this.resolvedRetained = resolvedRetained;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!partitionRing.isEnabled()) return;
+        accountsSnapshotter.setJournalRetainer(this::appendRetained);
+        retries = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "partition-transfers-retry");
+            thread.setDaemon(true);
+            return thread;
+        });
+        retries.scheduleWithFixedDelay(this::retryInDoubt, retryMillis, retryMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (retries != null) retries.shutdownNow();
+    }
+
+    /**
+     * Whether the account belongs to another node, so a transfer to it must go through
+     * {@link #transferOut(Account, Transfer)}.
+     */
+    public boolean isRemote(String accountId) {
+        return partitionRing.isEnabled() && !partitionRing.isLocal(accountId);
+    }
+
+    public int countInDoubt() {
+        return inDoubt.size();
+    }
+
+    /**
+     * Withdraws the amount from the local origin account and has it deposited into the account of
+     * another node. The target account is only checked by its node: the transfer is aborted when that
+     * node refuses it.
+     *
+     * @return a completed result once deposited, or a pending one with the id of the transfer when it is
+     * in doubt and the deposit will be asked again
+     */
+    public TransferResult transferOut(final Account accountFrom, final Transfer transfer) {
+        final OutgoingTransfer outgoing;
+        synchronized (inDoubt) {
+            lastId = Math.max(lastId + 1, System.currentTimeMillis() << ID_SEQUENCE_BITS);
+            outgoing = new OutgoingTransfer(lastId, partitionRing.ownerOf(transfer.getAccountToId()), transfer);
+            inDoubt.put(outgoing.id, outgoing);
+        }
+        final CompletableFuture<Void> durable;
+        try {
+            durable = transfersEngine.executeLegs(new Account[]{accountFrom},
+                    leg(accountFrom, TransferLeg.Side.DEBIT, transfer.getAmount()), epoch -> {
+                        outgoing.epoch = epoch;
+                        final CompletableFuture<Void> record = transfersJournal.appendTransferOut(outgoing.id,
+                                outgoing.node, transfer, epoch);
+                        outgoing.prepared = true;
+                        return record;
+                    });
+        } catch (RuntimeException e) {
+            inDoubt.remove(outgoing.id);
+            throw e;
+        }
+
+        final Outcome outcome;
+        try {
+            join(durable);
+            outcome = requestDeposit(outgoing);
+        } finally {
+            outgoing.attempted = true;
+        }
+        switch (outcome) {
+            case APPLIED:
+                return TransferResult.completed();
+            case NOT_FOUND:
+                throw TransferRejection.ACCOUNT_TO_NOT_FOUND.toException(transfer);
+            case INVALID:
+                throw new InvalidTransferException(outgoing.rejection);
+            default:
+                return TransferResult.pending(outgoing.id);
+        }
+    }
+
+    /**
+     * The outcome of a transfer out of the account reported in doubt: still pending, completed or
+     * rejected with the reason given by the other node.
+     *
+     * @return null when the account has no such transfer, or its outcome is no longer retained
+     */
+    public TransferResult getTransferOut(final String accountFromId, final long transferId) {
+        OutgoingTransfer outgoing = inDoubt.get(transferId);
+        if (outgoing == null) {
+            synchronized (resolvedAfterDoubt) {
+                outgoing = resolvedAfterDoubt.get(transferId);
+            }
+        }
+        if (outgoing == null || !outgoing.transfer.getAccountFromId().equals(accountFromId)) return null;
+        if (!outgoing.resolved) return TransferResult.pending(transferId);
+        return outgoing.rejection == null
+                ? new TransferResult(TransferStatus.COMPLETED, null, transferId)
+                : new TransferResult(TransferStatus.REJECTED, outgoing.rejection, transferId);
+    }
+
+    /**
+     * Deposits a transfer from another node, once per id: a transfer sent again gets the outcome of the
+     * first one.
+     *
+     * @return false when the first one is still being applied, the origin node must ask again
+     */
+    public boolean transferIn(final PartitionTransfer transfer) throws AccountNotFoundException, InvalidTransferException {
+        final int origin = transfer.getNode();
+        if (!partitionRing.isEnabled() || origin < 0 || origin >= partitionRing.countNodes()
+                || origin == partitionRing.getNode())
+            throw new InvalidTransferException("Unknown origin node: " + origin);
+
+        final IncomingTransfers fromNode = incoming.computeIfAbsent(transfer.getNode(), node -> new IncomingTransfers());
+        final long resolvedBelow = fromNode.resolvedBelow.accumulateAndGet(transfer.getResolvedBelow(), Math::max);
+        fromNode.applied.headMap(resolvedBelow).clear();
+        // Late copy of a request the origin node already got an answer for
+        if (transfer.getId() < resolvedBelow) return true;
+
+        final IncomingTransfer current = new IncomingTransfer(transfer.getAccountToId(), transfer.getAmount());
+        final IncomingTransfer previous = fromNode.applied.putIfAbsent(transfer.getId(), current);
+        if (previous != null) return report(previous.outcome, transfer);
+
+        final Account accountTo = accountsRepository.getAccount(transfer.getAccountToId());
+        if (accountTo == null) {
+            current.outcome = Outcome.NOT_FOUND;
+            return report(current.outcome, transfer);
+        }
+        final CompletableFuture<Void> durable;
+        try {
+            if (!accountTo.supportsAmount(transfer.getAmount())) throw new ArithmeticException();
+            durable = transfersEngine.executeLegs(new Account[]{accountTo},
+                    leg(accountTo, TransferLeg.Side.CREDIT, transfer.getAmount()), epoch -> {
+                        current.epoch = epoch;
+                        final CompletableFuture<Void> record = transfersJournal.appendTransferIn(transfer.getId(),
+                                transfer.getNode(), transfer.getAccountToId(), transfer.getAmount(), epoch);
+                        // Applied in memory, so never applied again even if the write of the record fails
+                        current.outcome = Outcome.APPLIED;
+                        return record;
+                    });
+        } catch (ArithmeticException ae) {
+            current.outcome = Outcome.INVALID;
+            return report(current.outcome, transfer);
+        } catch (RuntimeException e) {
+            // Reverted, the origin node asks again
+            fromNode.applied.remove(transfer.getId(), current);
+            throw e;
+        }
+        join(durable);
+        notificationDispatcher.notifyAboutTransfer(accountTo, "New transfer from node: "
+                + partitionRing.getNodeUrl(transfer.getNode()) + ", amount: " + transfer.getAmount());
+        return true;
+    }
+
+    /**
+     * @return true the first time the transfer is replayed, when its withdrawal must be applied
+     */
+    public boolean recoverTransferOut(long transferId, int node, Transfer transfer) {
+        synchronized (inDoubt) {
+            lastId = Math.max(lastId, transferId);
+            if (inDoubt.containsKey(transferId)) return false;
+            // The epoch only matters to the copies appended at the next roll, which never apply it again
+            final OutgoingTransfer outgoing = new OutgoingTransfer(transferId, node, transfer);
+            outgoing.prepared = true;
+            outgoing.attempted = true;
+            inDoubt.put(transferId, outgoing);
+            return true;
+        }
+    }
+
+    public void recoverResolved(long transferId) {
+        inDoubt.remove(transferId);
+    }
+
+    /**
+     * @return true the first time the transfer is replayed, when its deposit must be applied
+     */
+    public boolean recoverTransferIn(long transferId, int node, String accountToId, BigDecimal amount) {
+        final IncomingTransfer recovered = new IncomingTransfer(accountToId, amount);
+        recovered.outcome = Outcome.APPLIED;
+        return incoming.computeIfAbsent(node, n -> new IncomingTransfers()).applied
+                .putIfAbsent(transferId, recovered) == null;
+    }
+
+    /**
+     * @return the outcome, or {@link Outcome#PENDING} when the transfer is in doubt
+     */
+    private Outcome requestDeposit(final OutgoingTransfer outgoing) {
+        final long resolvedBelow;
+        synchronized (inDoubt) {
+            resolvedBelow = inDoubt.isEmpty() ? lastId + 1 : inDoubt.firstKey();
+        }
+        final PartitionTransfer request = new PartitionTransfer(outgoing.id, partitionRing.getNode(), resolvedBelow,
+                outgoing.transfer.getAccountToId(), outgoing.transfer.getAmount());
+        final ResponseEntity<String> response;
+        try {
+            response = partitionClient.exchange(outgoing.node, HttpMethod.POST, DEPOSIT_PATH, new HttpEntity<>(request),
+                    String.class);
+        } catch (RestClientException e) {
+            log.warn("Transfer {} to node {} in doubt: {}", outgoing.id, outgoing.node, e.toString());
+            return Outcome.PENDING;
+        }
+
+        switch (response.getStatusCode()) {
+            case OK:
+                commit(outgoing);
+                return Outcome.APPLIED;
+            case NOT_FOUND:
+                abort(outgoing, response.getBody());
+                return Outcome.NOT_FOUND;
+            case BAD_REQUEST:
+                abort(outgoing, response.getBody());
+                return Outcome.INVALID;
+            default:
+                log.warn("Transfer {} to node {} in doubt: {} {}", outgoing.id, outgoing.node, response.getStatusCode(),
+                        response.getBody());
+                return Outcome.PENDING;
+        }
+    }
+
+    private void commit(final OutgoingTransfer outgoing) {
+        synchronized (outgoing) {
+            if (outgoing.resolved) return;
+            join(transfersJournal.appendTransferOutCommitted(outgoing.id));
+            outgoing.resolved = true;
+            retainResolved(outgoing);
+            inDoubt.remove(outgoing.id);
+        }
+        final Account accountFrom = accountsRepository.getAccount(outgoing.transfer.getAccountFromId());
+        if (accountFrom != null) {
+            notificationDispatcher.notifyAboutTransfer(accountFrom, "New transfer to account: "
+                    + outgoing.transfer.getAccountToId() + ", amount: " + outgoing.transfer.getAmount());
+        }
+    }
+
+    private void abort(final OutgoingTransfer outgoing, final String rejection) {
+        synchronized (outgoing) {
+            if (outgoing.resolved) return;
+            final Account accountFrom = accountsRepository.getAccount(outgoing.transfer.getAccountFromId());
+            final CompletableFuture<Void> durable = transfersEngine.executeLegs(new Account[]{accountFrom},
+                    leg(accountFrom, TransferLeg.Side.CREDIT, outgoing.transfer.getAmount()),
+                    epoch -> transfersJournal.appendTransferOutAborted(outgoing.id, accountFrom.getAccountId(),
+                            outgoing.transfer.getAmount(), epoch));
+            // Refunded in memory, so never refunded again even if the write of the record fails
+            outgoing.rejection = rejection != null ? rejection
+                    : "Transfer refused by node: " + partitionRing.getNodeUrl(outgoing.node);
+            outgoing.resolved = true;
+            retainResolved(outgoing);
+            inDoubt.remove(outgoing.id);
+            join(durable);
+        }
+        log.info("Transfer {} to node {} aborted: {}", outgoing.id, outgoing.node, rejection);
+    }
+
+    /**
+     * Only the transfers reported in doubt, i.e. whose first request is over, before they leave
+     * {@link #inDoubt} so they can be polled all along.
+     */
+    private void retainResolved(final OutgoingTransfer outgoing) {
+        if (!outgoing.attempted) return;
+        synchronized (resolvedAfterDoubt) {
+            resolvedAfterDoubt.put(outgoing.id, outgoing);
+        }
+    }
+
+    /**
+     * Only the transfers whose first request is over, so a transfer is never requested twice at once.
+     */
+    private void retryInDoubt() {
+        for (OutgoingTransfer outgoing : inDoubt.values()) {
+            if (!outgoing.attempted || outgoing.resolved) continue;
+            try {
+                requestDeposit(outgoing);
+            } catch (RuntimeException e) {
+                log.error("Error retrying transfer {} to node {}", outgoing.id, outgoing.node, e);
+            }
+        }
+    }
+
+    private CompletableFuture<Void> appendRetained() {
+        final List<CompletableFuture<Void>> durable = new ArrayList<>();
+        for (OutgoingTransfer outgoing : inDoubt.values()) {
+            synchronized (outgoing) {
+                if (outgoing.prepared && !outgoing.resolved) {
+                    durable.add(transfersJournal.appendTransferOut(outgoing.id, outgoing.node, outgoing.transfer,
+                            outgoing.epoch));
+                }
+            }
+        }
+        for (Map.Entry<Integer, IncomingTransfers> fromNode : incoming.entrySet()) {
+            for (Map.Entry<Long, IncomingTransfer> entry : fromNode.getValue().applied.entrySet()) {
+                final IncomingTransfer applied = entry.getValue();
+                if (applied.outcome != Outcome.APPLIED) continue;
+                durable.add(transfersJournal.appendTransferIn(entry.getKey(), fromNode.getKey(), applied.accountToId,
+                        applied.amount, applied.epoch));
+            }
+        }
+        return CompletableFuture.allOf(durable.toArray(new CompletableFuture[0]));
+    }
+
+    private static boolean report(final Outcome outcome, final PartitionTransfer transfer) {
+        switch (outcome) {
+            case APPLIED:
+                return true;
+            case NOT_FOUND:
+                throw new AccountNotFoundException("Account not found: " + transfer.getAccountToId());
+            case INVALID:
+                throw new InvalidTransferException("Amount cannot be deposited into account "
+                        + transfer.getAccountToId() + ": " + transfer.getAmount());
+            default:
+                return false;
+        }
+    }
+
+    private static List<TransferLeg> leg(final Account account, final TransferLeg.Side side, final BigDecimal amount) {
+        return Collections.singletonList(new TransferLeg(account.getAccountId(), side, amount));
+    }
+
+    private static void join(CompletableFuture<Void> future) {
+        try {
+            future.join();
+        } catch (CompletionException ce) {
+            throw (RuntimeException) ce.getCause();
+        }
+    }
+
+    private static final class OutgoingTransfer {
+        private final long id;
+        private final int node;
+        private final Transfer transfer;
+        private volatile long epoch;
+        /**
+         * Set once the amount is withdrawn.
+         */
+        private volatile boolean prepared;
+        /**
+         * Set once the first request is over, from then on the retries take the transfer.
+         */
+        private volatile boolean attempted;
+        private volatile boolean resolved;
+        private volatile String rejection;
+
+        OutgoingTransfer(long id, int node, Transfer transfer) {
+            this.id = id;
+            this.node = node;
+            this.transfer = transfer;
+        }
+    }
+
+    private static final class IncomingTransfers {
+        private final AtomicLong resolvedBelow = new AtomicLong();
+        private final ConcurrentSkipListMap<Long, IncomingTransfer> applied = new ConcurrentSkipListMap<>();
+    }
+
+    private static final class IncomingTransfer {
+        private final String accountToId;
+        private final BigDecimal amount;
+        private volatile long epoch;
+        private volatile Outcome outcome = Outcome.PENDING;
+
+        IncomingTransfer(String accountToId, BigDecimal amount) {
+            this.accountToId = accountToId;
+            this.amount = amount;
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package com.db.awmd.challenge.service;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.exception.DuplicateAccountIdException;
+import com.db.awmd.challenge.repository.AccountsRepository;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the accounts of this instance a copy of those of a {@link ReplicationPrimary}, so that it can
+ * serve the reads of the accounts while the writes go to the primary, see {@link ReplicationProtocol}.
+ * <p>
+ * A single thread applies the stream: the balances of the snapshot first, then the records of the
+ * batches, like {@link JournalRecovery} does, and acknowledges each batch once applied. The records are
+ * not validated again, and they are in the order they were journaled by the primary, which is the order
+ * they were applied for each account, except that two transfers on an account may be swapped when they
+ * were applied at the same time; as deposits and withdrawals commute the balances still converge.
+ * <p>
+ * When the stream is lost the follower reconnects every {@code replication.reconnect-millis} and loads a
+ * new snapshot. Meanwhile it keeps serving the balances it has: the accounts it already knows are
+ * updated in place by the new snapshot.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "replication.role", havingValue = "follower")
+public class ReplicationFollower {
+
+    private static final int INPUT_BUFFER_SIZE = 1 << 16;
+
+    private final AccountsService accountsService;
+    private final AccountsRepository accountsRepository;
+    private final String primaryHost;
+    private final int primaryPort;
+    private final long reconnectMillis;
+    private final String secret;
+
+    private Thread receiver;
+    private volatile Socket socket;
+    private volatile boolean running;
+    private volatile boolean synced;
+    private volatile long appliedSequence;
+    /**
+     * Epoch of the snapshot loaded, only used by the receiver thread.
+     */
+    private long snapshotEpoch;
+
+    @Autowired
+    public ReplicationFollower(AccountsService accountsService, AccountsRepository accountsRepository,
+                               MeterRegistry meterRegistry,
+                               @Value("${replication.primary-host:localhost}") String primaryHost,
+                               @Value("${replication.primary-port:18090}") int primaryPort,
+                               @Value("${replication.reconnect-millis:1000}") long reconnectMillis,
+                               @Value("${replication.secret:}") String secret) {
+        if (secret.isEmpty())
+            throw new IllegalStateException("replication.secret must be set on the primary and its followers");
+        this.accountsService = accountsService;
+        this.accountsRepository = accountsRepository;
+        this.primaryHost = primaryHost;
+        this.primaryPort = primaryPort;
+        this.reconnectMillis = reconnectMillis;
+        this.secret = secret;
+        Gauge.builder("replication.applied.sequence", this, ReplicationFollower::getAppliedSequence)
+                .description("Sequence number of the last record of the primary applied")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        running = true;
+        receiver = new Thread(this::receiveLoop, "replication-follower");
+        receiver.setDaemon(true);
+        receiver.start();
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        running = false;
+        final Socket current = socket;
+        if (current != null) {
+            try {
+                current.close();
+            } catch (IOException e) {
+                // Closing anyway
+            }
+        }
+        receiver.interrupt();
+        receiver.join(TimeUnit.SECONDS.toMillis(10));
+    }
+
+    /**
+     * Whether the snapshot of the current connection to the primary is loaded.
+     */
+    public boolean isSynced() {
+        return synced;
+    }
+
+    public long getAppliedSequence() {
+        return appliedSequence;
+    }
+
+    private void receiveLoop() {
+        while (running) {
+            try (Socket connection = new Socket(primaryHost, primaryPort)) {
+                socket = connection;
+                connection.setTcpNoDelay(true);
+                receive(connection);
+            } catch (IOException | RuntimeException e) {
+                if (running) log.warn("Lost the replication stream of {}:{}, reconnecting in {} ms: {}",
+                        primaryHost, primaryPort, reconnectMillis, e.toString());
+            } finally {
+                synced = false;
+                socket = null;
+            }
+
+            try {
+                Thread.sleep(reconnectMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void receive(Socket connection) throws IOException {
+        final DataInputStream in = new DataInputStream(
+                new BufferedInputStream(connection.getInputStream(), INPUT_BUFFER_SIZE));
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()));
+        out.writeInt(ReplicationProtocol.MAGIC);
+        out.writeInt(ReplicationProtocol.VERSION);
+        out.writeUTF(secret);
+        out.flush();
+        if (in.readInt() != ReplicationProtocol.MAGIC)
+            throw new IOException("Not a replication primary");
+        final int version = in.readInt();
+        if (version != ReplicationProtocol.VERSION)
+            throw new IOException("Unsupported replication protocol version " + version);
+
+        snapshotEpoch = Long.MAX_VALUE;
+        long snapshotAccounts = 0;
+        while (running) {
+            in.readInt();
+            final byte type = in.readByte();
+            switch (type) {
+                case ReplicationProtocol.SNAPSHOT:
+                    snapshotAccounts += applySnapshot(in);
+                    break;
+                case ReplicationProtocol.SNAPSHOT_END:
+                    snapshotEpoch = in.readLong();
+                    in.readLong();
+                    synced = true;
+                    log.info("Loaded snapshot {} of {} accounts from the replication primary {}:{}", snapshotEpoch,
+                            snapshotAccounts, primaryHost, primaryPort);
+                    break;
+                case ReplicationProtocol.BATCH:
+                    final long lastSequence = in.readLong();
+                    applyBatch(in);
+                    appliedSequence = lastSequence;
+                    out.writeLong(lastSequence);
+                    out.flush();
+                    break;
+                default:
+                    throw new IOException("Unknown replication frame type " + type);
+            }
+        }
+    }
+
+    private int applySnapshot(DataInputStream in) throws IOException {
+        final int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            final String accountId = in.readUTF();
+            final BigDecimal balance = ReplicationProtocol.readDecimal(in);
+            final Account account = accountsRepository.getAccount(accountId);
+            if (account != null) {
+                account.setBalance(balance);
+            } else {
+                onAccountCreated(accountId, balance);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Records of the epochs before the snapshot are already part of it. Batches only follow the end of
+     * the snapshot, whose epoch is then known.
+     */
+    private void applyBatch(DataInputStream in) throws IOException {
+        final int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            final ReplicationProtocol.Record record = ReplicationProtocol.readRecord(in);
+            if (record.epoch < snapshotEpoch) continue;
+            if (record.type == ReplicationProtocol.ACCOUNT_CREATED) {
+                onAccountCreated(record.accountId, record.amount);
+            } else {
+                onTransfer(record.accountId, record.otherAccountId, record.amount);
+            }
+        }
+    }
+
+    private void onAccountCreated(String accountId, BigDecimal balance) {
+        try {
+            accountsService.restoreAccount(new Account(accountId, balance));
+        } catch (DuplicateAccountIdException daie) {
+            // Created by the snapshot too, which already holds the writes since
+        }
+    }
+
+    private void onTransfer(String accountFromId, String accountToId, BigDecimal amount) {
+        final Account accountFrom = accountsRepository.getAccount(accountFromId);
+        final Account accountTo = accountsRepository.getAccount(accountToId);
+        if (accountFrom == null || accountTo == null) {
+            log.warn("Ignoring replicated transfer between unknown accounts {} and {}", accountFromId, accountToId);
+            return;
+        }
+        accountFrom.withdraw(amount);
+        accountTo.deposit(amount);
+    }
+}
@@ -0,0 +1,445 @@
+package com.db.awmd.challenge.service;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.Transfer;
+import com.db.awmd.challenge.repository.TransfersJournal;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Streams every account creation and transfer appended to the {@link TransfersJournal} to the followers
+ * connected to its port, see {@link ReplicationFollower} and {@link ReplicationProtocol}.
+ * <p>
+ * The port is only open on {@code replication.bind-address}, the loopback interface by default, and a
+ * follower is only registered once it sent {@code replication.secret}, as the stream holds every
+ * balance.
+ * <p>
+ * A single sender thread takes the records in batches, numbers them, encodes each batch once and queues
+ * it for every follower. Each follower has its own writer thread, which sends the batches without
+ * waiting for the acknowledgements of the previous ones, and a reader of its acknowledgements. A
+ * follower that falls more than {@code replication.follower-queue-capacity} batches behind is
+ * disconnected, so it cannot hold the memory of the primary; it gets a new snapshot when it reconnects.
+ * <p>
+ * A new follower first receives the balances captured by {@link AccountsSnapshotter#captureBalances}
+ * after it was registered, and then every batch sent since its registration: it skips the records of
+ * the epochs before the capture, which are already part of it. Records appended while no follower is
+ * registered are not queued at all.
+ * <p>
+ * With {@code replication.ack: sync} the futures of the appends complete once every follower that
+ * finished loading its snapshot has acknowledged the record, or after {@code sync-timeout-millis}, so a
+ * lost follower delays the writes only until the timeout. With {@code async} they complete immediately.
+ */
+@Slf4j
+@Component
+@DependsOn("journalRecovery")
+@ConditionalOnProperty(name = "replication.role", havingValue = "primary")
+public class ReplicationPrimary implements TransfersJournal.Replicator {
+
+    private static final CompletableFuture<Void> DONE = CompletableFuture.completedFuture(null);
+    private static final long IDLE_POLL_MILLIS = 10;
+    private static final int OUTPUT_BUFFER_SIZE = 1 << 16;
+    private static final int HANDSHAKE_TIMEOUT_MILLIS = 5000;
+
+    private final TransfersJournal transfersJournal;
+    private final AccountsSnapshotter accountsSnapshotter;
+    private final int port;
+    private final InetAddress bindAddress;
+    private final byte[] secret;
+    private final boolean syncAck;
+    private final long syncTimeoutNanos;
+    private final int batchSize;
+    private final int followerQueueCapacity;
+    private final Counter syncTimeouts;
+
+    private final BlockingQueue<PendingRecord> queue = new LinkedBlockingQueue<>();
+    private final Queue<Follower> joining = new ConcurrentLinkedQueue<>();
+    private final List<Follower> followers = new CopyOnWriteArrayList<>();
+    private final Queue<PendingRecord> awaitingAcks = new ConcurrentLinkedQueue<>();
+    private ServerSocket serverSocket;
+    private Thread acceptor;
+    private Thread sender;
+    /**
+     * Sequence number of the last record sent, only used by the sender thread.
+     */
+    private long lastSequence;
+    private volatile boolean running;
+
+    @Autowired
+    public ReplicationPrimary(TransfersJournal transfersJournal, AccountsSnapshotter accountsSnapshotter,
+                              MeterRegistry meterRegistry, PartitionRing partitionRing,
+                              @Value("${replication.port:18090}") int port,
+                              @Value("${replication.bind-address:127.0.0.1}") String bindAddress,
+                              @Value("${replication.secret:}") String secret,
+                              @Value("${replication.ack:async}") String ack,
+                              @Value("${replication.sync-timeout-millis:1000}") long syncTimeoutMillis,
+                              @Value("${replication.batch-size:1024}") int batchSize,
+                              @Value("${replication.follower-queue-capacity:4096}") int followerQueueCapacity)
+            throws IOException {
+        if (!accountsSnapshotter.isEnabled())
+            throw new IllegalStateException("Replication is not supported in sharded execution mode");
+        // The transfers between nodes are not replicated
+        if (partitionRing.isEnabled())
+            throw new IllegalStateException("Replication is not supported with partitioning");
+        if (secret.isEmpty())
+            throw new IllegalStateException("replication.secret must be set on the primary and its followers");
+        if (!"sync".equalsIgnoreCase(ack) && !"async".equalsIgnoreCase(ack))
+            throw new IllegalArgumentException("Invalid replication acknowledgement: " + ack);
+        if (batchSize <= 0 || followerQueueCapacity <= 0)
+            throw new IllegalArgumentException("Replication batch size and follower queue capacity must be positive");
+
+        this.transfersJournal = transfersJournal;
+        this.accountsSnapshotter = accountsSnapshotter;
+        this.port = port;
+        this.bindAddress = InetAddress.getByName(bindAddress);
+        this.secret = secret.getBytes(StandardCharsets.UTF_8);
+        this.syncAck = "sync".equalsIgnoreCase(ack);
+        this.syncTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(syncTimeoutMillis);
+        this.batchSize = batchSize;
+        this.followerQueueCapacity = followerQueueCapacity;
+        this.syncTimeouts = Counter.builder("replication.sync.timeouts")
+                .description("Records whose acknowledgement by the followers timed out")
+                .register(meterRegistry);
+        Gauge.builder("replication.followers", this, ReplicationPrimary::countFollowers)
+                .description("Followers connected and past their snapshot")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        serverSocket = new ServerSocket(port, 0, bindAddress);
+        running = true;
+        acceptor = new Thread(this::acceptLoop, "replication-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        sender = new Thread(this::sendLoop, "replication-sender");
+        sender.setDaemon(true);
+        sender.start();
+        transfersJournal.setReplicator(this);
+        log.info("Replication primary listening on {}:{}, {} acknowledgements", bindAddress.getHostAddress(), getPort(),
+                syncAck ? "sync" : "async");
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        transfersJournal.setReplicator(null);
+        running = false;
+        closeQuietly(serverSocket);
+        sender.interrupt();
+        sender.join(TimeUnit.SECONDS.toMillis(10));
+        acceptor.join(TimeUnit.SECONDS.toMillis(10));
+        followers.forEach(Follower::close);
+        joining.forEach(Follower::close);
+        for (PendingRecord record : queue) {
+            if (record.replicated != null) record.replicated.complete(null);
+        }
+        awaitingAcks.forEach(record -> record.replicated.complete(null));
+    }
+
+    /**
+     * The port actually listened on, when {@code replication.port} is 0.
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public int countFollowers() {
+        int live = 0;
+        for (Follower follower : followers) {
+            if (follower.live) live++;
+        }
+        return live;
+    }
+
+    @Override
+    public CompletableFuture<Void> onAccountCreated(Account account) {
+        // Creations hold the creation lock, so no capture can change the epoch meanwhile
+        return enqueue(ReplicationProtocol.ACCOUNT_CREATED, account.getAccountId(), null, account.getBalance(),
+                accountsSnapshotter.currentEpoch());
+    }
+
+    @Override
+    public CompletableFuture<Void> onTransfer(Transfer transfer, long epoch) {
+        return enqueue(ReplicationProtocol.TRANSFER, transfer.getAccountFromId(), transfer.getAccountToId(),
+                transfer.getAmount(), epoch);
+    }
+
+    /**
+     * A follower registered after the emptiness check captures its balances later, so they include the
+     * records not queued.
+     */
+    private CompletableFuture<Void> enqueue(byte type, String accountId, String otherAccountId, BigDecimal amount,
+                                            long epoch) {
+        if (!running || followers.isEmpty()) return DONE;
+        final PendingRecord record = new PendingRecord(type, accountId, otherAccountId, amount, epoch,
+                syncAck ? new CompletableFuture<>() : null);
+        queue.add(record);
+        return syncAck ? record.replicated : DONE;
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                final Socket socket = serverSocket.accept();
+                final Thread handshake = new Thread(() -> authenticate(socket),
+                        "replication-handshake-" + socket.getRemoteSocketAddress());
+                handshake.setDaemon(true);
+                handshake.start();
+            } catch (IOException e) {
+                if (running) log.error("Error accepting a replication follower", e);
+            }
+        }
+    }
+
+    /**
+     * Registers the follower once it sent the header of the protocol and the secret, on its own thread
+     * and within a timeout, so a peer that sends nothing holds neither the acceptor nor a thread.
+     */
+    private void authenticate(Socket socket) {
+        final SocketAddress address = socket.getRemoteSocketAddress();
+        try {
+            socket.setSoTimeout(HANDSHAKE_TIMEOUT_MILLIS);
+            final DataInputStream in = new DataInputStream(socket.getInputStream());
+            if (in.readInt() != ReplicationProtocol.MAGIC || in.readInt() != ReplicationProtocol.VERSION
+                    || !MessageDigest.isEqual(secret, in.readUTF().getBytes(StandardCharsets.UTF_8))) {
+                log.warn("Refusing replication follower {} without the secret of the primary", address);
+                closeQuietly(socket);
+                return;
+            }
+            socket.setSoTimeout(0);
+            socket.setTcpNoDelay(true);
+            if (running) {
+                joining.add(new Follower(socket));
+            } else {
+                closeQuietly(socket);
+            }
+        } catch (IOException e) {
+            log.warn("Refusing replication follower {}: {}", address, e.toString());
+            closeQuietly(socket);
+        }
+    }
+
+    private void sendLoop() {
+        final List<PendingRecord> batch = new ArrayList<>(batchSize);
+        final ReplicationProtocol.FrameEncoder encoder = new ReplicationProtocol.FrameEncoder();
+        while (running) {
+            try {
+                registerJoining();
+                final PendingRecord first = queue.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, batchSize - 1);
+                    for (PendingRecord record : batch) {
+                        record.sequence = ++lastSequence;
+                        if (record.replicated != null) awaitingAcks.add(record);
+                    }
+                    final byte[] frame = encoder.batch(batch, lastSequence);
+                    batch.clear();
+                    for (Follower follower : followers) {
+                        follower.send(frame);
+                    }
+                }
+                followers.removeIf(follower -> follower.closed);
+                completeAcknowledged();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (IOException | RuntimeException e) {
+                log.error("Error sending replication batch", e);
+            }
+        }
+    }
+
+    /**
+     * Registers the new followers between two batches, so that they get every batch numbered after
+     * {@link #lastSequence}. Each one starts as if it had acknowledged the previous ones, which its
+     * snapshot will include.
+     */
+    private void registerJoining() {
+        Follower follower;
+        while ((follower = joining.poll()) != null) {
+            follower.acknowledged = lastSequence;
+            followers.add(follower);
+            follower.start();
+            log.info("Replication follower {} connected", follower.address);
+        }
+    }
+
+    private synchronized void completeAcknowledged() {
+        if (awaitingAcks.isEmpty()) return;
+        long acknowledged = Long.MAX_VALUE;
+        for (Follower follower : followers) {
+            if (follower.live) acknowledged = Math.min(acknowledged, follower.acknowledged);
+        }
+        final long now = System.nanoTime();
+        PendingRecord head;
+        while ((head = awaitingAcks.peek()) != null
+                && (head.sequence <= acknowledged || now - head.queuedAt >= syncTimeoutNanos)) {
+            awaitingAcks.poll();
+            if (head.sequence > acknowledged) syncTimeouts.increment();
+            head.replicated.complete(null);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            if (closeable != null) closeable.close();
+        } catch (IOException e) {
+            // Already closed by the other side
+        }
+    }
+
+    private static final class PendingRecord extends ReplicationProtocol.Record {
+        private final CompletableFuture<Void> replicated;
+        private final long queuedAt;
+        /**
+         * Set by the sender thread.
+         */
+        private long sequence;
+
+        PendingRecord(byte type, String accountId, String otherAccountId, BigDecimal amount, long epoch,
+                      CompletableFuture<Void> replicated) {
+            super(type, accountId, otherAccountId, amount, epoch);
+            this.replicated = replicated;
+            this.queuedAt = replicated == null ? 0 : System.nanoTime();
+        }
+    }
+
+    private final class Follower {
+        private final Socket socket;
+        private final SocketAddress address;
+        private final BlockingQueue<byte[]> frames = new ArrayBlockingQueue<>(followerQueueCapacity);
+        private volatile long acknowledged;
+        /**
+         * Set once the snapshot is sent, from then on the follower counts for the sync acknowledgements.
+         */
+        private volatile boolean live;
+        private volatile boolean closed;
+
+        Follower(Socket socket) {
+            this.socket = socket;
+            this.address = socket.getRemoteSocketAddress();
+        }
+
+        void start() {
+            final Thread writer = new Thread(this::writeLoop, "replication-writer-" + address);
+            writer.setDaemon(true);
+            writer.start();
+            final Thread reader = new Thread(this::readLoop, "replication-reader-" + address);
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        void send(byte[] frame) {
+            if (closed || frames.offer(frame)) return;
+            log.warn("Disconnecting replication follower {}, more than {} batches behind", address,
+                    followerQueueCapacity);
+            close();
+        }
+
+        void close() {
+            live = false;
+            closed = true;
+            closeQuietly(socket);
+        }
+
+        private void writeLoop() {
+            try {
+                final DataOutputStream out = new DataOutputStream(
+                        new BufferedOutputStream(socket.getOutputStream(), OUTPUT_BUFFER_SIZE));
+                out.writeInt(ReplicationProtocol.MAGIC);
+                out.writeInt(ReplicationProtocol.VERSION);
+                sendSnapshot(out);
+                live = true;
+
+                while (!closed) {
+                    final byte[] frame = frames.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                    if (frame != null) out.write(frame);
+                    if (frames.isEmpty()) out.flush();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException | UncheckedIOException e) {
+                if (!closed) log.warn("Lost replication follower {}: {}", address, e.toString());
+            } finally {
+                close();
+            }
+        }
+
+        private void sendSnapshot(DataOutputStream out) throws IOException {
+            final long start = System.nanoTime();
+            final ReplicationProtocol.FrameEncoder encoder = new ReplicationProtocol.FrameEncoder();
+            final List<String> accountIds = new ArrayList<>(batchSize);
+            final List<BigDecimal> balances = new ArrayList<>(batchSize);
+            final long[] accounts = new long[1];
+            final long epoch = accountsSnapshotter.captureBalances((accountId, balance) -> {
+                accountIds.add(accountId);
+                balances.add(balance);
+                accounts[0]++;
+                if (accountIds.size() == batchSize) writeSnapshotChunk(out, encoder, accountIds, balances);
+            });
+            if (!accountIds.isEmpty()) writeSnapshotChunk(out, encoder, accountIds, balances);
+            out.write(encoder.snapshotEnd(epoch, accounts[0]));
+            out.flush();
+            log.info("Sent snapshot {} of {} accounts to replication follower {} in {} ms", epoch, accounts[0],
+                    address, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        }
+
+        private void writeSnapshotChunk(DataOutputStream out, ReplicationProtocol.FrameEncoder encoder,
+                                        List<String> accountIds, List<BigDecimal> balances) {
+            try {
+                out.write(encoder.snapshot(accountIds, balances));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            accountIds.clear();
+            balances.clear();
+        }
+
+        private void readLoop() {
+            try {
+                final DataInputStream in = new DataInputStream(socket.getInputStream());
+                while (!closed) {
+                    acknowledged = in.readLong();
+                    completeAcknowledged();
+                }
+            } catch (IOException e) {
+                if (!closed) log.warn("Lost replication follower {}: {}", address, e.toString());
+            } finally {
+                close();
+            }
+        }
+    }
+}
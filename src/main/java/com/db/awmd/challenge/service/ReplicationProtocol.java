@@ -0,0 +1,141 @@
+package com.db.awmd.challenge.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.List;
+
+/**
+ * Binary stream from a {@link ReplicationPrimary} to a {@link ReplicationFollower}. The follower opens
+ * the connection with a header and the secret shared by the nodes, {@code replication.secret}, without
+ * which the primary closes it. After a header, the primary only sends frames, each made of its length,
+ * its type and its body:
+ * <ul>
+ * <li>{@link #SNAPSHOT}: a chunk of the balances captured when the follower connected.</li>
+ * <li>{@link #SNAPSHOT_END}: the epoch of the capture. Records of older epochs are already part of it.</li>
+ * <li>{@link #BATCH}: records of account creations and transfers, in the order they were appended to the
+ * journal, with the sequence number of the last one.</li>
+ * </ul>
+ * Amounts are encoded like in {@link com.db.awmd.challenge.repository.TransfersJournal}, as a scale and
+ * the bytes of the unscaled value. The follower only answers with the sequence number of the last record
+ * it applied, as a long, after each batch.
+ */
+final class ReplicationProtocol {
+
+    static final int MAGIC = 0x52504C53;
+    static final int VERSION = 2;
+
+    static final byte SNAPSHOT = 1;
+    static final byte SNAPSHOT_END = 2;
+    static final byte BATCH = 3;
+
+    static final byte ACCOUNT_CREATED = 1;
+    static final byte TRANSFER = 2;
+
+    private ReplicationProtocol() {
+    }
+
+    /**
+     * An account creation or a transfer, with the epoch it was applied in.
+     */
+    static class Record {
+        final byte type;
+        final String accountId;
+        final String otherAccountId;
+        final BigDecimal amount;
+        final long epoch;
+
+        Record(byte type, String accountId, String otherAccountId, BigDecimal amount, long epoch) {
+            this.type = type;
+            this.accountId = accountId;
+            this.otherAccountId = otherAccountId;
+            this.amount = amount;
+            this.epoch = epoch;
+        }
+    }
+
+    /**
+     * Builds frames in a buffer reused from one frame to the next. Not thread-safe.
+     */
+    static final class FrameEncoder {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream(1 << 16);
+        private final DataOutputStream out = new DataOutputStream(bytes);
+
+        byte[] snapshot(List<String> accountIds, List<BigDecimal> balances) throws IOException {
+            begin(SNAPSHOT);
+            out.writeInt(accountIds.size());
+            for (int i = 0; i < accountIds.size(); i++) {
+                out.writeUTF(accountIds.get(i));
+                writeDecimal(balances.get(i));
+            }
+            return finish();
+        }
+
+        byte[] snapshotEnd(long epoch, long accounts) throws IOException {
+            begin(SNAPSHOT_END);
+            out.writeLong(epoch);
+            out.writeLong(accounts);
+            return finish();
+        }
+
+        byte[] batch(List<? extends Record> records, long lastSequence) throws IOException {
+            begin(BATCH);
+            out.writeLong(lastSequence);
+            out.writeInt(records.size());
+            for (Record record : records) {
+                out.writeByte(record.type);
+                out.writeLong(record.epoch);
+                out.writeUTF(record.accountId);
+                if (record.type == TRANSFER) out.writeUTF(record.otherAccountId);
+                writeDecimal(record.amount);
+            }
+            return finish();
+        }
+
+        private void begin(byte type) throws IOException {
+            bytes.reset();
+            out.writeInt(0);
+            out.writeByte(type);
+        }
+
+        private byte[] finish() {
+            final byte[] frame = bytes.toByteArray();
+            final int length = frame.length - 4;
+            frame[0] = (byte) (length >>> 24);
+            frame[1] = (byte) (length >>> 16);
+            frame[2] = (byte) (length >>> 8);
+            frame[3] = (byte) length;
+            return frame;
+        }
+
+        private void writeDecimal(BigDecimal value) throws IOException {
+            final byte[] unscaled = value.unscaledValue().toByteArray();
+            out.writeInt(value.scale());
+            out.writeShort(unscaled.length);
+            out.write(unscaled);
+        }
+    }
+
+    static Record readRecord(DataInputStream in) throws IOException {
+        final byte type = in.readByte();
+        final long epoch = in.readLong();
+        switch (type) {
+            case ACCOUNT_CREATED:
+                return new Record(type, in.readUTF(), null, readDecimal(in), epoch);
+            case TRANSFER:
+                return new Record(type, in.readUTF(), in.readUTF(), readDecimal(in), epoch);
+            default:
+                throw new IOException("Unknown replication record type " + type);
+        }
+    }
+
+    static BigDecimal readDecimal(DataInputStream in) throws IOException {
+        final int scale = in.readInt();
+        final byte[] unscaled = new byte[in.readUnsignedShort()];
+        in.readFully(unscaled);
+        return new BigDecimal(new BigInteger(unscaled), scale);
+    }
+}
@@ -0,0 +1,232 @@
+package com.db.awmd.challenge.service;
+
+import com.db.awmd.challenge.domain.ScheduledTransfer;
+import com.db.awmd.challenge.domain.Transfer;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Stream;
+
+/**
+ * Hierarchical timing wheel of the pending scheduled transfers. Not thread-safe, {@link TransfersScheduler}
+ * guards it with its lock.
+ * <p>
+ * Time is counted in ticks. There are {@value #LEVELS} levels of {@value #SLOTS} slots: a slot of level L
+ * spans 256^L ticks, so the wheel holds transfers due up to 2^32 ticks ahead. An entry goes to the lowest
+ * level whose span covers its distance to the current tick, in the slot of its due tick at that level.
+ * Each tick the slot of level 0 is fired, and whenever the ticks of a level wrap around, the slot of the
+ * level above is cascaded: its entries are added again, now to the lower levels. So adding and firing an
+ * entry are O(1), and each entry is moved at most once per level.
+ * <p>
+ * The slots are doubly linked lists through the entries, and the entries are also indexed by id in chunks
+ * of an array, as the ids are a sequence. So cancelling is O(1) too, and the wheel holds no object per
+ * entry besides the entry itself.
+ */
+public final class ScheduledTransfersWheel {
+
+    static final int SLOT_BITS = 8;
+    static final int SLOTS = 1 << SLOT_BITS;
+    static final int LEVELS = 4;
+
+    public static final long MAX_TICKS_AHEAD = (1L << (SLOT_BITS * LEVELS)) - 1;
+    public static final long MAX_ID = (1L << 40) - 1;
+
+    private static final int SLOT_MASK = SLOTS - 1;
+    private static final int CHUNK_BITS = 12;
+    private static final int CHUNK_MASK = (1 << CHUNK_BITS) - 1;
+
+    private final Entry[] slots = new Entry[LEVELS * SLOTS];
+    private Entry[][] chunks = new Entry[0][];
+    private int[] chunkSizes = new int[0];
+    private long currentTick;
+    private int size;
+
+    public ScheduledTransfersWheel(long currentTick) {
+        this.currentTick = currentTick;
+    }
+
+    public long getCurrentTick() {
+        return currentTick;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean contains(long id) {
+        return id >= 0 && id <= MAX_ID && get(id) != null;
+    }
+
+    /**
+     * An entry due before the next tick is fired on the next tick.
+     */
+    public void add(long id, long dueTick, String accountFromId, String accountToId, BigDecimal amount) {
+        if (id < 0 || id > MAX_ID) throw new IllegalArgumentException("Invalid scheduled transfer id: " + id);
+        if (dueTick - currentTick > MAX_TICKS_AHEAD)
+            throw new IllegalArgumentException("Scheduled transfer due more than " + MAX_TICKS_AHEAD + " ticks ahead");
+        if (amount.unscaledValue().bitLength() > 63)
+            throw new IllegalArgumentException("Scheduled transfer amount is too large: " + amount);
+        if (get(id) != null) throw new IllegalArgumentException("Scheduled transfer " + id + " already exists");
+
+        final Entry entry = new Entry(id, Math.max(dueTick, currentTick + 1), accountFromId, accountToId,
+                amount.unscaledValue().longValue(), amount.scale());
+        index(entry);
+        link(entry);
+        size++;
+    }
+
+    /**
+     * @return false when there is no pending entry with that id
+     */
+    public boolean cancel(long id) {
+        final Entry entry = get(id);
+        if (entry == null) return false;
+        unindex(id);
+        unlink(entry);
+        size--;
+        return true;
+    }
+
+    /**
+     * Moves the wheel to the given tick and removes the entries due until then, in the order of their ticks.
+     */
+    public void advanceTo(long tick, List<Entry> due) {
+        while (currentTick < tick && size > 0) {
+            currentTick++;
+            cascade();
+            final int slot = (int) currentTick & SLOT_MASK;
+            Entry entry = slots[slot];
+            slots[slot] = null;
+            while (entry != null) {
+                final Entry next = entry.next;
+                entry.prev = entry.next = null;
+                unindex(entry.id);
+                size--;
+                due.add(entry);
+                entry = next;
+            }
+        }
+        if (currentTick < tick) currentTick = tick;
+    }
+
+    /**
+     * The pending entries, in the order of their ids.
+     */
+    public Stream<Entry> stream() {
+        return Arrays.stream(chunks).filter(Objects::nonNull).flatMap(Arrays::stream).filter(Objects::nonNull);
+    }
+
+    /**
+     * Adds again the entries of the slots of the upper levels whose lower levels just wrapped around,
+     * starting from the highest one.
+     */
+    private void cascade() {
+        int level = 1;
+        while (level < LEVELS && (currentTick & ((1L << (SLOT_BITS * level)) - 1)) == 0) {
+            level++;
+        }
+        for (int l = level - 1; l >= 1; l--) {
+            final int slot = l * SLOTS + ((int) (currentTick >>> (SLOT_BITS * l)) & SLOT_MASK);
+            Entry entry = slots[slot];
+            slots[slot] = null;
+            while (entry != null) {
+                final Entry next = entry.next;
+                link(entry);
+                entry = next;
+            }
+        }
+    }
+
+    private void link(Entry entry) {
+        final long distance = entry.dueTick - currentTick;
+        final int level = distance < SLOTS ? 0 : (63 - Long.numberOfLeadingZeros(distance)) / SLOT_BITS;
+        final int slot = level * SLOTS + ((int) (entry.dueTick >>> (SLOT_BITS * level)) & SLOT_MASK);
+        entry.slot = slot;
+        entry.prev = null;
+        entry.next = slots[slot];
+        if (entry.next != null) entry.next.prev = entry;
+        slots[slot] = entry;
+    }
+
+    private void unlink(Entry entry) {
+        if (entry.prev != null) {
+            entry.prev.next = entry.next;
+        } else {
+            slots[entry.slot] = entry.next;
+        }
+        if (entry.next != null) entry.next.prev = entry.prev;
+        entry.prev = entry.next = null;
+    }
+
+    private Entry get(long id) {
+        final int chunk = (int) (id >>> CHUNK_BITS);
+        return chunk < chunks.length && chunks[chunk] != null ? chunks[chunk][(int) id & CHUNK_MASK] : null;
+    }
+
+    private void index(Entry entry) {
+        final int chunk = (int) (entry.id >>> CHUNK_BITS);
+        if (chunk >= chunks.length) {
+            final int length = Math.max(chunk + 1, chunks.length * 2);
+            chunks = Arrays.copyOf(chunks, length);
+            chunkSizes = Arrays.copyOf(chunkSizes, length);
+        }
+        if (chunks[chunk] == null) chunks[chunk] = new Entry[1 << CHUNK_BITS];
+        chunks[chunk][(int) entry.id & CHUNK_MASK] = entry;
+        chunkSizes[chunk]++;
+    }
+
+    /**
+     * The chunks are released once all their entries are gone.
+     */
+    private void unindex(long id) {
+        final int chunk = (int) (id >>> CHUNK_BITS);
+        chunks[chunk][(int) id & CHUNK_MASK] = null;
+        if (--chunkSizes[chunk] == 0) chunks[chunk] = null;
+    }
+
+    /**
+     * The amount is kept as its unscaled long and its scale, so an entry is a single object.
+     */
+    public static final class Entry {
+        private final long id;
+        private final long dueTick;
+        private final String accountFromId;
+        private final String accountToId;
+        private final long unscaledAmount;
+        private final int scale;
+        private int slot;
+        private Entry prev;
+        private Entry next;
+
+        private Entry(long id, long dueTick, String accountFromId, String accountToId, long unscaledAmount, int scale) {
+            this.id = id;
+            this.dueTick = dueTick;
+            this.accountFromId = accountFromId;
+            this.accountToId = accountToId;
+            this.unscaledAmount = unscaledAmount;
+            this.scale = scale;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public long getDueTick() {
+            return dueTick;
+        }
+
+        public BigDecimal getAmount() {
+            return BigDecimal.valueOf(unscaledAmount, scale);
+        }
+
+        public Transfer toTransfer() {
+            return new Transfer(accountFromId, accountToId, getAmount());
+        }
+
+        public ScheduledTransfer toScheduledTransfer(long tickMillis) {
+            return new ScheduledTransfer(id, accountFromId, accountToId, getAmount(), dueTick * tickMillis);
+        }
+    }
+}
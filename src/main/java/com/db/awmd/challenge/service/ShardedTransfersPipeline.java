@@ -0,0 +1,294 @@
+package com.db.awmd.challenge.service;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.Transfer;
+import com.db.awmd.challenge.repository.TransfersJournal;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Alternative execution mode where the accounts are partitioned across single-threaded shards. Only the
+ * thread of a shard ever modifies the balances of its accounts, so transfers run without locks.
+ * <p>
+ * A transfer between two accounts of the same shard is applied in one step. A transfer across shards is
+ * done in two phases: the amount is reserved (withdrawn) by the shard of the origin account, and then
+ * committed (deposited) by the shard of the target account. If the commit fails the reserved amount is
+ * given back by the origin shard.
+ * <p>
+ * Each shard reads the transfers submitted by the callers from a bounded ring buffer, so callers block
+ * when a shard is saturated. Messages between shards go through an unbounded inbox, as a shard must
+ * never block on another one.
+ * <p>
+ * The shard that completes a transfer queues its journal record right away, so the journal follows the
+ * order in which each shard applied the transfers of its accounts, and the future completes once the
+ * record is durable. A transfer the journal refuses is reverted.
+ * <p>
+ * On shutdown the transfers already withdrawn by a shard are finished, so that no amount stays reserved,
+ * and the ones still waiting in the ring buffers fail without being applied.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "transfers.execution-mode", havingValue = "sharded")
+public class ShardedTransfersPipeline {
+
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final TransfersValidations transfersValidations;
+    private final TransfersJournal transfersJournal;
+    private final AccountsSnapshotter accountsSnapshotter;
+    private final Shard[] shards;
+
+    /**
+     * Without journal, e.g. in the benchmarks.
+     */
+    public ShardedTransfersPipeline(TransfersValidations transfersValidations, int numberOfShards, int queueCapacity) {
+        this(transfersValidations, null, null, numberOfShards, queueCapacity);
+    }
+
+    @Autowired
+    public ShardedTransfersPipeline(TransfersValidations transfersValidations, TransfersJournal transfersJournal,
+                                    AccountsSnapshotter accountsSnapshotter,
+                                    @Value("${transfers.shards:0}") int numberOfShards,
+                                    @Value("${transfers.shard-queue-capacity:65536}") int queueCapacity) {
+        this.transfersValidations = transfersValidations;
+        this.transfersJournal = transfersJournal;
+        this.accountsSnapshotter = accountsSnapshotter;
+
+        int size = numberOfShards > 0 ? numberOfShards : Runtime.getRuntime().availableProcessors();
+        this.shards = new Shard[size];
+        for (int i = 0; i < size; i++) {
+            this.shards[i] = new Shard(i, queueCapacity);
+            this.shards[i].start();
+        }
+        log.info("Started {} transfer shards", size);
+    }
+
+    public int getNumberOfShards() {
+        return shards.length;
+    }
+
+    /**
+     * Submits a transfer that already passed the stateless validations. The future completes once the
+     * transfer is journaled, and fails with the same exceptions as the synchronous engine.
+     */
+    public CompletableFuture<Void> submit(final Account accountFrom, final Account accountTo, final Transfer transfer) {
+        final CompletableFuture<Void> result = new CompletableFuture<>();
+        final Shard shardFrom = shardOf(accountFrom.getAccountId());
+        final Shard shardTo = shardOf(accountTo.getAccountId());
+
+        if (shardFrom == shardTo) {
+            shardFrom.submit(result, () -> {
+                try {
+                    transfersValidations.validateEnoughBalance(transfer, accountFrom);
+                    accountFrom.withdraw(transfer.getAmount());
+                    accountTo.deposit(transfer.getAmount());
+                } catch (RuntimeException e) {
+                    result.completeExceptionally(e);
+                    return;
+                }
+                journal(transfer, result, () -> {
+                    accountTo.withdraw(transfer.getAmount());
+                    accountFrom.deposit(transfer.getAmount());
+                });
+            });
+        } else {
+            shardFrom.submit(result, () -> {
+                try {
+                    transfersValidations.validateEnoughBalance(transfer, accountFrom);
+                    accountFrom.withdraw(transfer.getAmount());
+                } catch (RuntimeException e) {
+                    result.completeExceptionally(e);
+                    return;
+                }
+                shardTo.send(() -> {
+                    try {
+                        accountTo.deposit(transfer.getAmount());
+                    } catch (RuntimeException e) {
+                        shardFrom.send(() -> accountFrom.deposit(transfer.getAmount()));
+                        result.completeExceptionally(e);
+                        return;
+                    }
+                    journal(transfer, result, () -> {
+                        accountTo.withdraw(transfer.getAmount());
+                        shardFrom.send(() -> accountFrom.deposit(transfer.getAmount()));
+                    });
+                });
+            });
+        }
+        return result;
+    }
+
+    /**
+     * Called by the shard that completed the transfer, before it runs any other task.
+     */
+    private void journal(final Transfer transfer, final CompletableFuture<Void> result, final Runnable revert) {
+        if (transfersJournal == null) {
+            result.complete(null);
+            return;
+        }
+        final CompletableFuture<Void> durable;
+        try {
+            durable = transfersJournal.appendTransfer(transfer, accountsSnapshotter.currentEpoch());
+        } catch (RuntimeException e) {
+            revert.run();
+            result.completeExceptionally(e);
+            return;
+        }
+        durable.whenComplete((ignored, error) -> {
+            if (error == null) {
+                result.complete(null);
+            } else {
+                result.completeExceptionally(error instanceof CompletionException ? error.getCause() : error);
+            }
+        });
+    }
+
+    private Shard shardOf(final String accountId) {
+        int hash = accountId.hashCode();
+        return shards[((hash ^ (hash >>> 16)) & Integer.MAX_VALUE) % shards.length];
+    }
+
+    /**
+     * Stops the shards, then runs what is left in their inboxes, i.e. the transfers already withdrawn, and
+     * fails the futures of the transfers left in the ring buffers.
+     */
+    @PreDestroy
+    public void shutdown() {
+        for (Shard shard : shards) {
+            shard.closed = true;
+            shard.interrupt();
+        }
+        boolean interrupted = false;
+        for (Shard shard : shards) {
+            while (shard.isAlive()) {
+                try {
+                    shard.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+
+        // The shards are stopped, so their tasks can run on this thread; a task may send one to another shard
+        boolean drained;
+        do {
+            drained = true;
+            for (Shard shard : shards) {
+                for (Runnable task = shard.inbox.poll(); task != null; task = shard.inbox.poll()) {
+                    drained = false;
+                    shard.runTask(task);
+                }
+            }
+        } while (!drained);
+
+        int rejected = 0;
+        for (Shard shard : shards) {
+            for (Task task = shard.ringBuffer.poll(); task != null; task = shard.ringBuffer.poll()) {
+                task.reject();
+                rejected++;
+            }
+        }
+        if (rejected > 0) log.info("Failed {} transfers not yet started by the shards", rejected);
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    /**
+     * A transfer submitted by a caller, with the future to fail if it never runs.
+     */
+    private static final class Task {
+
+        private final CompletableFuture<Void> result;
+        private final Runnable action;
+
+        Task(CompletableFuture<Void> result, Runnable action) {
+            this.result = result;
+            this.action = action;
+        }
+
+        void reject() {
+            result.completeExceptionally(new IllegalStateException("The transfer shards are shut down"));
+        }
+    }
+
+    private static final class Shard extends Thread {
+
+        private final BlockingQueue<Task> ringBuffer;
+        private final Queue<Runnable> inbox = new ConcurrentLinkedQueue<>();
+        private volatile boolean closed;
+
+        Shard(int index, int queueCapacity) {
+            super("transfers-shard-" + index);
+            setDaemon(true);
+            this.ringBuffer = new ArrayBlockingQueue<>(queueCapacity);
+        }
+
+        /**
+         * Used by the callers. Blocks while the ring buffer is full. A transfer submitted while the shard
+         * shuts down is failed by the shutdown or, if it comes after, by the caller itself.
+         */
+        void submit(CompletableFuture<Void> result, Runnable action) {
+            final Task task = new Task(result, action);
+            if (closed) {
+                task.reject();
+                return;
+            }
+            try {
+                ringBuffer.put(task);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while submitting a transfer", e);
+            }
+            if (closed && ringBuffer.remove(task)) {
+                task.reject();
+                return;
+            }
+            LockSupport.unpark(this);
+        }
+
+        /**
+         * Used by other shards. Never blocks.
+         */
+        void send(Runnable task) {
+            inbox.add(task);
+            LockSupport.unpark(this);
+        }
+
+        @Override
+        public void run() {
+            while (!isInterrupted()) {
+                Runnable task = inbox.poll();
+                if (task == null) {
+                    final Task submitted = ringBuffer.poll();
+                    if (submitted != null) task = submitted.action;
+                }
+
+                if (task != null) {
+                    runTask(task);
+                } else {
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                }
+            }
+        }
+
+        void runTask(Runnable task) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                log.error("Unexpected error in {}", getName(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,322 @@
+package com.db.awmd.challenge.service;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.Transfer;
+import com.db.awmd.challenge.domain.TransferLeg;
+import com.db.awmd.challenge.domain.TransferRejection;
+import com.db.awmd.challenge.domain.TransferResult;
+import com.db.awmd.challenge.domain.TransferStatus;
+import com.db.awmd.challenge.exception.InsufficientBalanceException;
+import com.db.awmd.challenge.repository.TransfersJournal;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.LongFunction;
+
+/**
+ * Applies validated transfers to the accounts involved.
+ * <p>
+ * The accounts are protected by the stripes of {@link AccountsLockTable}, which are always acquired in
+ * ascending order, so two concurrent transfers in opposite directions can never wait for each other.
+ * The balance check is done inside the critical section, therefore no concurrent transfer can overdraw
+ * the origin account.
+ * <p>
+ * Every write is stamped, inside the critical section, with the epoch of {@link AccountsSnapshotter}, and
+ * its record is queued in {@link TransfersJournal} before the stripes are released, so the journal holds
+ * the transfers of each account in the order they were applied: a transfer spending a deposit is never
+ * durable without it. When the journal refuses the record the write is reverted under the same locks.
+ * The methods return the future of the record, completing once it is durable.
+ * <p>
+ * The accounts whose balance takes deposits without locks (the hot accounts, see
+ * {@link com.db.awmd.challenge.domain.SplitBalance}) are credited without locking their stripe, so the
+ * transfers into a hot account only contend on the stripe of their origin account. The transfers out of
+ * a hot account still lock it. Atomic batches and multi-leg transfers lock every account, as reverting a
+ * deposit needs the withdrawals excluded. When snapshots are enabled every write locks its account, as the copy-on-write
+ * of the snapshots relies on it; that is always the case with the journal or replication, whose order
+ * relies on it too.
+ */
+@Component
+public class TransfersEngine {
+
+    private final TransfersValidations transfersValidations;
+    private final TransfersJournal transfersJournal;
+    private final AccountsLockTable accountsLockTable;
+    private final AccountsSnapshotter accountsSnapshotter;
+    private final TransfersMetrics transfersMetrics;
+    private final int batchLockGroupSize;
+    private final boolean lockFreeDeposits;
+
+    @Autowired
+    public TransfersEngine(TransfersValidations transfersValidations, TransfersJournal transfersJournal,
+                           AccountsLockTable accountsLockTable, AccountsSnapshotter accountsSnapshotter,
+                           TransfersMetrics transfersMetrics,
+                           @Value("${transfers.batch-lock-group-size:256}") int batchLockGroupSize) {
+        this.transfersValidations = transfersValidations;
+        this.transfersJournal = transfersJournal;
+        this.accountsLockTable = accountsLockTable;
+        this.accountsSnapshotter = accountsSnapshotter;
+        this.transfersMetrics = transfersMetrics;
+        this.batchLockGroupSize = batchLockGroupSize;
+        this.lockFreeDeposits = !accountsSnapshotter.isEnabled();
+    }
+
+    /**
+     * @return the future of the journal record of the transfer
+     */
+    public CompletableFuture<Void> execute(final Account accountFrom, final Account accountTo, final Transfer transfer)
+            throws InsufficientBalanceException {
+        final CompletableFuture<Void> durable = tryExecute(accountFrom, accountTo, transfer);
+        if (durable == null) throw TransferRejection.INSUFFICIENT_BALANCE.toException(transfer);
+        return durable;
+    }
+
+    /**
+     * Same as {@link #execute(Account, Account, Transfer)}, but a transfer not covered by the balance of
+     * the origin account is rejected without building an exception.
+     *
+     * @return the future of the journal record of the transfer, or null when the balance is insufficient
+     */
+    public CompletableFuture<Void> tryExecute(final Account accountFrom, final Account accountTo, final Transfer transfer) {
+        final int stripeFrom = accountsLockTable.stripeOf(accountFrom.getAccountId());
+        if (lockFreeDeposits && accountTo.hasLockFreeDeposits()) {
+            accountsLockTable.lock(stripeFrom);
+            try {
+                return applyAndJournalLocked(accountFrom, accountTo, transfer, accountsSnapshotter.currentEpoch());
+            } finally {
+                accountsLockTable.unlock(stripeFrom);
+            }
+        }
+        final int stripeTo = accountsLockTable.stripeOf(accountTo.getAccountId());
+
+        accountsLockTable.lockPair(stripeFrom, stripeTo);
+        try {
+            return applyAndJournalLocked(accountFrom, accountTo, transfer, accountsSnapshotter.currentEpoch());
+        } finally {
+            accountsLockTable.unlockPair(stripeFrom, stripeTo);
+        }
+    }
+
+    private CompletableFuture<Void> applyAndJournalLocked(final Account accountFrom, final Account accountTo,
+                                                          final Transfer transfer, final long epoch) {
+        if (applyLocked(accountFrom, accountTo, transfer, epoch) != null) return null;
+        return journalLocked(accountFrom, accountTo, transfer, epoch);
+    }
+
+    private CompletableFuture<Void> journalLocked(final Account accountFrom, final Account accountTo,
+                                                  final Transfer transfer, final long epoch) {
+        try {
+            return transfersJournal.appendTransfer(transfer, epoch);
+        } catch (RuntimeException e) {
+            revertLocked(accountFrom, accountTo, transfer);
+            throw e;
+        }
+    }
+
+    /**
+     * Applies a batch of transfers in order. The entries that already have a result (rejected by the
+     * stateless validations) are skipped, and a result is set for every other entry.
+     * <p>
+     * The batch is split in groups of consecutive transfers and the stripes of each group are locked
+     * once, instead of once per transfer. An atomic batch is a single group: if any transfer is rejected
+     * the ones already applied are reverted before releasing the locks, and the rest are aborted.
+     * <p>
+     * All the transfers of a group share one epoch, so a revert never undoes a write of a previous epoch
+     * already copied for a snapshot. The future of the journal record of each completed transfer is set
+     * in {@code durable}; an atomic batch is journaled as one record, only queued once all its transfers
+     * are applied.
+     */
+    public void executeBatch(final Account[] accountsFrom, final Account[] accountsTo, final Transfer[] transfers,
+                             final TransferResult[] results, final CompletableFuture<Void>[] durable,
+                             final boolean atomic) {
+        if (transfers.length == 0) return;
+
+        final int groupSize = atomic ? transfers.length : batchLockGroupSize;
+        final int[] stripes = new int[2 * Math.min(groupSize, transfers.length)];
+
+        for (int start = 0; start < transfers.length; start += groupSize) {
+            final int end = Math.min(start + groupSize, transfers.length);
+            final int count = collectStripes(accountsFrom, accountsTo, results, start, end, stripes, atomic);
+
+            accountsLockTable.lockAll(stripes, count);
+            try {
+                final long epoch = accountsSnapshotter.currentEpoch();
+                for (int i = start; i < end; i++) {
+                    if (results[i] != null) continue;
+                    results[i] = applyInBatchLocked(accountsFrom[i], accountsTo[i], transfers[i], epoch);
+                    if (results[i].getStatus() == TransferStatus.COMPLETED) {
+                        if (!atomic) durable[i] = journalLocked(accountsFrom[i], accountsTo[i], transfers[i], epoch);
+                    } else if (atomic) {
+                        revertLocked(accountsFrom, accountsTo, transfers, results, i);
+                        return;
+                    }
+                }
+                if (atomic) journalAtomicLocked(accountsFrom, accountsTo, transfers, results, durable, epoch);
+            } finally {
+                accountsLockTable.unlockAll(stripes, count);
+            }
+        }
+    }
+
+    private TransferResult applyInBatchLocked(final Account accountFrom, final Account accountTo,
+                                              final Transfer transfer, final long epoch) {
+        try {
+            final TransferRejection rejection = applyLocked(accountFrom, accountTo, transfer, epoch);
+            if (rejection == null) return TransferResult.completed();
+            transfersMetrics.rejected(rejection);
+            return TransferResult.rejected(rejection, transfer);
+        } catch (RuntimeException e) {
+            transfersMetrics.rejected(e);
+            return TransferResult.rejected(e.getMessage());
+        }
+    }
+
+    /**
+     * Applies all the legs of a multi-leg transfer, already validated, under a single acquisition of the
+     * stripes of its accounts. Every debit is checked before any leg is applied, so the legs are either
+     * all applied or none of them.
+     *
+     * @param accounts the account of each leg, in the same order
+     * @param journal   queues the records of the legs given the epoch they were applied in, called before the
+     *                  stripes are released
+     * @return the future returned by {@code journal}
+     */
+    public CompletableFuture<Void> executeLegs(final Account[] accounts, final List<TransferLeg> legs,
+                                               final LongFunction<CompletableFuture<Void>> journal)
+            throws InsufficientBalanceException {
+        final int[] stripes = new int[accounts.length];
+        for (int i = 0; i < accounts.length; i++) {
+            stripes[i] = accountsLockTable.stripeOf(accounts[i].getAccountId());
+        }
+        final int count = sortDistinct(stripes, stripes.length);
+
+        accountsLockTable.lockAll(stripes, count);
+        try {
+            for (int i = 0; i < accounts.length; i++) {
+                if (legs.get(i).isDebit() && !accounts[i].hasEnoughBalance(legs.get(i).getAmount()))
+                    throw new InsufficientBalanceException("Insufficient balance in account: " + accounts[i].getAccountId());
+            }
+            final long epoch = accountsSnapshotter.currentEpoch();
+            for (Account account : accounts) {
+                accountsSnapshotter.beforeWrite(epoch, account);
+            }
+            int applied = 0;
+            try {
+                for (; applied < accounts.length; applied++) {
+                    applyLeg(accounts[applied], legs.get(applied), false);
+                }
+                return journal.apply(epoch);
+            } catch (RuntimeException e) {
+                for (int i = applied - 1; i >= 0; i--) {
+                    applyLeg(accounts[i], legs.get(i), true);
+                }
+                throw e;
+            }
+        } finally {
+            accountsLockTable.unlockAll(stripes, count);
+        }
+    }
+
+    private static void applyLeg(final Account account, final TransferLeg leg, final boolean revert) {
+        if (leg.isDebit() != revert) {
+            account.withdraw(leg.getAmount());
+        } else {
+            account.deposit(leg.getAmount());
+        }
+    }
+
+    /**
+     * @return the reason why the transfer was rejected, or null when it was applied
+     */
+    private TransferRejection applyLocked(final Account accountFrom, final Account accountTo, final Transfer transfer,
+                                          final long epoch) {
+        final TransferRejection rejection = transfersValidations.checkEnoughBalance(transfer, accountFrom);
+        if (rejection != null) return rejection;
+        accountsSnapshotter.beforeWrite(epoch, accountFrom);
+        accountsSnapshotter.beforeWrite(epoch, accountTo);
+        accountFrom.withdraw(transfer.getAmount());
+        try {
+            accountTo.deposit(transfer.getAmount());
+        } catch (RuntimeException e) {
+            accountFrom.deposit(transfer.getAmount());
+            throw e;
+        }
+        return null;
+    }
+
+    private static void revertLocked(final Account accountFrom, final Account accountTo, final Transfer transfer) {
+        accountTo.withdraw(transfer.getAmount());
+        accountFrom.deposit(transfer.getAmount());
+    }
+
+    /**
+     * Every transfer of an atomic batch is applied, so they are queued as a single record, which replay
+     * applies whole or not at all, or the whole batch is reverted when the journal refuses it.
+     */
+    private void journalAtomicLocked(final Account[] accountsFrom, final Account[] accountsTo, final Transfer[] transfers,
+                                     final TransferResult[] results, final CompletableFuture<Void>[] durable,
+                                     final long epoch) {
+        final List<Transfer> completed = new ArrayList<>(transfers.length);
+        for (int i = 0; i < transfers.length; i++) {
+            if (results[i].getStatus() == TransferStatus.COMPLETED) completed.add(transfers[i]);
+        }
+        if (completed.isEmpty()) return;
+        try {
+            final CompletableFuture<Void> record = transfersJournal.appendTransfers(completed, epoch);
+            for (int i = 0; i < transfers.length; i++) {
+                if (results[i].getStatus() == TransferStatus.COMPLETED) durable[i] = record;
+            }
+        } catch (RuntimeException e) {
+            for (int i = transfers.length - 1; i >= 0; i--) {
+                if (results[i].getStatus() == TransferStatus.COMPLETED)
+                    revertLocked(accountsFrom[i], accountsTo[i], transfers[i]);
+            }
+            throw e;
+        }
+    }
+
+    private void revertLocked(final Account[] accountsFrom, final Account[] accountsTo, final Transfer[] transfers,
+                              final TransferResult[] results, final int failed) {
+        for (int i = failed - 1; i >= 0; i--) {
+            accountsTo[i].withdraw(transfers[i].getAmount());
+            accountsFrom[i].deposit(transfers[i].getAmount());
+        }
+        for (int i = 0; i < results.length; i++) {
+            if (i != failed) results[i] = TransferResult.aborted();
+        }
+    }
+
+    private int collectStripes(final Account[] accountsFrom, final Account[] accountsTo, final TransferResult[] results,
+                               final int start, final int end, final int[] stripes, final boolean atomic) {
+        int size = 0;
+        for (int i = start; i < end; i++) {
+            if (results[i] != null) continue;
+            stripes[size++] = accountsLockTable.stripeOf(accountsFrom[i].getAccountId());
+            if (atomic || !lockFreeDeposits || !accountsTo[i].hasLockFreeDeposits()) {
+                stripes[size++] = accountsLockTable.stripeOf(accountsTo[i].getAccountId());
+            }
+        }
+        return sortDistinct(stripes, size);
+    }
+
+    /**
+     * Sorts the first stripes in ascending order and removes the duplicates, for {@link AccountsLockTable#lockAll}.
+     *
+     * @return the number of distinct stripes, now at the start of the array
+     */
+    private static int sortDistinct(final int[] stripes, final int size) {
+        Arrays.sort(stripes, 0, size);
+
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            if (count == 0 || stripes[count - 1] != stripes[i]) {
+                stripes[count++] = stripes[i];
+            }
+        }
+        return count;
+    }
+}
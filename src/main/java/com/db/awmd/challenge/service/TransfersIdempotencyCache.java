@@ -0,0 +1,111 @@
+package com.db.awmd.challenge.service;
+
+import com.db.awmd.challenge.domain.Transfer;
+import com.db.awmd.challenge.domain.TransferResult;
+import com.db.awmd.challenge.exception.InvalidTransferException;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Outcomes of the recent transfers submitted with an idempotency key, so a client retrying a transfer
+ * gets the original result instead of applying it again.
+ * <p>
+ * The cache is bounded by the number of keys and every key expires a fixed time after it was first
+ * seen, so its memory use does not depend on the traffic. The first submission of a key stores the
+ * future of its result before making the transfer, so a retry that arrives while the transfer is still
+ * pending waits for the same result. Only the failures that guarantee nothing was applied, i.e. thrown
+ * by the transfer before returning its future, are forgotten so the transfer can be retried. A future
+ * failing later, e.g. when the journal cannot write the record, may leave the transfer applied, so the
+ * key keeps that failure and the retries get the same error.
+ * <p>
+ * Hits, misses and evictions are published as the {@code cache.*} meters of the
+ * {@code transfers.idempotency} cache.
+ */
+@Component
+public class TransfersIdempotencyCache {
+
+    static final int MAX_KEY_LENGTH = 255;
+
+    private final Cache<String, Entry> entries;
+
+    @Autowired
+    public TransfersIdempotencyCache(@Value("${transfers.idempotency.maximum-keys:1000000}") long maximumKeys,
+                                     @Value("${transfers.idempotency.expire-after-seconds:86400}") long expireAfterSeconds,
+                                     MeterRegistry meterRegistry) {
+        this.entries = Caffeine.newBuilder()
+                .maximumSize(maximumKeys)
+                .expireAfterWrite(expireAfterSeconds, TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, entries, "transfers.idempotency");
+    }
+
+    /**
+     * Returns the result of the first transfer submitted with the key, making the transfer only if the
+     * key was not seen. A key reused with another transfer is rejected.
+     *
+     * @param makeTransfer throws when the transfer was not applied
+     */
+    public CompletableFuture<TransferResult> makeTransferOnce(final String idempotencyKey, final Transfer transfer,
+                                                              final Function<Transfer, CompletableFuture<TransferResult>> makeTransfer) {
+        if (idempotencyKey.isEmpty() || idempotencyKey.length() > MAX_KEY_LENGTH)
+            throw new InvalidTransferException("Idempotency key must have between 1 and " + MAX_KEY_LENGTH + " characters");
+
+        final Entry created = new Entry(transfer);
+        final Entry entry = entries.get(idempotencyKey, key -> created);
+        if (entry != created) {
+            if (!sameTransfer(entry.transfer, transfer))
+                throw new InvalidTransferException("Idempotency key " + idempotencyKey + " was used for another transfer");
+            return entry.result;
+        }
+
+        final CompletableFuture<TransferResult> result;
+        try {
+            result = makeTransfer.apply(transfer);
+        } catch (RuntimeException e) {
+            forget(idempotencyKey, created);
+            created.result.completeExceptionally(e);
+            throw e;
+        }
+        result.whenComplete((transferResult, error) -> {
+            if (error != null) {
+                created.result.completeExceptionally(error);
+            } else {
+                created.result.complete(transferResult);
+            }
+        });
+        return created.result;
+    }
+
+    public long estimatedSize() {
+        return entries.estimatedSize();
+    }
+
+    private void forget(final String idempotencyKey, final Entry entry) {
+        entries.asMap().remove(idempotencyKey, entry);
+    }
+
+    private static boolean sameTransfer(final Transfer first, final Transfer retry) {
+        return first.getAccountFromId().equals(retry.getAccountFromId())
+                && first.getAccountToId().equals(retry.getAccountToId())
+                && first.getAmount().compareTo(retry.getAmount()) == 0;
+    }
+
+    private static final class Entry {
+        private final Transfer transfer;
+        private final CompletableFuture<TransferResult> result = new CompletableFuture<>();
+
+        Entry(Transfer transfer) {
+            this.transfer = transfer;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.db.awmd.challenge.service;
+
+import com.db.awmd.challenge.domain.TransferRejection;
+import com.db.awmd.challenge.exception.AccountNotFoundException;
+import com.db.awmd.challenge.exception.InsufficientBalanceException;
+import com.db.awmd.challenge.exception.InvalidTransferException;
+import com.db.awmd.challenge.repository.AccountsRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Meters of the transfers: latency histograms of single transfers, batches and multi-leg transfers, one counter of rejected
+ * transfers per reason, and the number of accounts. The meters are created once, so recording does not
+ * look anything up in the registry.
+ */
+@Component
+public class TransfersMetrics {
+
+    private final MeterRegistry meterRegistry;
+    private final Timer transferTimer;
+    private final Timer batchTimer;
+    private final Timer multiLegTimer;
+    private final Map<Class<?>, Counter> rejections = new ConcurrentHashMap<>();
+    private final Map<TransferRejection, Counter> rejectionCodes = new EnumMap<>(TransferRejection.class);
+
+    @Autowired
+    public TransfersMetrics(MeterRegistry meterRegistry, AccountsRepository accountsRepository) {
+        this.meterRegistry = meterRegistry;
+        this.transferTimer = latencyTimer("transfers.execution", "Time to make a single transfer");
+        this.batchTimer = latencyTimer("transfers.batch.execution", "Time to make a batch of transfers");
+        this.multiLegTimer = latencyTimer("transfers.multi-leg.execution", "Time to make a multi-leg transfer");
+
+        Gauge.builder("accounts.count", accountsRepository, AccountsRepository::countAccounts)
+                .description("Number of accounts")
+                .register(meterRegistry);
+
+        // Registered upfront so that they are exported before the first rejection
+        rejectionCounter(InsufficientBalanceException.class);
+        rejectionCounter(AccountNotFoundException.class);
+        rejectionCounter(InvalidTransferException.class);
+        for (TransferRejection rejection : TransferRejection.values()) {
+            rejectionCodes.put(rejection, rejectionCounter(rejection.getExceptionType()));
+        }
+    }
+
+    public Timer getTransferTimer() {
+        return transferTimer;
+    }
+
+    public Timer getBatchTimer() {
+        return batchTimer;
+    }
+
+    public Timer getMultiLegTimer() {
+        return multiLegTimer;
+    }
+
+    public void rejected(RuntimeException reason) {
+        rejectionCounter(reason.getClass()).increment();
+    }
+
+    /**
+     * Counted with the exceptions of the same reason, so the rejections keep their tags.
+     */
+    public void rejected(TransferRejection rejection) {
+        rejectionCodes.get(rejection).increment();
+    }
+
+    private Counter rejectionCounter(Class<?> reason) {
+        return rejections.computeIfAbsent(reason, type -> Counter.builder("transfers.rejected")
+                .description("Transfers rejected, by reason")
+                .tag("reason", type.getSimpleName())
+                .register(meterRegistry));
+    }
+
+    private Timer latencyTimer(String name, String description) {
+        return Timer.builder(name)
+                .description(description)
+                .publishPercentiles(0.5, 0.99, 0.999)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+}
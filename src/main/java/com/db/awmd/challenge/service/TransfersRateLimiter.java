@@ -0,0 +1,248 @@
+package com.db.awmd.challenge.service;
+
+import com.db.awmd.challenge.domain.MultiLegTransfer;
+import com.db.awmd.challenge.domain.Transfer;
+import com.db.awmd.challenge.domain.TransferLeg;
+import com.db.awmd.challenge.exception.InvalidTransferException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Admission of the transfers before they are made: a token bucket per origin account, so a client
+ * flooding one account cannot starve the others on its lock, and a global one.
+ * <p>
+ * Each bucket is a single long holding the time at which it becomes full again (the generic cell rate
+ * algorithm), updated with a CAS, so admitting a transfer never locks nor allocates. A transfer is
+ * admitted if, after adding its cost, the bucket is not more than the burst ahead of the current time.
+ * A transfer refused by one limit takes no token from the others: the buckets already charged for it
+ * are refunded.
+ * Like {@link AccountsLockTable}, the buckets of the accounts are a fixed-size table indexed by the hash
+ * of the account id, so their memory is bounded whatever the ids sent by the clients. Accounts sharing
+ * a bucket share its rate.
+ * <p>
+ * Load is shed adaptively: while the contended acquisitions of the account locks wait on average more
+ * than the threshold, a transfer costs its account as many tokens as the times the threshold is
+ * exceeded (up to {@link #MAX_COST}), so the rate of each account drops until the waits recover.
+ */
+@Component
+public class TransfersRateLimiter {
+
+    static final int MAX_COST = 16;
+
+    /**
+     * Longs between two buckets, so that each one is in its own cache line.
+     */
+    private static final int STRIDE = 8;
+    private static final long RECENT_WAIT_PERIOD_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final boolean enabled;
+    private final int accountBurst;
+    private final int globalBurst;
+    private final long accountIntervalNanos;
+    private final long accountToleranceNanos;
+    private final long globalIntervalNanos;
+    private final long globalToleranceNanos;
+    private final long lockWaitThresholdNanos;
+    private final int mask;
+    private final AtomicLongArray accountBuckets;
+    private final AtomicLong globalBucket = new AtomicLong();
+    private final long origin = System.nanoTime();
+    private final AccountsLockTable accountsLockTable;
+    private final Counter accountThrottled;
+    private final Counter globalThrottled;
+
+    @Autowired
+    public TransfersRateLimiter(@Value("${transfers.rate-limit.enabled:false}") boolean enabled,
+                                @Value("${transfers.rate-limit.account.rate:1000}") double accountRate,
+                                @Value("${transfers.rate-limit.account.burst:1000}") int accountBurst,
+                                @Value("${transfers.rate-limit.global.rate:100000}") double globalRate,
+                                @Value("${transfers.rate-limit.global.burst:100000}") int globalBurst,
+                                @Value("${transfers.rate-limit.account.buckets:16384}") int buckets,
+                                @Value("${transfers.rate-limit.lock-wait-threshold-millis:50}") long lockWaitThresholdMillis,
+                                AccountsLockTable accountsLockTable, MeterRegistry meterRegistry) {
+        if (accountRate <= 0 || globalRate <= 0 || accountBurst <= 0 || globalBurst <= 0)
+            throw new IllegalArgumentException("Rates and bursts of the rate limits must be positive");
+        if (buckets <= 0 || buckets > (1 << 24))
+            throw new IllegalArgumentException("Invalid number of rate limit buckets: " + buckets);
+
+        int size = Integer.highestOneBit(buckets);
+        if (size < buckets) size <<= 1;
+
+        this.enabled = enabled;
+        this.accountBurst = accountBurst;
+        this.globalBurst = globalBurst;
+        this.accountIntervalNanos = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / accountRate));
+        this.accountToleranceNanos = accountIntervalNanos * accountBurst;
+        this.globalIntervalNanos = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / globalRate));
+        this.globalToleranceNanos = globalIntervalNanos * globalBurst;
+        this.lockWaitThresholdNanos = TimeUnit.MILLISECONDS.toNanos(lockWaitThresholdMillis);
+        this.mask = size - 1;
+        this.accountBuckets = new AtomicLongArray(enabled ? size * STRIDE : 0);
+        this.accountsLockTable = accountsLockTable;
+        this.accountThrottled = throttledCounter(meterRegistry, "account");
+        this.globalThrottled = throttledCounter(meterRegistry, "global");
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return 0 if the transfer is admitted, otherwise the nanoseconds to wait before it can be retried
+     */
+    public long tryAcquire(final String accountFromId) {
+        if (!enabled) return 0;
+        final long now = System.nanoTime() - origin;
+        final int cost = overloadCost();
+        final long accountWait = acquireAccount(accountFromId, cost, now);
+        if (accountWait > 0) return accountWait;
+        final long globalWait = acquireGlobal(1, now);
+        if (globalWait > 0) releaseAccount(accountFromId, cost);
+        return globalWait;
+    }
+
+    /**
+     * Admits a batch only if every one of its transfers is admitted by its account, and the whole batch
+     * by the global limit. The null transfers, rejected when the batch is made, are not counted.
+     *
+     * @throws InvalidTransferException if the batch has more transfers from one account, or in all, than
+     *                                  the burst of the limit, so it could never be admitted
+     */
+    public long tryAcquire(final List<Transfer> transfers) throws InvalidTransferException {
+        if (!enabled || transfers.isEmpty()) return 0;
+        final int count = countWithinBursts(transfers);
+        final long now = System.nanoTime() - origin;
+        final int cost = overloadCost();
+        for (int i = 0; i < transfers.size(); i++) {
+            if (transfers.get(i) == null) continue;
+            final long accountWait = acquireAccount(transfers.get(i).getAccountFromId(), cost, now);
+            if (accountWait > 0) {
+                releaseAccounts(transfers, i, cost);
+                return accountWait;
+            }
+        }
+        final long globalWait = acquireGlobal(count, now);
+        if (globalWait > 0) releaseAccounts(transfers, transfers.size(), cost);
+        return globalWait;
+    }
+
+    /**
+     * Admits a multi-leg transfer only if each debited account admits it. It counts as one transfer for
+     * the global limit, as its legs are applied under a single acquisition of the locks.
+     */
+    public long tryAcquire(final MultiLegTransfer transfer) {
+        if (!enabled) return 0;
+        final long now = System.nanoTime() - origin;
+        final int cost = overloadCost();
+        final List<TransferLeg> legs = transfer.getLegs();
+        for (int i = 0; i < legs.size(); i++) {
+            if (!legs.get(i).isDebit()) continue;
+            final long accountWait = acquireAccount(legs.get(i).getAccountId(), cost, now);
+            if (accountWait > 0) {
+                releaseDebits(legs, i, cost);
+                return accountWait;
+            }
+        }
+        final long globalWait = acquireGlobal(1, now);
+        if (globalWait > 0) releaseDebits(legs, legs.size(), cost);
+        return globalWait;
+    }
+
+    /**
+     * @return the number of transfers of the batch that are not null
+     */
+    private int countWithinBursts(final List<Transfer> transfers) {
+        // No account can exceed its burst in a batch that does not
+        final Map<String, Integer> perAccount = transfers.size() > accountBurst ? new HashMap<>() : null;
+        int count = 0;
+        for (Transfer transfer : transfers) {
+            if (transfer == null) continue;
+            count++;
+            if (perAccount != null && perAccount.merge(transfer.getAccountFromId(), 1, Integer::sum) > accountBurst)
+                throw new InvalidTransferException("Batch has more transfers from account "
+                        + transfer.getAccountFromId() + " than the rate limit burst of " + accountBurst);
+        }
+        if (count > globalBurst)
+            throw new InvalidTransferException("Batch has more transfers than the global rate limit burst of " + globalBurst);
+        return count;
+    }
+
+    private long acquireAccount(final String accountId, final int cost, final long now) {
+        final int index = indexOf(accountId);
+        final long increment = accountIntervalNanos * cost;
+        long full;
+        long next;
+        do {
+            full = accountBuckets.get(index);
+            next = Math.max(full, now) + increment;
+            if (next - now > accountToleranceNanos) {
+                accountThrottled.increment();
+                return next - now - accountToleranceNanos;
+            }
+        } while (!accountBuckets.compareAndSet(index, full, next));
+        return 0;
+    }
+
+    /**
+     * Gives back the tokens of an admission. The bucket may end up behind the current time, which only
+     * means it is full, as admissions start from the current time at the latest.
+     */
+    private void releaseAccount(final String accountId, final int cost) {
+        accountBuckets.addAndGet(indexOf(accountId), -accountIntervalNanos * cost);
+    }
+
+    private void releaseAccounts(final List<Transfer> transfers, final int end, final int cost) {
+        for (int i = 0; i < end; i++) {
+            if (transfers.get(i) != null) releaseAccount(transfers.get(i).getAccountFromId(), cost);
+        }
+    }
+
+    private void releaseDebits(final List<TransferLeg> legs, final int end, final int cost) {
+        for (int i = 0; i < end; i++) {
+            if (legs.get(i).isDebit()) releaseAccount(legs.get(i).getAccountId(), cost);
+        }
+    }
+
+    private int indexOf(final String accountId) {
+        final int hash = accountId == null ? 0 : accountId.hashCode();
+        return ((hash ^ (hash >>> 16)) & mask) * STRIDE;
+    }
+
+    private long acquireGlobal(final int transfers, final long now) {
+        final long increment = globalIntervalNanos * transfers;
+        long full;
+        long next;
+        do {
+            full = globalBucket.get();
+            next = Math.max(full, now) + increment;
+            if (next - now > globalToleranceNanos) {
+                globalThrottled.increment();
+                return next - now - globalToleranceNanos;
+            }
+        } while (!globalBucket.compareAndSet(full, next));
+        return 0;
+    }
+
+    private int overloadCost() {
+        final long wait = accountsLockTable.getRecentWaitNanos(RECENT_WAIT_PERIOD_NANOS);
+        if (lockWaitThresholdNanos <= 0 || wait <= lockWaitThresholdNanos) return 1;
+        return (int) Math.min(MAX_COST, wait / lockWaitThresholdNanos + 1);
+    }
+
+    private static Counter throttledCounter(MeterRegistry meterRegistry, String limit) {
+        return Counter.builder("transfers.throttled")
+                .description("Transfers refused by the rate limits, by limit")
+                .tag("limit", limit)
+                .register(meterRegistry);
+    }
+}
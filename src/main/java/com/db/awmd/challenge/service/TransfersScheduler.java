@@ -0,0 +1,284 @@
+package com.db.awmd.challenge.service;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.ScheduledTransfer;
+import com.db.awmd.challenge.domain.Transfer;
+import com.db.awmd.challenge.domain.TransferRejection;
+import com.db.awmd.challenge.domain.TransferResult;
+import com.db.awmd.challenge.domain.TransferStatus;
+import com.db.awmd.challenge.exception.AccountNotFoundException;
+import com.db.awmd.challenge.exception.InvalidTransferException;
+import com.db.awmd.challenge.repository.AccountsRepository;
+import com.db.awmd.challenge.repository.ScheduledTransfersLog;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Transfers made at a given time, e.g. salary runs and standing orders.
+ * <p>
+ * The pending transfers wait in a {@link ScheduledTransfersWheel}, so scheduling and cancelling are O(1)
+ * whatever their number. The {@code transfers-scheduler} thread advances the wheel every
+ * {@code transfers.scheduled.tick-millis}, and makes the transfers that came due through
+ * {@link TransfersService#makeTransfers(List, boolean)}, in non-atomic batches of
+ * {@code transfers.scheduled.batch-size}. A transfer is checked when it is scheduled, but its balance
+ * only when it is made; a rejected one is counted and logged, and not retried.
+ * <p>
+ * With {@code transfers.scheduled.persistent} the transfers are written to the
+ * {@link ScheduledTransfersLog} before being added, and the pending ones are added again on startup; the
+ * transfers whose time passed meanwhile are made on the first tick. Due transfers are marked as done in
+ * the log before they are made, so after a crash a transfer may be lost but is never made twice.
+ */
+@Slf4j
+@Service
+public class TransfersScheduler {
+
+    private final TransfersService transfersService;
+    private final AccountsRepository accountsRepository;
+    private final TransfersValidations transfersValidations;
+    private final ScheduledTransfersLog scheduledTransfersLog;
+    private final long tickMillis;
+    private final int batchSize;
+    private final long minCompactionRecords;
+    private final Counter completed;
+    private final Counter rejected;
+    private final ReentrantLock lock = new ReentrantLock();
+    private ScheduledTransfersWheel wheel;
+    private long nextId;
+    private volatile int pending;
+    private volatile boolean running;
+    private Thread ticker;
+
+    @Autowired
+    public TransfersScheduler(TransfersService transfersService, AccountsRepository accountsRepository,
+                              TransfersValidations transfersValidations, ScheduledTransfersLog scheduledTransfersLog,
+                              MeterRegistry meterRegistry,
+                              @Value("${transfers.scheduled.tick-millis:1000}") long tickMillis,
+                              @Value("${transfers.scheduled.batch-size:1000}") int batchSize,
+                              @Value("${transfers.scheduled.min-compaction-records:1048576}") long minCompactionRecords) {
+        if (tickMillis <= 0) throw new IllegalArgumentException("Invalid scheduler tick: " + tickMillis);
+        if (batchSize <= 0) throw new IllegalArgumentException("Invalid scheduler batch size: " + batchSize);
+
+        this.transfersService = transfersService;
+        this.accountsRepository = accountsRepository;
+        this.transfersValidations = transfersValidations;
+        this.scheduledTransfersLog = scheduledTransfersLog;
+        this.tickMillis = tickMillis;
+        this.batchSize = batchSize;
+        this.minCompactionRecords = minCompactionRecords;
+        this.completed = executedCounter(meterRegistry, TransferStatus.COMPLETED);
+        this.rejected = executedCounter(meterRegistry, TransferStatus.REJECTED);
+        Gauge.builder("transfers.scheduled.pending", this, TransfersScheduler::countPending)
+                .description("Scheduled transfers not made yet")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Adds the pending transfers of the log to the wheel and starts the ticks.
+     */
+    @PostConstruct
+    public void start() {
+        lock.lock();
+        try {
+            wheel = new ScheduledTransfersWheel(currentTick());
+            scheduledTransfersLog.replay(new ScheduledTransfersLog.Listener() {
+                @Override
+                public void onScheduled(ScheduledTransfer transfer) {
+                    wheel.add(transfer.getId(), dueTick(transfer.getExecuteAt()), transfer.getAccountFromId(),
+                            transfer.getAccountToId(), transfer.getAmount());
+                    nextId = Math.max(nextId, transfer.getId() + 1);
+                }
+
+                @Override
+                public void onDone(long id) {
+                    wheel.cancel(id);
+                }
+            });
+            scheduledTransfersLog.compact(wheel.stream().map(entry -> entry.toScheduledTransfer(tickMillis)));
+            pending = wheel.size();
+            if (pending > 0) log.info("Loaded {} pending scheduled transfers", pending);
+        } finally {
+            lock.unlock();
+        }
+
+        running = true;
+        ticker = new Thread(this::tickLoop, "transfers-scheduler");
+        ticker.setDaemon(true);
+        ticker.start();
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        if (!running) return;
+        running = false;
+        ticker.interrupt();
+        ticker.join(TimeUnit.SECONDS.toMillis(10));
+    }
+
+    public int countPending() {
+        return pending;
+    }
+
+    public ScheduledTransfer schedule(ScheduledTransfer transfer) throws AccountNotFoundException, InvalidTransferException {
+        return scheduleAll(Collections.singletonList(transfer)).get(0);
+    }
+
+    /**
+     * Schedules all the transfers or none of them, when one fails the checks. They are written to the log
+     * with a single fsync.
+     *
+     * @return the transfers with their ids
+     */
+    public List<ScheduledTransfer> scheduleAll(List<ScheduledTransfer> transfers)
+            throws AccountNotFoundException, InvalidTransferException {
+        for (ScheduledTransfer transfer : transfers) {
+            validate(transfer);
+        }
+
+        final List<ScheduledTransfer> scheduled = new ArrayList<>(transfers.size());
+        lock.lock();
+        try {
+            final long maxDueTick = wheel.getCurrentTick() + ScheduledTransfersWheel.MAX_TICKS_AHEAD;
+            for (ScheduledTransfer transfer : transfers) {
+                if (dueTick(transfer.getExecuteAt()) > maxDueTick)
+                    throw new InvalidTransferException("Transfer scheduled too far in the future: " + transfer.getExecuteAt());
+            }
+            if (nextId + transfers.size() > ScheduledTransfersWheel.MAX_ID)
+                throw new IllegalStateException("No ids left for scheduled transfers");
+
+            for (ScheduledTransfer transfer : transfers) {
+                scheduled.add(new ScheduledTransfer(nextId++, transfer.getAccountFromId(), transfer.getAccountToId(),
+                        transfer.getAmount(), transfer.getExecuteAt()));
+            }
+            scheduledTransfersLog.appendScheduled(scheduled);
+            for (ScheduledTransfer transfer : scheduled) {
+                wheel.add(transfer.getId(), dueTick(transfer.getExecuteAt()), transfer.getAccountFromId(),
+                        transfer.getAccountToId(), transfer.getAmount());
+            }
+            pending = wheel.size();
+        } finally {
+            lock.unlock();
+        }
+        return scheduled;
+    }
+
+    /**
+     * @return false when the transfer is not pending, e.g. it was already made
+     */
+    public boolean cancel(long id) {
+        lock.lock();
+        try {
+            if (!wheel.contains(id)) return false;
+            scheduledTransfersLog.appendDone(new long[]{id}, 1);
+            wheel.cancel(id);
+            pending = wheel.size();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Checks that do not depend on the balances, which are only checked when the transfer is made.
+     */
+    private void validate(ScheduledTransfer transfer) {
+        if (transfer == null || transfer.getExecuteAt() == null)
+            throw new InvalidTransferException("Scheduled transfer must have an execution time");
+        final Transfer toMake = transfer.toTransfer();
+        transfersValidations.validateRequiredFields(toMake);
+        if (transfer.getAmount().unscaledValue().bitLength() > 63)
+            throw new InvalidTransferException("Amount to transfer is too large: " + transfer.getAmount());
+
+        final Account accountFrom = accountsRepository.getAccount(transfer.getAccountFromId());
+        final Account accountTo = accountsRepository.getAccount(transfer.getAccountToId());
+        final TransferRejection rejection = transfersValidations.checkTransfer(accountFrom, accountTo, toMake);
+        if (rejection != null) throw rejection.toException(toMake);
+    }
+
+    private void tickLoop() {
+        while (running) {
+            try {
+                Thread.sleep(tickMillis - Math.floorMod(System.currentTimeMillis(), tickMillis));
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                makeDueTransfers(currentTick());
+            } catch (RuntimeException e) {
+                log.error("Error making the scheduled transfers", e);
+            }
+        }
+    }
+
+    /**
+     * The due transfers are taken from the wheel and marked as done under the lock, so they can no longer
+     * be cancelled, and made outside of it.
+     */
+    private void makeDueTransfers(long tick) {
+        final List<ScheduledTransfersWheel.Entry> due = new ArrayList<>();
+        lock.lock();
+        try {
+            wheel.advanceTo(tick, due);
+            pending = wheel.size();
+            if (due.isEmpty()) return;
+
+            final long[] ids = new long[due.size()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = due.get(i).getId();
+            }
+            scheduledTransfersLog.appendDone(ids, ids.length);
+            if (scheduledTransfersLog.getRecords() > Math.max(minCompactionRecords, 2L * wheel.size())) {
+                scheduledTransfersLog.compact(wheel.stream().map(entry -> entry.toScheduledTransfer(tickMillis)));
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        for (int start = 0; start < due.size(); start += batchSize) {
+            final List<ScheduledTransfersWheel.Entry> entries = due.subList(start, Math.min(start + batchSize, due.size()));
+            final List<Transfer> batch = new ArrayList<>(entries.size());
+            for (ScheduledTransfersWheel.Entry entry : entries) {
+                batch.add(entry.toTransfer());
+            }
+            final List<TransferResult> results = transfersService.makeTransfers(batch, false);
+            for (int i = 0; i < results.size(); i++) {
+                if (results.get(i).getStatus() == TransferStatus.COMPLETED) {
+                    completed.increment();
+                } else {
+                    rejected.increment();
+                    log.warn("Scheduled transfer {} was rejected: {}", entries.get(i).getId(), results.get(i).getMessage());
+                }
+            }
+        }
+    }
+
+    private long currentTick() {
+        return Math.floorDiv(System.currentTimeMillis(), tickMillis);
+    }
+
+    /**
+     * The first tick at or after the time, so a transfer is never made early.
+     */
+    private long dueTick(long executeAt) {
+        return Math.floorDiv(executeAt, tickMillis) + (Math.floorMod(executeAt, tickMillis) == 0 ? 0 : 1);
+    }
+
+    private static Counter executedCounter(MeterRegistry meterRegistry, TransferStatus status) {
+        return Counter.builder("transfers.scheduled.executed")
+                .description("Scheduled transfers made when they came due, by status")
+                .tag("status", status.name())
+                .register(meterRegistry);
+    }
+}
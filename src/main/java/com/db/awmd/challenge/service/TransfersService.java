@@ -1,15 +1,39 @@
 package com.db.awmd.challenge.service;
 
 import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.MultiLegTransfer;
 import com.db.awmd.challenge.domain.Transfer;
+import com.db.awmd.challenge.domain.TransferLeg;
+import com.db.awmd.challenge.domain.TransferRejection;
+import com.db.awmd.challenge.domain.TransferResult;
+import com.db.awmd.challenge.domain.TransferStatus;
 import com.db.awmd.challenge.exception.AccountNotFoundException;
 import com.db.awmd.challenge.exception.InsufficientBalanceException;
 import com.db.awmd.challenge.exception.InvalidTransferException;
 import com.db.awmd.challenge.repository.AccountsRepository;
+import com.db.awmd.challenge.repository.TransfersHistory;
+import com.db.awmd.challenge.repository.TransfersJournal;
 import lombok.Getter;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+
 @Service
 public class TransfersService {
 
@@ -20,6 +44,32 @@ public class TransfersService {
     private final NotificationService notificationService;
     @Autowired
     private TransfersValidations transfersValidations;
+    @Autowired
+    private TransfersEngine transfersEngine;
+    @Autowired
+    private NotificationDispatcher notificationDispatcher;
+    @Autowired
+    private TransfersJournal transfersJournal;
+    @Autowired
+    private TransfersMetrics transfersMetrics;
+    @Autowired
+    private TransfersIdempotencyCache transfersIdempotencyCache;
+    @Autowired
+    private TransfersHistory transfersHistory;
+    @Autowired
+    private PartitionTransfers partitionTransfers;
+    /**
+     * Only present when transfers.execution-mode is 'sharded'.
+     */
+    @Autowired(required = false)
+    private ShardedTransfersPipeline shardedTransfersPipeline;
+    /**
+     * Threads completing the asynchronous transfers once they are durable, so the journal writer and the
+     * shards never run the notifications.
+     */
+    @Value("${transfers.async.completion-threads:2}")
+    private int completionThreads;
+    private ExecutorService completionExecutor;
 
     @Autowired
     public TransfersService(AccountsRepository accountsRepository, NotificationService notificationService) {
@@ -28,44 +78,360 @@ public class TransfersService {
     }
 
     public void makeTransfer(Transfer transfer) throws AccountNotFoundException, InsufficientBalanceException, InvalidTransferException {
+        final long start = System.nanoTime();
+        try {
+            makeTransferTimed(transfer);
+        } catch (AccountNotFoundException | InsufficientBalanceException | InvalidTransferException e) {
+            transfersMetrics.rejected(e);
+            throw e;
+        } finally {
+            transfersMetrics.getTransferTimer().record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Same as {@link #makeTransfer(Transfer)}, but the caller does not wait for the shards nor for the
+     * journal. The transfer is still applied and journaled in order with the synchronous ones, and the
+     * future completes once it is durable, with a REJECTED result when it fails the validations or the
+     * balance check. Any other error, e.g. of the journal, completes the future exceptionally.
+     * <p>
+     * The rejections are reported with a {@link TransferRejection}, so rejecting a transfer builds
+     * neither an exception nor its message, except in the sharded mode.
+     */
+    public CompletableFuture<TransferResult> makeTransferAsync(Transfer transfer) {
+        return makeTransferAsync(transfer, false);
+    }
+
+    /**
+     * Same as {@link #makeTransferAsync(Transfer)}, used by {@link TransfersIdempotencyCache} to tell the
+     * errors after which the transfer may be retried.
+     *
+     * @param throwWhenNotApplied throw the errors of a transfer that was not applied, e.g. refused by the
+     *                            journal and reverted, instead of completing the future with them
+     */
+    public CompletableFuture<TransferResult> makeTransferAsync(Transfer transfer, boolean throwWhenNotApplied) {
+        final long start = System.nanoTime();
         final Account accountFrom = accountsRepository.getAccount(transfer.getAccountFromId());
         final Account accountTo = accountsRepository.getAccount(transfer.getAccountToId());
+        if (accountTo == null && partitionTransfers.isRemote(transfer.getAccountToId())) {
+            return CompletableFuture.completedFuture(makeTransferOut(accountFrom, transfer, start));
+        }
+
+        TransferRejection rejection = transfersValidations.checkTransfer(accountFrom, accountTo, transfer);
+        CompletableFuture<Void> durable = null;
+        if (rejection == null) {
+            try {
+                if (shardedTransfersPipeline != null) {
+                    durable = shardedTransfersPipeline.submit(accountFrom, accountTo, transfer);
+                } else {
+                    durable = transfersEngine.tryExecute(accountFrom, accountTo, transfer);
+                    if (durable == null) rejection = TransferRejection.INSUFFICIENT_BALANCE;
+                }
+            } catch (RuntimeException e) {
+                // The write was not made, or reverted
+                if (throwWhenNotApplied) {
+                    transfersMetrics.getTransferTimer().record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                    throw e;
+                }
+                durable = new CompletableFuture<>();
+                durable.completeExceptionally(e);
+            }
+        }
+        if (rejection != null) {
+            transfersMetrics.rejected(rejection);
+            transfersMetrics.getTransferTimer().record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            return CompletableFuture.completedFuture(TransferResult.rejected(rejection, transfer));
+        }
+
+        final BiFunction<Void, Throwable, TransferResult> complete = (ignored, error) -> {
+            try {
+                if (error == null) {
+                    afterTransfer(accountFrom, accountTo, transfer);
+                    return TransferResult.completed();
+                }
+                final Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+                if (cause instanceof AccountNotFoundException || cause instanceof InsufficientBalanceException
+                        || cause instanceof InvalidTransferException) {
+                    transfersMetrics.rejected((RuntimeException) cause);
+                    return TransferResult.rejected(cause.getMessage());
+                }
+                throw new CompletionException(cause);
+            } finally {
+                transfersMetrics.getTransferTimer().record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            }
+        };
+        // Completed on the caller thread when nothing was left to wait for, e.g. without the journal
+        return durable.isDone() ? durable.handle(complete) : durable.handleAsync(complete, completionExecutor);
+    }
 
-        transfersValidations.validate(accountFrom, accountTo, transfer);
+    /**
+     * A transfer to an account of another node waits for that node on the caller thread, so the future
+     * is already completed. A transfer left in doubt is reported as {@link TransferStatus#PENDING}, with
+     * the id to poll its outcome, as its deposit is retried until the other node answers, see
+     * {@link PartitionTransfers}.
+     */
+    private TransferResult makeTransferOut(Account accountFrom, Transfer transfer, long start) {
+        try {
+            final TransferRejection rejection = transfersValidations.checkTransfer(accountFrom, accountFrom, transfer);
+            if (rejection != null) {
+                transfersMetrics.rejected(rejection);
+                return TransferResult.rejected(rejection, transfer);
+            }
+            return partitionTransfers.transferOut(accountFrom, transfer);
+        } catch (AccountNotFoundException | InsufficientBalanceException | InvalidTransferException e) {
+            transfersMetrics.rejected(e);
+            return TransferResult.rejected(e.getMessage());
+        } finally {
+            transfersMetrics.getTransferTimer().record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
 
-        Transaction transaction = new Transaction(accountFrom, accountTo, transfer);
-        transaction.run();
+    /**
+     * Same as {@link #makeTransferAsync(Transfer)}, but a transfer submitted again with the same key is
+     * not made again: the result of the first one is returned, see {@link TransfersIdempotencyCache}.
+     * Without a key every submission is made.
+     */
+    public CompletableFuture<TransferResult> makeTransferAsync(String idempotencyKey, Transfer transfer)
+            throws InvalidTransferException {
+        if (idempotencyKey == null) return makeTransferAsync(transfer);
+        return transfersIdempotencyCache.makeTransferOnce(idempotencyKey, transfer,
+                keyed -> makeTransferAsync(keyed, true));
     }
 
-    //TODO Consider refactor to move this inner class to an external class
-    private class Transaction extends Thread {
+    /**
+     * The outcome of a transfer to another node reported as {@link TransferStatus#PENDING}, or null
+     * when unknown, see {@link PartitionTransfers#getTransferOut(String, long)}.
+     */
+    public TransferResult getTransferOut(String accountFromId, long transferId) {
+        return partitionTransfers.getTransferOut(accountFromId, transferId);
+    }
 
-        private final Account accountFrom;
-        private final Account accountTo;
-        private final Transfer transfer;
+    private void makeTransferTimed(Transfer transfer) {
+        final Account accountFrom = accountsRepository.getAccount(transfer.getAccountFromId());
+        final Account accountTo = accountsRepository.getAccount(transfer.getAccountToId());
+        if (accountTo == null && partitionTransfers.isRemote(transfer.getAccountToId())) {
+            // The target account is checked by its own node
+            transfersValidations.validateTransfer(accountFrom, accountFrom, transfer);
+            partitionTransfers.transferOut(accountFrom, transfer);
+            return;
+        }
 
-        public Transaction(Account accountFrom, Account accountTo, Transfer transfer) {
-            this.accountFrom = accountFrom;
-            this.accountTo = accountTo;
-            this.transfer = transfer;
+        transfersValidations.validateTransfer(accountFrom, accountTo, transfer);
+
+        if (shardedTransfersPipeline != null) {
+            join(shardedTransfersPipeline.submit(accountFrom, accountTo, transfer));
+        } else {
+            join(transfersEngine.execute(accountFrom, accountTo, transfer));
         }
 
-        public void run() {
-            // Acquire the lock of accountFrom
-            synchronized (accountFrom) {
-                accountFrom.withdraw(transfer.getAmount());
+        afterTransfer(accountFrom, accountTo, transfer);
+    }
 
-                // Acquire the lock of accountTo
-                synchronized (accountTo) {
-                    accountTo.deposit(transfer.getAmount());
-                }
-                // Release the lock of accountTo
+    /**
+     * Makes a batch of transfers in order and returns one result per transfer. The accounts are looked up
+     * once per batch and, in the synchronous mode, their locks are taken once per group of transfers.
+     * When atomic, either all the transfers are completed or none of them is applied.
+     */
+    public List<TransferResult> makeTransfers(List<Transfer> transfers, boolean atomic) {
+        final long start = System.nanoTime();
+        try {
+            return makeTransfersTimed(transfers, atomic);
+        } finally {
+            transfersMetrics.getBatchTimer().record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private List<TransferResult> makeTransfersTimed(List<Transfer> transfers, boolean atomic) {
+        final int size = transfers.size();
+        final Transfer[] batch = transfers.toArray(new Transfer[size]);
+        final Account[] accountsFrom = new Account[size];
+        final Account[] accountsTo = new Account[size];
+        final TransferResult[] results = new TransferResult[size];
+        @SuppressWarnings("unchecked")
+        final CompletableFuture<Void>[] durable = new CompletableFuture[size];
+        final Map<String, Account> accounts = new HashMap<>();
+
+        boolean rejected = false;
+        for (int i = 0; i < size; i++) {
+            try {
+                transfersValidations.validateRequiredFields(batch[i]);
+            } catch (InvalidTransferException e) {
+                transfersMetrics.rejected(e);
+                results[i] = TransferResult.rejected(e.getMessage());
+                rejected = true;
+                continue;
+            }
+            accountsFrom[i] = accounts.computeIfAbsent(batch[i].getAccountFromId(), accountsRepository::getAccount);
+            accountsTo[i] = accounts.computeIfAbsent(batch[i].getAccountToId(), accountsRepository::getAccount);
+            final TransferRejection rejection = transfersValidations.checkTransfer(accountsFrom[i], accountsTo[i], batch[i]);
+            if (rejection != null) {
+                transfersMetrics.rejected(rejection);
+                results[i] = TransferResult.rejected(rejection, batch[i]);
+                rejected = true;
             }
-            // Release the lock of accountFrom
+        }
 
-            notificationService.notifyAboutTransfer(accountFrom, "New transfer to account: " + accountTo.getAccountId() + ", amount: " + transfer.getAmount());
-            notificationService.notifyAboutTransfer(accountTo, "New transfer from account: " + accountFrom.getAccountId() + ", amount: " + transfer.getAmount());
+        if (atomic && rejected) {
+            for (int i = 0; i < size; i++) {
+                if (results[i] == null) results[i] = TransferResult.aborted();
+            }
+            return Arrays.asList(results);
         }
+
+        if (shardedTransfersPipeline != null) {
+            executeInShards(accountsFrom, accountsTo, batch, results, atomic);
+        } else {
+            transfersEngine.executeBatch(accountsFrom, accountsTo, batch, results, durable, atomic);
+            // All the records are queued before waiting, so they share the fsyncs of the journal
+            for (CompletableFuture<Void> record : durable) {
+                if (record != null) join(record);
+            }
+        }
+
+        for (int i = 0; i < size; i++) {
+            if (results[i].getStatus() == TransferStatus.COMPLETED) {
+                afterTransfer(accountsFrom[i], accountsTo[i], batch[i]);
+            }
+        }
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Applies all the legs of the transfer or none of them, locking the stripes of its accounts once for
+     * all the legs. The legs are journaled as a single record, recorded in the history and notified as
+     * the transfers from the debited to the credited accounts that they add up to, see
+     * {@link #toTransfers(List)}.
+     * Multi-leg transfers are not supported in the sharded mode, as the shards do not share locks.
+     */
+    public void makeMultiLegTransfer(MultiLegTransfer transfer)
+            throws AccountNotFoundException, InsufficientBalanceException, InvalidTransferException {
+        final long start = System.nanoTime();
+        try {
+            makeMultiLegTransferTimed(transfer);
+        } catch (AccountNotFoundException | InsufficientBalanceException | InvalidTransferException e) {
+            transfersMetrics.rejected(e);
+            throw e;
+        } finally {
+            transfersMetrics.getMultiLegTimer().record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void makeMultiLegTransferTimed(MultiLegTransfer transfer) {
+        transfersValidations.validateLegs(transfer);
+        if (shardedTransfersPipeline != null)
+            throw new InvalidTransferException("Multi-leg transfers are not supported in sharded execution mode");
+
+        final List<TransferLeg> legs = transfer.getLegs();
+        final Account[] accounts = new Account[legs.size()];
+        for (int i = 0; i < accounts.length; i++) {
+            accounts[i] = accountsRepository.getAccount(legs.get(i).getAccountId());
+        }
+        transfersValidations.validateLegAccounts(legs, accounts);
+
+        final List<Transfer> transfers = toTransfers(legs);
+        join(transfersEngine.executeLegs(accounts, legs, epoch -> transfersJournal.appendTransfers(transfers, epoch)));
+
+        final Map<String, Account> accountsById = new HashMap<>();
+        for (Account account : accounts) {
+            accountsById.put(account.getAccountId(), account);
+        }
+        for (Transfer leg : transfers) {
+            afterTransfer(accountsById.get(leg.getAccountFromId()), accountsById.get(leg.getAccountToId()), leg);
+        }
+    }
+
+    /**
+     * Pairs the debits with the credits in the order of the legs, so n legs add up to at most n - 1
+     * transfers, e.g. a payer debited once gives one transfer to each credited account.
+     */
+    private static List<Transfer> toTransfers(List<TransferLeg> legs) {
+        final List<Transfer> transfers = new ArrayList<>(legs.size() - 1);
+        int debit = nextLeg(legs, -1, true);
+        int credit = nextLeg(legs, -1, false);
+        BigDecimal debitLeft = legs.get(debit).getAmount();
+        BigDecimal creditLeft = legs.get(credit).getAmount();
+        while (true) {
+            final BigDecimal amount = debitLeft.min(creditLeft);
+            transfers.add(new Transfer(legs.get(debit).getAccountId(), legs.get(credit).getAccountId(), amount));
+            debitLeft = debitLeft.subtract(amount);
+            creditLeft = creditLeft.subtract(amount);
+            if (debitLeft.signum() == 0) {
+                debit = nextLeg(legs, debit, true);
+                if (debit < 0) return transfers;
+                debitLeft = legs.get(debit).getAmount();
+            }
+            if (creditLeft.signum() == 0) {
+                credit = nextLeg(legs, credit, false);
+                creditLeft = legs.get(credit).getAmount();
+            }
+        }
+    }
+
+    private static int nextLeg(List<TransferLeg> legs, int previous, boolean debit) {
+        for (int i = previous + 1; i < legs.size(); i++) {
+            if (legs.get(i).isDebit() == debit) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * The shards do not share locks, so the transfers of a batch are submitted one by one. Atomic batches
+     * are not supported in this mode.
+     */
+    private void executeInShards(final Account[] accountsFrom, final Account[] accountsTo, final Transfer[] batch,
+                                 final TransferResult[] results, final boolean atomic) {
+        if (atomic)
+            throw new InvalidTransferException("Atomic batches are not supported in sharded execution mode");
+
+        @SuppressWarnings("unchecked")
+        final CompletableFuture<Void>[] futures = new CompletableFuture[batch.length];
+        for (int i = 0; i < batch.length; i++) {
+            if (results[i] == null) {
+                futures[i] = shardedTransfersPipeline.submit(accountsFrom[i], accountsTo[i], batch[i]);
+            }
+        }
+        for (int i = 0; i < batch.length; i++) {
+            if (futures[i] == null) continue;
+            try {
+                futures[i].join();
+                results[i] = TransferResult.completed();
+            } catch (CompletionException ce) {
+                transfersMetrics.rejected((RuntimeException) ce.getCause());
+                results[i] = TransferResult.rejected(ce.getCause().getMessage());
+            }
+        }
+    }
+
+    @PostConstruct
+    public void startCompletionExecutor() {
+        final AtomicInteger threads = new AtomicInteger();
+        completionExecutor = Executors.newFixedThreadPool(Math.max(1, completionThreads), runnable -> {
+            Thread thread = new Thread(runnable, "transfers-completion-" + threads.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        completionExecutor.shutdown();
+    }
+
+    private static void join(CompletableFuture<Void> future) {
+        try {
+            future.join();
+        } catch (CompletionException ce) {
+            throw (RuntimeException) ce.getCause();
+        }
+    }
+
+    /**
+     * Records a durable transfer in the history of its accounts and notifies them.
+     */
+    private void afterTransfer(Account accountFrom, Account accountTo, Transfer transfer) {
+        transfersHistory.recordTransfer(accountFrom.getAccountId(), accountTo.getAccountId(), transfer.getAmount());
+        notificationDispatcher.notifyAboutTransfer(accountFrom, "New transfer to account: " + accountTo.getAccountId() + ", amount: " + transfer.getAmount());
+        notificationDispatcher.notifyAboutTransfer(accountTo, "New transfer from account: " + accountFrom.getAccountId() + ", amount: " + transfer.getAmount());
     }
 
-}
\ No newline at end of file
+}
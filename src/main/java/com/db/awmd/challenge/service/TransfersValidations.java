@@ -1,49 +1,121 @@
 package com.db.awmd.challenge.service;
 
 import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.MultiLegTransfer;
 import com.db.awmd.challenge.domain.Transfer;
+import com.db.awmd.challenge.domain.TransferLeg;
+import com.db.awmd.challenge.domain.TransferRejection;
 import com.db.awmd.challenge.exception.AccountNotFoundException;
-import com.db.awmd.challenge.exception.InsufficientBalanceException;
 import com.db.awmd.challenge.exception.InvalidTransferException;
 import org.springframework.stereotype.Component;
 
 import java.math.BigDecimal;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
+/**
+ * The checks return a {@link TransferRejection}, or null when the transfer passes them, and are ordered
+ * from the cheapest to the most expensive. The {@code validate*} methods throw the exception of the
+ * rejection instead, for the callers that report it as an exception.
+ */
 @Component
 public class TransfersValidations {
 
+    /**
+     * Bounds the stripes locked by one multi-leg transfer.
+     */
+    public static final int MAX_LEGS = 64;
+
     public void validate(final Account accountFrom, final Account accountTo, final Transfer transfer) {
-        validateAccountExists(transfer.getAccountFromId(), accountFrom);
-        validateAccountExists(transfer.getAccountToId(), accountTo);
+        validateTransfer(accountFrom, accountTo, transfer);
         validateEnoughBalance(transfer, accountFrom);
-        validatePositiveAmountToTransfer(transfer);
-        validateNonZeroAmountToTransfer(transfer);
-        validateNotSameAccountInTransfer(transfer);
     }
 
-    private void validateAccountExists(final String accountId, final Account account) {
-        if (account == null) throw new AccountNotFoundException("Account not found: " + accountId);
+    public void validateTransfer(final Account accountFrom, final Account accountTo, final Transfer transfer) {
+        final TransferRejection rejection = checkTransfer(accountFrom, accountTo, transfer);
+        if (rejection != null) throw rejection.toException(transfer);
     }
 
-    private void validateEnoughBalance(final Transfer transfer, final Account accountFrom) {
-        if (accountFrom.getBalance().compareTo(transfer.getAmount()) < 0)
-            throw new InsufficientBalanceException("Insufficient balance in account: " + transfer.getAccountFromId());
+    /**
+     * Must be called while holding the lock of the origin account, otherwise the result can be stale.
+     */
+    public void validateEnoughBalance(final Transfer transfer, final Account accountFrom) {
+        final TransferRejection rejection = checkEnoughBalance(transfer, accountFrom);
+        if (rejection != null) throw rejection.toException(transfer);
     }
 
-    private void validatePositiveAmountToTransfer(final Transfer transfer) {
-        if (BigDecimal.ZERO.compareTo(transfer.getAmount()) > 0)
-            throw new InvalidTransferException("Negative amount to transfer: " + transfer.getAmount());
+    /**
+     * Checks that do not depend on the current balances, so they can run before taking any lock.
+     */
+    public TransferRejection checkTransfer(final Account accountFrom, final Account accountTo, final Transfer transfer) {
+        final int sign = transfer.getAmount().signum();
+        if (sign < 0) return TransferRejection.NEGATIVE_AMOUNT;
+        if (sign == 0) return TransferRejection.ZERO_AMOUNT;
+        if (transfer.getAccountToId().equals(transfer.getAccountFromId())) return TransferRejection.SAME_ACCOUNT;
+        if (accountFrom == null) return TransferRejection.ACCOUNT_FROM_NOT_FOUND;
+        if (accountTo == null) return TransferRejection.ACCOUNT_TO_NOT_FOUND;
+        if (!accountFrom.supportsAmount(transfer.getAmount()) || !accountTo.supportsAmount(transfer.getAmount()))
+            return TransferRejection.TOO_MANY_DECIMALS;
+        return null;
     }
 
-    private void validateNonZeroAmountToTransfer(final Transfer transfer) {
-        if (BigDecimal.ZERO.compareTo(transfer.getAmount()) == 0)
-            throw new InvalidTransferException("Amount to transfer is zero");
+    /**
+     * Must be called while holding the lock of the origin account, otherwise the result can be stale.
+     */
+    public TransferRejection checkEnoughBalance(final Transfer transfer, final Account accountFrom) {
+        return accountFrom.hasEnoughBalance(transfer.getAmount()) ? null : TransferRejection.INSUFFICIENT_BALANCE;
     }
 
-    private void validateNotSameAccountInTransfer(final Transfer transfer) {
-        if (transfer.getAccountToId().equals(transfer.getAccountFromId()))
-            throw new InvalidTransferException("Origin account is equals to target account");
+    /**
+     * Bean validation is not applied to the elements of a batch, so the batch endpoint checks them here
+     * before looking up the accounts.
+     */
+    public void validateRequiredFields(final Transfer transfer) {
+        if (transfer == null || transfer.getAccountFromId() == null || transfer.getAccountToId() == null
+                || transfer.getAmount() == null)
+            throw new InvalidTransferException("Transfer must have origin account, target account and amount");
     }
 
+    /**
+     * Checks of a multi-leg transfer that do not need its accounts: every leg is complete and positive,
+     * no account is in two legs, and the debits add up to the credits.
+     */
+    public void validateLegs(final MultiLegTransfer transfer) {
+        final List<TransferLeg> legs = transfer == null ? null : transfer.getLegs();
+        if (legs == null || legs.size() < 2)
+            throw new InvalidTransferException("Multi-leg transfer must have at least two legs");
+        if (legs.size() > MAX_LEGS)
+            throw new InvalidTransferException("Multi-leg transfer has more than " + MAX_LEGS + " legs");
+
+        final Set<String> accountIds = new HashSet<>();
+        BigDecimal debits = BigDecimal.ZERO;
+        BigDecimal credits = BigDecimal.ZERO;
+        for (TransferLeg leg : legs) {
+            if (leg == null || leg.getAccountId() == null || leg.getSide() == null || leg.getAmount() == null)
+                throw new InvalidTransferException("Leg must have account, side and amount");
+            if (leg.getAmount().signum() <= 0)
+                throw new InvalidTransferException("Leg amount must be greater than zero: " + leg.getAmount());
+            if (!accountIds.add(leg.getAccountId()))
+                throw new InvalidTransferException("Account in more than one leg: " + leg.getAccountId());
+            if (leg.isDebit()) {
+                debits = debits.add(leg.getAmount());
+            } else {
+                credits = credits.add(leg.getAmount());
+            }
+        }
+        if (debits.compareTo(credits) != 0)
+            throw new InvalidTransferException("Debits " + debits + " do not equal credits " + credits);
+    }
 
+    /**
+     * @param accounts the account of each leg, in the same order, null when it does not exist
+     */
+    public void validateLegAccounts(final List<TransferLeg> legs, final Account[] accounts) {
+        for (int i = 0; i < accounts.length; i++) {
+            if (accounts[i] == null) throw new AccountNotFoundException("Account not found: " + legs.get(i).getAccountId());
+            if (!accounts[i].supportsAmount(legs.get(i).getAmount()))
+                throw new InvalidTransferException("Leg amount has too many decimals: " + legs.get(i).getAmount());
+        }
+    }
 }
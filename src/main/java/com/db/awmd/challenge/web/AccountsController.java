@@ -1,8 +1,18 @@
 package com.db.awmd.challenge.web;
 
 import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.AccountHistoryPage;
+import com.db.awmd.challenge.domain.AccountSnapshot;
+import com.db.awmd.challenge.domain.AccountsImportResult;
+import com.db.awmd.challenge.domain.TransferResult;
 import com.db.awmd.challenge.exception.DuplicateAccountIdException;
+import com.db.awmd.challenge.exception.InvalidAccountIdException;
+import com.db.awmd.challenge.exception.InvalidBalanceException;
 import com.db.awmd.challenge.service.AccountsService;
+import com.db.awmd.challenge.service.TransfersService;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.stream.Stream;
 import javax.validation.Valid;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -14,18 +24,30 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 @RestController
 @RequestMapping("/v1/accounts")
 @Slf4j
 public class AccountsController {
 
+    private static final String TEXT_CSV_VALUE = "text/csv";
+    private static final int MAX_HISTORY_PAGE = 1000;
+
     private final AccountsService accountsService;
+    private final AccountsNdjsonWriter accountsNdjsonWriter;
+    private final AccountsImportReader accountsImportReader;
+    private final TransfersService transfersService;
 
     @Autowired
-    public AccountsController(AccountsService accountsService) {
+    public AccountsController(AccountsService accountsService, AccountsNdjsonWriter accountsNdjsonWriter,
+                              AccountsImportReader accountsImportReader, TransfersService transfersService) {
         this.accountsService = accountsService;
+        this.accountsNdjsonWriter = accountsNdjsonWriter;
+        this.accountsImportReader = accountsImportReader;
+        this.transfersService = transfersService;
     }
 
     @PostMapping(consumes = MediaType.APPLICATION_JSON_VALUE)
@@ -34,17 +56,91 @@ public class AccountsController {
 
         try {
             this.accountsService.createAccount(account);
-        } catch (DuplicateAccountIdException daie) {
-            return new ResponseEntity<>(daie.getMessage(), HttpStatus.BAD_REQUEST);
+        } catch (DuplicateAccountIdException | InvalidAccountIdException | InvalidBalanceException e) {
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.BAD_REQUEST);
         }
 
         return new ResponseEntity<>(HttpStatus.CREATED);
     }
 
+    /**
+     * Creates the accounts of a JSON array, reporting the ones that cannot be created, e.g. duplicates,
+     * without stopping the import.
+     */
+    @PostMapping(path = "/import", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<AccountsImportResult> importAccountsJson(InputStream body) throws IOException {
+        log.info("Importing accounts from JSON");
+        return importResponse(this.accountsImportReader.importJson(body));
+    }
+
+    /**
+     * Same as {@link #importAccountsJson(InputStream)}, from a CSV with a header naming the columns
+     * {@code accountId} and {@code balance}.
+     */
+    @PostMapping(path = "/import", consumes = TEXT_CSV_VALUE)
+    public ResponseEntity<AccountsImportResult> importAccountsCsv(InputStream body) throws IOException {
+        log.info("Importing accounts from CSV");
+        return importResponse(this.accountsImportReader.importCsv(body));
+    }
+
+    /**
+     * Streams every account as newline-delimited JSON. The response is chunked and written from an
+     * asynchronous request thread while the accounts are iterated, without locking them, so neither the
+     * memory used nor the transfers depend on the export. Its timeout is {@code accounts.export.timeout-millis},
+     * see {@link AccountsExportConfiguration}.
+     */
+    @GetMapping(path = "/export")
+    public ResponseEntity<StreamingResponseBody> exportAccounts() {
+        log.info("Exporting accounts");
+        return ResponseEntity.ok()
+                .contentType(AccountsNdjsonWriter.APPLICATION_NDJSON)
+                .body(out -> {
+                    try (Stream<Account> accounts = this.accountsService.streamAccounts()) {
+                        long count = this.accountsNdjsonWriter.write(accounts, out);
+                        log.info("Exported {} accounts", count);
+                    }
+                });
+    }
+
     @GetMapping(path = "/{accountId}")
-    public Account getAccount(@PathVariable String accountId) {
+    public AccountSnapshot getAccount(@PathVariable String accountId) {
         log.info("Retrieving account for id {}", accountId);
-        return this.accountsService.getAccount(accountId);
+        return this.accountsService.getAccountSnapshot(accountId);
     }
 
+    /**
+     * A page of the transfers of the account, oldest first. The first page starts at 0, and each page
+     * returns the cursor of the next one, which can be polled for new transfers.
+     */
+    @GetMapping(path = "/{accountId}/transfers")
+    public ResponseEntity<Object> getTransfers(@PathVariable String accountId,
+                                               @RequestParam(defaultValue = "0") long from,
+                                               @RequestParam(defaultValue = "100") int limit) {
+        if (from < 0 || limit <= 0 || limit > MAX_HISTORY_PAGE) {
+            return new ResponseEntity<>("Cursor must not be negative and limit must be between 1 and "
+                    + MAX_HISTORY_PAGE, HttpStatus.BAD_REQUEST);
+        }
+        if (this.accountsService.getAccount(accountId) == null) {
+            return new ResponseEntity<>("Account not found: " + accountId, HttpStatus.NOT_FOUND);
+        }
+        AccountHistoryPage page = this.accountsService.getTransfers(accountId, from, limit);
+        return new ResponseEntity<>(page, HttpStatus.OK);
+    }
+
+    /**
+     * The outcome of a transfer from the account to another node that was answered with 202: pending
+     * while that node does not answer, then completed or rejected.
+     */
+    @GetMapping(path = "/{accountId}/transfers/pending/{transferId}")
+    public ResponseEntity<Object> getPendingTransfer(@PathVariable String accountId, @PathVariable long transferId) {
+        TransferResult result = this.transfersService.getTransferOut(accountId, transferId);
+        if (result == null) {
+            return new ResponseEntity<>("Pending transfer not found: " + transferId, HttpStatus.NOT_FOUND);
+        }
+        return new ResponseEntity<>(result, HttpStatus.OK);
+    }
+
+    private static ResponseEntity<AccountsImportResult> importResponse(AccountsImportResult result) {
+        return new ResponseEntity<>(result, result.getMessage() == null ? HttpStatus.OK : HttpStatus.BAD_REQUEST);
+    }
 }
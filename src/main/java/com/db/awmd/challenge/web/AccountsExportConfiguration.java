@@ -0,0 +1,36 @@
+package com.db.awmd.challenge.web;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
+import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * The export of the accounts is streamed from an asynchronous request, which the container otherwise
+ * times out like the others, after about 30 seconds, cutting a large export to a slow reader. Its
+ * timeout is set once the asynchronous processing started, before the request thread returns.
+ */
+@Configuration
+public class AccountsExportConfiguration extends WebMvcConfigurerAdapter {
+
+    private final long timeoutMillis;
+
+    public AccountsExportConfiguration(@Value("${accounts.export.timeout-millis:3600000}") long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(new HandlerInterceptorAdapter() {
+            @Override
+            public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response,
+                                                       Object handler) {
+                request.getAsyncContext().setTimeout(timeoutMillis);
+            }
+        }).addPathPatterns("/v1/accounts/export");
+    }
+}
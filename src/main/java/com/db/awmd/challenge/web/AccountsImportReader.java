@@ -0,0 +1,111 @@
+package com.db.awmd.challenge.web;
+
+import com.db.awmd.challenge.domain.AccountsImportResult;
+import com.db.awmd.challenge.service.AccountsImporter;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.csv.CsvFactory;
+import com.fasterxml.jackson.dataformat.csv.CsvParser;
+import com.fasterxml.jackson.dataformat.csv.CsvSchema;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+
+/**
+ * Reads the accounts of a bulk import token by token, with the streaming API of Jackson, and hands them
+ * over to {@link AccountsImporter} as they are read, so the body is never held in memory.
+ * <p>
+ * A JSON body is an array of accounts, with the fields of {@code POST /v1/accounts}. A CSV body has a
+ * header naming the columns, {@code accountId} and {@code balance}; the CSV parser exposes each row as
+ * an object with those fields, so both are read by the same loop. A body that cannot be parsed stops the
+ * import, the accounts read before it are still created.
+ */
+@Component
+public class AccountsImportReader {
+
+    private static final CsvSchema CSV_WITH_HEADER = CsvSchema.emptySchema().withHeader();
+
+    private final AccountsImporter accountsImporter;
+    private final ObjectMapper objectMapper;
+    private final CsvFactory csvFactory = new CsvFactory();
+
+    @Autowired
+    public AccountsImportReader(AccountsImporter accountsImporter, ObjectMapper objectMapper) {
+        this.accountsImporter = accountsImporter;
+        this.objectMapper = objectMapper;
+    }
+
+    public AccountsImportResult importJson(final InputStream body) throws IOException {
+        return importAccounts(objectMapper.getFactory().createParser(body));
+    }
+
+    public AccountsImportResult importCsv(final InputStream body) throws IOException {
+        final CsvParser parser = csvFactory.createParser(body);
+        parser.setSchema(CSV_WITH_HEADER);
+        return importAccounts(parser);
+    }
+
+    private AccountsImportResult importAccounts(final JsonParser parser) throws IOException {
+        final AccountsImporter.Session session = accountsImporter.start();
+        String message = null;
+        try (JsonParser accounts = parser) {
+            JsonToken token = accounts.nextToken();
+            final boolean array = token == JsonToken.START_ARRAY;
+            if (array) token = accounts.nextToken();
+            while (token != null && !(array && token == JsonToken.END_ARRAY)) {
+                if (token != JsonToken.START_OBJECT) throw new JsonParseException(accounts, "Expected an account");
+                readAccount(accounts, session);
+                token = accounts.nextToken();
+            }
+        } catch (JsonProcessingException e) {
+            message = "Malformed body: " + e.getOriginalMessage() + " at line " + lineOf(e);
+        }
+        return session.finish(message);
+    }
+
+    private static void readAccount(final JsonParser parser, final AccountsImporter.Session session) throws IOException {
+        // The CSV parser has read the whole row when it starts the object, and counts its token lines from the header
+        final long line = parser instanceof CsvParser
+                ? parser.getCurrentLocation().getLineNr() : parser.getTokenLocation().getLineNr();
+        String accountId = null;
+        BigDecimal balance = null;
+        String invalid = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = parser.getCurrentName();
+            final JsonToken value = parser.nextToken();
+            if (value == JsonToken.START_OBJECT || value == JsonToken.START_ARRAY) {
+                parser.skipChildren();
+                if ("balance".equals(field)) invalid = "Invalid balance";
+            } else if (value == JsonToken.VALUE_NULL) {
+                continue;
+            } else if ("accountId".equals(field)) {
+                accountId = parser.getText();
+            } else if ("balance".equals(field)) {
+                if (value.isNumeric()) {
+                    balance = parser.getDecimalValue();
+                } else if (!parser.getText().trim().isEmpty()) {
+                    try {
+                        balance = new BigDecimal(parser.getText().trim());
+                    } catch (NumberFormatException nfe) {
+                        invalid = "Invalid balance: " + parser.getText();
+                    }
+                }
+            }
+        }
+        if (invalid != null) {
+            session.reject(line, accountId, invalid);
+        } else {
+            session.add(line, accountId, balance);
+        }
+    }
+
+    private static long lineOf(final JsonProcessingException e) {
+        return e.getLocation() == null ? -1 : e.getLocation().getLineNr();
+    }
+}
@@ -0,0 +1,59 @@
+package com.db.awmd.challenge.web;
+
+import com.db.awmd.challenge.domain.Account;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+/**
+ * Writes accounts as newline-delimited JSON, one account per line with the same fields as
+ * {@code GET /v1/accounts/{accountId}}.
+ * <p>
+ * The accounts are written one by one through a single generator, which buffers the output and only
+ * flushes it when its buffer is full, so the memory used does not depend on the number of accounts.
+ */
+@Component
+public class AccountsNdjsonWriter {
+
+    public static final MediaType APPLICATION_NDJSON = MediaType.parseMediaType("application/x-ndjson");
+
+    private final ObjectMapper objectMapper;
+    private final ObjectWriter accountWriter;
+
+    @Autowired
+    public AccountsNdjsonWriter(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+        this.accountWriter = objectMapper.writerFor(Account.class)
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+    }
+
+    /**
+     * Flushes the output at the end, but does not close it.
+     *
+     * @return the number of accounts written
+     */
+    public long write(final Stream<Account> accounts, final OutputStream out) throws IOException {
+        long count = 0;
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(out)
+                .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)) {
+            // The accounts are separated by the new lines only
+            generator.setRootValueSeparator(null);
+            final Iterator<Account> iterator = accounts.iterator();
+            while (iterator.hasNext()) {
+                accountWriter.writeValue(generator, iterator.next());
+                generator.writeRaw('\n');
+                count++;
+            }
+        }
+        return count;
+    }
+}
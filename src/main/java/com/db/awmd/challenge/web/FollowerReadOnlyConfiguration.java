@@ -0,0 +1,44 @@
+package com.db.awmd.challenge.web;
+
+import com.db.awmd.challenge.service.ReplicationFollower;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpMethod;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
+import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * A {@link ReplicationFollower} only serves reads: the other requests to the API are refused with 403,
+ * naming the primary that accepts them, as a write applied here would be lost at the next snapshot.
+ */
+@Configuration
+@ConditionalOnProperty(name = "replication.role", havingValue = "follower")
+public class FollowerReadOnlyConfiguration extends WebMvcConfigurerAdapter {
+
+    private final String primary;
+
+    public FollowerReadOnlyConfiguration(@Value("${replication.primary-host:localhost}") String primaryHost) {
+        this.primary = primaryHost;
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(new HandlerInterceptorAdapter() {
+            @Override
+            public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler)
+                    throws IOException {
+                final String method = request.getMethod();
+                if (HttpMethod.GET.matches(method) || HttpMethod.HEAD.matches(method)) return true;
+                response.setStatus(HttpServletResponse.SC_FORBIDDEN);
+                response.getWriter().write("Read-only follower, send writes to the primary " + primary);
+                return false;
+            }
+        }).addPathPatterns("/v1/**");
+    }
+}
@@ -0,0 +1,209 @@
+package com.db.awmd.challenge.web;
+
+import com.db.awmd.challenge.service.PartitionClient;
+import com.db.awmd.challenge.service.PartitionRing;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StreamUtils;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.UriUtils;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+/**
+ * Sends the requests about one account to the node that owns it, see {@link PartitionRing}: the
+ * creation of an account, its balance and history, and the transfers, by their origin account. The
+ * response of that node is returned as is. The other requests, e.g. batches or imports, only act on the
+ * accounts of the node that receives them.
+ * <p>
+ * A request is forwarded at most once, as the node that owns the account handles it whatever the ring
+ * it sees.
+ */
+@Slf4j
+@Component
+public class PartitionRoutingFilter extends OncePerRequestFilter {
+
+    static final String FORWARDED_HEADER = "X-Partition-Forwarded";
+
+    private static final String ACCOUNTS_PATH = "/v1/accounts";
+    private static final String TRANSFERS_PATH = "/v1/transfers";
+    private static final String[] FORWARDED_REQUEST_HEADERS = {
+            HttpHeaders.CONTENT_TYPE, HttpHeaders.ACCEPT, "Idempotency-Key"};
+    private static final String[] RETURNED_RESPONSE_HEADERS = {
+            HttpHeaders.CONTENT_TYPE, HttpHeaders.RETRY_AFTER, HttpHeaders.LOCATION};
+
+    private final PartitionRing partitionRing;
+    private final PartitionClient partitionClient;
+    private final ObjectMapper objectMapper;
+
+    @Autowired
+    public PartitionRoutingFilter(PartitionRing partitionRing, PartitionClient partitionClient,
+                                  ObjectMapper objectMapper) {
+        this.partitionRing = partitionRing;
+        this.partitionClient = partitionClient;
+        this.objectMapper = objectMapper;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !partitionRing.isEnabled() || request.getHeader(FORWARDED_HEADER) != null;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        final String path = request.getRequestURI().substring(request.getContextPath().length());
+        final String method = request.getMethod();
+
+        HttpServletRequest routed = request;
+        byte[] body = null;
+        String accountId = null;
+        if (HttpMethod.GET.matches(method) && path.startsWith(ACCOUNTS_PATH + "/")) {
+            accountId = accountIdOf(path.substring(ACCOUNTS_PATH.length() + 1));
+        } else if (HttpMethod.POST.matches(method) && (path.equals(ACCOUNTS_PATH) || path.equals(TRANSFERS_PATH))) {
+            body = StreamUtils.copyToByteArray(request.getInputStream());
+            routed = new CachedBodyRequest(request, body);
+            accountId = fieldOf(body, path.equals(ACCOUNTS_PATH) ? "accountId" : "accountFromId");
+        }
+
+        if (accountId == null || partitionRing.isLocal(accountId)) {
+            chain.doFilter(routed, response);
+            return;
+        }
+        forward(partitionRing.ownerOf(accountId), request, body, path, response);
+    }
+
+    /**
+     * The account of {@code /v1/accounts/{accountId}}, {@code /v1/accounts/{accountId}/transfers} or
+     * {@code /v1/accounts/{accountId}/transfers/pending/{transferId}}, or null for the other paths, e.g.
+     * the export.
+     */
+    private static String accountIdOf(String rest) {
+        final int slash = rest.indexOf('/');
+        final String segment = slash < 0 ? rest : rest.substring(0, slash);
+        if (segment.isEmpty() || "export".equals(segment)) return null;
+        if (slash >= 0 && !"/transfers".equals(rest.substring(slash))
+                && !rest.startsWith("/transfers/pending/", slash)) return null;
+        try {
+            return UriUtils.decode(segment, "UTF-8");
+        } catch (IOException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Null when the body is not a JSON object with the field, the local controller then rejects it.
+     */
+    private String fieldOf(byte[] body, String field) {
+        try {
+            final JsonNode value = objectMapper.readTree(body).get(field);
+            return value != null && value.isTextual() ? value.asText() : null;
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private void forward(int node, HttpServletRequest request, byte[] body, String path, HttpServletResponse response)
+            throws IOException {
+        final HttpHeaders headers = new HttpHeaders();
+        for (String name : FORWARDED_REQUEST_HEADERS) {
+            final String value = request.getHeader(name);
+            if (value != null) headers.set(name, value);
+        }
+        headers.set(FORWARDED_HEADER, Integer.toString(partitionRing.getNode()));
+        final String query = request.getQueryString();
+
+        final ResponseEntity<byte[]> forwarded;
+        try {
+            forwarded = partitionClient.exchange(node, HttpMethod.valueOf(request.getMethod()),
+                    query == null ? path : path + "?" + query, new HttpEntity<>(body, headers), byte[].class);
+        } catch (RestClientException e) {
+            log.warn("Cannot forward {} {} to node {}: {}", request.getMethod(), path, node, e.toString());
+            response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            response.setContentType(MediaType.TEXT_PLAIN_VALUE);
+            response.getWriter().write("Node " + partitionRing.getNodeUrl(node) + " is not available");
+            return;
+        }
+
+        response.setStatus(forwarded.getStatusCodeValue());
+        for (String name : RETURNED_RESPONSE_HEADERS) {
+            final String value = forwarded.getHeaders().getFirst(name);
+            if (value != null) response.setHeader(name, value);
+        }
+        if (forwarded.getBody() != null) {
+            response.setContentLength(forwarded.getBody().length);
+            response.getOutputStream().write(forwarded.getBody());
+        }
+    }
+
+    /**
+     * The body is read to find the account, so the request passed on serves it again.
+     */
+    private static final class CachedBodyRequest extends HttpServletRequestWrapper {
+
+        private final byte[] body;
+
+        CachedBodyRequest(HttpServletRequest request, byte[] body) {
+            super(request);
+            this.body = body;
+        }
+
+        @Override
+        public ServletInputStream getInputStream() {
+            final ByteArrayInputStream in = new ByteArrayInputStream(body);
+            return new ServletInputStream() {
+                @Override
+                public int read() {
+                    return in.read();
+                }
+
+                @Override
+                public int read(byte[] buffer, int offset, int length) {
+                    return in.read(buffer, offset, length);
+                }
+
+                @Override
+                public boolean isFinished() {
+                    return in.available() == 0;
+                }
+
+                @Override
+                public boolean isReady() {
+                    return true;
+                }
+
+                /**
+                 * The whole body is already in memory, so the listener is told at once that it can be read
+                 * and then that it was read.
+                 */
+                @Override
+                public void setReadListener(ReadListener listener) {
+                    if (listener == null) throw new NullPointerException("listener");
+                    try {
+                        listener.onDataAvailable();
+                        listener.onAllDataRead();
+                    } catch (IOException e) {
+                        listener.onError(e);
+                    }
+                }
+            };
+        }
+    }
+}
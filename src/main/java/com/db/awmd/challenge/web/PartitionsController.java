@@ -0,0 +1,66 @@
+package com.db.awmd.challenge.web;
+
+import com.db.awmd.challenge.domain.PartitionTransfer;
+import com.db.awmd.challenge.exception.AccountNotFoundException;
+import com.db.awmd.challenge.exception.InvalidTransferException;
+import com.db.awmd.challenge.service.PartitionClient;
+import com.db.awmd.challenge.service.PartitionTransfers;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.validation.Valid;
+
+/**
+ * Requests between the nodes of the partitioned accounts, not meant for the clients: only mapped when
+ * partitioning is enabled, and refused with 403 without the secret of the nodes, see {@link PartitionClient}.
+ */
+@RestController
+@RequestMapping("/v1/partitions")
+@ConditionalOnExpression("!'${partitioning.nodes:}'.trim().isEmpty()")
+@Slf4j
+public class PartitionsController {
+
+    private final PartitionTransfers partitionTransfers;
+    private final PartitionClient partitionClient;
+
+    @Autowired
+    public PartitionsController(PartitionTransfers partitionTransfers, PartitionClient partitionClient) {
+        this.partitionTransfers = partitionTransfers;
+        this.partitionClient = partitionClient;
+    }
+
+    /**
+     * Deposits a transfer from an account of another node. The origin node commits it on 200 and aborts
+     * it on 404 or 400; on 503, when the same transfer is still being deposited, it asks again later.
+     */
+    @PostMapping(path = "/transfers", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<Object> depositTransfer(@RequestBody @Valid PartitionTransfer transfer,
+                                                  @RequestHeader(value = PartitionClient.SECRET_HEADER, required = false) String secret) {
+        if (!this.partitionClient.isFromNode(secret)) {
+            log.warn("Refusing deposit of transfer {} without the secret of the nodes", transfer.getId());
+            return new ResponseEntity<>("Only the nodes can deposit transfers", HttpStatus.FORBIDDEN);
+        }
+        log.debug("Depositing transfer {}", transfer);
+
+        try {
+            if (!this.partitionTransfers.transferIn(transfer)) {
+                return new ResponseEntity<>("Transfer " + transfer.getId() + " is being deposited",
+                        HttpStatus.SERVICE_UNAVAILABLE);
+            }
+        } catch (AccountNotFoundException e) {
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.NOT_FOUND);
+        } catch (InvalidTransferException e) {
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.BAD_REQUEST);
+        }
+        return new ResponseEntity<>(HttpStatus.OK);
+    }
+}
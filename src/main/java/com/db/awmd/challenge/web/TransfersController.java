@@ -1,21 +1,37 @@
 package com.db.awmd.challenge.web;
 
+import com.db.awmd.challenge.domain.MultiLegTransfer;
+import com.db.awmd.challenge.domain.ScheduledTransfer;
 import com.db.awmd.challenge.domain.Transfer;
+import com.db.awmd.challenge.domain.TransferResult;
+import com.db.awmd.challenge.domain.TransferStatus;
 import com.db.awmd.challenge.exception.AccountNotFoundException;
 import com.db.awmd.challenge.exception.InsufficientBalanceException;
 import com.db.awmd.challenge.exception.InvalidTransferException;
+import com.db.awmd.challenge.service.TransfersRateLimiter;
+import com.db.awmd.challenge.service.TransfersScheduler;
 import com.db.awmd.challenge.service.TransfersService;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.util.UriComponentsBuilder;
 
 import javax.validation.Valid;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 @RestController
 @RequestMapping("/v1/transfers")
@@ -23,22 +39,150 @@ import javax.validation.Valid;
 public class TransfersController {
 
     private final TransfersService transfersService;
+    private final TransfersRateLimiter transfersRateLimiter;
+    private final TransfersScheduler transfersScheduler;
+    private final int maxBatchSize;
 
     @Autowired
-    public TransfersController(TransfersService transfersService) {
+    public TransfersController(TransfersService transfersService, TransfersRateLimiter transfersRateLimiter,
+                               TransfersScheduler transfersScheduler,
+                               @Value("${transfers.batch.max-size:1000}") int maxBatchSize) {
         this.transfersService = transfersService;
+        this.transfersRateLimiter = transfersRateLimiter;
+        this.transfersScheduler = transfersScheduler;
+        this.maxBatchSize = maxBatchSize;
     }
 
+    /**
+     * The request thread is released while the transfer is made durable, and the response is written
+     * when the returned future completes. A retry with the {@code Idempotency-Key} of a previous transfer
+     * gets the response of that transfer. A transfer over the rate limits is answered with 429 and the
+     * seconds to wait in {@code Retry-After}. A transfer to an account of another node left in doubt is
+     * answered with 202, its id and, in {@code Location}, where to poll its outcome.
+     */
     @PostMapping(consumes = MediaType.APPLICATION_JSON_VALUE)
-    public ResponseEntity<Object> makeTransfer(@RequestBody @Valid Transfer transfer) {
+    public CompletableFuture<ResponseEntity<Object>> makeTransfer(@RequestBody @Valid Transfer transfer,
+                                                                  @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey) {
         log.info("Making transfer {}", transfer);
 
+        final long retryAfterNanos = this.transfersRateLimiter.tryAcquire(transfer.getAccountFromId());
+        if (retryAfterNanos > 0) {
+            return CompletableFuture.completedFuture(tooManyRequests(retryAfterNanos));
+        }
+
+        final CompletableFuture<TransferResult> transferResult;
         try {
-            this.transfersService.makeTransfer(transfer);
-        } catch (AccountNotFoundException | InsufficientBalanceException | InvalidTransferException e) {
+            transferResult = this.transfersService.makeTransferAsync(idempotencyKey, transfer);
+        } catch (InvalidTransferException e) {
+            return CompletableFuture.completedFuture(new ResponseEntity<>(e.getMessage(), HttpStatus.BAD_REQUEST));
+        }
+
+        return transferResult.thenApply(result -> {
+            if (result.getStatus() == TransferStatus.PENDING) {
+                return ResponseEntity.accepted()
+                        .location(UriComponentsBuilder.fromPath("/v1/accounts/{accountId}/transfers/pending/{transferId}")
+                                .buildAndExpand(transfer.getAccountFromId(), result.getTransferId()).encode().toUri())
+                        .body((Object) result);
+            }
+            if (result.getStatus() != TransferStatus.COMPLETED) {
+                return new ResponseEntity<>(result.getMessage(), HttpStatus.BAD_REQUEST);
+            }
+            return new ResponseEntity<>(HttpStatus.CREATED);
+        });
+    }
+
+    /**
+     * A batch of more than {@code transfers.batch.max-size} transfers is answered with 400, as an atomic
+     * one holds the locks of all its accounts until it is applied.
+     */
+    @PostMapping(path = "/batch", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<Object> makeTransfers(@RequestBody List<Transfer> transfers,
+                                                @RequestParam(defaultValue = "false") boolean atomic) {
+        log.info("Making batch of {} transfers, atomic: {}", transfers.size(), atomic);
+        if (transfers.size() > maxBatchSize) {
+            return new ResponseEntity<>("Batch has more than " + maxBatchSize + " transfers", HttpStatus.BAD_REQUEST);
+        }
+
+        final List<TransferResult> results;
+        try {
+            final long retryAfterNanos = this.transfersRateLimiter.tryAcquire(transfers);
+            if (retryAfterNanos > 0) {
+                return tooManyRequests(retryAfterNanos);
+            }
+            results = this.transfersService.makeTransfers(transfers, atomic);
+        } catch (InvalidTransferException e) {
             return new ResponseEntity<>(e.getMessage(), HttpStatus.BAD_REQUEST);
         }
 
+        if (atomic && !results.isEmpty() && results.get(0).getStatus() != TransferStatus.COMPLETED) {
+            return new ResponseEntity<>(results, HttpStatus.BAD_REQUEST);
+        }
+        return new ResponseEntity<>(results, HttpStatus.OK);
+    }
+
+    /**
+     * All the legs are applied or none of them; a rejected transfer is answered with 400 and the reason.
+     */
+    @PostMapping(path = "/multi-leg", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<Object> makeMultiLegTransfer(@RequestBody @Valid MultiLegTransfer transfer) {
+        log.info("Making multi-leg transfer {}", transfer);
+
+        final long retryAfterNanos = this.transfersRateLimiter.tryAcquire(transfer);
+        if (retryAfterNanos > 0) {
+            return tooManyRequests(retryAfterNanos);
+        }
+
+        try {
+            this.transfersService.makeMultiLegTransfer(transfer);
+        } catch (AccountNotFoundException | InsufficientBalanceException | InvalidTransferException e) {
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.BAD_REQUEST);
+        }
         return new ResponseEntity<>(HttpStatus.CREATED);
     }
+
+    /**
+     * The rate limits are not applied to the scheduled transfers, neither when they are scheduled nor
+     * when they are made.
+     */
+    @PostMapping(path = "/scheduled", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<Object> scheduleTransfer(@RequestBody @Valid ScheduledTransfer transfer) {
+        log.info("Scheduling transfer {}", transfer);
+
+        try {
+            return new ResponseEntity<>(this.transfersScheduler.schedule(transfer), HttpStatus.CREATED);
+        } catch (AccountNotFoundException | InvalidTransferException e) {
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.BAD_REQUEST);
+        }
+    }
+
+    /**
+     * All the transfers are scheduled or, when one of them is invalid, none.
+     */
+    @PostMapping(path = "/scheduled/batch", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<Object> scheduleTransfers(@RequestBody List<ScheduledTransfer> transfers) {
+        log.info("Scheduling batch of {} transfers", transfers.size());
+
+        try {
+            return new ResponseEntity<>(this.transfersScheduler.scheduleAll(transfers), HttpStatus.CREATED);
+        } catch (AccountNotFoundException | InvalidTransferException e) {
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.BAD_REQUEST);
+        }
+    }
+
+    @DeleteMapping(path = "/scheduled/{id}")
+    public ResponseEntity<Object> cancelScheduledTransfer(@PathVariable long id) {
+        log.info("Cancelling scheduled transfer {}", id);
+
+        if (!this.transfersScheduler.cancel(id)) {
+            return new ResponseEntity<>("Scheduled transfer not pending: " + id, HttpStatus.NOT_FOUND);
+        }
+        return new ResponseEntity<>(HttpStatus.NO_CONTENT);
+    }
+
+    private static ResponseEntity<Object> tooManyRequests(long retryAfterNanos) {
+        final long seconds = Math.max(1, (retryAfterNanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1));
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, Long.toString(seconds))
+                .body("Too many transfers, retry after " + seconds + " seconds");
+    }
 }
@@ -4,12 +4,17 @@ import static org.assertj.core.api.Assertions.assertThat;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 import static org.springframework.test.web.servlet.setup.MockMvcBuilders.webAppContextSetup;
 
 import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.Transfer;
+import com.db.awmd.challenge.repository.TransfersHistory;
 import com.db.awmd.challenge.service.AccountsService;
+import com.db.awmd.challenge.service.TransfersService;
 import java.math.BigDecimal;
+import java.util.Arrays;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -19,10 +24,11 @@ import org.springframework.http.MediaType;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.context.web.WebAppConfiguration;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.web.context.WebApplicationContext;
 
 @RunWith(SpringRunner.class)
-@SpringBootTest
+@SpringBootTest(properties = {"history.enabled=true", "spring.jmx.enabled=false"})
 @WebAppConfiguration
 public class AccountsControllerTest {
 
@@ -31,15 +37,23 @@ public class AccountsControllerTest {
     @Autowired
     private AccountsService accountsService;
 
+    @Autowired
+    private TransfersService transfersService;
+
+    @Autowired
+    private TransfersHistory transfersHistory;
+
     @Autowired
     private WebApplicationContext webApplicationContext;
 
     @Before
-    public void prepareMockMvc() {
+    public void prepareMockMvc() throws InterruptedException {
         this.mockMvc = webAppContextSetup(this.webApplicationContext).build();
 
         // Reset the existing accounts before each test.
         accountsService.getAccountsRepository().clearAccounts();
+        transfersHistory.awaitRecorded();
+        transfersHistory.clear();
     }
 
     @Test
@@ -52,6 +66,17 @@ public class AccountsControllerTest {
         assertThat(account.getBalance()).isEqualByComparingTo("1000");
     }
 
+    @Test
+    public void partitionDepositsNotMappedWithoutPartitioning() throws Exception {
+        accountsService.createAccount(new Account("Id-123", new BigDecimal("10")));
+
+        this.mockMvc.perform(post("/v1/partitions/transfers").contentType(MediaType.APPLICATION_JSON)
+                .content("{\"id\":1,\"node\":0,\"resolvedBelow\":0,\"accountToId\":\"Id-123\",\"amount\":1000000}"))
+                .andExpect(status().isNotFound());
+
+        assertThat(accountsService.getAccount("Id-123").getBalance()).isEqualByComparingTo("10");
+    }
+
     @Test
     public void createDuplicateAccount() throws Exception {
         this.mockMvc.perform(post("/v1/accounts").contentType(MediaType.APPLICATION_JSON)
@@ -101,4 +126,114 @@ public class AccountsControllerTest {
                 .andExpect(
                         content().string("{\"accountId\":\"" + uniqueAccountId + "\",\"balance\":123.45}"));
     }
+
+    @Test
+    public void createAccountWithReservedId() throws Exception {
+        this.mockMvc.perform(post("/v1/accounts").contentType(MediaType.APPLICATION_JSON)
+                .content("{\"accountId\":\"export\",\"balance\":1000}"))
+                .andExpect(status().isBadRequest())
+                .andExpect(content().string("Account id export is reserved"));
+    }
+
+    @Test
+    public void exportAccounts() throws Exception {
+        this.accountsService.createAccount(new Account("Id-1", new BigDecimal("10.5")));
+        this.accountsService.createAccount(new Account("Id-2", new BigDecimal("0")));
+        this.accountsService.createAccount(new Account("Id-3", new BigDecimal("123.45")));
+
+        MvcResult result = this.mockMvc.perform(get("/v1/accounts/export"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("application/x-ndjson"))
+                .andReturn();
+        assertThat(result.getRequest().getAsyncContext().getTimeout()).isEqualTo(3_600_000);
+        // The body is written by the asynchronous request thread
+        result.getAsyncResult();
+        String body = result.getResponse().getContentAsString();
+
+        assertThat(body).endsWith("\n");
+        assertThat(Arrays.asList(body.split("\n"))).containsExactlyInAnyOrder(
+                "{\"accountId\":\"Id-1\",\"balance\":10.5}",
+                "{\"accountId\":\"Id-2\",\"balance\":0}",
+                "{\"accountId\":\"Id-3\",\"balance\":123.45}");
+    }
+
+    @Test
+    public void importAccountsJsonReportsDuplicatesAndGoesOn() throws Exception {
+        this.accountsService.createAccount(new Account("Id-2", BigDecimal.ONE));
+
+        this.mockMvc.perform(post("/v1/accounts/import").contentType(MediaType.APPLICATION_JSON)
+                .content("[\n{\"accountId\":\"Id-1\",\"balance\":10.5},\n"
+                        + "{\"accountId\":\"Id-2\",\"balance\":20},\n"
+                        + "{\"accountId\":\"Id-3\",\"balance\":-1},\n"
+                        + "{\"accountId\":\"Id-4\",\"balance\":\"abc\"},\n"
+                        + "{\"accountId\":\"Id-5\",\"balance\":\"30\"}\n]"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.created").value(2))
+                .andExpect(jsonPath("$.failed").value(3))
+                .andExpect(jsonPath("$.errors[0].index").value(1))
+                .andExpect(jsonPath("$.errors[0].line").value(3))
+                .andExpect(jsonPath("$.errors[0].message").value("Account id Id-2 already exists!"))
+                .andExpect(jsonPath("$.errors[1].accountId").value("Id-3"))
+                .andExpect(jsonPath("$.errors[2].accountId").value("Id-4"));
+
+        assertThat(accountsService.getAccount("Id-1").getBalance()).isEqualByComparingTo("10.5");
+        assertThat(accountsService.getAccount("Id-2").getBalance()).isEqualByComparingTo("1");
+        assertThat(accountsService.getAccount("Id-3")).isNull();
+        assertThat(accountsService.getAccount("Id-5").getBalance()).isEqualByComparingTo("30");
+    }
+
+    @Test
+    public void importAccountsCsv() throws Exception {
+        this.mockMvc.perform(post("/v1/accounts/import").contentType("text/csv")
+                .content("accountId,balance\nId-1,10.5\nId-2,\nId-3,0\n"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.created").value(2))
+                .andExpect(jsonPath("$.failed").value(1))
+                .andExpect(jsonPath("$.errors[0].line").value(3))
+                .andExpect(jsonPath("$.errors[0].message").value("Account must have a balance"));
+
+        assertThat(accountsService.getAccount("Id-1").getBalance()).isEqualByComparingTo("10.5");
+        assertThat(accountsService.getAccount("Id-3").getBalance()).isEqualByComparingTo("0");
+    }
+
+    @Test
+    public void importMalformedJsonKeepsTheAccountsReadBefore() throws Exception {
+        this.mockMvc.perform(post("/v1/accounts/import").contentType(MediaType.APPLICATION_JSON)
+                .content("[{\"accountId\":\"Id-1\",\"balance\":1}, {\"accountId\":"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.created").value(1))
+                .andExpect(jsonPath("$.message").exists());
+
+        assertThat(accountsService.getAccount("Id-1")).isNotNull();
+    }
+
+    @Test
+    public void getTransfersPageByPage() throws Exception {
+        this.accountsService.createAccount(new Account("Id-1", new BigDecimal("100")));
+        this.accountsService.createAccount(new Account("Id-2", new BigDecimal("100")));
+        this.transfersService.makeTransfer(new Transfer("Id-1", "Id-2", new BigDecimal("10")));
+        this.transfersService.makeTransfer(new Transfer("Id-2", "Id-1", new BigDecimal("2.5")));
+        this.transfersService.makeTransfer(new Transfer("Id-1", "Id-2", new BigDecimal("1")));
+        this.transfersHistory.awaitRecorded();
+
+        this.mockMvc.perform(get("/v1/accounts/Id-1/transfers?limit=2"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.entries.length()").value(2))
+                .andExpect(jsonPath("$.entries[0].counterpartyId").value("Id-2"))
+                .andExpect(jsonPath("$.entries[0].amount").value(-10))
+                .andExpect(jsonPath("$.entries[1].amount").value(2.5))
+                .andExpect(jsonPath("$.next").value(2));
+
+        this.mockMvc.perform(get("/v1/accounts/Id-1/transfers?from=2&limit=2"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.entries.length()").value(1))
+                .andExpect(jsonPath("$.entries[0].amount").value(-1))
+                .andExpect(jsonPath("$.next").value(3));
+    }
+
+    @Test
+    public void getTransfersOfUnknownAccount() throws Exception {
+        this.mockMvc.perform(get("/v1/accounts/Id-404/transfers")).andExpect(status().isNotFound());
+        this.mockMvc.perform(get("/v1/accounts/Id-1/transfers?limit=0")).andExpect(status().isBadRequest());
+    }
 }
@@ -0,0 +1,79 @@
+package com.db.awmd.challenge;
+
+import com.db.awmd.challenge.service.AccountsLockTable;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+public class AccountsLockTableTest {
+
+    @Test
+    public void numberOfStripesIsRoundedUpToPowerOfTwo() {
+        assertThat(new AccountsLockTable(1).getNumberOfStripes()).isEqualTo(1);
+        assertThat(new AccountsLockTable(100).getNumberOfStripes()).isEqualTo(128);
+        assertThat(new AccountsLockTable(1024).getNumberOfStripes()).isEqualTo(1024);
+    }
+
+    @Test
+    public void invalidNumberOfStripes() {
+        try {
+            new AccountsLockTable(0);
+            fail("Should have failed when creating a lock table without stripes");
+        } catch (IllegalArgumentException iae) {
+            assertThat(iae.getMessage()).isEqualTo("Invalid number of lock stripes: 0");
+        }
+    }
+
+    @Test
+    public void sameAccountAlwaysMapsToSameStripe() {
+        AccountsLockTable accountsLockTable = new AccountsLockTable(64);
+        int stripe = accountsLockTable.stripeOf("Id-101");
+
+        assertThat(accountsLockTable.stripeOf(new String("Id-101"))).isEqualTo(stripe);
+        assertThat(stripe).isBetween(0, 63);
+    }
+
+    @Test
+    public void pairInSameStripeIsLockedOnce() throws InterruptedException {
+        AccountsLockTable accountsLockTable = new AccountsLockTable(1);
+        accountsLockTable.lockPair(0, 0);
+        accountsLockTable.unlockPair(0, 0);
+
+        Thread other = new Thread(() -> {
+            accountsLockTable.lock(0);
+            accountsLockTable.unlock(0);
+        });
+        other.start();
+        other.join(1000);
+
+        assertThat(other.isAlive()).isFalse();
+    }
+
+    @Test
+    public void contendedAcquisitionsAreCountedAndTimed() throws InterruptedException {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        AccountsLockTable accountsLockTable = new AccountsLockTable(4, meterRegistry);
+        accountsLockTable.lock(2);
+
+        Thread other = new Thread(() -> {
+            accountsLockTable.lock(2);
+            accountsLockTable.unlock(2);
+        });
+        other.start();
+        while (other.getState() != Thread.State.WAITING) {
+            Thread.sleep(1);
+        }
+        accountsLockTable.unlock(2);
+        other.join(1000);
+
+        accountsLockTable.lock(1);
+        accountsLockTable.unlock(1);
+
+        assertThat(accountsLockTable.getContentions(2)).isEqualTo(1);
+        assertThat(accountsLockTable.getContentions(1)).isZero();
+        assertThat(meterRegistry.find("accounts.lock.contentions").tags("stripe", "2").functionCounter().count()).isEqualTo(1);
+        assertThat(meterRegistry.find("accounts.lock.wait").timer().count()).isEqualTo(1);
+    }
+}
@@ -2,11 +2,23 @@ package com.db.awmd.challenge;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 import com.db.awmd.challenge.domain.Account;
 import com.db.awmd.challenge.exception.DuplicateAccountIdException;
+import com.db.awmd.challenge.repository.AccountsRepositoryInMemory;
+import com.db.awmd.challenge.repository.TransfersJournal;
 import com.db.awmd.challenge.service.AccountsService;
+import com.db.awmd.challenge.service.AccountsSnapshotter;
 import java.math.BigDecimal;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -43,4 +55,34 @@ public class AccountsServiceTest {
         }
 
     }
+
+    @Test
+    public void concurrentCreationsOfSameIdAreJournaledOnce() throws Exception {
+        TransfersJournal journal = mock(TransfersJournal.class);
+        AccountsSnapshotter accountsSnapshotter = mock(AccountsSnapshotter.class);
+        when(accountsSnapshotter.creationLock()).thenReturn(new ReentrantReadWriteLock().readLock());
+        CountDownLatch journaling = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(journal.appendAccountCreated(any(Account.class))).thenAnswer(invocation -> {
+            journaling.countDown();
+            release.await();
+            return CompletableFuture.completedFuture(null);
+        });
+        AccountsService service = new AccountsService(new AccountsRepositoryInMemory(), -1, journal, accountsSnapshotter);
+
+        CompletableFuture<Void> first = CompletableFuture.runAsync(() -> service.createAccount(new Account("Id-1")));
+        assertThat(journaling.await(5, TimeUnit.SECONDS)).isTrue();
+        try {
+            // Not in the repository yet, as the first one is still being journaled
+            service.createAccount(new Account("Id-1"));
+            fail("Should have failed when adding duplicate account");
+        } catch (DuplicateAccountIdException ex) {
+            assertThat(ex.getMessage()).isEqualTo("Account id Id-1 already exists!");
+        }
+        release.countDown();
+        first.get(5, TimeUnit.SECONDS);
+
+        verify(journal, times(1)).appendAccountCreated(any(Account.class));
+        assertThat(service.getAccount("Id-1")).isNotNull();
+    }
 }
@@ -0,0 +1,160 @@
+package com.db.awmd.challenge;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.Transfer;
+import com.db.awmd.challenge.exception.InsufficientBalanceException;
+import com.db.awmd.challenge.repository.AccountsRepository;
+import com.db.awmd.challenge.repository.AccountsRepositoryInMemory;
+import com.db.awmd.challenge.repository.AccountsSnapshotStore;
+import com.db.awmd.challenge.repository.TransfersJournal;
+import com.db.awmd.challenge.service.AccountsLockTable;
+import com.db.awmd.challenge.service.AccountsService;
+import com.db.awmd.challenge.service.AccountsSnapshotter;
+import com.db.awmd.challenge.service.JournalRecovery;
+import com.db.awmd.challenge.service.TransfersEngine;
+import com.db.awmd.challenge.service.TransfersMetrics;
+import com.db.awmd.challenge.service.TransfersValidations;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AccountsSnapshotterTest {
+
+    private static final int NUMBER_OF_ACCOUNTS = 200;
+    private static final int NUMBER_OF_THREADS = 8;
+    private static final int TRANSFERS_PER_THREAD = 20_000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File directory;
+    private Node node;
+
+    @Before
+    public void startNode() throws Exception {
+        directory = folder.newFolder("journal");
+        node = new Node(directory);
+    }
+
+    @After
+    public void stopNode() throws Exception {
+        node.stop();
+    }
+
+    @Test
+    public void recoveryFromSnapshotsTakenDuringTransfers() throws Exception {
+        for (int i = 0; i < NUMBER_OF_ACCOUNTS; i++) {
+            node.accountsService.createAccount(new Account("Id-" + i, BigDecimal.valueOf(1000)));
+        }
+
+        Queue<CompletableFuture<Void>> durable = new ConcurrentLinkedQueue<>();
+        ExecutorService executor = Executors.newFixedThreadPool(NUMBER_OF_THREADS);
+        List<Future<?>> workers = new ArrayList<>();
+        for (int t = 0; t < NUMBER_OF_THREADS; t++) {
+            final long seed = t;
+            workers.add(executor.submit(() -> {
+                Random random = new Random(seed);
+                for (int i = 0; i < TRANSFERS_PER_THREAD; i++) {
+                    int from = random.nextInt(NUMBER_OF_ACCOUNTS);
+                    int to = (from + 1 + random.nextInt(NUMBER_OF_ACCOUNTS - 1)) % NUMBER_OF_ACCOUNTS;
+                    durable.add(node.transfer("Id-" + from, "Id-" + to, BigDecimal.valueOf(1 + random.nextInt(50))));
+                }
+            }));
+        }
+
+        long lastSnapshot = 0;
+        for (int i = 0; i < 5; i++) {
+            Thread.sleep(20);
+            lastSnapshot = node.accountsSnapshotter.takeSnapshot();
+        }
+        for (Future<?> worker : workers) {
+            worker.get();
+        }
+        executor.shutdown();
+        CompletableFuture.allOf(durable.toArray(new CompletableFuture[0])).join();
+
+        Map<String, BigDecimal> balances = node.balances();
+        node.stop();
+
+        node = new Node(directory);
+        assertThat(node.balances()).isEqualTo(balances);
+        assertThat(node.accountsSnapshotter.currentEpoch()).isGreaterThanOrEqualTo(lastSnapshot);
+        assertThat(directory.list((dir, name) -> name.endsWith(".snap"))).hasSize(1);
+    }
+
+    @Test
+    public void recoveryAfterSnapshotOnlyReplaysTheTail() throws Exception {
+        node.accountsService.createAccount(new Account("Id-1", BigDecimal.valueOf(100)));
+        node.accountsService.createAccount(new Account("Id-2", BigDecimal.ZERO));
+        node.transfer("Id-1", "Id-2", BigDecimal.TEN).join();
+        node.accountsSnapshotter.takeSnapshot();
+        node.transfer("Id-1", "Id-2", BigDecimal.ONE).join();
+        node.stop();
+
+        assertThat(directory.list((dir, name) -> name.startsWith("journal-"))).hasSize(1);
+
+        node = new Node(directory);
+        assertThat(node.balances()).containsEntry("Id-1", new BigDecimal("89")).containsEntry("Id-2", new BigDecimal("11"));
+    }
+
+    private static final class Node {
+        private final AccountsRepository accountsRepository = new AccountsRepositoryInMemory();
+        private final TransfersJournal journal;
+        private final AccountsSnapshotter accountsSnapshotter;
+        private final AccountsService accountsService;
+        private final TransfersEngine transfersEngine;
+
+        Node(File directory) {
+            AccountsLockTable accountsLockTable = new AccountsLockTable(64);
+            AccountsSnapshotStore accountsSnapshotStore = new AccountsSnapshotStore(true, directory.getPath());
+            journal = new TransfersJournal(true, directory.getPath(), "never", 1024, 1000);
+            accountsSnapshotter = new AccountsSnapshotter(accountsRepository, accountsLockTable, journal,
+                    accountsSnapshotStore, 0, "synchronous", "standalone");
+            accountsService = new AccountsService(accountsRepository, -1, journal, accountsSnapshotter);
+            transfersEngine = new TransfersEngine(new TransfersValidations(), journal, accountsLockTable, accountsSnapshotter,
+                    new TransfersMetrics(new SimpleMeterRegistry(), accountsRepository), 16);
+            new JournalRecovery(journal, accountsService, accountsRepository, accountsSnapshotStore,
+                    accountsSnapshotter).recover();
+        }
+
+        CompletableFuture<Void> transfer(String accountFromId, String accountToId, BigDecimal amount) {
+            Transfer transfer = new Transfer(accountFromId, accountToId, amount);
+            try {
+                return transfersEngine.execute(accountsRepository.getAccount(accountFromId),
+                        accountsRepository.getAccount(accountToId), transfer);
+            } catch (InsufficientBalanceException ibe) {
+                return CompletableFuture.completedFuture(null);
+            }
+        }
+
+        Map<String, BigDecimal> balances() {
+            return accountsRepository.streamAccounts()
+                    .collect(Collectors.toMap(Account::getAccountId, Account::getBalance, (a, b) -> a, TreeMap::new));
+        }
+
+        void stop() throws Exception {
+            accountsSnapshotter.shutdown();
+            journal.shutdown();
+        }
+    }
+}
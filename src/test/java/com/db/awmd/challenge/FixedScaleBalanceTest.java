@@ -0,0 +1,69 @@
+package com.db.awmd.challenge;
+
+import com.db.awmd.challenge.domain.FixedScaleBalance;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+public class FixedScaleBalanceTest {
+
+    @Test
+    public void withdrawAndDeposit() {
+        FixedScaleBalance balance = new FixedScaleBalance(new BigDecimal("100.50"), 2);
+        balance.withdraw(new BigDecimal("0.75"));
+        balance.deposit(BigDecimal.TEN);
+
+        assertThat(balance.getMinorUnits()).isEqualTo(10975);
+        assertThat(balance.get()).isEqualTo(new BigDecimal("109.75"));
+    }
+
+    @Test
+    public void covers() {
+        FixedScaleBalance balance = new FixedScaleBalance(BigDecimal.TEN, 2);
+
+        assertThat(balance.covers(new BigDecimal("10.00"))).isTrue();
+        assertThat(balance.covers(new BigDecimal("10.01"))).isFalse();
+    }
+
+    @Test
+    public void tryWithdrawDoesNotOverdraw() {
+        FixedScaleBalance balance = new FixedScaleBalance(BigDecimal.ONE, 2);
+
+        assertThat(balance.tryWithdraw(101)).isFalse();
+        assertThat(balance.tryWithdraw(100)).isTrue();
+        assertThat(balance.getMinorUnits()).isZero();
+    }
+
+    @Test
+    public void amountWithTooManyDecimalsIsNotSupported() {
+        FixedScaleBalance balance = new FixedScaleBalance(BigDecimal.ONE, 2);
+
+        assertThat(balance.supports(new BigDecimal("0.01"))).isTrue();
+        assertThat(balance.supports(new BigDecimal("0.001"))).isFalse();
+    }
+
+    @Test
+    public void amountsAreSupportedOnlyWhenTheyFitInALong() {
+        assertThat(FixedScaleBalance.fitsMinorUnits(new BigDecimal("1.2300"), 2)).isTrue();
+        assertThat(FixedScaleBalance.fitsMinorUnits(new BigDecimal("1E+5"), 2)).isTrue();
+        assertThat(FixedScaleBalance.fitsMinorUnits(new BigDecimal("92233720368547758.07"), 2)).isTrue();
+        assertThat(FixedScaleBalance.fitsMinorUnits(new BigDecimal("92233720368547758.08"), 2)).isFalse();
+        assertThat(FixedScaleBalance.fitsMinorUnits(new BigDecimal("-92233720368547758.08"), 2)).isTrue();
+        assertThat(FixedScaleBalance.fitsMinorUnits(new BigDecimal("1E+17"), 2)).isFalse();
+        assertThat(FixedScaleBalance.fitsMinorUnits(new BigDecimal("0.0010"), 2)).isFalse();
+    }
+
+    @Test
+    public void overflowLeavesBalanceUnchanged() {
+        FixedScaleBalance balance = new FixedScaleBalance(BigDecimal.valueOf(Long.MAX_VALUE), 0);
+        try {
+            balance.deposit(1L);
+            fail("Should have failed when the balance overflows");
+        } catch (ArithmeticException ae) {
+            assertThat(balance.getMinorUnits()).isEqualTo(Long.MAX_VALUE);
+        }
+    }
+}
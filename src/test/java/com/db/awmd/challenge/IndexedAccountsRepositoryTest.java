@@ -0,0 +1,99 @@
+package com.db.awmd.challenge;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.exception.DuplicateAccountIdException;
+import com.db.awmd.challenge.exception.InvalidBalanceException;
+import com.db.awmd.challenge.repository.IndexedAccountsRepository;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+public class IndexedAccountsRepositoryTest {
+
+    private final IndexedAccountsRepository repository = new IndexedAccountsRepository(0, 2);
+
+    @Test
+    public void accountsGetDenseHandles() {
+        for (int i = 0; i < 200_000; i++) {
+            repository.createAccount(new Account("Id-" + i, BigDecimal.valueOf(i)));
+        }
+
+        assertThat(repository.countAccounts()).isEqualTo(200_000);
+        assertThat(repository.getCapacity()).isEqualTo(1 << 19);
+        assertThat(repository.getHandle("Id-0")).isZero();
+        assertThat(repository.getHandle("Id-199999")).isEqualTo(199_999);
+        assertThat(repository.getHandle("Id-200000")).isEqualTo(-1);
+        assertThat(repository.getMinorUnits(repository.getHandle("Id-70000"))).isEqualTo(7_000_000);
+        assertThat(repository.getAccount("Id-123456").getBalance()).isEqualByComparingTo("123456");
+        assertThat(repository.streamAccounts().count()).isEqualTo(200_000);
+    }
+
+    @Test
+    public void updatesGoToTheStore() {
+        Account account = new Account("Id-123", new BigDecimal("100"));
+        repository.createAccount(account);
+
+        account.withdraw(new BigDecimal("0.25"));
+        repository.getAccount("Id-123").deposit(BigDecimal.ONE);
+
+        assertThat(account.getBalance()).isEqualByComparingTo("100.75");
+        assertThat(repository.getAccount("Id-123")).isEqualTo(account);
+        assertThat(account.supportsAmount(new BigDecimal("0.001"))).isFalse();
+    }
+
+    @Test
+    public void rejectsInvalidAccounts() {
+        repository.createAccount(new Account("Id-123"));
+        try {
+            repository.createAccount(new Account("Id-123"));
+            fail("Should have failed when adding duplicate account");
+        } catch (DuplicateAccountIdException daie) {
+            assertThat(daie.getMessage()).isEqualTo("Account id Id-123 already exists!");
+        }
+        try {
+            repository.createAccount(new Account("Id-124", new BigDecimal("0.001")));
+            fail("Should have failed with too many decimals");
+        } catch (InvalidBalanceException ibe) {
+            assertThat(ibe.getMessage()).isEqualTo("Balance 0.001 does not fit in 2 decimals");
+        }
+        repository.clearAccounts();
+        assertThat(repository.countAccounts()).isZero();
+        assertThat(repository.getAccount("Id-123")).isNull();
+    }
+
+    @Test
+    public void lookupsDuringCreationsFindEveryCreatedAccount() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        Future<?> creations = executor.submit(() -> {
+            for (int i = 0; i < 100_000; i++) {
+                repository.createAccount(new Account("Id-" + i, BigDecimal.ONE));
+            }
+        });
+        List<Future<?>> lookups = new ArrayList<>();
+        for (int t = 0; t < 3; t++) {
+            lookups.add(executor.submit(() -> {
+                while (!creations.isDone()) {
+                    int created = repository.countAccounts();
+                    if (created > 0) {
+                        assertThat(repository.getAccount("Id-" + (created - 1))).isNotNull();
+                    }
+                }
+            }));
+        }
+        creations.get();
+        for (Future<?> lookup : lookups) {
+            lookup.get();
+        }
+        executor.shutdown();
+
+        assertThat(repository.countAccounts()).isEqualTo(100_000);
+    }
+}
@@ -0,0 +1,140 @@
+package com.db.awmd.challenge;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.exception.DuplicateAccountIdException;
+import com.db.awmd.challenge.exception.InvalidAccountIdException;
+import com.db.awmd.challenge.exception.InvalidBalanceException;
+import com.db.awmd.challenge.repository.MappedAccountsRepository;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+public class MappedAccountsRepositoryTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+    private MappedAccountsRepository repository;
+
+    @Before
+    public void openRepository() throws Exception {
+        file = new File(folder.getRoot(), "accounts.dat");
+        repository = new MappedAccountsRepository(file.getPath(), 1000, 2, false);
+    }
+
+    @After
+    public void closeRepository() throws Exception {
+        repository.close();
+    }
+
+    @Test
+    public void createAndGetAccount() {
+        Account account = new Account("Id-123", new BigDecimal("1000.50"));
+        repository.createAccount(account);
+
+        assertThat(repository.getCapacity()).isEqualTo(1024);
+        assertThat(repository.getAccount("Id-123")).isEqualTo(account);
+        assertThat(repository.getAccount("Id-124")).isNull();
+        assertThat(repository.streamAccounts().toArray()).containsExactly(account);
+    }
+
+    @Test
+    public void updatesGoToTheStore() {
+        Account account = new Account("Id-123", new BigDecimal("100"));
+        repository.createAccount(account);
+
+        account.withdraw(new BigDecimal("0.25"));
+        repository.getAccount("Id-123").deposit(BigDecimal.ONE);
+
+        assertThat(account.getBalance()).isEqualByComparingTo("100.75");
+        assertThat(account.supportsAmount(new BigDecimal("0.001"))).isFalse();
+    }
+
+    @Test
+    public void accountsSurviveReopening() throws Exception {
+        for (int i = 0; i < 500; i++) {
+            repository.createAccount(new Account("Id-" + i, BigDecimal.valueOf(i)));
+        }
+        repository.getAccount("Id-7").deposit(BigDecimal.TEN);
+        repository.close();
+
+        repository = new MappedAccountsRepository(file.getPath(), 16, 2, false);
+        assertThat(repository.getCapacity()).isEqualTo(1024);
+        assertThat(repository.getSize()).isEqualTo(500);
+        assertThat(repository.getAccount("Id-7").getBalance()).isEqualByComparingTo("17");
+        assertThat(repository.getAccount("Id-499").getBalance()).isEqualByComparingTo("499");
+    }
+
+    @Test
+    public void rejectsInvalidAccounts() {
+        repository.createAccount(new Account("Id-123"));
+        try {
+            repository.createAccount(new Account("Id-123"));
+            fail("Should have failed when adding duplicate account");
+        } catch (DuplicateAccountIdException daie) {
+            assertThat(daie.getMessage()).isEqualTo("Account id Id-123 already exists!");
+        }
+        try {
+            repository.createAccount(new Account(new String(new char[55]).replace('\0', 'x')));
+            fail("Should have failed with a too long id");
+        } catch (InvalidAccountIdException iaie) {
+            assertThat(iaie.getMessage()).contains("is longer than 54 bytes");
+        }
+        try {
+            repository.createAccount(new Account("Id-124", new BigDecimal("0.001")));
+            fail("Should have failed with too many decimals");
+        } catch (InvalidBalanceException ibe) {
+            assertThat(ibe.getMessage()).isEqualTo("Balance 0.001 does not fit in 2 decimals");
+        }
+    }
+
+    @Test
+    public void failsWhenFull() {
+        for (int i = 0; i < 768; i++) {
+            repository.createAccount(new Account("Id-" + i));
+        }
+        try {
+            repository.createAccount(new Account("Id-768"));
+            fail("Should have failed when full");
+        } catch (IllegalStateException ise) {
+            assertThat(ise.getMessage()).contains("is full");
+        }
+        repository.clearAccounts();
+        assertThat(repository.getSize()).isZero();
+        assertThat(repository.getAccount("Id-1")).isNull();
+    }
+
+    @Test
+    public void concurrentDepositsAreNotLost() throws Exception {
+        repository.createAccount(new Account("Id-123"));
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < 10_000; i++) {
+                    repository.getAccount("Id-123").deposit(new BigDecimal("0.01"));
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        assertThat(repository.getAccount("Id-123").getBalance()).isEqualByComparingTo("800");
+    }
+}
@@ -0,0 +1,183 @@
+package com.db.awmd.challenge;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.repository.AccountsRepository;
+import com.db.awmd.challenge.repository.AccountsRepositoryInMemory;
+import com.db.awmd.challenge.service.NotificationDispatcher;
+import com.db.awmd.challenge.service.NotificationService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.ArgumentMatcher;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.argThat;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class NotificationDispatcherTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final AccountsRepository accountsRepository = new AccountsRepositoryInMemory();
+    private final NotificationService notificationService = mock(NotificationService.class);
+    private final Account account = new Account("Id-101");
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    public void notificationsAreDeliveredByTheWorkers() throws Exception {
+        NotificationDispatcher dispatcher = dispatcher(true, 10, "block");
+        dispatcher.notifyAboutTransfer(account, "first");
+        dispatcher.notifyAboutTransfer(account, "second");
+
+        verify(notificationService, timeout(1000)).notifyAboutTransfer(argThat(sameAs(account)), eq("first"));
+        verify(notificationService, timeout(1000)).notifyAboutTransfer(argThat(sameAs(account)), eq("second"));
+        dispatcher.shutdown();
+        assertThat(dispatcher.getDelivered()).isEqualTo(2);
+        assertThat(dispatcher.getQueueDepth()).isZero();
+    }
+
+    @Test
+    public void synchronousDelivery() throws Exception {
+        NotificationDispatcher dispatcher = dispatcher(false, 10, "block");
+        dispatcher.notifyAboutTransfer(account, "first");
+
+        verify(notificationService, times(1)).notifyAboutTransfer(argThat(sameAs(account)), eq("first"));
+        dispatcher.shutdown();
+    }
+
+    @Test
+    public void overflowIsDropped() throws Exception {
+        CountDownLatch release = blockDelivery();
+        NotificationDispatcher dispatcher = dispatcher(true, 1, "drop");
+
+        dispatcher.notifyAboutTransfer(account, "blocked");
+        verify(notificationService, timeout(1000)).notifyAboutTransfer(argThat(sameAs(account)), eq("blocked"));
+        dispatcher.notifyAboutTransfer(account, "queued");
+        dispatcher.notifyAboutTransfer(account, "dropped");
+
+        assertThat(dispatcher.getDropped()).isEqualTo(1);
+        release.countDown();
+        dispatcher.shutdown();
+        verify(notificationService, times(0)).notifyAboutTransfer(argThat(sameAs(account)), eq("dropped"));
+    }
+
+    @Test
+    public void overflowIsSpilledAndDeliveredLater() throws Exception {
+        accountsRepository.createAccount(account);
+        CountDownLatch release = blockDelivery();
+        NotificationDispatcher dispatcher = dispatcher(true, 1, "spill");
+
+        dispatcher.notifyAboutTransfer(account, "blocked");
+        verify(notificationService, timeout(1000)).notifyAboutTransfer(argThat(sameAs(account)), eq("blocked"));
+        dispatcher.notifyAboutTransfer(account, "queued");
+        dispatcher.notifyAboutTransfer(account, "spilled");
+
+        assertThat(dispatcher.getSpilled()).isEqualTo(1);
+        release.countDown();
+        verify(notificationService, timeout(2000)).notifyAboutTransfer(argThat(sameAs(account)), eq("spilled"));
+        dispatcher.shutdown();
+    }
+
+    @Test
+    public void queueDepthAndLagAreMetered() throws Exception {
+        CountDownLatch release = blockDelivery();
+        NotificationDispatcher dispatcher = dispatcher(true, 10, "block");
+        dispatcher.notifyAboutTransfer(account, "blocked");
+        verify(notificationService, timeout(1000)).notifyAboutTransfer(argThat(sameAs(account)), eq("blocked"));
+        dispatcher.notifyAboutTransfer(account, "queued");
+
+        assertThat(meterRegistry.find("notifications.queue.depth").gauge().value()).isEqualTo(1);
+        release.countDown();
+        verify(notificationService, timeout(1000)).notifyAboutTransfer(argThat(sameAs(account)), eq("queued"));
+        dispatcher.shutdown();
+        assertThat(meterRegistry.find("notifications.queue.depth").gauge().value()).isZero();
+        assertThat(meterRegistry.find("notifications.lag").gauge().value()).isEqualTo(dispatcher.getLagMillis());
+        assertThat(meterRegistry.find("notifications.delivered").functionCounter().count()).isEqualTo(2);
+    }
+
+    @Test
+    public void notificationsOfAnAccountAreDeliveredInOrder() throws Exception {
+        List<String> deliveries = Collections.synchronizedList(new ArrayList<>());
+        doAnswer(invocation -> {
+            Account delivered = (Account) invocation.getArguments()[0];
+            return deliveries.add(delivered.getAccountId() + ":" + invocation.getArguments()[1]);
+        }).when(notificationService).notifyAboutTransfer(any(Account.class), anyString());
+        NotificationDispatcher dispatcher = new NotificationDispatcher(notificationService, accountsRepository,
+                meterRegistry, true, 1000, 4, 3, "block", folder.newFolder().toPath().resolve("spill").toString());
+
+        for (int i = 0; i < 100; i++) {
+            for (int id = 0; id < 8; id++) {
+                dispatcher.notifyAboutTransfer(new Account("Id-" + id), String.valueOf(i));
+            }
+        }
+        dispatcher.shutdown();
+
+        assertThat(deliveries).hasSize(800);
+        int[] next = new int[8];
+        for (String delivery : deliveries) {
+            int id = Integer.parseInt(delivery.substring(3, delivery.indexOf(':')));
+            assertThat(delivery.substring(delivery.indexOf(':') + 1)).isEqualTo(String.valueOf(next[id]++));
+        }
+    }
+
+    @Test
+    public void notificationsCarryTheBalanceWhenQueued() throws Exception {
+        CountDownLatch release = blockDelivery();
+        NotificationDispatcher dispatcher = dispatcher(true, 10, "block");
+        dispatcher.notifyAboutTransfer(account, "blocked");
+        verify(notificationService, timeout(1000)).notifyAboutTransfer(argThat(sameAs(account)), eq("blocked"));
+
+        account.deposit(new BigDecimal("10"));
+        dispatcher.notifyAboutTransfer(account, "deposited");
+        Account queued = new Account(account.getAccountId(), account.getBalance());
+        account.deposit(new BigDecimal("5"));
+
+        release.countDown();
+        verify(notificationService, timeout(1000)).notifyAboutTransfer(argThat(sameAs(queued)), eq("deposited"));
+        dispatcher.shutdown();
+    }
+
+    private CountDownLatch blockDelivery() {
+        CountDownLatch release = new CountDownLatch(1);
+        doAnswer(invocation -> release.await(5, TimeUnit.SECONDS))
+                .when(notificationService).notifyAboutTransfer(argThat(sameAs(account)), eq("blocked"));
+        return release;
+    }
+
+    /**
+     * The dispatcher delivers copies of the accounts, so they are matched by id and balance.
+     */
+    private static ArgumentMatcher<Account> sameAs(Account account) {
+        final String accountId = account.getAccountId();
+        final BigDecimal balance = account.getBalance();
+        return new ArgumentMatcher<Account>() {
+            @Override
+            public boolean matches(Object argument) {
+                Account other = (Account) argument;
+                return other != null && other.getAccountId().equals(accountId)
+                        && other.getBalance().compareTo(balance) == 0;
+            }
+        };
+    }
+
+    private NotificationDispatcher dispatcher(boolean async, int capacity, String overflowPolicy) throws Exception {
+        return new NotificationDispatcher(notificationService, accountsRepository, meterRegistry, async, capacity,
+                1, 10, overflowPolicy, folder.newFolder().toPath().resolve("notifications.spill").toString());
+    }
+}
@@ -0,0 +1,66 @@
+package com.db.awmd.challenge;
+
+import com.db.awmd.challenge.service.PartitionRing;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PartitionRingTest {
+
+    private static final String NODES = "http://localhost:18080,http://localhost:18081,http://localhost:18082";
+    private static final int ACCOUNTS = 30_000;
+
+    @Test
+    public void spreadsAccountsEvenly() {
+        PartitionRing ring = new PartitionRing(NODES, 0, 128);
+        int[] counts = new int[ring.countNodes()];
+        for (int i = 0; i < ACCOUNTS; i++) {
+            counts[ring.ownerOf("Id-" + i)]++;
+        }
+        for (int count : counts) {
+            assertThat(count).isBetween(ACCOUNTS / 3 * 8 / 10, ACCOUNTS / 3 * 12 / 10);
+        }
+    }
+
+    @Test
+    public void sameOwnersWhateverTheOrderOfTheNodes() {
+        PartitionRing ring = new PartitionRing(NODES, 0, 128);
+        PartitionRing reordered = new PartitionRing(
+                "http://localhost:18082, http://localhost:18080, http://localhost:18081", 1, 128);
+        for (int i = 0; i < 1000; i++) {
+            String accountId = "Id-" + i;
+            assertThat(reordered.getNodeUrl(reordered.ownerOf(accountId)))
+                    .isEqualTo(ring.getNodeUrl(ring.ownerOf(accountId)));
+            assertThat(reordered.isLocal(accountId)).isEqualTo(ring.isLocal(accountId));
+        }
+    }
+
+    @Test
+    public void addingNodeOnlyMovesAccountsToIt() {
+        PartitionRing ring = new PartitionRing(NODES, 0, 128);
+        PartitionRing grown = new PartitionRing(NODES + ",http://localhost:18083", 0, 128);
+        int moved = 0;
+        for (int i = 0; i < ACCOUNTS; i++) {
+            String accountId = "Id-" + i;
+            String before = ring.getNodeUrl(ring.ownerOf(accountId));
+            String after = grown.getNodeUrl(grown.ownerOf(accountId));
+            if (!before.equals(after)) {
+                assertThat(after).isEqualTo("http://localhost:18083");
+                moved++;
+            }
+        }
+        assertThat(moved).isBetween(ACCOUNTS / 4 * 8 / 10, ACCOUNTS / 4 * 12 / 10);
+    }
+
+    @Test
+    public void everyAccountIsLocalWithoutNodes() {
+        PartitionRing ring = new PartitionRing("", 0, 128);
+        assertThat(ring.isEnabled()).isFalse();
+        assertThat(ring.isLocal("Id-1")).isTrue();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownNode() {
+        new PartitionRing(NODES, 3, 128);
+    }
+}
@@ -0,0 +1,205 @@
+package com.db.awmd.challenge;
+
+import com.db.awmd.challenge.service.PartitionClient;
+import com.db.awmd.challenge.service.PartitionRing;
+import com.db.awmd.challenge.service.PartitionTransfers;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.ServerSocket;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Runs two nodes in the same JVM, each on its own port, and talks to them over HTTP.
+ */
+public class PartitioningTest {
+
+    private static final String SECRET = "test-secret";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final TestRestTemplate restTemplate = new TestRestTemplate();
+    private final ConfigurableApplicationContext[] contexts = new ConfigurableApplicationContext[2];
+    private int[] ports;
+    private String nodes;
+    private String account0;
+    private String account1;
+
+    @Before
+    public void pickPorts() throws IOException {
+        ports = new int[]{freePort(), freePort()};
+        nodes = "http://localhost:" + ports[0] + ",http://localhost:" + ports[1];
+        PartitionRing ring = new PartitionRing(nodes, 0, 128);
+        for (int i = 0; account0 == null || account1 == null; i++) {
+            if (ring.isLocal("Id-" + i)) {
+                if (account0 == null) account0 = "Id-" + i;
+            } else if (account1 == null) {
+                account1 = "Id-" + i;
+            }
+        }
+    }
+
+    @After
+    public void closeContexts() {
+        for (ConfigurableApplicationContext context : contexts) {
+            if (context != null) context.close();
+        }
+    }
+
+    @Test
+    public void routesRequestsToTheNodeOfTheAccount() {
+        start(0, null);
+        start(1, null);
+
+        // Both created through node 0, balances read through node 1
+        assertThat(post(0, "/v1/accounts", "{\"accountId\":\"" + account0 + "\",\"balance\":100}").getStatusCode())
+                .isEqualTo(HttpStatus.CREATED);
+        assertThat(post(0, "/v1/accounts", "{\"accountId\":\"" + account1 + "\",\"balance\":10}").getStatusCode())
+                .isEqualTo(HttpStatus.CREATED);
+        assertThat(balance(1, account0)).isEqualByComparingTo("100");
+        assertThat(balance(1, account1)).isEqualByComparingTo("10");
+
+        ResponseEntity<String> transfer = post(1, "/v1/transfers",
+                "{\"accountFromId\":\"" + account0 + "\",\"accountToId\":\"" + account1 + "\",\"amount\":30.50}");
+        assertThat(transfer.getStatusCode()).isEqualTo(HttpStatus.CREATED);
+        assertThat(balance(0, account0)).isEqualByComparingTo("69.50");
+        assertThat(balance(0, account1)).isEqualByComparingTo("40.50");
+
+        ResponseEntity<String> back = post(0, "/v1/transfers",
+                "{\"accountFromId\":\"" + account1 + "\",\"accountToId\":\"" + account0 + "\",\"amount\":50}");
+        assertThat(back.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+        assertThat(back.getBody()).isEqualTo("Insufficient balance in account: " + account1);
+    }
+
+    @Test
+    public void refundsTransferToMissingAccountOfOtherNode() {
+        start(0, null);
+        start(1, null);
+        post(0, "/v1/accounts", "{\"accountId\":\"" + account0 + "\",\"balance\":100}");
+
+        ResponseEntity<String> transfer = post(0, "/v1/transfers",
+                "{\"accountFromId\":\"" + account0 + "\",\"accountToId\":\"" + account1 + "\",\"amount\":30}");
+
+        assertThat(transfer.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+        assertThat(transfer.getBody()).isEqualTo("Account not found: " + account1);
+        assertThat(balance(0, account0)).isEqualByComparingTo("100");
+        assertThat(contexts[0].getBean(PartitionTransfers.class).countInDoubt()).isZero();
+    }
+
+    @Test
+    public void refusesDepositsWithoutTheSecretOfTheNodes() {
+        start(0, null);
+        start(1, null);
+        post(0, "/v1/accounts", "{\"accountId\":\"" + account0 + "\",\"balance\":10}");
+        String deposit = "{\"id\":1,\"node\":1,\"resolvedBelow\":0,\"accountToId\":\"" + account0
+                + "\",\"amount\":1000000}";
+
+        assertThat(post(0, "/v1/partitions/transfers", deposit).getStatusCode()).isEqualTo(HttpStatus.FORBIDDEN);
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(PartitionClient.SECRET_HEADER, "guess");
+        assertThat(post(0, "/v1/partitions/transfers", deposit, headers).getStatusCode())
+                .isEqualTo(HttpStatus.FORBIDDEN);
+        // Only the other nodes can deposit
+        headers.set(PartitionClient.SECRET_HEADER, SECRET);
+        String fromItself = deposit.replace("\"node\":1", "\"node\":0");
+        assertThat(post(0, "/v1/partitions/transfers", fromItself, headers).getStatusCode())
+                .isEqualTo(HttpStatus.BAD_REQUEST);
+        String fromUnknownNode = deposit.replace("\"node\":1", "\"node\":7");
+        assertThat(post(0, "/v1/partitions/transfers", fromUnknownNode, headers).getStatusCode())
+                .isEqualTo(HttpStatus.BAD_REQUEST);
+        assertThat(balance(0, account0)).isEqualByComparingTo("10");
+    }
+
+    @Test
+    public void depositsTransferInDoubtAfterRestarts() throws Exception {
+        File journal0 = folder.newFolder("node0");
+        File journal1 = folder.newFolder("node1");
+        start(0, journal0);
+        start(1, journal1);
+        post(0, "/v1/accounts", "{\"accountId\":\"" + account0 + "\",\"balance\":100}");
+        post(0, "/v1/accounts", "{\"accountId\":\"" + account1 + "\",\"balance\":10}");
+
+        contexts[1].close();
+        ResponseEntity<String> transfer = post(0, "/v1/transfers",
+                "{\"accountFromId\":\"" + account0 + "\",\"accountToId\":\"" + account1 + "\",\"amount\":25}");
+        // Withdrawn, the deposit is retried until node 1 answers
+        assertThat(transfer.getStatusCode()).isEqualTo(HttpStatus.ACCEPTED);
+        assertThat(transfer.getBody()).contains("\"status\":\"PENDING\"");
+        String pending = transfer.getHeaders().getLocation().toString();
+        assertThat(pending).startsWith("/v1/accounts/" + account0 + "/transfers/pending/");
+        assertThat(status(0, pending)).isEqualTo("PENDING");
+        assertThat(balance(0, account0)).isEqualByComparingTo("75");
+        assertThat(contexts[0].getBean(PartitionTransfers.class).countInDoubt()).isEqualTo(1);
+
+        contexts[0].close();
+        start(0, journal0);
+        assertThat(balance(0, account0)).isEqualByComparingTo("75");
+        assertThat(contexts[0].getBean(PartitionTransfers.class).countInDoubt()).isEqualTo(1);
+
+        start(1, journal1);
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (contexts[0].getBean(PartitionTransfers.class).countInDoubt() > 0
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertThat(contexts[0].getBean(PartitionTransfers.class).countInDoubt()).isZero();
+        // Polled through the node of the other account
+        assertThat(status(1, pending)).isEqualTo("COMPLETED");
+        assertThat(balance(1, account1)).isEqualByComparingTo("35");
+        assertThat(balance(1, account0)).isEqualByComparingTo("75");
+    }
+
+    private void start(int node, File journal) {
+        contexts[node] = new SpringApplicationBuilder(DevChallengeApplication.class)
+                .run("--server.port=" + ports[node], "--partitioning.nodes=" + nodes, "--partitioning.node=" + node,
+                        "--partitioning.secret=" + SECRET, "--partitioning.retry-millis=50", "--partitioning.request-timeout-millis=1000",
+                        "--journal.enabled=" + (journal != null),
+                        "--journal.directory=" + (journal != null ? journal.getAbsolutePath() : "journal"),
+                        "--spring.jmx.enabled=false");
+    }
+
+    private ResponseEntity<String> post(int node, String path, String json) {
+        return post(node, path, json, new HttpHeaders());
+    }
+
+    private ResponseEntity<String> post(int node, String path, String json, HttpHeaders headers) {
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        return restTemplate.postForEntity("http://localhost:" + ports[node] + path, new HttpEntity<>(json, headers),
+                String.class);
+    }
+
+    @SuppressWarnings("unchecked")
+    private String status(int node, String path) {
+        return restTemplate.getForObject("http://localhost:" + ports[node] + path, Map.class).get("status").toString();
+    }
+
+    @SuppressWarnings("unchecked")
+    private BigDecimal balance(int node, String accountId) {
+        Map<String, Object> account = restTemplate.getForObject(
+                "http://localhost:" + ports[node] + "/v1/accounts/" + accountId, Map.class);
+        return new BigDecimal(account.get("balance").toString());
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
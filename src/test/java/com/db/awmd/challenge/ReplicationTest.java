@@ -0,0 +1,159 @@
+package com.db.awmd.challenge;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.Transfer;
+import com.db.awmd.challenge.service.AccountsService;
+import com.db.awmd.challenge.service.ReplicationFollower;
+import com.db.awmd.challenge.service.ReplicationPrimary;
+import com.db.awmd.challenge.service.TransfersService;
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.web.context.WebApplicationContext;
+
+import java.io.DataOutputStream;
+import java.math.BigDecimal;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+import static org.springframework.test.web.servlet.setup.MockMvcBuilders.webAppContextSetup;
+
+/**
+ * Runs a primary and a follower in the same JVM, connected through a local port.
+ */
+public class ReplicationTest {
+
+    private static final String SECRET = "test-secret";
+
+    private ConfigurableApplicationContext primary;
+    private ConfigurableApplicationContext follower;
+
+    @After
+    public void closeContexts() {
+        if (follower != null) follower.close();
+        if (primary != null) primary.close();
+    }
+
+    @Test
+    public void followerServesBalancesAcknowledgedSynchronously() throws Exception {
+        primary = startPrimary("sync");
+        AccountsService primaryAccounts = primary.getBean(AccountsService.class);
+        primaryAccounts.createAccount(new Account("Id-1", new BigDecimal("100.00")));
+
+        follower = startFollower();
+        awaitSynced();
+        primaryAccounts.createAccount(new Account("Id-2", new BigDecimal("5.00")));
+        primary.getBean(TransfersService.class).makeTransfer(new Transfer("Id-1", "Id-2", new BigDecimal("30.50")));
+
+        // Acknowledged by the follower before the transfer returned
+        MockMvc mockMvc = webAppContextSetup((WebApplicationContext) follower).build();
+        mockMvc.perform(get("/v1/accounts/Id-1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.balance").value(69.5));
+        mockMvc.perform(get("/v1/accounts/Id-2"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.balance").value(35.5));
+        mockMvc.perform(post("/v1/accounts").contentType(MediaType.APPLICATION_JSON)
+                .content("{\"accountId\":\"Id-3\",\"balance\":1000}"))
+                .andExpect(status().isForbidden());
+        assertThat(follower.getBean(AccountsService.class).getAccount("Id-3")).isNull();
+    }
+
+    @Test
+    public void followerConvergesWithConcurrentTransfers() throws Exception {
+        primary = startPrimary("async");
+        AccountsService primaryAccounts = primary.getBean(AccountsService.class);
+        TransfersService transfersService = primary.getBean(TransfersService.class);
+        for (int i = 0; i < 10; i++) {
+            primaryAccounts.createAccount(new Account("Id-" + i, new BigDecimal("1000")));
+        }
+
+        follower = startFollower();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        for (int i = 0; i < 2000; i++) {
+            final int from = i % 10;
+            final int to = (i * 7 + 3) % 10;
+            if (from == to) continue;
+            executor.execute(() -> transfersService.makeTransfer(
+                    new Transfer("Id-" + from, "Id-" + to, BigDecimal.ONE)));
+        }
+        executor.shutdown();
+        assertThat(executor.awaitTermination(30, TimeUnit.SECONDS)).isTrue();
+        awaitSynced();
+
+        AccountsService followerAccounts = follower.getBean(AccountsService.class);
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!sameBalances(primaryAccounts, followerAccounts) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(sameBalances(primaryAccounts, followerAccounts)).isTrue();
+    }
+
+    @Test
+    public void peerWithoutTheSecretGetsNoData() throws Exception {
+        primary = startPrimary("async");
+        primary.getBean(AccountsService.class).createAccount(new Account("Id-1", new BigDecimal("100.00")));
+
+        int port = primary.getBean(ReplicationPrimary.class).getPort();
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            socket.setSoTimeout(10_000);
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            // Header of the protocol, then a wrong secret
+            out.writeInt(0x52504C53);
+            out.writeInt(2);
+            out.writeUTF("guess");
+            out.flush();
+
+            assertThat(socket.getInputStream().read()).isEqualTo(-1);
+        }
+        assertThat(primary.getBean(ReplicationPrimary.class).countFollowers()).isZero();
+    }
+
+    private static boolean sameBalances(AccountsService primaryAccounts, AccountsService followerAccounts) {
+        for (int i = 0; i < 10; i++) {
+            Account account = followerAccounts.getAccount("Id-" + i);
+            if (account == null
+                    || account.getBalance().compareTo(primaryAccounts.getAccount("Id-" + i).getBalance()) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void awaitSynced() throws InterruptedException {
+        ReplicationFollower replicationFollower = follower.getBean(ReplicationFollower.class);
+        long deadline = System.currentTimeMillis() + 10_000;
+        while ((!replicationFollower.isSynced() || primary.getBean(ReplicationPrimary.class).countFollowers() == 0)
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(replicationFollower.isSynced()).isTrue();
+    }
+
+    private static ConfigurableApplicationContext startPrimary(String ack) {
+        return new SpringApplicationBuilder(DevChallengeApplication.class)
+                .web(false)
+                .run("--replication.role=primary", "--replication.port=0", "--replication.ack=" + ack,
+                        "--replication.sync-timeout-millis=10000", "--replication.secret=" + SECRET,
+                        "--spring.jmx.enabled=false");
+    }
+
+    private ConfigurableApplicationContext startFollower() {
+        return new SpringApplicationBuilder(DevChallengeApplication.class)
+                .run("--server.port=0", "--replication.role=follower",
+                        "--replication.primary-port=" + primary.getBean(ReplicationPrimary.class).getPort(),
+                        "--replication.reconnect-millis=100", "--replication.secret=" + SECRET,
+                        "--spring.jmx.enabled=false");
+    }
+}
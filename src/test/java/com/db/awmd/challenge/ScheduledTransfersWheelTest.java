@@ -0,0 +1,70 @@
+package com.db.awmd.challenge;
+
+import com.db.awmd.challenge.service.ScheduledTransfersWheel;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ScheduledTransfersWheelTest {
+
+    @Test
+    public void entriesAreDueAtTheirTickOnEveryLevel() {
+        long start = (1L << 32) - 100_000;
+        ScheduledTransfersWheel wheel = new ScheduledTransfersWheel(start);
+        Random random = new Random(42);
+        long[] dueTicks = new long[20_000];
+        for (int id = 0; id < dueTicks.length; id++) {
+            // Spread over the four levels, across the wrap around of the third one
+            dueTicks[id] = start + 1 + (random.nextInt(4) == 0 ? random.nextInt(1 << 24) : random.nextInt(300_000));
+            wheel.add(id, dueTicks[id], "Id-1", "Id-2", BigDecimal.ONE);
+        }
+
+        List<ScheduledTransfersWheel.Entry> due = new ArrayList<>();
+        long tick = start;
+        while (wheel.size() > 0) {
+            tick += 1 + random.nextInt(3);
+            wheel.advanceTo(tick, due);
+            for (ScheduledTransfersWheel.Entry entry : due) {
+                assertThat(entry.getDueTick()).isEqualTo(dueTicks[(int) entry.getId()]);
+                assertThat(entry.getDueTick()).isLessThanOrEqualTo(tick).isGreaterThan(tick - 3);
+            }
+            due.clear();
+        }
+    }
+
+    @Test
+    public void cancelledEntriesAreNotDue() {
+        ScheduledTransfersWheel wheel = new ScheduledTransfersWheel(0);
+        wheel.add(1, 10, "Id-1", "Id-2", new BigDecimal("1.50"));
+        wheel.add(2, 10, "Id-1", "Id-3", BigDecimal.TEN);
+        wheel.add(3, 70_000, "Id-1", "Id-3", BigDecimal.TEN);
+
+        assertThat(wheel.cancel(1)).isTrue();
+        assertThat(wheel.cancel(3)).isTrue();
+        assertThat(wheel.cancel(3)).isFalse();
+        assertThat(wheel.stream().collect(Collectors.toList())).extracting(ScheduledTransfersWheel.Entry::getId).containsExactly(2L);
+
+        List<ScheduledTransfersWheel.Entry> due = new ArrayList<>();
+        wheel.advanceTo(100_000, due);
+        assertThat(due).extracting(ScheduledTransfersWheel.Entry::getId).containsExactly(2L);
+        assertThat(due.get(0).toTransfer().getAccountToId()).isEqualTo("Id-3");
+        assertThat(wheel.size()).isZero();
+    }
+
+    @Test
+    public void overdueEntriesAreDueOnTheNextTick() {
+        ScheduledTransfersWheel wheel = new ScheduledTransfersWheel(1000);
+        wheel.add(7, 5, "Id-1", "Id-2", new BigDecimal("0.01"));
+
+        List<ScheduledTransfersWheel.Entry> due = new ArrayList<>();
+        wheel.advanceTo(1001, due);
+        assertThat(due).hasSize(1);
+        assertThat(due.get(0).getAmount()).isEqualTo(new BigDecimal("0.01"));
+    }
+}
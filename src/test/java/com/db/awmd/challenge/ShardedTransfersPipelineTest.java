@@ -0,0 +1,139 @@
+package com.db.awmd.challenge;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.Transfer;
+import com.db.awmd.challenge.exception.InsufficientBalanceException;
+import com.db.awmd.challenge.service.ShardedTransfersPipeline;
+import com.db.awmd.challenge.service.TransfersValidations;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+public class ShardedTransfersPipelineTest {
+
+    private static final int NUMBER_OF_ACCOUNTS = 64;
+    private static final BigDecimal INITIAL_BALANCE = BigDecimal.valueOf(1_000);
+
+    private ShardedTransfersPipeline pipeline;
+
+    @Before
+    public void startPipeline() {
+        pipeline = new ShardedTransfersPipeline(new TransfersValidations(), 4, 1024);
+    }
+
+    @After
+    public void stopPipeline() {
+        pipeline.shutdown();
+    }
+
+    @Test
+    public void transferIsCompleted() throws Exception {
+        Account accountFrom = new Account("Id-101", BigDecimal.valueOf(120));
+        Account accountTo = new Account("Id-102", BigDecimal.valueOf(50));
+
+        pipeline.submit(accountFrom, accountTo, new Transfer("Id-101", "Id-102", BigDecimal.TEN))
+                .get(10, TimeUnit.SECONDS);
+
+        assertThat(accountFrom.getBalance()).isEqualByComparingTo(BigDecimal.valueOf(110));
+        assertThat(accountTo.getBalance()).isEqualByComparingTo(BigDecimal.valueOf(60));
+    }
+
+    @Test
+    public void insufficientBalanceFailsTheFuture() throws Exception {
+        Account accountFrom = new Account("Id-101", BigDecimal.valueOf(5));
+        Account accountTo = new Account("Id-102");
+
+        try {
+            pipeline.submit(accountFrom, accountTo, new Transfer("Id-101", "Id-102", BigDecimal.TEN))
+                    .get(10, TimeUnit.SECONDS);
+            fail("Should have failed when trying to transfer and amount higher than existing balance.");
+        } catch (ExecutionException ee) {
+            assertThat(ee.getCause()).isInstanceOf(InsufficientBalanceException.class);
+        }
+        assertThat(accountFrom.getBalance()).isEqualByComparingTo(BigDecimal.valueOf(5));
+        assertThat(accountTo.getBalance()).isEqualByComparingTo(BigDecimal.ZERO);
+    }
+
+    @Test
+    public void shutdownCompletesEveryTransfer() throws Exception {
+        Account[] accounts = new Account[NUMBER_OF_ACCOUNTS];
+        for (int i = 0; i < NUMBER_OF_ACCOUNTS; i++) {
+            accounts[i] = new Account("Id-" + i, INITIAL_BALANCE);
+        }
+        List<CompletableFuture<Void>> results = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            Account from = accounts[i % NUMBER_OF_ACCOUNTS];
+            Account to = accounts[(i * 7 + 1) % NUMBER_OF_ACCOUNTS];
+            if (from == to) continue;
+            results.add(pipeline.submit(from, to, new Transfer(from.getAccountId(), to.getAccountId(), BigDecimal.ONE)));
+        }
+
+        pipeline.shutdown();
+
+        for (CompletableFuture<Void> result : results) {
+            assertThat(result.isDone()).isTrue();
+        }
+        try {
+            pipeline.submit(accounts[0], accounts[1], new Transfer("Id-0", "Id-1", BigDecimal.ONE))
+                    .get(10, TimeUnit.SECONDS);
+            fail("Should have failed when submitting a transfer after the shutdown.");
+        } catch (ExecutionException ee) {
+            assertThat(ee.getCause()).isInstanceOf(IllegalStateException.class);
+        }
+        BigDecimal total = BigDecimal.ZERO;
+        for (Account account : accounts) {
+            total = total.add(account.getBalance());
+        }
+        assertThat(total).isEqualByComparingTo(INITIAL_BALANCE.multiply(BigDecimal.valueOf(NUMBER_OF_ACCOUNTS)));
+    }
+
+    @Test
+    public void randomConcurrentTransfersKeepTotalBalance() throws Exception {
+        Account[] accounts = new Account[NUMBER_OF_ACCOUNTS];
+        for (int i = 0; i < NUMBER_OF_ACCOUNTS; i++) {
+            accounts[i] = new Account("Id-" + i, INITIAL_BALANCE);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<?>> producers = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            producers.add(executor.submit(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                List<CompletableFuture<Void>> results = new ArrayList<>();
+                for (int i = 0; i < 50_000; i++) {
+                    int from = random.nextInt(NUMBER_OF_ACCOUNTS);
+                    int to = (from + 1 + random.nextInt(NUMBER_OF_ACCOUNTS - 1)) % NUMBER_OF_ACCOUNTS;
+                    Transfer transfer = new Transfer(accounts[from].getAccountId(), accounts[to].getAccountId(),
+                            BigDecimal.valueOf(1 + random.nextInt(100)));
+                    results.add(pipeline.submit(accounts[from], accounts[to], transfer).exceptionally(e -> null));
+                }
+                return CompletableFuture.allOf(results.toArray(new CompletableFuture[0])).get(1, TimeUnit.MINUTES);
+            }));
+        }
+        for (Future<?> producer : producers) {
+            producer.get(2, TimeUnit.MINUTES);
+        }
+        executor.shutdown();
+
+        BigDecimal total = BigDecimal.ZERO;
+        for (Account account : accounts) {
+            assertThat(account.getBalance()).isGreaterThanOrEqualTo(BigDecimal.ZERO);
+            total = total.add(account.getBalance());
+        }
+        assertThat(total).isEqualByComparingTo(INITIAL_BALANCE.multiply(BigDecimal.valueOf(NUMBER_OF_ACCOUNTS)));
+    }
+}
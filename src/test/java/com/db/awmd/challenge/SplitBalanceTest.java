@@ -0,0 +1,114 @@
+package com.db.awmd.challenge;
+
+import com.db.awmd.challenge.domain.SplitBalance;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SplitBalanceTest {
+
+    @Test
+    public void balanceIsTheSumOfTheSubBalances() throws InterruptedException {
+        SplitBalance balance = new SplitBalance(new BigDecimal("100.50"), 2, 4);
+
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 10_000; i++) {
+                    balance.deposit(new BigDecimal("0.01"));
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertThat(balance.getSplits()).isEqualTo(4);
+        assertThat(balance.get()).isEqualTo(new BigDecimal("900.50"));
+    }
+
+    @Test
+    public void withdrawalDrawsFromEverySubBalance() throws InterruptedException {
+        SplitBalance balance = new SplitBalance(BigDecimal.TEN, 2, 16);
+        Thread depositor = new Thread(() -> balance.deposit(BigDecimal.TEN));
+        depositor.start();
+        depositor.join();
+
+        assertThat(balance.covers(new BigDecimal("20.00"))).isTrue();
+        assertThat(balance.covers(new BigDecimal("20.01"))).isFalse();
+
+        balance.withdraw(new BigDecimal("15.25"));
+        assertThat(balance.getMinorUnits()).isEqualTo(475);
+    }
+
+    @Test
+    public void readsNeverSeeAnUpdateHalfDone() throws Exception {
+        final BigDecimal total = new BigDecimal("16.00");
+        // Many sub-balances, so that resetting them takes long enough for the reader to run in the middle
+        final SplitBalance balance = new SplitBalance(BigDecimal.ZERO, 2, 1 << 16);
+        final ExecutorService depositors = Executors.newFixedThreadPool(16);
+        final AtomicInteger resetting = new AtomicInteger(-1);
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final List<BigDecimal> tornReads = new ArrayList<>();
+
+        Thread reader = new Thread(() -> {
+            while (running.get()) {
+                int before = resetting.get();
+                BigDecimal read = balance.get();
+                if (before >= 0 && resetting.get() == before && read.compareTo(total) != 0) {
+                    tornReads.add(read);
+                }
+            }
+        });
+        reader.start();
+        try {
+            for (int round = 0; round < 200; round++) {
+                List<Future<?>> deposits = new ArrayList<>();
+                for (int i = 0; i < 16; i++) {
+                    deposits.add(depositors.submit(() -> balance.deposit(BigDecimal.ONE)));
+                }
+                for (Future<?> deposit : deposits) {
+                    deposit.get();
+                }
+
+                // The balance is spread over the sub-balances of the depositors, and set moves it to the first one
+                resetting.set(round);
+                balance.set(total);
+                resetting.set(-1);
+                balance.withdraw(total);
+            }
+        } finally {
+            running.set(false);
+            reader.join();
+            depositors.shutdown();
+        }
+
+        assertThat(tornReads).isEmpty();
+    }
+
+    @Test
+    public void withdrawalNotCoveredLeavesExactNegativeBalance() {
+        SplitBalance balance = new SplitBalance(BigDecimal.ONE, 2, 4);
+        balance.withdraw(new BigDecimal("1.50"));
+
+        assertThat(balance.get()).isEqualTo(new BigDecimal("-0.50"));
+    }
+
+    @Test
+    public void amountWithTooManyDecimalsIsNotSupported() {
+        SplitBalance balance = new SplitBalance(BigDecimal.ONE, 2, 4);
+
+        assertThat(balance.supports(new BigDecimal("0.01"))).isTrue();
+        assertThat(balance.supports(new BigDecimal("0.001"))).isFalse();
+    }
+}
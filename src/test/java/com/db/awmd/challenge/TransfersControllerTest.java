@@ -4,6 +4,7 @@ import com.db.awmd.challenge.domain.Account;
 import com.db.awmd.challenge.domain.Transfer;
 import com.db.awmd.challenge.repository.AccountsRepository;
 import com.db.awmd.challenge.service.AccountsService;
+import com.db.awmd.challenge.service.TransfersRateLimiter;
 import com.db.awmd.challenge.service.TransfersService;
 import org.junit.After;
 import org.junit.Before;
@@ -17,18 +18,28 @@ import org.springframework.http.MediaType;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.context.web.WebAppConfiguration;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.ResultActions;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
 import org.springframework.web.context.WebApplicationContext;
 
 import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 import static org.springframework.test.web.servlet.setup.MockMvcBuilders.webAppContextSetup;
 
 @RunWith(SpringRunner.class)
-@SpringBootTest
+@SpringBootTest(properties = "transfers.batch.max-size=16")
 @WebAppConfiguration
 public class TransfersControllerTest {
     private final String accountFromId = "Id-101";
@@ -47,6 +58,9 @@ public class TransfersControllerTest {
     @SpyBean
     private TransfersService transfersService;
 
+    @SpyBean
+    private TransfersRateLimiter transfersRateLimiter;
+
     @Autowired
     private WebApplicationContext webApplicationContext;
 
@@ -66,12 +80,12 @@ public class TransfersControllerTest {
     @Test
     public void makeOKTransfer() throws Exception {
         BigDecimal amount = BigDecimal.valueOf(25);
-        this.mockMvc.perform(post("/v1/transfers").contentType(MediaType.APPLICATION_JSON)
+        performAsync(post("/v1/transfers").contentType(MediaType.APPLICATION_JSON)
                         .content("{\"accountFromId\":\"" + accountFromId + "\",\"accountToId\":\"" + accountToId + "\",\"amount\":" + amount + "}"))
                 .andExpect(status().isCreated());
 
         Transfer transfer = new Transfer(accountFromId, accountToId, amount);
-        Mockito.verify(transfersService).makeTransfer(transfer);
+        Mockito.verify(transfersService).makeTransferAsync(transfer);
 
         assertThat(accountFrom.getBalance()).isEqualTo(initialBalanceAccountFrom.subtract(amount));
         assertThat(accountTo.getBalance()).isEqualByComparingTo(initialBalanceAccountTo.add(amount));
@@ -81,31 +95,31 @@ public class TransfersControllerTest {
     public void transferFailsWithAccountNotFoundException() throws Exception {
         String nonExistingAccountId = "Id-999";
         BigDecimal amount = BigDecimal.valueOf(25);
-        this.mockMvc.perform(post("/v1/transfers").contentType(MediaType.APPLICATION_JSON)
+        performAsync(post("/v1/transfers").contentType(MediaType.APPLICATION_JSON)
                         .content("{\"accountFromId\":\"" + nonExistingAccountId + "\",\"accountToId\":\"" + accountToId + "\",\"amount\":" + amount + "}"))
                 .andExpect(status().isBadRequest())
                 .andExpect(content().string("Account not found: " + nonExistingAccountId));
 
         Transfer transfer = new Transfer(nonExistingAccountId, accountToId, amount);
-        Mockito.verify(transfersService).makeTransfer(transfer);
+        Mockito.verify(transfersService).makeTransferAsync(transfer);
     }
 
     @Test
     public void transferFailsWithInsufficientBalanceException() throws Exception {
         BigDecimal amount = BigDecimal.valueOf(10000);
-        this.mockMvc.perform(post("/v1/transfers").contentType(MediaType.APPLICATION_JSON)
+        performAsync(post("/v1/transfers").contentType(MediaType.APPLICATION_JSON)
                         .content("{\"accountFromId\":\"" + accountFromId + "\",\"accountToId\":\"" + accountToId + "\",\"amount\":" + amount + "}"))
                 .andExpect(status().isBadRequest())
                 .andExpect(content().string("Insufficient balance in account: " + accountFromId));
 
         Transfer transfer = new Transfer(accountFromId, accountToId, amount);
-        Mockito.verify(transfersService).makeTransfer(transfer);
+        Mockito.verify(transfersService).makeTransferAsync(transfer);
     }
 
     @Test
     public void transferFailsWithInvalidTransferExceptionForNegativeAmount() throws Exception {
         BigDecimal amount = BigDecimal.valueOf(-5);
-        this.mockMvc.perform(post("/v1/transfers").contentType(MediaType.APPLICATION_JSON)
+        performAsync(post("/v1/transfers").contentType(MediaType.APPLICATION_JSON)
                         .content("{\"accountFromId\":\"" + accountFromId + "\",\"accountToId\":\"" + accountToId + "\",\"amount\":" + amount + "}"))
                 .andExpect(status().isBadRequest());
     }
@@ -113,12 +127,169 @@ public class TransfersControllerTest {
     @Test
     public void transferFailsWithInvalidTransferExceptionForSameAccount() throws Exception {
         BigDecimal amount = BigDecimal.valueOf(5);
-        this.mockMvc.perform(post("/v1/transfers").contentType(MediaType.APPLICATION_JSON)
+        performAsync(post("/v1/transfers").contentType(MediaType.APPLICATION_JSON)
                         .content("{\"accountFromId\":\"" + accountFromId + "\",\"accountToId\":\"" + accountFromId + "\",\"amount\":" + amount + "}"))
                 .andExpect(status().isBadRequest())
                 .andExpect(content().string("Origin account is equals to target account"));
 
         Transfer transfer = new Transfer(accountFromId, accountFromId, amount);
-        Mockito.verify(transfersService).makeTransfer(transfer);
+        Mockito.verify(transfersService).makeTransferAsync(transfer);
+    }
+
+    @Test
+    public void retryWithIdempotencyKeyIsNotAppliedAgain() throws Exception {
+        String content = "{\"accountFromId\":\"" + accountFromId + "\",\"accountToId\":\"" + accountToId + "\",\"amount\":25}";
+        for (int i = 0; i < 3; i++) {
+            performAsync(post("/v1/transfers").contentType(MediaType.APPLICATION_JSON)
+                            .header("Idempotency-Key", "retried-transfer").content(content))
+                    .andExpect(status().isCreated());
+        }
+
+        Mockito.verify(transfersService, Mockito.times(1)).makeTransferAsync(new Transfer(accountFromId, accountToId, BigDecimal.valueOf(25)), true);
+        assertThat(accountFrom.getBalance()).isEqualByComparingTo(initialBalanceAccountFrom.subtract(BigDecimal.valueOf(25)));
+        assertThat(accountTo.getBalance()).isEqualByComparingTo(initialBalanceAccountTo.add(BigDecimal.valueOf(25)));
+
+        this.mockMvc.perform(get("/prometheus"))
+                .andExpect(content().string(containsString("cache_gets_total{cache=\"transfers.idempotency\",result=\"hit\",}")));
+    }
+
+    @Test
+    public void idempotencyKeyReusedForAnotherTransferIsRejected() throws Exception {
+        performAsync(post("/v1/transfers").contentType(MediaType.APPLICATION_JSON).header("Idempotency-Key", "reused-key")
+                        .content("{\"accountFromId\":\"" + accountFromId + "\",\"accountToId\":\"" + accountToId + "\",\"amount\":25}"))
+                .andExpect(status().isCreated());
+
+        performAsync(post("/v1/transfers").contentType(MediaType.APPLICATION_JSON).header("Idempotency-Key", "reused-key")
+                        .content("{\"accountFromId\":\"" + accountFromId + "\",\"accountToId\":\"" + accountToId + "\",\"amount\":30}"))
+                .andExpect(status().isBadRequest())
+                .andExpect(content().string("Idempotency key reused-key was used for another transfer"));
+
+        assertThat(accountFrom.getBalance()).isEqualByComparingTo(initialBalanceAccountFrom.subtract(BigDecimal.valueOf(25)));
+    }
+
+    @Test
+    public void makeBatchOfTransfers() throws Exception {
+        this.mockMvc.perform(post("/v1/transfers/batch").contentType(MediaType.APPLICATION_JSON)
+                        .content("[{\"accountFromId\":\"" + accountFromId + "\",\"accountToId\":\"" + accountToId + "\",\"amount\":20},"
+                                + "{\"accountFromId\":\"" + accountFromId + "\",\"accountToId\":\"" + accountToId + "\",\"amount\":200}]"))
+                .andExpect(status().isOk())
+                .andExpect(content().json("[{\"status\":\"COMPLETED\"},"
+                        + "{\"status\":\"REJECTED\",\"message\":\"Insufficient balance in account: " + accountFromId + "\"}]"));
+
+        assertThat(accountFrom.getBalance()).isEqualByComparingTo(initialBalanceAccountFrom.subtract(BigDecimal.valueOf(20)));
+        assertThat(accountTo.getBalance()).isEqualByComparingTo(initialBalanceAccountTo.add(BigDecimal.valueOf(20)));
+    }
+
+    @Test
+    public void makeAtomicBatchOfTransfersFails() throws Exception {
+        this.mockMvc.perform(post("/v1/transfers/batch?atomic=true").contentType(MediaType.APPLICATION_JSON)
+                        .content("[{\"accountFromId\":\"" + accountFromId + "\",\"accountToId\":\"" + accountToId + "\",\"amount\":20},"
+                                + "{\"accountFromId\":\"" + accountFromId + "\",\"accountToId\":\"" + accountToId + "\"}]"))
+                .andExpect(status().isBadRequest())
+                .andExpect(content().json("[{\"status\":\"ABORTED\"},{\"status\":\"REJECTED\"}]"));
+
+        assertThat(accountFrom.getBalance()).isEqualByComparingTo(initialBalanceAccountFrom);
+        assertThat(accountTo.getBalance()).isEqualByComparingTo(initialBalanceAccountTo);
+    }
+
+    @Test
+    public void batchOverTheMaximumSizeIsRejected() throws Exception {
+        StringBuilder content = new StringBuilder("[");
+        for (int i = 0; i <= 16; i++) {
+            if (i > 0) content.append(',');
+            content.append("{\"accountFromId\":\"").append(accountFromId).append("\",\"accountToId\":\"")
+                    .append(accountToId).append("\",\"amount\":1}");
+        }
+        this.mockMvc.perform(post("/v1/transfers/batch?atomic=true").contentType(MediaType.APPLICATION_JSON)
+                        .content(content.append(']').toString()))
+                .andExpect(status().isBadRequest())
+                .andExpect(content().string("Batch has more than 16 transfers"));
+
+        assertThat(accountFrom.getBalance()).isEqualByComparingTo(initialBalanceAccountFrom);
+    }
+
+    @Test
+    public void metricsAreExportedForPrometheus() throws Exception {
+        performAsync(post("/v1/transfers").contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"accountFromId\":\"" + accountFromId + "\",\"accountToId\":\"" + accountToId + "\",\"amount\":1000}"))
+                .andExpect(status().isBadRequest());
+
+        this.mockMvc.perform(get("/prometheus"))
+                .andExpect(status().isOk())
+                .andExpect(content().string(containsString("transfers_rejected_total{reason=\"InsufficientBalanceException\",}")))
+                .andExpect(content().string(containsString("transfers_execution_seconds{quantile=\"0.99\",}")))
+                .andExpect(content().string(containsString("accounts_lock_wait_seconds_count")))
+                .andExpect(content().string(containsString("accounts_count 2.0")));
+    }
+
+    @Test
+    public void sensitiveActuatorEndpointsRequireAuthentication() throws Exception {
+        this.mockMvc.perform(get("/env")).andExpect(status().isUnauthorized());
+        this.mockMvc.perform(get("/heapdump")).andExpect(status().isUnauthorized());
+    }
+
+    @Test
+    public void transferOverTheRateLimitIsRefusedWithRetryAfter() throws Exception {
+        Mockito.doReturn(TimeUnit.MILLISECONDS.toNanos(1500)).when(transfersRateLimiter).tryAcquire(accountFromId);
+
+        performAsync(post("/v1/transfers").contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"accountFromId\":\"" + accountFromId + "\",\"accountToId\":\"" + accountToId + "\",\"amount\":25}"))
+                .andExpect(status().isTooManyRequests())
+                .andExpect(header().string("Retry-After", "2"));
+
+        Mockito.verify(transfersService, Mockito.never()).makeTransferAsync(Mockito.any(Transfer.class));
+        assertThat(accountFrom.getBalance()).isEqualTo(initialBalanceAccountFrom);
+    }
+
+    @Test
+    public void makeMultiLegTransfer() throws Exception {
+        accountsRepository.createAccount(new Account("Id-103"));
+        this.mockMvc.perform(post("/v1/transfers/multi-leg").contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"legs\":[{\"accountId\":\"" + accountFromId + "\",\"side\":\"DEBIT\",\"amount\":30},"
+                                + "{\"accountId\":\"" + accountToId + "\",\"side\":\"CREDIT\",\"amount\":29},"
+                                + "{\"accountId\":\"Id-103\",\"side\":\"CREDIT\",\"amount\":1}]}"))
+                .andExpect(status().isCreated());
+
+        assertThat(accountFrom.getBalance()).isEqualByComparingTo(initialBalanceAccountFrom.subtract(BigDecimal.valueOf(30)));
+        assertThat(accountTo.getBalance()).isEqualByComparingTo(initialBalanceAccountTo.add(BigDecimal.valueOf(29)));
+        assertThat(accountsRepository.getAccount("Id-103").getBalance()).isEqualByComparingTo(BigDecimal.ONE);
+    }
+
+    @Test
+    public void multiLegTransferWithUnbalancedLegsFails() throws Exception {
+        this.mockMvc.perform(post("/v1/transfers/multi-leg").contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"legs\":[{\"accountId\":\"" + accountFromId + "\",\"side\":\"DEBIT\",\"amount\":30},"
+                                + "{\"accountId\":\"" + accountToId + "\",\"side\":\"CREDIT\",\"amount\":20}]}"))
+                .andExpect(status().isBadRequest())
+                .andExpect(content().string("Debits 30 do not equal credits 20"));
+
+        assertThat(accountFrom.getBalance()).isEqualByComparingTo(initialBalanceAccountFrom);
+        assertThat(accountTo.getBalance()).isEqualByComparingTo(initialBalanceAccountTo);
+    }
+
+    @Test
+    public void scheduleAndCancelTransfer() throws Exception {
+        long executeAt = System.currentTimeMillis() + TimeUnit.DAYS.toMillis(1);
+        MvcResult result = this.mockMvc.perform(post("/v1/transfers/scheduled").contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"accountFromId\":\"" + accountFromId + "\",\"accountToId\":\"" + accountToId
+                                + "\",\"amount\":25,\"executeAt\":" + executeAt + "}"))
+                .andExpect(status().isCreated())
+                .andExpect(jsonPath("$.executeAt").value(executeAt))
+                .andReturn();
+        String id = result.getResponse().getContentAsString().replaceAll(".*\"id\":(\\d+).*", "$1");
+
+        this.mockMvc.perform(delete("/v1/transfers/scheduled/" + id))
+                .andExpect(status().isNoContent());
+        this.mockMvc.perform(delete("/v1/transfers/scheduled/" + id))
+                .andExpect(status().isNotFound());
+    }
+
+    /**
+     * Transfers are answered asynchronously, unless the request is rejected before reaching the controller.
+     */
+    private ResultActions performAsync(MockHttpServletRequestBuilder request) throws Exception {
+        ResultActions actions = this.mockMvc.perform(request);
+        MvcResult result = actions.andReturn();
+        return result.getRequest().isAsyncStarted() ? this.mockMvc.perform(asyncDispatch(result)) : actions;
     }
 }
@@ -0,0 +1,204 @@
+package com.db.awmd.challenge;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.SplitBalance;
+import com.db.awmd.challenge.domain.Transfer;
+import com.db.awmd.challenge.exception.InsufficientBalanceException;
+import com.db.awmd.challenge.exception.JournalException;
+import com.db.awmd.challenge.repository.AccountsRepositoryInMemory;
+import com.db.awmd.challenge.repository.AccountsSnapshotStore;
+import com.db.awmd.challenge.repository.TransfersJournal;
+import com.db.awmd.challenge.service.AccountsLockTable;
+import com.db.awmd.challenge.service.AccountsSnapshotter;
+import com.db.awmd.challenge.service.TransfersEngine;
+import com.db.awmd.challenge.service.TransfersMetrics;
+import com.db.awmd.challenge.service.TransfersValidations;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class TransfersEngineTest {
+
+    private static final int NUMBER_OF_ACCOUNTS = 16;
+    private static final int NUMBER_OF_THREADS = 8;
+    private static final int TRANSFERS_PER_THREAD = 250_000;
+    private static final BigDecimal INITIAL_BALANCE = BigDecimal.valueOf(1_000);
+
+    @Autowired
+    private TransfersEngine transfersEngine;
+
+    @Test
+    public void oppositeTransfersDoNotDeadlock() throws InterruptedException {
+        Account account1 = new Account("Id-101", BigDecimal.valueOf(100));
+        Account account2 = new Account("Id-102", BigDecimal.valueOf(100));
+        Transfer transfer1 = new Transfer(account1.getAccountId(), account2.getAccountId(), BigDecimal.ONE);
+        Transfer transfer2 = new Transfer(account2.getAccountId(), account1.getAccountId(), BigDecimal.ONE);
+
+        Thread th1 = new Thread(() -> {
+            for (int i = 0; i < 100_000; i++) {
+                executeIgnoringRejection(account1, account2, transfer1);
+            }
+        });
+        Thread th2 = new Thread(() -> {
+            for (int i = 0; i < 100_000; i++) {
+                executeIgnoringRejection(account2, account1, transfer2);
+            }
+        });
+        th1.start();
+        th2.start();
+        th1.join(TimeUnit.SECONDS.toMillis(60));
+        th2.join(TimeUnit.SECONDS.toMillis(60));
+
+        assertNoDeadlock();
+        assertThat(account1.getBalance().add(account2.getBalance())).isEqualByComparingTo(BigDecimal.valueOf(200));
+    }
+
+    @Test
+    public void transferRefusedByTheJournalIsReverted() {
+        AccountsRepositoryInMemory accountsRepository = new AccountsRepositoryInMemory();
+        AccountsLockTable accountsLockTable = new AccountsLockTable(16);
+        // Enabled but never opened, so every append is refused
+        TransfersJournal journal = new TransfersJournal(true, "journal", "never", 1024, 0);
+        AccountsSnapshotter accountsSnapshotter = new AccountsSnapshotter(accountsRepository, accountsLockTable,
+                journal, new AccountsSnapshotStore(false, "journal"), 0, "synchronous", "standalone");
+        TransfersEngine engine = new TransfersEngine(new TransfersValidations(), journal, accountsLockTable,
+                accountsSnapshotter, new TransfersMetrics(new SimpleMeterRegistry(), accountsRepository), 16);
+        Account accountFrom = new Account("Id-101", BigDecimal.valueOf(10));
+        Account accountTo = new Account("Id-102");
+
+        try {
+            engine.execute(accountFrom, accountTo, new Transfer("Id-101", "Id-102", BigDecimal.ONE));
+            fail("Should have failed when the journal is not open.");
+        } catch (JournalException je) {
+            assertThat(je.getMessage()).isEqualTo("Journal is not open");
+        }
+
+        assertThat(accountFrom.getBalance()).isEqualByComparingTo(BigDecimal.valueOf(10));
+        assertThat(accountTo.getBalance()).isEqualByComparingTo(BigDecimal.ZERO);
+    }
+
+    @Test
+    public void insufficientBalanceIsCheckedInsideTheLock() {
+        Account accountFrom = new Account("Id-101", BigDecimal.valueOf(10));
+        Account accountTo = new Account("Id-102");
+        Transfer transfer = new Transfer(accountFrom.getAccountId(), accountTo.getAccountId(), BigDecimal.valueOf(11));
+
+        try {
+            transfersEngine.execute(accountFrom, accountTo, transfer);
+            fail("Should have failed when trying to transfer and amount higher than existing balance.");
+        } catch (InsufficientBalanceException ibe) {
+            assertThat(ibe.getMessage()).isEqualTo("Insufficient balance in account: " + accountFrom.getAccountId());
+        }
+
+        assertThat(accountFrom.getBalance()).isEqualByComparingTo(BigDecimal.valueOf(10));
+        assertThat(accountTo.getBalance()).isEqualByComparingTo(BigDecimal.ZERO);
+    }
+
+    @Test
+    public void randomConcurrentTransfersKeepTotalBalance() throws InterruptedException {
+        Account[] accounts = new Account[NUMBER_OF_ACCOUNTS];
+        for (int i = 0; i < NUMBER_OF_ACCOUNTS; i++) {
+            accounts[i] = new Account("Id-" + i, INITIAL_BALANCE);
+        }
+        AtomicLong rejectedTransfers = new AtomicLong();
+
+        ExecutorService executor = Executors.newFixedThreadPool(NUMBER_OF_THREADS);
+        for (int t = 0; t < NUMBER_OF_THREADS; t++) {
+            executor.execute(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < TRANSFERS_PER_THREAD; i++) {
+                    int from = random.nextInt(NUMBER_OF_ACCOUNTS);
+                    int to = (from + 1 + random.nextInt(NUMBER_OF_ACCOUNTS - 1)) % NUMBER_OF_ACCOUNTS;
+                    Transfer transfer = new Transfer(accounts[from].getAccountId(), accounts[to].getAccountId(),
+                            BigDecimal.valueOf(1 + random.nextInt(100)));
+                    try {
+                        transfersEngine.execute(accounts[from], accounts[to], transfer);
+                    } catch (InsufficientBalanceException ibe) {
+                        rejectedTransfers.incrementAndGet();
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        if (!executor.awaitTermination(5, TimeUnit.MINUTES)) {
+            assertNoDeadlock();
+            fail("Transfers did not finish in time");
+        }
+
+        BigDecimal total = BigDecimal.ZERO;
+        for (Account account : accounts) {
+            assertThat(account.getBalance()).isGreaterThanOrEqualTo(BigDecimal.ZERO);
+            total = total.add(account.getBalance());
+        }
+        assertThat(total).isEqualByComparingTo(INITIAL_BALANCE.multiply(BigDecimal.valueOf(NUMBER_OF_ACCOUNTS)));
+        assertThat(rejectedTransfers.get()).isLessThan((long) NUMBER_OF_THREADS * TRANSFERS_PER_THREAD);
+    }
+
+    @Test
+    public void hotAccountKeepsTotalBalanceWithLockFreeDeposits() throws InterruptedException {
+        Account hotAccount = new Account("Id-Hot", new SplitBalance(INITIAL_BALANCE, 2, NUMBER_OF_THREADS));
+        Account[] accounts = new Account[NUMBER_OF_ACCOUNTS];
+        for (int i = 0; i < NUMBER_OF_ACCOUNTS; i++) {
+            accounts[i] = new Account("Id-" + i, INITIAL_BALANCE);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(NUMBER_OF_THREADS);
+        for (int t = 0; t < NUMBER_OF_THREADS; t++) {
+            executor.execute(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < TRANSFERS_PER_THREAD / 10; i++) {
+                    Account other = accounts[random.nextInt(NUMBER_OF_ACCOUNTS)];
+                    BigDecimal amount = BigDecimal.valueOf(1 + random.nextInt(100));
+                    if (random.nextBoolean()) {
+                        executeIgnoringRejection(other, hotAccount,
+                                new Transfer(other.getAccountId(), hotAccount.getAccountId(), amount));
+                    } else {
+                        executeIgnoringRejection(hotAccount, other,
+                                new Transfer(hotAccount.getAccountId(), other.getAccountId(), amount));
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        if (!executor.awaitTermination(5, TimeUnit.MINUTES)) {
+            assertNoDeadlock();
+            fail("Transfers did not finish in time");
+        }
+
+        BigDecimal total = hotAccount.getBalance();
+        assertThat(total).isGreaterThanOrEqualTo(BigDecimal.ZERO);
+        for (Account account : accounts) {
+            assertThat(account.getBalance()).isGreaterThanOrEqualTo(BigDecimal.ZERO);
+            total = total.add(account.getBalance());
+        }
+        assertThat(total).isEqualByComparingTo(INITIAL_BALANCE.multiply(BigDecimal.valueOf(NUMBER_OF_ACCOUNTS + 1)));
+    }
+
+    private void executeIgnoringRejection(Account accountFrom, Account accountTo, Transfer transfer) {
+        try {
+            transfersEngine.execute(accountFrom, accountTo, transfer);
+        } catch (InsufficientBalanceException ibe) {
+            // Expected when the random walk empties one of the accounts
+        }
+    }
+
+    private void assertNoDeadlock() {
+        assertThat(ManagementFactory.getThreadMXBean().findDeadlockedThreads()).isNull();
+    }
+}
@@ -0,0 +1,129 @@
+package com.db.awmd.challenge;
+
+import com.db.awmd.challenge.domain.AccountHistoryEntry;
+import com.db.awmd.challenge.domain.AccountHistoryPage;
+import com.db.awmd.challenge.repository.TransfersHistory;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TransfersHistoryTest {
+
+    @Test
+    public void pagesFollowEachOtherAcrossChunks() {
+        TransfersHistory history = new TransfersHistory(true);
+        for (int i = 0; i < 5000; i++) {
+            history.recordTransfer("Id-1", "Id-" + (i + 2), BigDecimal.valueOf(i));
+        }
+
+        long cursor = 0;
+        int read = 0;
+        AccountHistoryPage page;
+        do {
+            page = history.getTransfers("Id-1", cursor, 333);
+            for (AccountHistoryEntry entry : page.getEntries()) {
+                assertThat(entry.getCounterpartyId()).isEqualTo("Id-" + (read + 2));
+                assertThat(entry.getAmount()).isEqualTo(BigDecimal.valueOf(read).negate());
+                read++;
+            }
+            cursor = page.getNext();
+        } while (!page.getEntries().isEmpty());
+
+        assertThat(read).isEqualTo(5000);
+        assertThat(cursor).isEqualTo(5000);
+        assertThat(history.getTransfers("Id-4001", 0, 10).getEntries())
+                .extracting(AccountHistoryEntry::getAmount).containsExactly(BigDecimal.valueOf(3999));
+    }
+
+    @Test
+    public void concurrentAppendsAreAllKept() throws InterruptedException {
+        TransfersHistory history = new TransfersHistory(true, 100_000, 1000, null);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            final String origin = "Origin-" + t;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 10_000; i++) {
+                    history.recordTransfer(origin, "Hot", BigDecimal.valueOf(i));
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        AccountHistoryPage page = history.getTransfers("Hot", 0, 100_000);
+        assertThat(page.getEntries()).hasSize(80_000);
+        assertThat(page.getNext()).isEqualTo(80_000);
+        Set<String> origins = new HashSet<>();
+        page.getEntries().forEach(entry -> origins.add(entry.getCounterpartyId()));
+        assertThat(origins).hasSize(8);
+    }
+
+    @Test
+    public void queuedTransfersAreAppendedByTheWriter() throws InterruptedException {
+        TransfersHistory history = new TransfersHistory(true);
+        history.start();
+        try {
+            for (int i = 0; i < 1000; i++) {
+                history.recordTransfer("Id-1", "Id-2", BigDecimal.valueOf(i));
+            }
+            history.awaitRecorded();
+
+            assertThat(history.countTransfers("Id-1")).isEqualTo(1000);
+            assertThat(history.getTransfers("Id-2", 999, 10).getEntries())
+                    .extracting(AccountHistoryEntry::getAmount).containsExactly(BigDecimal.valueOf(999));
+        } finally {
+            history.shutdown();
+        }
+    }
+
+    @Test
+    public void onlyTheLastEntriesAreKept() {
+        TransfersHistory history = new TransfersHistory(true, 5000, 1000, null);
+        for (int i = 0; i < 50_000; i++) {
+            history.recordTransfer("Id-1", "Id-2", BigDecimal.valueOf(i));
+        }
+
+        // A page from a dropped cursor starts at the oldest entry kept
+        AccountHistoryPage first = history.getTransfers("Id-1", 0, 10);
+        long oldest = first.getNext() - first.getEntries().size();
+        assertThat(oldest).isBetween(50_000L - 5000 - 4096, 50_000L - 5000);
+        assertThat(first.getEntries().get(0).getAmount()).isEqualTo(BigDecimal.valueOf(oldest).negate());
+
+        AccountHistoryPage rest = history.getTransfers("Id-1", oldest, 100_000);
+        assertThat(rest.getEntries()).hasSize((int) (50_000 - oldest));
+        assertThat(rest.getNext()).isEqualTo(50_000);
+        assertThat(history.countTransfers("Id-1")).isEqualTo(50_000);
+    }
+
+    @Test
+    public void transfersOverTheQueueCapacityAreDropped() throws InterruptedException {
+        TransfersHistory history = new TransfersHistory(true, 100_000, 10, null);
+        history.start();
+        try {
+            for (int i = 0; i < 10_000; i++) {
+                history.recordTransfer("Id-1", "Id-2", BigDecimal.valueOf(i));
+            }
+            history.awaitRecorded();
+
+            assertThat(history.countTransfers("Id-1") + history.countDropped()).isEqualTo(10_000);
+        } finally {
+            history.shutdown();
+        }
+    }
+
+    @Test
+    public void nothingIsKeptWhenDisabled() {
+        TransfersHistory history = new TransfersHistory(false);
+        history.recordTransfer("Id-1", "Id-2", BigDecimal.ONE);
+
+        assertThat(history.getTransfers("Id-1", 0, 10).getEntries()).isEmpty();
+    }
+}
@@ -0,0 +1,62 @@
+package com.db.awmd.challenge;
+
+import com.db.awmd.challenge.domain.Transfer;
+import com.db.awmd.challenge.domain.TransferResult;
+import com.db.awmd.challenge.exception.JournalException;
+import com.db.awmd.challenge.service.TransfersIdempotencyCache;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+public class TransfersIdempotencyCacheTest {
+
+    private final TransfersIdempotencyCache cache = new TransfersIdempotencyCache(1000, 60, new SimpleMeterRegistry());
+    private final Transfer transfer = new Transfer("Id-101", "Id-102", BigDecimal.ONE);
+    private final AtomicInteger made = new AtomicInteger();
+
+    @Test
+    public void transferNotAppliedCanBeRetried() {
+        try {
+            cache.makeTransferOnce("key", transfer, refused -> {
+                made.incrementAndGet();
+                throw new JournalException("Journal is not open", null);
+            });
+            fail("Should have thrown the error of the transfer.");
+        } catch (JournalException e) {
+            assertThat(e.getMessage()).isEqualTo("Journal is not open");
+        }
+
+        CompletableFuture<TransferResult> retry = cache.makeTransferOnce("key", transfer, retried -> {
+            made.incrementAndGet();
+            return CompletableFuture.completedFuture(TransferResult.completed());
+        });
+
+        assertThat(retry.join()).isEqualTo(TransferResult.completed());
+        assertThat(made.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void failureOfAnAppliedTransferIsKept() {
+        CompletableFuture<TransferResult> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new JournalException("Error writing journal", null));
+        CompletableFuture<TransferResult> first = cache.makeTransferOnce("key", transfer, applied -> {
+            made.incrementAndGet();
+            return failed;
+        });
+
+        CompletableFuture<TransferResult> retry = cache.makeTransferOnce("key", transfer, retried -> {
+            made.incrementAndGet();
+            return CompletableFuture.completedFuture(TransferResult.completed());
+        });
+
+        assertThat(first.isCompletedExceptionally()).isTrue();
+        assertThat(retry).isSameAs(first);
+        assertThat(made.get()).isEqualTo(1);
+    }
+}
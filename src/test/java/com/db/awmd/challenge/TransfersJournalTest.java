@@ -0,0 +1,296 @@
+package com.db.awmd.challenge;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.Transfer;
+import com.db.awmd.challenge.exception.JournalException;
+import com.db.awmd.challenge.repository.TransfersJournal;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+public class TransfersJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File directory;
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = folder.newFolder("journal");
+    }
+
+    @Test
+    public void recordsAreReplayedInOrder() throws Exception {
+        for (String fsync : new String[]{"always", "group", "never"}) {
+            File segments = new File(directory, fsync);
+            TransfersJournal journal = journal(segments, fsync);
+            journal.replay(new RecordingListener());
+            List<CompletableFuture<Void>> durable = new ArrayList<>();
+            durable.add(journal.appendAccountCreated(new Account("Id-101", new BigDecimal("100.50"))));
+            durable.add(journal.appendAccountCreated(new Account("Id-102", BigDecimal.ZERO)));
+            for (int i = 0; i < 100; i++) {
+                durable.add(journal.appendTransfer(new Transfer("Id-101", "Id-102", new BigDecimal("0.25")), 0));
+            }
+            CompletableFuture.allOf(durable.toArray(new CompletableFuture[0])).join();
+            journal.shutdown();
+
+            RecordingListener listener = new RecordingListener();
+            TransfersJournal reopened = journal(segments, fsync);
+            reopened.replay(listener);
+            reopened.shutdown();
+
+            assertThat(listener.records).hasSize(102);
+            assertThat(listener.records.get(0)).isEqualTo("created Id-101 100.50");
+            assertThat(listener.records.get(1)).isEqualTo("created Id-102 0");
+            assertThat(listener.records.get(101)).isEqualTo("transfer Id-101 Id-102 0.25");
+        }
+    }
+
+    @Test
+    public void tornRecordAtTheEndIsIgnored() throws Exception {
+        TransfersJournal journal = journal(directory, "always");
+        journal.replay(new RecordingListener());
+        journal.appendAccountCreated(new Account("Id-101", BigDecimal.TEN)).join();
+        journal.appendTransfer(new Transfer("Id-101", "Id-102", BigDecimal.ONE), 0).join();
+        journal.shutdown();
+
+        File[] segments = directory.listFiles();
+        assertThat(segments).hasSize(1);
+        try (RandomAccessFile file = new RandomAccessFile(segments[0], "rw")) {
+            file.setLength(file.length() - 3);
+        }
+
+        RecordingListener listener = new RecordingListener();
+        TransfersJournal reopened = journal(directory, "always");
+        reopened.replay(listener);
+        reopened.shutdown();
+
+        assertThat(listener.records).containsExactly("created Id-101 10");
+    }
+
+    @Test
+    public void transfersJournaledTogetherAreReplayedWholeOrNotAtAll() throws Exception {
+        TransfersJournal journal = journal(directory, "always");
+        journal.replay(new RecordingListener());
+        journal.appendAccountCreated(new Account("Id-101", BigDecimal.TEN)).join();
+        journal.appendTransfers(Arrays.asList(new Transfer("Id-101", "Id-102", BigDecimal.ONE),
+                new Transfer("Id-101", "Id-103", new BigDecimal("2.5"))), 0).join();
+        journal.appendTransfers(Arrays.asList(new Transfer("Id-102", "Id-101", BigDecimal.ONE),
+                new Transfer("Id-103", "Id-101", BigDecimal.ONE)), 0).join();
+        journal.shutdown();
+
+        File[] segments = directory.listFiles();
+        try (RandomAccessFile file = new RandomAccessFile(segments[0], "rw")) {
+            file.setLength(file.length() - 3);
+        }
+
+        RecordingListener listener = new RecordingListener();
+        TransfersJournal reopened = journal(directory, "always");
+        reopened.replay(listener);
+        reopened.shutdown();
+
+        // The torn record loses both of its transfers
+        assertThat(listener.records).containsExactly("created Id-101 10",
+                "transfer Id-101 Id-102 1", "transfer Id-101 Id-103 2.5");
+    }
+
+    @Test
+    public void journalStopsAfterAWriteError() throws Exception {
+        FailingJournal journal = new FailingJournal(directory);
+        journal.replay(new RecordingListener());
+        journal.appendAccountCreated(new Account("Id-101", BigDecimal.TEN)).join();
+
+        journal.failing = true;
+        try {
+            journal.appendTransfer(new Transfer("Id-101", "Id-102", BigDecimal.ONE), 0).join();
+            fail("Should have failed when the journal cannot write the record.");
+        } catch (CompletionException e) {
+            assertThat(e.getCause()).isInstanceOf(JournalException.class);
+        }
+        // Refused right away, so that the caller reverts the transfer
+        journal.failing = false;
+        try {
+            journal.appendTransfer(new Transfer("Id-101", "Id-103", BigDecimal.ONE), 0);
+            fail("Should have refused the record after the write error.");
+        } catch (JournalException e) {
+            assertThat(e.getMessage()).isEqualTo("Journal is not open");
+        }
+        journal.shutdown();
+
+        RecordingListener listener = new RecordingListener();
+        TransfersJournal reopened = journal(directory, "always");
+        reopened.replay(listener);
+        reopened.appendTransfer(new Transfer("Id-101", "Id-104", BigDecimal.ONE), 0).join();
+        reopened.shutdown();
+        assertThat(listener.records).containsExactly("created Id-101 10");
+
+        listener = new RecordingListener();
+        reopened = journal(directory, "always");
+        reopened.replay(listener);
+        reopened.shutdown();
+        assertThat(listener.records).containsExactly("created Id-101 10", "transfer Id-101 Id-104 1");
+    }
+
+    @Test
+    public void disabledJournalCompletesImmediately() {
+        TransfersJournal journal = new TransfersJournal(false, directory.getPath(), "group", 1024, 2000);
+        assertThat(journal.appendTransfer(new Transfer("Id-101", "Id-102", BigDecimal.ONE), 0).isDone()).isTrue();
+    }
+
+    private TransfersJournal journal(File segments, String fsync) {
+        return new TransfersJournal(true, segments.getPath(), fsync, 16, 1000);
+    }
+
+    /**
+     * Writes half of the bytes and then fails, leaving a torn frame, while {@code failing} is set.
+     */
+    private static class FailingJournal extends TransfersJournal {
+        private volatile boolean failing;
+
+        FailingJournal(File segments) {
+            super(true, segments.getPath(), "always", 16, 1000);
+        }
+
+        @Override
+        protected FileChannel openChannel(Path segment) throws IOException {
+            return new FailingChannel(super.openChannel(segment));
+        }
+
+        private class FailingChannel extends FileChannel {
+            private final FileChannel channel;
+
+            FailingChannel(FileChannel channel) {
+                this.channel = channel;
+            }
+
+            @Override
+            public int write(ByteBuffer source) throws IOException {
+                if (!failing) return channel.write(source);
+                ByteBuffer half = source.duplicate();
+                half.limit(half.position() + half.remaining() / 2);
+                channel.write(half);
+                throw new IOException("No space left on device");
+            }
+
+            @Override
+            public long write(ByteBuffer[] sources, int offset, int length) throws IOException {
+                if (failing) throw new IOException("No space left on device");
+                return channel.write(sources, offset, length);
+            }
+
+            @Override
+            public int write(ByteBuffer source, long position) throws IOException {
+                if (failing) throw new IOException("No space left on device");
+                return channel.write(source, position);
+            }
+
+            @Override
+            public void force(boolean metaData) throws IOException {
+                channel.force(metaData);
+            }
+
+            @Override
+            public int read(ByteBuffer destination) throws IOException {
+                return channel.read(destination);
+            }
+
+            @Override
+            public long read(ByteBuffer[] destinations, int offset, int length) throws IOException {
+                return channel.read(destinations, offset, length);
+            }
+
+            @Override
+            public int read(ByteBuffer destination, long position) throws IOException {
+                return channel.read(destination, position);
+            }
+
+            @Override
+            public long position() throws IOException {
+                return channel.position();
+            }
+
+            @Override
+            public FileChannel position(long position) throws IOException {
+                channel.position(position);
+                return this;
+            }
+
+            @Override
+            public long size() throws IOException {
+                return channel.size();
+            }
+
+            @Override
+            public FileChannel truncate(long size) throws IOException {
+                channel.truncate(size);
+                return this;
+            }
+
+            @Override
+            public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+                return channel.transferTo(position, count, target);
+            }
+
+            @Override
+            public long transferFrom(ReadableByteChannel source, long position, long count) throws IOException {
+                return channel.transferFrom(source, position, count);
+            }
+
+            @Override
+            public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException {
+                return channel.map(mode, position, size);
+            }
+
+            @Override
+            public FileLock lock(long position, long size, boolean shared) throws IOException {
+                return channel.lock(position, size, shared);
+            }
+
+            @Override
+            public FileLock tryLock(long position, long size, boolean shared) throws IOException {
+                return channel.tryLock(position, size, shared);
+            }
+
+            @Override
+            protected void implCloseChannel() throws IOException {
+                channel.close();
+            }
+        }
+    }
+
+    private static class RecordingListener implements TransfersJournal.Listener {
+        private final List<String> records = new ArrayList<>();
+
+        @Override
+        public void onAccountCreated(String accountId, BigDecimal balance) {
+            records.add("created " + accountId + " " + balance);
+        }
+
+        @Override
+        public void onTransfer(String accountFromId, String accountToId, BigDecimal amount) {
+            records.add("transfer " + accountFromId + " " + accountToId + " " + amount);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.db.awmd.challenge;
+
+import com.db.awmd.challenge.domain.Transfer;
+import com.db.awmd.challenge.exception.InvalidTransferException;
+import com.db.awmd.challenge.service.AccountsLockTable;
+import com.db.awmd.challenge.service.TransfersRateLimiter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+public class TransfersRateLimiterTest {
+
+    @Test
+    public void accountIsRefusedAfterItsBurst() {
+        TransfersRateLimiter limiter = limiter(1, 3, 1000, 1000, 0, new AccountsLockTable(16));
+
+        for (int i = 0; i < 3; i++) {
+            assertThat(limiter.tryAcquire("Id-1")).isZero();
+        }
+        assertThat(limiter.tryAcquire("Id-1")).isBetween(TimeUnit.MILLISECONDS.toNanos(900), TimeUnit.SECONDS.toNanos(1));
+        assertThat(limiter.tryAcquire("Id-2")).isZero();
+    }
+
+    @Test
+    public void globalLimitAppliesToAllAccounts() {
+        TransfersRateLimiter limiter = limiter(1000, 1000, 1, 2, 0, new AccountsLockTable(16));
+
+        assertThat(limiter.tryAcquire("Id-1")).isZero();
+        assertThat(limiter.tryAcquire("Id-2")).isZero();
+        assertThat(limiter.tryAcquire("Id-3")).isPositive();
+        assertThat(limiter.tryAcquire(Arrays.asList(new Transfer("Id-4", "Id-5", BigDecimal.ONE)))).isPositive();
+    }
+
+    @Test
+    public void refusedTransfersTakeNoToken() throws InterruptedException {
+        TransfersRateLimiter limiter = limiter(1, 1, 10, 2, 0, new AccountsLockTable(16));
+        assertThat(limiter.tryAcquire("Id-2")).isZero();
+
+        // Refused by the account of its second transfer, then by the global limit
+        assertThat(limiter.tryAcquire(Arrays.asList(new Transfer("Id-1", "Id-9", BigDecimal.ONE),
+                new Transfer("Id-2", "Id-9", BigDecimal.ONE)))).isPositive();
+        assertThat(limiter.tryAcquire("Id-3")).isZero();
+        assertThat(limiter.tryAcquire("Id-1")).isPositive();
+
+        Thread.sleep(150);
+        assertThat(limiter.tryAcquire("Id-1")).isZero();
+    }
+
+    @Test
+    public void batchOverTheBurstsIsInvalid() {
+        TransfersRateLimiter limiter = limiter(1, 2, 1000, 4, 0, new AccountsLockTable(16));
+        Transfer fromFirst = new Transfer("Id-1", "Id-9", BigDecimal.ONE);
+        Transfer fromSecond = new Transfer("Id-2", "Id-9", BigDecimal.ONE);
+
+        try {
+            limiter.tryAcquire(Arrays.asList(fromFirst, fromSecond, fromFirst, fromFirst));
+            fail("Should have refused a batch that its account can never admit.");
+        } catch (InvalidTransferException e) {
+            assertThat(e.getMessage()).isEqualTo("Batch has more transfers from account Id-1 than the rate limit burst of 2");
+        }
+        try {
+            limiter.tryAcquire(Arrays.asList(fromFirst, fromSecond, fromFirst, fromSecond,
+                    new Transfer("Id-3", "Id-9", BigDecimal.ONE)));
+            fail("Should have refused a batch that the global limit can never admit.");
+        } catch (InvalidTransferException e) {
+            assertThat(e.getMessage()).isEqualTo("Batch has more transfers than the global rate limit burst of 4");
+        }
+        // The null transfers are rejected when the batch is made
+        assertThat(limiter.tryAcquire(Arrays.asList(fromFirst, null, fromFirst, null, fromSecond))).isZero();
+    }
+
+    @Test
+    public void accountCostsMoreWhileLockWaitsAreOverTheThreshold() throws InterruptedException {
+        AccountsLockTable accountsLockTable = new AccountsLockTable(1);
+        TransfersRateLimiter limiter = limiter(1, 4, 1000, 1000, 10, accountsLockTable);
+
+        accountsLockTable.lock(0);
+        Thread waiter = new Thread(() -> {
+            accountsLockTable.lock(0);
+            accountsLockTable.unlock(0);
+        });
+        waiter.start();
+        Thread.sleep(200);
+        accountsLockTable.unlock(0);
+        waiter.join();
+
+        // The average wait is now above twice the threshold, so each transfer costs more than half the burst
+        assertThat(limiter.tryAcquire("Id-1")).isZero();
+        assertThat(limiter.tryAcquire("Id-1")).isPositive();
+    }
+
+    @Test
+    public void everyTransferIsAdmittedWhenDisabled() {
+        TransfersRateLimiter limiter = new TransfersRateLimiter(false, 1, 1, 1, 1, 16, 0,
+                new AccountsLockTable(16), new SimpleMeterRegistry());
+
+        for (int i = 0; i < 10; i++) {
+            assertThat(limiter.tryAcquire("Id-1")).isZero();
+        }
+    }
+
+    private static TransfersRateLimiter limiter(double accountRate, int accountBurst, double globalRate, int globalBurst,
+                                                long lockWaitThresholdMillis, AccountsLockTable accountsLockTable) {
+        return new TransfersRateLimiter(true, accountRate, accountBurst, globalRate, globalBurst, 16,
+                lockWaitThresholdMillis, accountsLockTable, new SimpleMeterRegistry());
+    }
+}
@@ -0,0 +1,119 @@
+package com.db.awmd.challenge;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.ScheduledTransfer;
+import com.db.awmd.challenge.domain.Transfer;
+import com.db.awmd.challenge.domain.TransferResult;
+import com.db.awmd.challenge.exception.AccountNotFoundException;
+import com.db.awmd.challenge.repository.AccountsRepository;
+import com.db.awmd.challenge.repository.AccountsRepositoryInMemory;
+import com.db.awmd.challenge.repository.ScheduledTransfersLog;
+import com.db.awmd.challenge.service.TransfersScheduler;
+import com.db.awmd.challenge.service.TransfersService;
+import com.db.awmd.challenge.service.TransfersValidations;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyList;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class TransfersSchedulerTest {
+
+    private static final long TICK_MILLIS = 10;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final AccountsRepository accountsRepository = new AccountsRepositoryInMemory();
+    private final TransfersService transfersService = mock(TransfersService.class);
+    private final List<Transfer> made = Collections.synchronizedList(new ArrayList<>());
+
+    @Before
+    public void prepare() {
+        accountsRepository.createAccount(new Account("Id-101", BigDecimal.valueOf(100)));
+        accountsRepository.createAccount(new Account("Id-102"));
+        when(transfersService.makeTransfers(anyList(), eq(false))).thenAnswer(invocation -> {
+            @SuppressWarnings("unchecked") List<Transfer> batch = (List<Transfer>) invocation.getArguments()[0];
+            made.addAll(batch);
+            return Collections.nCopies(batch.size(), TransferResult.completed());
+        });
+    }
+
+    @Test
+    public void dueTransfersAreMadeUnlessCancelled() throws Exception {
+        TransfersScheduler scheduler = scheduler(false);
+        long now = System.currentTimeMillis();
+        List<ScheduledTransfer> scheduled = scheduler.scheduleAll(Arrays.asList(
+                transfer(BigDecimal.ONE, now + 50), transfer(BigDecimal.TEN, now + 50), transfer(BigDecimal.ONE, now + 60_000)));
+        assertThat(scheduled).extracting(ScheduledTransfer::getId).containsExactly(0L, 1L, 2L);
+
+        assertThat(scheduler.cancel(1)).isTrue();
+        verify(transfersService, timeout(2000)).makeTransfers(anyList(), eq(false));
+        assertThat(made).containsExactly(new Transfer("Id-101", "Id-102", BigDecimal.ONE));
+        assertThat(scheduler.countPending()).isEqualTo(1);
+        assertThat(scheduler.cancel(0)).isFalse();
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void invalidTransferIsNotScheduled() throws Exception {
+        TransfersScheduler scheduler = scheduler(false);
+        try {
+            scheduler.schedule(new ScheduledTransfer(null, "Id-101", "Id-999", BigDecimal.ONE, System.currentTimeMillis()));
+            fail("Should have failed when scheduling a transfer to a non-existing account");
+        } catch (AccountNotFoundException anfe) {
+            assertThat(anfe.getMessage()).isEqualTo("Account not found: Id-999");
+        }
+        assertThat(scheduler.countPending()).isZero();
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void pendingTransfersSurviveARestart() throws Exception {
+        TransfersScheduler scheduler = scheduler(true);
+        long later = System.currentTimeMillis() + 60_000;
+        for (int i = 0; i < 100; i++) {
+            scheduler.schedule(transfer(BigDecimal.valueOf(i + 1), later));
+        }
+        scheduler.cancel(5);
+        scheduler.shutdown();
+
+        TransfersScheduler restarted = scheduler(true);
+        assertThat(restarted.countPending()).isEqualTo(99);
+        assertThat(restarted.cancel(5)).isFalse();
+        assertThat(restarted.cancel(6)).isTrue();
+        assertThat(restarted.schedule(transfer(BigDecimal.ONE, System.currentTimeMillis())).getId()).isEqualTo(100L);
+        verify(transfersService, timeout(2000)).makeTransfers(Collections.singletonList(
+                new Transfer("Id-101", "Id-102", BigDecimal.ONE)), false);
+        restarted.shutdown();
+
+        assertThat(scheduler(true).countPending()).isEqualTo(98);
+    }
+
+    private TransfersScheduler scheduler(boolean persistent) throws Exception {
+        ScheduledTransfersLog log = new ScheduledTransfersLog(persistent, folder.getRoot().getPath());
+        TransfersScheduler scheduler = new TransfersScheduler(transfersService, accountsRepository,
+                new TransfersValidations(), log, new SimpleMeterRegistry(), TICK_MILLIS, 100, 1 << 20);
+        scheduler.start();
+        return scheduler;
+    }
+
+    private static ScheduledTransfer transfer(BigDecimal amount, long executeAt) {
+        return new ScheduledTransfer(null, "Id-101", "Id-102", amount, executeAt);
+    }
+}
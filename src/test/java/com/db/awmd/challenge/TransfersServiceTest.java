@@ -1,7 +1,11 @@
 package com.db.awmd.challenge;
 
 import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.MultiLegTransfer;
 import com.db.awmd.challenge.domain.Transfer;
+import com.db.awmd.challenge.domain.TransferLeg;
+import com.db.awmd.challenge.domain.TransferResult;
+import com.db.awmd.challenge.domain.TransferStatus;
 import com.db.awmd.challenge.exception.InsufficientBalanceException;
 import com.db.awmd.challenge.repository.AccountsRepository;
 import com.db.awmd.challenge.service.NotificationService;
@@ -17,10 +21,12 @@ import org.springframework.test.context.junit4.SpringRunner;
 
 import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import static org.junit.Assert.fail;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
@@ -70,8 +76,24 @@ public class TransfersServiceTest {
         BigDecimal balanceAccount2 = accountsRepository.getAccount(accountId2).getBalance();
         assertThat(balanceAccount2).isEqualTo(initialBalanceAccount2.add(transferAmount));
 
-        verify(notificationService, times(1)).notifyAboutTransfer(account1, "New transfer to account: " + account2.getAccountId() + ", amount: " + transfer.getAmount());
-        verify(notificationService, times(1)).notifyAboutTransfer(account2, "New transfer from account: " + account1.getAccountId() + ", amount: " + transfer.getAmount());
+        verify(notificationService, timeout(1000).times(1)).notifyAboutTransfer(account1, "New transfer to account: " + account2.getAccountId() + ", amount: " + transfer.getAmount());
+        verify(notificationService, timeout(1000).times(1)).notifyAboutTransfer(account2, "New transfer from account: " + account1.getAccountId() + ", amount: " + transfer.getAmount());
+    }
+
+    @Test
+    public void makeAsyncTransfersReturnTheirResult() {
+        Transfer transfer = new Transfer(accountId1, accountId2, BigDecimal.valueOf(100));
+
+        TransferResult completed = transfersService.makeTransferAsync(transfer).join();
+        TransferResult rejected = transfersService.makeTransferAsync(transfer).join();
+
+        assertThat(completed.getStatus()).isEqualTo(TransferStatus.COMPLETED);
+        assertThat(rejected.getStatus()).isEqualTo(TransferStatus.REJECTED);
+        assertThat(rejected.getMessage()).isEqualTo("Insufficient balance in account: " + accountId1);
+        assertThat(accountsRepository.getAccount(accountId1).getBalance()).isEqualTo(BigDecimal.valueOf(20));
+        assertThat(accountsRepository.getAccount(accountId2).getBalance()).isEqualTo(BigDecimal.valueOf(150));
+
+        verify(notificationService, timeout(1000).times(1)).notifyAboutTransfer(account1, "New transfer to account: " + account2.getAccountId() + ", amount: " + transfer.getAmount());
     }
 
     @Test
@@ -178,6 +200,94 @@ public class TransfersServiceTest {
 
     }
 
+    @Test
+    public void makeBatchOfTransfers() {
+        Transfer transfer1 = new Transfer(accountId1, accountId2, BigDecimal.valueOf(100));
+        Transfer transfer2 = new Transfer(accountId1, accountId2, BigDecimal.valueOf(100));
+        Transfer transfer3 = new Transfer(accountId2, "Id-999", BigDecimal.ONE);
+        Transfer transfer4 = new Transfer(accountId2, accountId1, BigDecimal.valueOf(30));
+
+        List<TransferResult> results = transfersService.makeTransfers(
+                Arrays.asList(transfer1, transfer2, transfer3, transfer4), false);
+
+        assertThat(results).extracting(TransferResult::getStatus).containsExactly(
+                TransferStatus.COMPLETED, TransferStatus.REJECTED, TransferStatus.REJECTED, TransferStatus.COMPLETED);
+        assertThat(results.get(1).getMessage()).isEqualTo("Insufficient balance in account: " + accountId1);
+        assertThat(results.get(2).getMessage()).isEqualTo("Account not found: Id-999");
+
+        assertThat(accountsRepository.getAccount(accountId1).getBalance()).isEqualByComparingTo(BigDecimal.valueOf(50));
+        assertThat(accountsRepository.getAccount(accountId2).getBalance()).isEqualByComparingTo(BigDecimal.valueOf(120));
+
+        verify(notificationService, timeout(1000).times(1)).notifyAboutTransfer(account2, "New transfer from account: " + accountId1 + ", amount: 100");
+    }
+
+    @Test
+    public void makeAtomicBatchOfTransfersIsRevertedOnFailure() {
+        Transfer transfer1 = new Transfer(accountId1, accountId2, BigDecimal.valueOf(100));
+        Transfer transfer2 = new Transfer(accountId2, accountId1, BigDecimal.valueOf(10));
+        Transfer transfer3 = new Transfer(accountId1, accountId2, BigDecimal.valueOf(100));
+
+        List<TransferResult> results = transfersService.makeTransfers(
+                Arrays.asList(transfer1, transfer2, transfer3), true);
+
+        assertThat(results).extracting(TransferResult::getStatus).containsExactly(
+                TransferStatus.ABORTED, TransferStatus.ABORTED, TransferStatus.REJECTED);
+
+        assertThat(accountsRepository.getAccount(accountId1).getBalance()).isEqualByComparingTo(initialBalanceAccount1);
+        assertThat(accountsRepository.getAccount(accountId2).getBalance()).isEqualByComparingTo(initialBalanceAccount2);
+    }
+
+    @Test
+    public void makeAtomicBatchOfTransfers() {
+        Transfer transfer1 = new Transfer(accountId1, accountId2, BigDecimal.valueOf(100));
+        Transfer transfer2 = new Transfer(accountId2, accountId1, BigDecimal.valueOf(150));
+
+        List<TransferResult> results = transfersService.makeTransfers(Arrays.asList(transfer1, transfer2), true);
+
+        assertThat(results).extracting(TransferResult::getStatus).containsOnly(TransferStatus.COMPLETED);
+        assertThat(accountsRepository.getAccount(accountId1).getBalance()).isEqualByComparingTo(BigDecimal.valueOf(170));
+        assertThat(accountsRepository.getAccount(accountId2).getBalance()).isEqualByComparingTo(BigDecimal.ZERO);
+    }
+
+    @Test
+    public void makeMultiLegTransfer() {
+        accountsRepository.createAccount(new Account("Id-103"));
+        accountsRepository.createAccount(new Account("Id-104"));
+        MultiLegTransfer transfer = new MultiLegTransfer(Arrays.asList(
+                new TransferLeg(accountId1, TransferLeg.Side.DEBIT, BigDecimal.valueOf(100)),
+                new TransferLeg(accountId2, TransferLeg.Side.CREDIT, BigDecimal.valueOf(90)),
+                new TransferLeg("Id-103", TransferLeg.Side.CREDIT, BigDecimal.valueOf(8)),
+                new TransferLeg("Id-104", TransferLeg.Side.CREDIT, BigDecimal.valueOf(2))));
+
+        transfersService.makeMultiLegTransfer(transfer);
+
+        assertThat(accountsRepository.getAccount(accountId1).getBalance()).isEqualByComparingTo(BigDecimal.valueOf(20));
+        assertThat(accountsRepository.getAccount(accountId2).getBalance()).isEqualByComparingTo(BigDecimal.valueOf(140));
+        assertThat(accountsRepository.getAccount("Id-103").getBalance()).isEqualByComparingTo(BigDecimal.valueOf(8));
+        assertThat(accountsRepository.getAccount("Id-104").getBalance()).isEqualByComparingTo(BigDecimal.valueOf(2));
+
+        verify(notificationService, timeout(1000).times(1)).notifyAboutTransfer(account2, "New transfer from account: " + accountId1 + ", amount: 90");
+        verify(notificationService, timeout(1000).times(1)).notifyAboutTransfer(
+                accountsRepository.getAccount("Id-104"), "New transfer from account: " + accountId1 + ", amount: 2");
+    }
+
+    @Test
+    public void makeMultiLegTransferAppliesNoLegWhenOneDebitIsNotCovered() {
+        accountsRepository.createAccount(new Account("Id-103"));
+        MultiLegTransfer transfer = new MultiLegTransfer(Arrays.asList(
+                new TransferLeg(accountId1, TransferLeg.Side.DEBIT, BigDecimal.valueOf(100)),
+                new TransferLeg(accountId2, TransferLeg.Side.DEBIT, BigDecimal.valueOf(60)),
+                new TransferLeg("Id-103", TransferLeg.Side.CREDIT, BigDecimal.valueOf(160))));
 
+        try {
+            transfersService.makeMultiLegTransfer(transfer);
+            fail("Should have failed when one debited account does not have enough balance.");
+        } catch (InsufficientBalanceException ibe) {
+            assertThat(ibe.getMessage()).isEqualTo("Insufficient balance in account: " + accountId2);
+        }
 
+        assertThat(accountsRepository.getAccount(accountId1).getBalance()).isEqualByComparingTo(initialBalanceAccount1);
+        assertThat(accountsRepository.getAccount(accountId2).getBalance()).isEqualByComparingTo(initialBalanceAccount2);
+        assertThat(accountsRepository.getAccount("Id-103").getBalance()).isEqualByComparingTo(BigDecimal.ZERO);
+    }
 }
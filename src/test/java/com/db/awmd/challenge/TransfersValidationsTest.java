@@ -1,7 +1,11 @@
 package com.db.awmd.challenge;
 
 import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.MultiLegTransfer;
 import com.db.awmd.challenge.domain.Transfer;
+import com.db.awmd.challenge.domain.TransferLeg;
+import com.db.awmd.challenge.domain.TransferRejection;
+import com.db.awmd.challenge.domain.TransferResult;
 import com.db.awmd.challenge.exception.AccountNotFoundException;
 import com.db.awmd.challenge.exception.InsufficientBalanceException;
 import com.db.awmd.challenge.exception.InvalidTransferException;
@@ -13,6 +17,7 @@ import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.test.context.junit4.SpringRunner;
 
 import java.math.BigDecimal;
+import java.util.Arrays;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.Assert.fail;
@@ -109,4 +114,47 @@ public class TransfersValidationsTest {
     }
 
 
+
+    @Test
+    public void checksReturnTheRejectionOfTheCheapestFailedRule() {
+        Transfer negativeToUnknownAccount = new Transfer(accountFromId, accountToId, BigDecimal.valueOf(-5));
+        assertThat(this.transfersValidations.checkTransfer(null, null, negativeToUnknownAccount))
+                .isEqualTo(TransferRejection.NEGATIVE_AMOUNT);
+
+        Account accountFrom = new Account(accountFromId, BigDecimal.valueOf(10));
+        Account accountTo = new Account(accountToId);
+        Transfer transfer = new Transfer(accountFromId, accountToId, BigDecimal.valueOf(12));
+        assertThat(this.transfersValidations.checkTransfer(accountFrom, accountTo, transfer)).isNull();
+        assertThat(this.transfersValidations.checkEnoughBalance(transfer, accountFrom))
+                .isEqualTo(TransferRejection.INSUFFICIENT_BALANCE);
+        assertThat(TransferResult.rejected(TransferRejection.INSUFFICIENT_BALANCE, transfer))
+                .isEqualTo(TransferResult.rejected("Insufficient balance in account: " + accountFromId));
+    }
+
+    @Test
+    public void validateDebitsEqualCredits() {
+        MultiLegTransfer transfer = new MultiLegTransfer(Arrays.asList(
+                new TransferLeg(accountFromId, TransferLeg.Side.DEBIT, BigDecimal.valueOf(10)),
+                new TransferLeg(accountToId, TransferLeg.Side.CREDIT, BigDecimal.valueOf(9.5))));
+        try {
+            this.transfersValidations.validateLegs(transfer);
+            fail("Should have failed when the debits do not equal the credits");
+        } catch (InvalidTransferException ite) {
+            assertThat(ite.getMessage()).isEqualTo("Debits 10 do not equal credits 9.5");
+        }
+    }
+
+    @Test
+    public void validateAccountInOneLegOnly() {
+        MultiLegTransfer transfer = new MultiLegTransfer(Arrays.asList(
+                new TransferLeg(accountFromId, TransferLeg.Side.DEBIT, BigDecimal.valueOf(10)),
+                new TransferLeg(accountToId, TransferLeg.Side.CREDIT, BigDecimal.valueOf(5)),
+                new TransferLeg(accountFromId, TransferLeg.Side.CREDIT, BigDecimal.valueOf(5))));
+        try {
+            this.transfersValidations.validateLegs(transfer);
+            fail("Should have failed when an account is in two legs");
+        } catch (InvalidTransferException ite) {
+            assertThat(ite.getMessage()).isEqualTo("Account in more than one leg: " + accountFromId);
+        }
+    }
 }